@@ -35,6 +35,7 @@
 package org.knopflerfish.bundle.cm;
 
 import java.io.File;
+import java.util.StringTokenizer;
 
 import org.knopflerfish.service.log.LogRef;
 import org.osgi.framework.BundleActivator;
@@ -53,6 +54,14 @@ public class Activator implements BundleActivator {
 
   private static final String DEFAULT_STORE_DIR = "cm_store";
 
+  private static final String STORE_TYPE_PROP = "org.knopflerfish.cm.store.type";
+
+  private static final String INDEX_KEYS_PROP = "org.knopflerfish.cm.index.keys";
+
+  private static final String DISPATCH_THREADS_PROP = "org.knopflerfish.cm.dispatch.threads";
+
+  private static final int DEFAULT_DISPATCH_THREADS = 4;
+
   static BundleContext bc;
 
   static LogRef log;
@@ -86,7 +95,9 @@ public class Activator implements BundleActivator {
 
   @SuppressWarnings("unchecked")
   private void createAndRegisterConfigurationAdminFactory() {
-    configAdminFactory = new ConfigurationAdminFactory(getStoreDir());
+    configAdminFactory =
+      new ConfigurationAdminFactory(getStoreDir(), getStoreType(), getIndexKeys(),
+                                    getDispatchThreads());
     serviceRegistration = (ServiceRegistration<ConfigurationAdmin>)
       bc.registerService(ConfigurationAdmin.class.getName(),
                          configAdminFactory, null);
@@ -113,4 +124,41 @@ public class Activator implements BundleActivator {
     return storeDir;
   }
 
+  private String getStoreType() {
+    String type = bc.getProperty(STORE_TYPE_PROP);
+    if (type == null || "".equals(type.trim())) {
+      return null;
+    }
+    return type.trim();
+  }
+
+  private String[] getIndexKeys() {
+    String keys = bc.getProperty(INDEX_KEYS_PROP);
+    if (keys == null || "".equals(keys.trim())) {
+      return null;
+    }
+    StringTokenizer st = new StringTokenizer(keys, ",");
+    String[] res = new String[st.countTokens()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = st.nextToken();
+    }
+    return res;
+  }
+
+  private int getDispatchThreads() {
+    String threads = bc.getProperty(DISPATCH_THREADS_PROP);
+    if (threads != null && !"".equals(threads.trim())) {
+      try {
+        int n = Integer.parseInt(threads.trim());
+        if (n > 0) {
+          return n;
+        }
+      } catch (NumberFormatException ignored) {
+      }
+      log.warn("[CM] Invalid value for " + DISPATCH_THREADS_PROP + ": "
+               + threads);
+    }
+    return DEFAULT_DISPATCH_THREADS;
+  }
+
 }
@@ -37,6 +37,7 @@ package org.knopflerfish.bundle.cm;
 import java.io.File;
 import java.io.IOException;
 import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
@@ -49,12 +50,16 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
 
+import org.knopflerfish.shared.cm.BatchConfigurationAdmin;
+import org.knopflerfish.shared.cm.DispatchStatistics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
@@ -105,6 +110,12 @@ class ConfigurationAdminFactory
 
   private final ListenerEventQueue listenerEventQueue;
 
+  private final DispatchExecutor dispatchExecutor;
+
+  private final QueueStatistics updateStatistics = new QueueStatistics();
+
+  private final QueueStatistics eventStatistics = new QueueStatistics();
+
   private ServiceReference<ConfigurationAdmin> serviceReference = null;
 
 
@@ -124,19 +135,32 @@ class ConfigurationAdminFactory
   }
 
   public ConfigurationAdminFactory(File storeDir)
+  {
+    this(storeDir, null, null, 2);
+  }
+
+  public ConfigurationAdminFactory(File storeDir,
+                                   String storeType,
+                                   String[] indexKeys,
+                                   int dispatchThreads)
   {
     storeDir.mkdirs();
     try {
-      this.store = new ConfigurationStore(storeDir);
+      this.store = ConfigurationStore.open(storeDir, storeType, indexKeys);
     } catch (final Exception e) {
       Activator.log.error("Error while initializing configurations store", e);
     }
 
     pluginManager = new PluginManager();
 
-    listenerEventQueue = new ListenerEventQueue(Activator.bc);
+    dispatchExecutor = new DispatchExecutor(dispatchThreads);
 
-    configurationDispatcher = new ConfigurationDispatcher(pluginManager);
+    listenerEventQueue =
+      new ListenerEventQueue(Activator.bc, dispatchExecutor, eventStatistics);
+
+    configurationDispatcher =
+      new ConfigurationDispatcher(pluginManager, dispatchExecutor,
+                                  updateStatistics);
 
     lookForExisitingBundleLocations();
 
@@ -159,6 +183,10 @@ class ConfigurationAdminFactory
   void stop()
   {
     listenerEventQueue.stop();
+    dispatchExecutor.stop();
+    if (store != null) {
+      store.close();
+    }
   }
 
   private ServiceReference<ConfigurationAdmin> getServiceReference()
@@ -215,6 +243,20 @@ class ConfigurationAdminFactory
   }
 
   private void postEvent(final ConfigurationEvent event) {
+    postEvents(Collections.singletonList(event));
+  }
+
+  // Send a number of configuration events, the asynchronous deliveries are
+  // queued together.
+  private void sendEvents(final List<ConfigurationEvent> events)
+  {
+    for (final ConfigurationEvent event : events) {
+      sendEventSync(event);
+    }
+    postEvents(events);
+  }
+
+  private void postEvents(final List<ConfigurationEvent> events) {
     Collection<ServiceReference<ConfigurationListener>> lReferences = null;
 
     try {
@@ -223,9 +265,13 @@ class ConfigurationAdminFactory
     } catch (final InvalidSyntaxException ignored) {
     }
 
-    for (final ServiceReference<ConfigurationListener> listenerRef : lReferences) {
-      listenerEventQueue.enqueue(new ListenerEvent(listenerRef, event));
+    final List<ListenerEvent> listenerEvents = new ArrayList<ListenerEvent>();
+    for (final ConfigurationEvent event : events) {
+      for (final ServiceReference<ConfigurationListener> listenerRef : lReferences) {
+        listenerEvents.add(new ListenerEvent(listenerRef, event));
+      }
     }
+    listenerEventQueue.enqueue(listenerEvents);
   }
 
   private <C> void lookForAlreadyRegisteredServices(Class<C> c)
@@ -943,6 +989,99 @@ class ConfigurationAdminFactory
     }
   }
 
+  /**
+   * Save new properties for a number of configurations using a single store
+   * commit, then dispatch updates and events for all of them. The
+   * configurations keep their previous properties only if storing fails.
+   *
+   * @param cs
+   *          The configurations to update.
+   * @param properties
+   *          The new properties, one entry for each configuration in
+   *          {@code cs}.
+   * @throws IOException
+   */
+  void updateAll(final List<ConfigurationImpl> cs,
+                 final List<Dictionary<String, ?>> properties)
+      throws IOException
+  {
+    final List<ConfigurationDictionary> olds =
+      new ArrayList<ConfigurationDictionary>(cs.size());
+    final List<ConfigurationDictionary> news =
+      new ArrayList<ConfigurationDictionary>(cs.size());
+    try {
+      for (int i = 0; i < cs.size(); i++) {
+        final ConfigurationImpl c = cs.get(i);
+        olds.add(c.prepareUpdate(properties.get(i)));
+        c.ensureAutoPropertiesAreWritten();
+        news.add(c.properties);
+      }
+      AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+        @Override
+        public Object run()
+            throws IOException
+        {
+          store.storeAll(news, true);
+          return null;
+        }
+      });
+    } catch (final PrivilegedActionException e) {
+      // Nothing has been stored
+      rollback(cs, olds);
+      final IOException ee = (IOException) e.getException();
+      // Android don't supply nested exception
+      if (ee != null) {
+        throw ee;
+      } else {
+        throw new IOException("Failed to handle persistent CM data");
+      }
+    } catch (final RuntimeException e) {
+      rollback(cs, olds);
+      throw e;
+    }
+
+    // The new properties are stored, keep them even if dispatching fails.
+    try {
+      AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+        @Override
+        public Object run()
+            throws IOException
+        {
+          for (final ConfigurationDictionary d : news) {
+            updateTargetServicesMatching(d);
+          }
+          return null;
+        }
+      });
+    } catch (final PrivilegedActionException e) {
+      final IOException ee = (IOException) e.getException();
+      // Android don't supply nested exception
+      if (ee != null) {
+        throw ee;
+      } else {
+        throw new IOException("Failed to handle persistent CM data");
+      }
+    } finally {
+      final List<ConfigurationEvent> events = new ArrayList<ConfigurationEvent>();
+      for (final ConfigurationImpl c : cs) {
+        final ConfigurationEvent event = c.createEvent(ConfigurationEvent.CM_UPDATED);
+        if (event != null) {
+          events.add(event);
+        }
+      }
+      sendEvents(events);
+    }
+  }
+
+  // Restore the properties of configurations prepared for an update.
+  private void rollback(final List<ConfigurationImpl> cs,
+                        final List<ConfigurationDictionary> olds)
+  {
+    for (int i = 0; i < olds.size(); i++) {
+      cs.get(i).properties = olds.get(i);
+    }
+  }
+
   String generatePid(final String factoryPid)
       throws IOException
   {
@@ -1031,6 +1170,18 @@ class ConfigurationAdminFactory
     }
   }
 
+  Set<String> findPids(final String filterString)
+  {
+    return AccessController
+        .doPrivileged(new PrivilegedAction<Set<String>>() {
+          @Override
+          public Set<String> run()
+          {
+            return store.findPids(filterString);
+          }
+        });
+  }
+
   Configuration[] listConfigurations(String filterString, Bundle callingBundle)
       throws IOException, InvalidSyntaxException
   {
@@ -1042,11 +1193,16 @@ class ConfigurationAdminFactory
                                      boolean activeOnly)
       throws IOException, InvalidSyntaxException
   {
-    final Enumeration<Object> configurationPids = store.listPids();
-    final Vector<ConfigurationImpl> matchingConfigurations =
-      new Vector<ConfigurationImpl>();
     final Filter filter =
       filterString == null ? null : Activator.bc.createFilter(filterString);
+    // Narrow down the PIDs to load using the index when possible
+    final Set<String> candidatePids =
+      filter == null ? null : findPids(filterString);
+    final Enumeration<?> configurationPids = candidatePids == null
+      ? store.listPids()
+      : Collections.enumeration(candidatePids);
+    final Vector<ConfigurationImpl> matchingConfigurations =
+      new Vector<ConfigurationImpl>();
     while (configurationPids.hasMoreElements()) {
       final String pid = (String) configurationPids.nextElement();
       ConfigurationDictionary d;
@@ -1373,6 +1529,32 @@ class ConfigurationAdminFactory
     @Override
     public void update(Dictionary<String, ?> properties)
         throws IOException
+    {
+      final ConfigurationDictionary old = prepareUpdate(properties);
+
+      try {
+        update(true, true);
+        ConfigurationAdminFactory.this
+            .sendEvent(createEvent(ConfigurationEvent.CM_UPDATED));
+      } catch (final IOException e) {
+        this.properties = old;
+        throw e;
+      } catch (final Exception e) {
+        Activator.log.error("Error while updating properties.", e);
+        this.properties = old;
+      }
+    }
+
+    /**
+     * Replace the properties of this configuration with a copy of the given
+     * ones, keeping the CM internal properties of the stored configuration.
+     * Nothing is saved.
+     *
+     * @param properties
+     *          The new properties.
+     * @return The previous properties.
+     */
+    ConfigurationDictionary prepareUpdate(Dictionary<String, ?> properties)
     {
       throwIfDeleted();
       ConfigurationDictionary.validateDictionary(properties);
@@ -1393,18 +1575,7 @@ class ConfigurationAdminFactory
       // Copy CM internal props from the old configuration dictionary
       copyChangeCountFrom(old);
       copyBundleLocationFrom(old); // TODO: THIS IS WRONG!!!
-
-      try {
-        update(true, true);
-        ConfigurationAdminFactory.this
-            .sendEvent(createEvent(ConfigurationEvent.CM_UPDATED));
-      } catch (final IOException e) {
-        this.properties = old;
-        throw e;
-      } catch (final Exception e) {
-        Activator.log.error("Error while updating properties.", e);
-        this.properties = old;
-      }
+      return old;
     }
 
     void copyBundleLocationFrom(ConfigurationDictionary old)
@@ -1472,7 +1643,7 @@ class ConfigurationAdminFactory
   // ConfigurationAdmin implementation
   // /////////////////////////////////////////////////////////////////////////
   class ConfigurationAdminImpl
-    implements ConfigurationAdmin
+    implements ConfigurationAdmin, BatchConfigurationAdmin, DispatchStatistics
   {
     private final Bundle callingBundle;
 
@@ -1660,6 +1831,37 @@ class ConfigurationAdminFactory
       return configurations;
     }
 
+    @Override
+    public void updateAll(Map<Configuration, Dictionary<String, ?>> updates)
+        throws IOException
+    {
+      final List<ConfigurationImpl> cs =
+        new ArrayList<ConfigurationImpl>(updates.size());
+      final List<Dictionary<String, ?>> properties =
+        new ArrayList<Dictionary<String, ?>>(updates.size());
+      for (final Entry<Configuration, Dictionary<String, ?>> entry : updates
+          .entrySet()) {
+        if (!(entry.getKey() instanceof ConfigurationImpl)) {
+          throw new IllegalArgumentException("Not a configuration from this "
+                                             + "configuration admin: "
+                                             + entry.getKey());
+        }
+        cs.add((ConfigurationImpl) entry.getKey());
+        properties.add(entry.getValue());
+      }
+      ConfigurationAdminFactory.this.updateAll(cs, properties);
+    }
+
+    @Override
+    public Map<String, Long> getDispatchStatistics()
+    {
+      final Map<String, Long> res = new TreeMap<String, Long>();
+      updateStatistics.addTo("update", res);
+      eventStatistics.addTo("event", res);
+      res.put("threads", new Long(dispatchExecutor.getThreads()));
+      res.put("threads.max", new Long(dispatchExecutor.getMaxThreads()));
+      return res;
+    }
   }
 
   // /////////////////////////////////////////////////////////////////////////
@@ -564,4 +564,19 @@ final class ConfigurationDictionary
     }
   }
 
+  /**
+   * Get a shallow copy of this dictionary with the change count it will
+   * have after {@link #incrementChangeCount()}, this dictionary is not
+   * changed.
+   */
+  Hashtable<String, Object> getWithNextChangeCount()
+  {
+    synchronized (changeCountLock) {
+      final Hashtable<String, Object> res =
+        new Hashtable<String, Object>(originalCase);
+      res.put(KEY_CHANGE_COUNT, new Long(getChangeCount()+1));
+      return res;
+    }
+  }
+
 }
@@ -54,6 +54,13 @@ final class ConfigurationDispatcher {
 
     private final PluginManager pm;
 
+    /**
+     * The executor that all update queues deliver updates in.
+     */
+    private final DispatchExecutor executor;
+
+    private final QueueStatistics stats;
+
   private final boolean useSharedQueue = true;
   private final UpdateQueue sharedQueue;
 
@@ -73,11 +80,19 @@ final class ConfigurationDispatcher {
      *
      * @param tracker
      *            The ConfigurationServicesTracker to use.
+     * @param executor
+     *            The executor to deliver updates in.
+     * @param stats
+     *            The statistics for the update queues.
      */
 
-    ConfigurationDispatcher(PluginManager pm) {
+    ConfigurationDispatcher(PluginManager pm, DispatchExecutor executor,
+                            QueueStatistics stats) {
         this.pm = pm;
-      this.sharedQueue = useSharedQueue ? new UpdateQueue(pm) : null;
+        this.executor = executor;
+        this.stats = stats;
+      this.sharedQueue = useSharedQueue
+        ? new UpdateQueue(pm, executor, stats) : null;
     }
 
     private UpdateQueue getQueueFor(ServiceReference<?> sr) {
@@ -109,7 +124,7 @@ final class ConfigurationDispatcher {
                 serviceReferenceToTargetService.put(sr, targetService);
             }
             if (!targetServiceToQueue.containsKey(targetService)) {
-                targetServiceToQueue.put(targetService, new UpdateQueue(pm));
+                targetServiceToQueue.put(targetService, new UpdateQueue(pm, executor, stats));
             }
         }
     }
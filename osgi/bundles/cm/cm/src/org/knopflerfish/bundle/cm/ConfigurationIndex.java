@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.cm;
+
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * In-memory index over the properties of stored configurations.
+ *
+ * <p>
+ * The index maps values of a fixed set of property keys to the PIDs of the
+ * configurations that have that value. It is used to find candidate
+ * configurations for a filter in
+ * {@link ConfigurationAdminFactory#listConfigurations(String, org.osgi.framework.Bundle, boolean)}
+ * without loading and matching every configuration dictionary. The candidate
+ * set is always a super set of the matching configurations, the caller must
+ * still match the filter against each candidate.
+ * </p>
+ *
+ * <p>
+ * Equality and presence terms on indexed keys combined with {@code &} and
+ * {@code |} are answered from the index, all other filters are not.
+ * </p>
+ *
+ * <p>
+ * This class is not thread safe, it is guarded by the lock of the owning
+ * {@link ConfigurationStore}.
+ * </p>
+ */
+final class ConfigurationIndex
+{
+  /**
+   * Property keys that are always indexed.
+   */
+  static final String[] DEFAULT_KEYS = new String[] {
+    Constants.SERVICE_PID,
+    ConfigurationAdmin.SERVICE_FACTORYPID,
+    ConfigurationAdmin.SERVICE_BUNDLELOCATION
+  };
+
+  /**
+   * Marker for values that can not be indexed as strings.
+   */
+  private static final String[] UNINDEXED = new String[0];
+
+  /**
+   * The indexed keys in lower case.
+   */
+  private final Set<String> keys = new HashSet<String>();
+
+  /**
+   * Key to value to PIDs with a string value equal to value.
+   */
+  private final Hashtable<String, Hashtable<String, Set<String>>> values =
+    new Hashtable<String, Hashtable<String, Set<String>>>();
+
+  /**
+   * Key to PIDs that have a value for the key.
+   */
+  private final Hashtable<String, Set<String>> present =
+    new Hashtable<String, Set<String>>();
+
+  /**
+   * Key to PIDs that have a non-string value for the key. Such a configuration
+   * is a candidate for any equality term on the key.
+   */
+  private final Hashtable<String, Set<String>> unindexed =
+    new Hashtable<String, Set<String>>();
+
+  /**
+   * PID to the indexed values of that configuration, used on removal.
+   */
+  private final Hashtable<String, Hashtable<String, String[]>> entries =
+    new Hashtable<String, Hashtable<String, String[]>>();
+
+  /**
+   * @param extraKeys
+   *          Property keys to index in addition to the {@link #DEFAULT_KEYS}.
+   *          May be {@code null}.
+   */
+  ConfigurationIndex(String[] extraKeys)
+  {
+    for (final String key : DEFAULT_KEYS) {
+      keys.add(key.toLowerCase());
+    }
+    if (extraKeys != null) {
+      for (final String key : extraKeys) {
+        final String k = key.trim();
+        if (k.length() > 0) {
+          keys.add(k.toLowerCase());
+        }
+      }
+    }
+  }
+
+  /**
+   * Add or replace the index entries for a configuration.
+   *
+   * @param pid
+   *          The PID of the configuration.
+   * @param d
+   *          The configuration dictionary.
+   */
+  void put(String pid, Dictionary<String, ?> d)
+  {
+    remove(pid);
+    final Hashtable<String, String[]> entry = new Hashtable<String, String[]>();
+    for (final Enumeration<String> e = d.keys(); e.hasMoreElements();) {
+      final String key = e.nextElement();
+      final String k = key.toLowerCase();
+      if (!keys.contains(k)) {
+        continue;
+      }
+      final Object value = d.get(key);
+      if (value == null) {
+        continue;
+      }
+      final String[] sv = stringValues(value);
+      entry.put(k, sv);
+      add(present, k, pid);
+      if (sv == UNINDEXED) {
+        add(unindexed, k, pid);
+      } else {
+        Hashtable<String, Set<String>> vs = values.get(k);
+        if (vs == null) {
+          vs = new Hashtable<String, Set<String>>();
+          values.put(k, vs);
+        }
+        for (final String s : sv) {
+          add(vs, s, pid);
+        }
+      }
+    }
+    if (!entry.isEmpty()) {
+      entries.put(pid, entry);
+    }
+  }
+
+  /**
+   * Remove all index entries for a configuration.
+   *
+   * @param pid
+   *          The PID of the configuration.
+   */
+  void remove(String pid)
+  {
+    final Hashtable<String, String[]> entry = entries.remove(pid);
+    if (entry == null) {
+      return;
+    }
+    for (final Enumeration<String> e = entry.keys(); e.hasMoreElements();) {
+      final String k = e.nextElement();
+      final String[] sv = entry.get(k);
+      remove(present, k, pid);
+      if (sv == UNINDEXED) {
+        remove(unindexed, k, pid);
+      } else {
+        final Hashtable<String, Set<String>> vs = values.get(k);
+        if (vs != null) {
+          for (final String s : sv) {
+            remove(vs, s, pid);
+          }
+          if (vs.isEmpty()) {
+            values.remove(k);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove all entries from the index.
+   */
+  void clear()
+  {
+    values.clear();
+    present.clear();
+    unindexed.clear();
+    entries.clear();
+  }
+
+  /**
+   * Find the PIDs of the configurations that may match a filter.
+   *
+   * @param filter
+   *          A syntactically valid LDAP filter string.
+   * @return A new set with the candidate PIDs or {@code null} if the filter
+   *         can not be answered by the index.
+   */
+  Set<String> lookup(String filter)
+  {
+    try {
+      final Scanner sc = new Scanner(filter);
+      final Set<String> res = parse(sc);
+      sc.skipWhitespace();
+      return sc.pos == filter.length() ? res : null;
+    } catch (final IllegalArgumentException _ignore) {
+      // Let the full scan deal with anything we do not understand.
+      return null;
+    }
+  }
+
+  private Set<String> parse(Scanner sc)
+  {
+    sc.skipWhitespace();
+    sc.expect('(');
+    sc.skipWhitespace();
+    Set<String> res;
+    final char c = sc.peek();
+    if (c == '&' || c == '|') {
+      sc.pos++;
+      final boolean and = c == '&';
+      boolean all = true;
+      int n = 0;
+      res = null;
+      sc.skipWhitespace();
+      while (sc.peek() == '(') {
+        final Set<String> r = parse(sc);
+        n++;
+        if (r == null) {
+          all = false;
+        } else if (res == null) {
+          res = r;
+        } else if (and) {
+          res.retainAll(r);
+        } else {
+          res.addAll(r);
+        }
+        sc.skipWhitespace();
+      }
+      if (n == 0) {
+        throw new IllegalArgumentException("Empty filter list");
+      }
+      if (!and && !all) {
+        res = null;
+      }
+    } else if (c == '!') {
+      sc.pos++;
+      parse(sc);
+      res = null;
+    } else {
+      res = parseItem(sc);
+    }
+    sc.skipWhitespace();
+    sc.expect(')');
+    return res;
+  }
+
+  private Set<String> parseItem(Scanner sc)
+  {
+    final int start = sc.pos;
+    while ("=~<>()".indexOf(sc.peek()) < 0) {
+      sc.pos++;
+    }
+    final String key = sc.s.substring(start, sc.pos).trim().toLowerCase();
+    if (key.length() == 0 || sc.peek() != '=') {
+      // Approximate, ordering or broken term
+      sc.skipValue();
+      return null;
+    }
+    sc.pos++;
+    final int valueStart = sc.pos;
+    final StringBuilder value = new StringBuilder();
+    boolean wildcard = false;
+    char c;
+    while ((c = sc.peek()) != ')') {
+      if (c == '\\') {
+        sc.pos++;
+        value.append(sc.peek());
+      } else if (c == '*') {
+        wildcard = true;
+      } else if (c == '(') {
+        throw new IllegalArgumentException("Unescaped '(' in value");
+      } else {
+        value.append(c);
+      }
+      sc.pos++;
+    }
+    if (!keys.contains(key)) {
+      return null;
+    }
+    if (wildcard) {
+      if (sc.pos - valueStart == 1) {
+        return copy(present.get(key));
+      }
+      return null;
+    }
+    final String v = value.toString();
+    if (v.length() == 0 || v.trim().length() != v.length()) {
+      return null;
+    }
+    final Hashtable<String, Set<String>> vs = values.get(key);
+    final Set<String> res = copy(vs == null ? null : vs.get(v));
+    final Set<String> others = unindexed.get(key);
+    if (others != null) {
+      res.addAll(others);
+    }
+    return res;
+  }
+
+  private static String[] stringValues(Object value)
+  {
+    if (value instanceof String) {
+      return new String[] { (String) value };
+    } else if (value instanceof String[]) {
+      return ((String[]) value).clone();
+    } else if (value instanceof Collection) {
+      final Collection<?> c = (Collection<?>) value;
+      final String[] res = new String[c.size()];
+      int i = 0;
+      for (final Iterator<?> it = c.iterator(); it.hasNext(); i++) {
+        final Object o = it.next();
+        if (!(o instanceof String)) {
+          return UNINDEXED;
+        }
+        res[i] = (String) o;
+      }
+      return res;
+    }
+    return UNINDEXED;
+  }
+
+  private static Set<String> copy(Set<String> s)
+  {
+    return s == null ? new HashSet<String>() : new HashSet<String>(s);
+  }
+
+  private static void add(Hashtable<String, Set<String>> map,
+                          String key,
+                          String pid)
+  {
+    Set<String> s = map.get(key);
+    if (s == null) {
+      s = new HashSet<String>();
+      map.put(key, s);
+    }
+    s.add(pid);
+  }
+
+  private static void remove(Hashtable<String, Set<String>> map,
+                             String key,
+                             String pid)
+  {
+    final Set<String> s = map.get(key);
+    if (s != null && s.remove(pid) && s.isEmpty()) {
+      map.remove(key);
+    }
+  }
+
+  /**
+   * Cursor over a filter string.
+   */
+  private static final class Scanner
+  {
+    final String s;
+    int pos = 0;
+
+    Scanner(String s)
+    {
+      this.s = s;
+    }
+
+    char peek()
+    {
+      if (pos >= s.length()) {
+        throw new IllegalArgumentException("Unexpected end of filter");
+      }
+      return s.charAt(pos);
+    }
+
+    void expect(char c)
+    {
+      if (peek() != c) {
+        throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+      }
+      pos++;
+    }
+
+    void skipWhitespace()
+    {
+      while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    void skipValue()
+    {
+      char c;
+      while ((c = peek()) != ')') {
+        if (c == '\\') {
+          pos++;
+        }
+        pos++;
+      }
+    }
+  }
+}
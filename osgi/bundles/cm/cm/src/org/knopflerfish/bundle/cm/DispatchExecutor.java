@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.cm;
+
+import java.util.Vector;
+
+/**
+ * A bounded pool of threads shared by the {@link UpdateQueue}s and the
+ * {@link ListenerEventQueue}.
+ *
+ * <p>
+ * The queues submit themselves as tasks when they have work to do and make
+ * sure that they are never scheduled more than once at a time, thus the
+ * deliveries from a queue are made in order while different queues may be
+ * served in parallel. Idle threads are kept for a while before they exit to
+ * avoid creating new threads for every burst of updates.
+ * </p>
+ */
+final class DispatchExecutor
+{
+  /**
+   * How long an idle thread waits for new tasks before it exits.
+   */
+  private static final long KEEP_ALIVE = 60000;
+
+  private final int maxThreads;
+
+  private final Vector<Runnable> tasks = new Vector<Runnable>();
+
+  private int threads = 0;
+
+  private int idle = 0;
+
+  private int threadCount = 0;
+
+  private boolean quit = false;
+
+  /**
+   * @param maxThreads
+   *          The maximum number of threads to use.
+   */
+  DispatchExecutor(int maxThreads)
+  {
+    this.maxThreads = maxThreads > 0 ? maxThreads : 1;
+  }
+
+  /**
+   * Run a task in one of the threads of this executor.
+   *
+   * @param task
+   *          The task to run.
+   */
+  synchronized void execute(Runnable task)
+  {
+    if (quit) {
+      return;
+    }
+    tasks.addElement(task);
+    if (idle > 0) {
+      notify();
+    } else if (threads < maxThreads) {
+      threads++;
+      final Thread t = new Thread(new Runnable() {
+        @Override
+        public void run()
+        {
+          work();
+        }
+      }, "CM dispatch thread " + (++threadCount));
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  private void work()
+  {
+    Runnable task;
+    while ((task = next()) != null) {
+      try {
+        task.run();
+      } catch (final Throwable t) {
+        Activator.log.error("[CM] Error in dispatch task", t);
+      }
+    }
+  }
+
+  private synchronized Runnable next()
+  {
+    if (tasks.isEmpty() && !quit) {
+      idle++;
+      try {
+        wait(KEEP_ALIVE);
+      } catch (final InterruptedException ignored) {
+      }
+      idle--;
+    }
+    if (tasks.isEmpty()) {
+      threads--;
+      return null;
+    }
+    final Runnable task = tasks.elementAt(0);
+    tasks.removeElementAt(0);
+    return task;
+  }
+
+  /**
+   * Get the number of threads currently in this executor.
+   */
+  synchronized int getThreads()
+  {
+    return threads;
+  }
+
+  int getMaxThreads()
+  {
+    return maxThreads;
+  }
+
+  /**
+   * Stop accepting new tasks and let idle threads exit. Already submitted
+   * tasks are still run.
+   */
+  synchronized void stop()
+  {
+    quit = true;
+    notifyAll();
+  }
+}
@@ -0,0 +1,1093 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.cm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent storage of configuration data in an append only journal.
+ *
+ * <p>
+ * Every change is appended as a checksummed record to a single journal file.
+ * At startup the journal is scanned to rebuild the PID to record index, a
+ * torn record at the end of the journal (e.g., after a crash) is truncated.
+ * The store records of a batch are nested in a single batch record, so that
+ * either all or none of them are recovered.
+ * Configuration dictionaries are decoded on first load and then cached.
+ * </p>
+ *
+ * <p>
+ * When {@link #SYNC_PROP} is {@code true} (the default) a change is forced to
+ * disk before the call returns. Concurrent writers share a single
+ * {@code fsync}, i.e., they are group committed.
+ * </p>
+ *
+ * <p>
+ * When more than half of the journal is made up of superseded records, it is
+ * compacted in a background thread. The compacted journal is written to a
+ * {@code .next} file that replaces the journal when complete. The store is
+ * only locked while the live records are snapshotted and while the
+ * compacted journal is swapped in, not while it is written.
+ * </p>
+ */
+final class JournalConfigurationStore extends ConfigurationStore {
+
+  /**
+   * Framework property controlling if changes are forced to disk before
+   * returning.
+   */
+  static final String SYNC_PROP = "org.knopflerfish.cm.journal.sync";
+
+  private static final String JOURNAL_FILE = "cm_journal";
+
+  private static final String NEXT_SUFFIX = ".next";
+
+  private static final String OLD_SUFFIX = ".old";
+
+  private static final String MIGRATE_SUFFIX = ".migrate";
+
+  /**
+   * Journal header magic, "KFCJ".
+   */
+  private static final int MAGIC = 0x4b46434a;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * Record overhead: length, type and checksum.
+   */
+  private static final int RECORD_OVERHEAD = 9;
+
+  private static final byte STORE = 1;
+
+  private static final byte DELETE = 2;
+
+  private static final byte GENERATED_PID = 3;
+
+  /**
+   * A number of store records that are only valid together.
+   */
+  private static final byte BATCH = 4;
+
+  /**
+   * Encodings of the dictionary in a store record.
+   */
+  private static final byte DICTIONARY_XML = 1;
+
+  private static final byte DICTIONARY_BINARY = 2;
+
+  /**
+   * Do not compact journals smaller than this.
+   */
+  private static final long COMPACT_MIN_SIZE = 256 * 1024;
+
+  private final File file;
+
+  private final boolean sync;
+
+  private RandomAccessFile journal;
+
+  /**
+   * Current length of the journal file.
+   */
+  private long length;
+
+  /**
+   * Number of bytes in the journal that are not superseded.
+   */
+  private long liveBytes;
+
+  /**
+   * PID to offset and size of its latest store record.
+   */
+  private final Hashtable<String, long[]> records =
+    new Hashtable<String, long[]>();
+
+  private final Hashtable<String, String> pidToFactoryPid =
+    new Hashtable<String, String>();
+
+  private final Hashtable<String, Vector<String>> factoryPidToPids =
+    new Hashtable<String, Vector<String>>();
+
+  private final Hashtable<String, String> generatedPids =
+    new Hashtable<String, String>();
+
+  /**
+   * Factory PID key to size of its latest generated PID record.
+   */
+  private final Hashtable<String, Integer> generatedPidSizes =
+    new Hashtable<String, Integer>();
+
+  private final Hashtable<String, ConfigurationDictionary> cache =
+    new Hashtable<String, ConfigurationDictionary>();
+
+  private Thread compactor;
+
+  /**
+   * Total number of bytes appended since the store was opened, used as the
+   * position for group commits. Not reset by compaction.
+   */
+  private long written;
+
+  private final Object syncLock = new Object();
+
+  /**
+   * Value of {@link #written} known to be on disk. Guarded by syncLock.
+   */
+  private long synced;
+
+  /**
+   * True while some thread is forcing the journal to disk. Guarded by
+   * syncLock.
+   */
+  private boolean syncing;
+
+
+  public JournalConfigurationStore(File storeDir, String[] indexKeys)
+      throws IOException
+  {
+    this(new File(storeDir, JOURNAL_FILE), indexKeys, getSyncProperty());
+  }
+
+  private JournalConfigurationStore(File file,
+                                    String[] indexKeys,
+                                    boolean sync)
+      throws IOException
+  {
+    super(indexKeys);
+    this.file = file;
+    this.sync = sync;
+    recoverFiles();
+    journal = new RandomAccessFile(file, "rw");
+    try {
+      if (journal.length() == 0) {
+        journal.writeInt(MAGIC);
+        journal.writeInt(VERSION);
+        length = HEADER_SIZE;
+        liveBytes = HEADER_SIZE;
+      } else {
+        scan();
+      }
+    } catch (IOException e) {
+      journal.close();
+      journal = null;
+      throw e;
+    }
+  }
+
+  private static boolean getSyncProperty() {
+    String s = Activator.bc != null ? Activator.bc.getProperty(SYNC_PROP) : null;
+    return s == null || "".equals(s) || "true".equalsIgnoreCase(s.trim());
+  }
+
+  /**
+   * Check if there is a journal in a directory.
+   */
+  static boolean exists(File storeDir) {
+    return new File(storeDir, JOURNAL_FILE).exists()
+      || new File(storeDir, JOURNAL_FILE + OLD_SUFFIX).exists();
+  }
+
+  /**
+   * Check if a file name belongs to the journal store.
+   */
+  static boolean isJournalFile(String name) {
+    return name.startsWith(JOURNAL_FILE);
+  }
+
+  /**
+   * Delete the journal in a directory.
+   */
+  static void deleteFiles(File storeDir) {
+    String[] files = storeDir.list();
+    if (files != null) {
+      for (String f : files) {
+        if (isJournalFile(f)) {
+          new File(storeDir, f).delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a journal in a directory with the contents of another store. The
+   * journal is first written to a temporary file that is renamed when
+   * complete.
+   */
+  static void migrate(File storeDir, ConfigurationStore from)
+      throws IOException
+  {
+    File tmp = new File(storeDir, JOURNAL_FILE + MIGRATE_SUFFIX);
+    tmp.delete();
+    JournalConfigurationStore to = new JournalConfigurationStore(tmp, null, false);
+    try {
+      from.copyTo(to);
+    } finally {
+      to.close();
+    }
+    if (!tmp.renameTo(new File(storeDir, JOURNAL_FILE))) {
+      tmp.delete();
+      throw new IOException("Failed to rename " + tmp);
+    }
+  }
+
+  /**
+   * Sort out the files left by an interrupted compaction.
+   */
+  private void recoverFiles() {
+    File next = new File(file.getPath() + NEXT_SUFFIX);
+    File old = new File(file.getPath() + OLD_SUFFIX);
+    if (file.exists()) {
+      next.delete();
+      old.delete();
+    } else if (old.exists()) {
+      // The compacted journal was complete before the old one was renamed.
+      if (!next.exists() || !next.renameTo(file)) {
+        old.renameTo(file);
+      }
+      old.delete();
+      Activator.log.info("Recovered CM journal after interrupted compaction");
+    }
+  }
+
+  /**
+   * Read the journal and rebuild the in memory index.
+   */
+  private void scan() throws IOException {
+    final long fileLength = journal.length();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 65536));
+    try {
+      scan(in, fileLength);
+    } finally {
+      in.close();
+    }
+  }
+
+  private void scan(DataInputStream in, long fileLength) throws IOException {
+    if (fileLength < HEADER_SIZE || in.readInt() != MAGIC) {
+      throw new IOException("Not a CM journal: " + file);
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported CM journal version " + version);
+    }
+    long pos = HEADER_SIZE;
+    liveBytes = HEADER_SIZE;
+    CRC32 crc = new CRC32();
+    int count = 0;
+    while (pos < fileLength) {
+      byte[] b;
+      try {
+        int len = in.readInt();
+        if (len < 1 || len > fileLength - pos - RECORD_OVERHEAD + 1) {
+          break;
+        }
+        b = new byte[len];
+        in.readFully(b);
+        crc.reset();
+        crc.update(b, 0, len);
+        if (in.readInt() != (int) crc.getValue()) {
+          break;
+        }
+      } catch (EOFException _eof) {
+        break;
+      }
+      long size = b.length + RECORD_OVERHEAD - 1;
+      if (!apply(b, pos, size)) {
+        break;
+      }
+      pos += size;
+      count++;
+    }
+    if (pos < fileLength) {
+      Activator.log.warn("Truncating corrupt CM journal " + file + " at "
+                         + pos + " of " + fileLength);
+      journal.setLength(pos);
+    }
+    length = pos;
+    Activator.log.info("Read CM journal, " + count + " records, "
+                       + records.size() + " configurations");
+  }
+
+  /**
+   * Apply a record read from the journal to the in memory index.
+   *
+   * @return {@code false} if the record is not understood.
+   */
+  private boolean apply(byte[] b, long offset, long size) throws IOException {
+    DataInputStream in =
+      new DataInputStream(new ByteArrayInputStream(b, 1, b.length - 1));
+    switch (b[0]) {
+    case STORE: {
+      String pid = in.readUTF();
+      String factoryPid = in.readBoolean() ? in.readUTF() : null;
+      putRecord(pid, factoryPid, new long[] { offset, size });
+      return true;
+    }
+    case DELETE:
+      removeRecord(in.readUTF());
+      return true;
+    case GENERATED_PID: {
+      String key = in.readUTF();
+      putGeneratedPid(key, in.readUTF(), (int) size);
+      return true;
+    }
+    case BATCH: {
+      // Check the framing of all nested store records before applying any.
+      int off = 1;
+      while (off < b.length) {
+        int len = b.length - off >= 5 ? getInt(b, off) : 0;
+        if (len < 1 || len > b.length - off - RECORD_OVERHEAD + 1
+            || b[off + 4] != STORE) {
+          return false;
+        }
+        off += len + RECORD_OVERHEAD - 1;
+      }
+      off = 1;
+      while (off < b.length) {
+        int len = getInt(b, off);
+        byte[] rec = new byte[len];
+        System.arraycopy(b, off + 4, rec, 0, len);
+        // b[0] is at offset + 4 in the journal
+        apply(rec, offset + 4 + off, len + RECORD_OVERHEAD - 1);
+        off += len + RECORD_OVERHEAD - 1;
+      }
+      return true;
+    }
+    default:
+      return false;
+    }
+  }
+
+  private void putRecord(String pid, String factoryPid, long[] rec) {
+    long[] old = records.put(pid, rec);
+    if (old != null) {
+      liveBytes -= old[1];
+    } else if (factoryPid != null) {
+      pidToFactoryPid.put(pid, factoryPid);
+      Vector<String> v = factoryPidToPids.get(factoryPid);
+      if (v == null) {
+        v = new Vector<String>();
+        factoryPidToPids.put(factoryPid, v);
+      }
+      v.addElement(pid);
+    }
+    liveBytes += rec[1];
+  }
+
+  private long[] removeRecord(String pid) {
+    long[] old = records.remove(pid);
+    if (old != null) {
+      liveBytes -= old[1];
+      String factoryPid = pidToFactoryPid.remove(pid);
+      if (factoryPid != null) {
+        Vector<String> v = factoryPidToPids.get(factoryPid);
+        if (v != null && v.removeElement(pid) && v.isEmpty()) {
+          factoryPidToPids.remove(factoryPid);
+        }
+      }
+    }
+    cache.remove(pid);
+    return old;
+  }
+
+  private void putGeneratedPid(String key, String suffix, int size) {
+    generatedPids.put(key, suffix);
+    Integer old = generatedPidSizes.put(key, new Integer(size));
+    if (old != null) {
+      liveBytes -= old.intValue();
+    }
+    liveBytes += size;
+  }
+
+  @Override
+  public synchronized Enumeration<String> listPids() {
+    return records.keys();
+  }
+
+  @Override
+  public synchronized ConfigurationDictionary load(String pid)
+      throws IOException
+  {
+    ConfigurationDictionary d = cache.get(pid);
+    if (d != null) {
+      return d;
+    }
+    long[] rec = records.get(pid);
+    if (rec == null) {
+      return null;
+    }
+    try {
+      ensureOpen();
+      d = decodeStoreRecord(read(rec[0], (int) rec[1]));
+    } catch (IOException e) {
+      removeRecord(pid);
+      indexRemove(pid);
+      Activator.log.error("Removed faulty CM data for: " + pid, e);
+      throw e;
+    }
+    cache.put(pid, d);
+    return d;
+  }
+
+  @Override
+  public synchronized ConfigurationDictionary[] loadAll(String factoryPid)
+      throws IOException
+  {
+    Vector<String> v = factoryPidToPids.get(factoryPid);
+    if (v == null) {
+      return null;
+    }
+    Vector<ConfigurationDictionary> loaded = new Vector<ConfigurationDictionary>();
+    for (int i = 0; i < v.size(); ++i) {
+      ConfigurationDictionary d = load(v.elementAt(i));
+      if (d != null) {
+        loaded.addElement(d);
+      }
+    }
+    ConfigurationDictionary[] configurations = new ConfigurationDictionary[loaded.size()];
+    loaded.copyInto(configurations);
+    return configurations;
+  }
+
+  @Override
+  public void store(String pid,
+                    String factoryPid,
+                    ConfigurationDictionary configuration,
+                    boolean incrementChangeCount)
+      throws IOException
+  {
+    long pos;
+    synchronized (this) {
+      ensureOpen();
+      appendStore(pid, factoryPid, configuration, incrementChangeCount);
+      pos = written;
+      compactIfNeeded();
+    }
+    awaitSync(pos);
+  }
+
+  /**
+   * Store a number of configurations as one operation. The records of all
+   * configurations are written to the journal as one batch record, if that
+   * fails none of them are stored. If forcing the records to disk fails, the
+   * configurations that have not been changed again since are restored to
+   * their previous state before the exception is thrown.
+   */
+  @Override
+  public void storeAll(List<ConfigurationDictionary> configurations,
+                       boolean incrementChangeCount)
+      throws IOException
+  {
+    final int n = configurations.size();
+    final ConfigurationDictionary[] olds = new ConfigurationDictionary[n];
+    long pos;
+    synchronized (this) {
+      ensureOpen();
+      final byte[][] recs = new byte[n][];
+      int size = 0;
+      for (int i = 0; i < n; i++) {
+        ConfigurationDictionary d = configurations.get(i);
+        try {
+          olds[i] = load(d.getPid());
+        } catch (IOException _ignore) {
+          // Already logged and removed by load
+        }
+        final Dictionary<String, Object> w = incrementChangeCount
+          ? d.getWithNextChangeCount()
+          : d;
+        recs[i] = record(STORE, encodeStore(d.getPid(), d.getFactoryPid(), w));
+        size += recs[i].length;
+      }
+      final byte[] body = new byte[size];
+      int off = 0;
+      for (byte[] rec : recs) {
+        System.arraycopy(rec, 0, body, off, rec.length);
+        off += rec.length;
+      }
+      // The nested records start after the length and type of the batch.
+      long offset = length + 5;
+      append(BATCH, body);
+      for (int i = 0; i < n; i++) {
+        ConfigurationDictionary d = configurations.get(i);
+        if (incrementChangeCount) {
+          d.incrementChangeCount();
+        }
+        cache.put(d.getPid(), d);
+        indexPut(d.getPid(), d);
+        putRecord(d.getPid(), d.getFactoryPid(),
+                  new long[] { offset, recs[i].length });
+        offset += recs[i].length;
+      }
+      pos = written;
+      compactIfNeeded();
+    }
+    try {
+      awaitSync(pos);
+    } catch (IOException e) {
+      revertStoreAll(configurations, olds);
+      throw e;
+    }
+  }
+
+  /**
+   * Restore the configurations of a failed {@link #storeAll} call, except
+   * those that have been changed again since.
+   */
+  private synchronized void revertStoreAll(List<ConfigurationDictionary> configurations,
+                                           ConfigurationDictionary[] olds)
+  {
+    for (int i = 0; i < olds.length; i++) {
+      ConfigurationDictionary d = configurations.get(i);
+      String pid = d.getPid();
+      if (cache.get(pid) != d) {
+        continue;
+      }
+      try {
+        ensureOpen();
+        if (olds[i] != null) {
+          appendStore(pid, d.getFactoryPid(), olds[i], false);
+        } else {
+          removeRecord(pid);
+          indexRemove(pid);
+          appendDelete(pid);
+        }
+      } catch (IOException e) {
+        Activator.log.error("Failed to restore CM data for: " + pid, e);
+      }
+    }
+  }
+
+  private void appendStore(String pid,
+                           String factoryPid,
+                           ConfigurationDictionary configuration,
+                           boolean incrementChangeCount)
+      throws IOException
+  {
+    if (incrementChangeCount) {
+      configuration.incrementChangeCount();
+    }
+    cache.put(pid, configuration);
+    indexPut(pid, configuration);
+    putRecord(pid, factoryPid,
+              append(STORE, encodeStore(pid, factoryPid, configuration)));
+  }
+
+  /**
+   * Encode the body of a store record.
+   */
+  private byte[] encodeStore(String pid,
+                             String factoryPid,
+                             Dictionary<String, Object> configuration)
+      throws IOException
+  {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(512);
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeUTF(pid);
+    out.writeBoolean(factoryPid != null);
+    if (factoryPid != null) {
+      out.writeUTF(factoryPid);
+    }
+    out.writeByte(isWritingXml() ? DICTIONARY_XML : DICTIONARY_BINARY);
+    writeDictionary(pid, configuration, out);
+    out.flush();
+    return bout.toByteArray();
+  }
+
+  @Override
+  public ConfigurationDictionary delete(String pid)
+      throws IOException
+  {
+    if (pid == null || "".equals(pid)) {
+      return null;
+    }
+    ConfigurationDictionary d;
+    long pos;
+    synchronized (this) {
+      if (!records.containsKey(pid)) {
+        return null;
+      }
+      ensureOpen();
+      try {
+        d = load(pid);
+      } catch (IOException _ignore) {
+        // Already logged and removed by load
+        return null;
+      }
+      removeRecord(pid);
+      indexRemove(pid);
+      appendDelete(pid);
+      pos = written;
+      compactIfNeeded();
+    }
+    awaitSync(pos);
+    return d;
+  }
+
+  @Override
+  public String generatePid(String targetedFactoryPid)
+      throws IOException
+  {
+    final String factoryPid = factoryKey(targetedFactoryPid);
+    String suffix;
+    long pos;
+    synchronized (this) {
+      ensureOpen();
+      suffix = generatedPids.get(factoryPid);
+      if (suffix == null) {
+        suffix = "0";
+      } else {
+        suffix = Long.toString(Long.parseLong(suffix) + 1);
+      }
+      appendGeneratedPid(factoryPid, suffix);
+      pos = written;
+      compactIfNeeded();
+    }
+    awaitSync(pos);
+    return factoryPid + FACTORY_PID_SUFFIX_SEPARATOR + suffix;
+  }
+
+  @Override
+  synchronized Hashtable<String, String> getGeneratedPids() {
+    return new Hashtable<String, String>(generatedPids);
+  }
+
+  @Override
+  void putGeneratedPids(Hashtable<String, String> suffixes)
+      throws IOException
+  {
+    long pos;
+    synchronized (this) {
+      ensureOpen();
+      for (Enumeration<String> e = suffixes.keys(); e.hasMoreElements(); ) {
+        String key = e.nextElement();
+        appendGeneratedPid(key, suffixes.get(key));
+      }
+      pos = written;
+    }
+    awaitSync(pos);
+  }
+
+  @Override
+  synchronized void close() {
+    if (journal != null) {
+      try {
+        journal.getFD().sync();
+        journal.close();
+      } catch (IOException e) {
+        Activator.log.warn("Failed to close CM journal", e);
+      }
+      journal = null;
+    }
+  }
+
+  private void appendDelete(String pid) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeUTF(pid);
+    out.flush();
+    append(DELETE, bout.toByteArray());
+  }
+
+  private void appendGeneratedPid(String key, String suffix)
+      throws IOException
+  {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeUTF(key);
+    out.writeUTF(suffix);
+    out.flush();
+    long[] rec = append(GENERATED_PID, bout.toByteArray());
+    putGeneratedPid(key, suffix, (int) rec[1]);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (journal == null) {
+      throw new IOException("CM journal is closed");
+    }
+  }
+
+  /**
+   * Create a record with the given type and body.
+   */
+  private static byte[] record(byte type, byte[] body) {
+    byte[] rec = new byte[body.length + RECORD_OVERHEAD];
+    int len = body.length + 1;
+    putInt(rec, 0, len);
+    rec[4] = type;
+    System.arraycopy(body, 0, rec, 5, body.length);
+    CRC32 crc = new CRC32();
+    crc.update(rec, 4, len);
+    putInt(rec, 4 + len, (int) crc.getValue());
+    return rec;
+  }
+
+  private static void putInt(byte[] b, int off, int v) {
+    b[off] = (byte) (v >>> 24);
+    b[off + 1] = (byte) (v >>> 16);
+    b[off + 2] = (byte) (v >>> 8);
+    b[off + 3] = (byte) v;
+  }
+
+  /**
+   * Append a record to the end of the journal.
+   *
+   * @return offset and size of the appended record.
+   */
+  private long[] append(byte type, byte[] body) throws IOException {
+    byte[] rec = record(type, body);
+    long offset = length;
+    journal.seek(offset);
+    journal.write(rec);
+    length += rec.length;
+    written += rec.length;
+    return new long[] { offset, rec.length };
+  }
+
+  /**
+   * Read and verify the record at the given offset.
+   *
+   * @return type and body of the record.
+   */
+  private byte[] read(long offset, int size) throws IOException {
+    byte[] rec = new byte[size];
+    journal.seek(offset);
+    journal.readFully(rec);
+    int len = size - RECORD_OVERHEAD + 1;
+    if (getInt(rec, 0) != len) {
+      throw new IOException("Bad CM journal record length at " + offset);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(rec, 4, len);
+    if (getInt(rec, 4 + len) != (int) crc.getValue()) {
+      throw new IOException("Bad CM journal record checksum at " + offset);
+    }
+    byte[] b = new byte[len];
+    System.arraycopy(rec, 4, b, 0, len);
+    return b;
+  }
+
+  private static int getInt(byte[] b, int off) {
+    return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+      | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+  }
+
+  private ConfigurationDictionary decodeStoreRecord(byte[] b)
+      throws IOException
+  {
+    DataInputStream in =
+      new DataInputStream(new ByteArrayInputStream(b, 1, b.length - 1));
+    in.readUTF();
+    if (in.readBoolean()) {
+      in.readUTF();
+    }
+    byte encoding = in.readByte();
+    if (encoding != DICTIONARY_XML && encoding != DICTIONARY_BINARY) {
+      throw new IOException("Unknown CM dictionary encoding " + encoding);
+    }
+    return new ConfigurationDictionary(readDictionary(in));
+  }
+
+  /**
+   * Wait until the journal is on disk up to the given position. The first
+   * waiting thread forces the journal to disk on behalf of all threads that
+   * have appended records so far.
+   */
+  private void awaitSync(long pos) throws IOException {
+    if (!sync) {
+      return;
+    }
+    while (true) {
+      synchronized (syncLock) {
+        while (syncing && synced < pos) {
+          try {
+            syncLock.wait();
+          } catch (InterruptedException _ignore) { }
+        }
+        if (synced >= pos) {
+          return;
+        }
+        syncing = true;
+      }
+      long target = 0;
+      boolean done = false;
+      try {
+        RandomAccessFile raf;
+        synchronized (this) {
+          ensureOpen();
+          raf = journal;
+          target = written;
+        }
+        try {
+          raf.getFD().sync();
+        } catch (IOException e) {
+          synchronized (this) {
+            // A compaction that replaced the journal has synced the data.
+            if (raf == journal) {
+              throw e;
+            }
+          }
+        }
+        done = true;
+      } finally {
+        synchronized (syncLock) {
+          syncing = false;
+          if (done && target > synced) {
+            synced = target;
+          }
+          syncLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Start a background compaction if enough of the journal is superseded.
+   */
+  private void compactIfNeeded() {
+    if (compactor != null || length < COMPACT_MIN_SIZE
+        || length - liveBytes < length / 2) {
+      return;
+    }
+    compactor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          compact();
+        } catch (Exception e) {
+          Activator.log.error("Failed to compact CM journal", e);
+        } finally {
+          synchronized (JournalConfigurationStore.this) {
+            compactor = null;
+          }
+        }
+      }
+    }, "CM journal compactor");
+    compactor.setDaemon(true);
+    compactor.start();
+  }
+
+  /**
+   * Rewrite the journal with only the live records. The positions of the
+   * live records are snapshotted while holding the store lock, but they are
+   * copied and forced to disk without it, so that other threads can use the
+   * store meanwhile. Records appended during the copy are added to the
+   * compacted journal when it is swapped in, under the lock.
+   */
+  void compact() throws IOException {
+    final long snapLength;
+    final Hashtable<String, long[]> snapRecords;
+    final Hashtable<String, String> snapGenerated;
+    synchronized (this) {
+      if (journal == null) {
+        return;
+      }
+      snapLength = length;
+      snapRecords = new Hashtable<String, long[]>(records);
+      snapGenerated = new Hashtable<String, String>(generatedPids);
+    }
+
+    // Copy the live records, the journal is only appended to beyond
+    // snapLength, so the snapshotted records do not change.
+    final File next = new File(file.getPath() + NEXT_SUFFIX);
+    final Hashtable<String, long[]> moved = new Hashtable<String, long[]>();
+    final Hashtable<String, Integer> genSizes = new Hashtable<String, Integer>();
+    long pos = HEADER_SIZE;
+    boolean ok = false;
+    final RandomAccessFile in = new RandomAccessFile(file, "r");
+    FileOutputStream fo = null;
+    try {
+      fo = new FileOutputStream(next);
+      DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(fo, 65536));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (Enumeration<String> e = snapRecords.keys(); e.hasMoreElements(); ) {
+        String pid = e.nextElement();
+        long[] rec = snapRecords.get(pid);
+        byte[] b = new byte[(int) rec[1]];
+        in.seek(rec[0]);
+        in.readFully(b);
+        out.write(b);
+        moved.put(pid, new long[] { pos, b.length });
+        pos += b.length;
+      }
+      for (Enumeration<String> e = snapGenerated.keys(); e.hasMoreElements(); ) {
+        String key = e.nextElement();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(64);
+        DataOutputStream bo = new DataOutputStream(bout);
+        bo.writeUTF(key);
+        bo.writeUTF(snapGenerated.get(key));
+        bo.flush();
+        byte[] b = record(GENERATED_PID, bout.toByteArray());
+        out.write(b);
+        genSizes.put(key, new Integer(b.length));
+        pos += b.length;
+      }
+      out.flush();
+      fo.getFD().sync();
+      ok = true;
+    } finally {
+      in.close();
+      if (fo != null) {
+        try {
+          fo.close();
+        } catch (IOException _ignore) { }
+      }
+      if (!ok) {
+        next.delete();
+      }
+    }
+
+    synchronized (this) {
+      if (journal == null) {
+        next.delete();
+        return;
+      }
+      swapCompacted(next, pos, snapLength, moved, snapGenerated, genSizes);
+    }
+  }
+
+  /**
+   * Append the records written after the snapshot to the compacted journal
+   * and swap it in. Must be called holding the store lock.
+   *
+   * @param next The compacted journal.
+   * @param nextLength Length of the compacted journal.
+   * @param snapLength Length of the journal when the snapshot was taken.
+   * @param moved PID to offset and size of its record in the compacted
+   *          journal.
+   * @param snapGenerated Generated PIDs when the snapshot was taken.
+   * @param genSizes Sizes of the generated PID records in the compacted
+   *          journal.
+   */
+  private void swapCompacted(File next,
+                             long nextLength,
+                             long snapLength,
+                             Hashtable<String, long[]> moved,
+                             Hashtable<String, String> snapGenerated,
+                             Hashtable<String, Integer> genSizes)
+      throws IOException
+  {
+    final long oldLength = length;
+    final long tailLength = length - snapLength;
+    if (tailLength > 0) {
+      final byte[] tail = new byte[(int) tailLength];
+      journal.seek(snapLength);
+      journal.readFully(tail);
+      final FileOutputStream fo = new FileOutputStream(next, true);
+      try {
+        fo.write(tail);
+        fo.getFD().sync();
+      } catch (IOException e) {
+        next.delete();
+        throw e;
+      } finally {
+        fo.close();
+      }
+    }
+
+    // Swap in the compacted journal, see recoverFiles()
+    File old = new File(file.getPath() + OLD_SUFFIX);
+    journal.close();
+    journal = null;
+    old.delete();
+    final boolean replaced = file.renameTo(old) && next.renameTo(file);
+    if (replaced) {
+      old.delete();
+      // Re-apply the positions of the records; those appended after the
+      // snapshot have moved by the same distance as the tail.
+      final long shift = nextLength - snapLength;
+      long live = HEADER_SIZE;
+      for (Enumeration<String> e = records.keys(); e.hasMoreElements(); ) {
+        String pid = e.nextElement();
+        long[] rec = records.get(pid);
+        long[] nrec = rec[0] >= snapLength
+          ? new long[] { rec[0] + shift, rec[1] }
+          : moved.get(pid);
+        records.put(pid, nrec);
+        live += nrec[1];
+      }
+      for (Enumeration<String> e = generatedPids.keys(); e.hasMoreElements(); ) {
+        String key = e.nextElement();
+        if (generatedPids.get(key).equals(snapGenerated.get(key))) {
+          generatedPidSizes.put(key, genSizes.get(key));
+        }
+        live += generatedPidSizes.get(key).intValue();
+      }
+      length = nextLength + tailLength;
+      liveBytes = live;
+    } else {
+      if (!file.exists()) {
+        old.renameTo(file);
+      }
+      next.delete();
+    }
+    journal = new RandomAccessFile(file, "rw");
+    if (!replaced) {
+      // Waiting writers may have failed to sync the closed journal
+      journal.getFD().sync();
+    }
+    synchronized (syncLock) {
+      synced = written;
+    }
+    if (replaced) {
+      Activator.log.info("Compacted CM journal from " + oldLength + " to "
+                         + length + " bytes");
+    } else {
+      Activator.log.warn("Failed to replace CM journal with compacted one");
+    }
+  }
+}
@@ -55,6 +55,11 @@ public class ListenerEvent
    */
   private final ConfigurationEvent event;
 
+  /**
+   * The time when this event was queued.
+   */
+  long queued;
+
   /**
    * Create a listener event.
    * 
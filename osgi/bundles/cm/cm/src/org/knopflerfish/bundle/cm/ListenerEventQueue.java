@@ -34,22 +34,26 @@
 
 package org.knopflerfish.bundle.cm;
 
+import java.util.List;
 import java.util.Vector;
 
 import org.osgi.framework.BundleContext;
 
 /**
+ * Queue of configuration events to deliver to configuration listeners. The
+ * events are delivered in order using a thread from the shared
+ * {@link DispatchExecutor}.
+ *
  * @author js
  * @author Philippe Laporte
  */
 final public class ListenerEventQueue implements Runnable {
 
   /**
-   ** The thread running this object.
-   **/
-  private Thread thread;
-
-  private final Object threadLock = new Object();
+   * Max number of events delivered before giving other queues a chance to
+   * run.
+   */
+  private static final int MAX_BATCH = 16;
 
   /**
    ** The queue of events.
@@ -61,37 +65,57 @@ final public class ListenerEventQueue implements Runnable {
    */
   private BundleContext bc;
 
+  /**
+   * The executor to deliver events in.
+   */
+  private final DispatchExecutor executor;
+
+  private final QueueStatistics stats;
+
+  /**
+   * True while this queue is submitted to the executor.
+   */
+  private boolean scheduled = false;
+
   /**
    * The queue has been stopped.
    */
   private boolean quit = false;
 
   /**
-   ** Construct an UpdateQueue given a
+   ** Construct a ListenerEventQueue given a
    ** BundleContext.
    **
    ** @param bc The BundleContext to use.
+   ** @param executor The executor to deliver events in.
+   ** @param stats The statistics to update.
    **/
-  ListenerEventQueue(BundleContext bc) {
+  ListenerEventQueue(BundleContext bc, DispatchExecutor executor,
+                     QueueStatistics stats) {
     this.bc = bc;
+    this.executor = executor;
+    this.stats = stats;
   }
 
-  /**
-   ** Overide of Thread.run().
-   **/
   public void run() {
-    while (true) {
+    for (int i = 0; i < MAX_BATCH; i++) {
       ListenerEvent update = dequeue();
       if (update == null) {
         return;
       }
-      else {
-        try {
-          update.sendEvent(bc);
-
-        } catch (Throwable t) {
-          Activator.log.error("[CM] Error while sending event", t);
-        }
+      try {
+        update.sendEvent(bc);
+      } catch (Throwable t) {
+        Activator.log.error("[CM] Error while sending event", t);
+      }
+    }
+    // Let other queues run before continuing
+    synchronized (this) {
+      if (queue.isEmpty()) {
+        scheduled = false;
+        notifyAll();
+      } else {
+        executor.execute(this);
       }
     }
   }
@@ -106,60 +130,69 @@ final public class ListenerEventQueue implements Runnable {
     if (update == null || quit) {
       return;
     }
+    update.queued = System.currentTimeMillis();
     queue.addElement(update);
-    attachNewThreadIfNeccesary();
-    notifyAll();
+    stats.queued();
+    schedule();
   }
 
   /**
-   ** Get and remove the next entry from the queue.
+   ** Add a number of entries to the end of the queue.
    **
-   ** If the queue is empty this method waits until an
-   ** entry is available.
+   ** @param updates The events to add to the queue.
    **
-   ** @return The Hashtable entry removed from the queue.
    **/
-  private synchronized ListenerEvent dequeue() {
-    if (!quit && queue.isEmpty()) {
-      try {
-        wait(5000);
-      } catch (InterruptedException ignored) {
-      }
+  public synchronized void enqueue(List<ListenerEvent> updates) {
+    if (updates.isEmpty() || quit) {
+      return;
     }
-    if (queue.isEmpty()) {
-      detachCurrentThread();
-      return null;
-    } else {
-      ListenerEvent u = queue.elementAt(0);
-      queue.removeElementAt(0);
-      return u;
+    final long now = System.currentTimeMillis();
+    for (ListenerEvent update : updates) {
+      update.queued = now;
+      queue.addElement(update);
+      stats.queued();
     }
+    schedule();
   }
 
-  void attachNewThreadIfNeccesary() {
-    synchronized (threadLock) {
-      if (thread == null && !quit) {
-        thread = new Thread(this);
-        thread.setDaemon(true);
-        thread.start();
-      }
+  private void schedule() {
+    if (!scheduled) {
+      scheduled = true;
+      executor.execute(this);
     }
   }
 
-  void detachCurrentThread() {
-    synchronized (threadLock) {
-      thread = null;
+  /**
+   ** Get and remove the next entry from the queue.
+   **
+   ** @return The entry removed from the queue or {@code null} if the
+   **         queue is empty.
+   **/
+  private synchronized ListenerEvent dequeue() {
+    if (queue.isEmpty()) {
+      scheduled = false;
+      notifyAll();
+      return null;
     }
+    ListenerEvent u = queue.elementAt(0);
+    queue.removeElementAt(0);
+    stats.dispatched(u.queued);
+    return u;
   }
 
+  /**
+   * Stop accepting new events and wait a while for the already queued events
+   * to be delivered.
+   */
   synchronized void stop() {
     quit = true;
-    notifyAll();
-    synchronized (threadLock) {
-      if (thread != null) {
-        try {
-          thread.join(3000);
-        } catch (InterruptedException _ignore) { }
+    final long end = System.currentTimeMillis() + 3000;
+    long left;
+    while (scheduled && (left = end - System.currentTimeMillis()) > 0) {
+      try {
+        wait(left);
+      } catch (InterruptedException _ignore) {
+        return;
       }
     }
   }
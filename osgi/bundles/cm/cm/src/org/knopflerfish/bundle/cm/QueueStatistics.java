@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.cm;
+
+import java.util.Map;
+
+/**
+ * Counters for one kind of dispatch queue.
+ */
+final class QueueStatistics
+{
+  private long queued = 0;
+
+  private long coalesced = 0;
+
+  private long dispatched = 0;
+
+  private long depth = 0;
+
+  private long maxDepth = 0;
+
+  private long totalLatency = 0;
+
+  private long maxLatency = 0;
+
+  /**
+   * An entry was added to a queue.
+   */
+  synchronized void queued()
+  {
+    queued++;
+    depth++;
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+  }
+
+  /**
+   * An entry replaced a pending entry in a queue.
+   */
+  synchronized void coalesced()
+  {
+    coalesced++;
+  }
+
+  /**
+   * An entry was taken from a queue for delivery.
+   *
+   * @param queuedAt
+   *          The time when the entry was queued.
+   */
+  synchronized void dispatched(long queuedAt)
+  {
+    dispatched++;
+    depth--;
+    final long latency = System.currentTimeMillis() - queuedAt;
+    totalLatency += latency;
+    if (latency > maxLatency) {
+      maxLatency = latency;
+    }
+  }
+
+  /**
+   * Add the counters to a map.
+   *
+   * @param prefix
+   *          Prefix for the names of the counters.
+   * @param res
+   *          The map to add the counters to.
+   */
+  synchronized void addTo(String prefix, Map<String, Long> res)
+  {
+    res.put(prefix + ".queued", new Long(queued));
+    res.put(prefix + ".coalesced", new Long(coalesced));
+    res.put(prefix + ".dispatched", new Long(dispatched));
+    res.put(prefix + ".depth", new Long(depth));
+    res.put(prefix + ".depth.max", new Long(maxDepth));
+    res.put(prefix + ".latency.avg",
+            new Long(dispatched > 0 ? totalLatency / dispatched : 0));
+    res.put(prefix + ".latency.max", new Long(maxLatency));
+  }
+}
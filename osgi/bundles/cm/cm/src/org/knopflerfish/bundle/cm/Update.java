@@ -51,6 +51,11 @@ final class Update
 
   ConfigurationDictionary processedConfiguration = null;
 
+  /**
+   * The time when this update was queued.
+   */
+  long queued;
+
   /**
    * Create an update configuration job.
    *
@@ -68,6 +73,21 @@ final class Update
     this.configuration = configuration;
   }
 
+  /**
+   * Check if this update is for the same target service and configuration as
+   * another one.
+   *
+   * @param other The update to compare with.
+   * @return {@code true} if the other update supersedes this one.
+   */
+  boolean isSameTarget(Update other)
+  {
+    return sr != null && sr.equals(other.sr) && pid != null
+           && pid.equals(other.pid)
+           && (factoryPid == null ? other.factoryPid == null
+                                  : factoryPid.equals(other.factoryPid));
+  }
+
   public void doUpdate(PluginManager pm)
       throws ConfigurationException
   {
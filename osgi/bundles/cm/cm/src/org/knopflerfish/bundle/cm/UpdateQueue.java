@@ -40,7 +40,8 @@ import org.osgi.service.cm.ConfigurationException;
 
 /**
  * This class is responsible for dispatching configurations to
- * ManagedService(Factories).
+ * ManagedService(Factories). Updates are delivered in order using
+ * a thread from the shared {@link DispatchExecutor}.
  * 
  * It is also responsible for calling <code>ConfigurationPlugins</code>.
  * 
@@ -51,31 +52,44 @@ import org.osgi.service.cm.ConfigurationException;
 final class UpdateQueue
   implements Runnable
 {
+  /**
+   * Max number of updates delivered before giving other queues a chance to
+   * run.
+   */
+  private static final int MAX_BATCH = 16;
+
   /**
    * The PluginManager to use.
    */
   private PluginManager pm;
 
   /**
-   * The thread running this object.
+   * The executor to deliver updates in.
    */
-  private Thread thread;
+  private final DispatchExecutor executor;
 
-  private final Object threadLock = new Object();
+  private final QueueStatistics stats;
+
+  /**
+   * True while this queue is submitted to the executor.
+   */
+  private boolean scheduled = false;
 
   /**
    * The queue of updates.
    */
   private Vector<Update> queue = new Vector<Update>();
 
-  UpdateQueue(PluginManager pm)
+  UpdateQueue(PluginManager pm, DispatchExecutor executor, QueueStatistics stats)
   {
     this.pm = pm;
+    this.executor = executor;
+    this.stats = stats;
   }
 
   public void run()
   {
-    while (true) {
+    for (int i = 0; i < MAX_BATCH; i++) {
       Update update = dequeue();
       if (update == null) {
         return;
@@ -89,10 +103,20 @@ final class UpdateQueue
         Activator.log.error("[CM] Error while updating " + update.pid, t);
       }
     }
+    // Let other queues run before continuing
+    synchronized (this) {
+      if (queue.isEmpty()) {
+        scheduled = false;
+      } else {
+        executor.execute(this);
+      }
+    }
   }
 
   /**
-   * Add an entry to the end of the queue.
+   * Add an entry to the end of the queue. A pending update for the same
+   * target service and configuration is replaced by the new one since the
+   * target only needs to see the latest configuration.
    * 
    * @param update
    *          The Update to add to the queue.
@@ -104,49 +128,39 @@ final class UpdateQueue
     if (update == null) {
       return;
     }
+    for (int i = queue.size() - 1; i >= 0; i--) {
+      if (queue.elementAt(i).isSameTarget(update)) {
+        // Keep the queue time of the replaced update
+        update.queued = queue.elementAt(i).queued;
+        queue.setElementAt(update, i);
+        stats.coalesced();
+        return;
+      }
+    }
+    update.queued = System.currentTimeMillis();
     queue.addElement(update);
-    attachNewThreadIfNeccesary();
-    notifyAll();
+    stats.queued();
+    if (!scheduled) {
+      scheduled = true;
+      executor.execute(this);
+    }
   }
 
   /**
-   * Get and remove the next entry from the queue. If the queue is empty this
-   * method waits until an entry is available.
+   * Get and remove the next entry from the queue.
    * 
-   * @return The Update entry removed from the queue.
+   * @return The Update entry removed from the queue or {@code null} if the
+   *         queue is empty.
    */
   private synchronized Update dequeue()
   {
     if (queue.isEmpty()) {
-      try {
-        wait(5000);
-      } catch (InterruptedException ignored) {
-      }
-    }
-    if (queue.isEmpty()) {
-      detachCurrentThread();
+      scheduled = false;
       return null;
     }
     Update u = queue.elementAt(0);
     queue.removeElementAt(0);
+    stats.dispatched(u.queued);
     return u;
   }
-
-  void attachNewThreadIfNeccesary()
-  {
-    synchronized (threadLock) {
-      if (thread == null) {
-        thread = new Thread(this);
-        thread.setDaemon(true);
-        thread.start();
-      }
-    }
-  }
-
-  void detachCurrentThread()
-  {
-    synchronized (threadLock) {
-      thread = null;
-    }
-  }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.shared.cm;
+
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Map;
+
+import org.osgi.service.cm.Configuration;
+
+/**
+ * Knopflerfish extension to the configuration admin service for updating
+ * many configurations at once.
+ *
+ * <p>
+ * The <code>ConfigurationAdmin</code> service object handed out by the
+ * Knopflerfish CM implementation also implements this interface.
+ * </p>
+ */
+public interface BatchConfigurationAdmin {
+
+  /**
+   * Update the properties of a number of configurations.
+   *
+   * <p>
+   * The result is the same as calling
+   * {@link Configuration#update(Dictionary)} on each configuration, but all
+   * properties are validated before anything is changed and the new
+   * configurations are saved using a single store commit. Managed services
+   * will only see the latest properties of a configuration that is updated
+   * again before an earlier update has been delivered. The resulting
+   * configuration events are queued for the configuration listeners
+   * together.
+   * </p>
+   *
+   * @param updates
+   *          Map from configuration, as returned by this configuration admin
+   *          service, to its new properties.
+   * @throws IOException
+   *           If saving the configurations failed, then none of them are
+   *           changed, or if dispatching the saved configurations failed.
+   * @throws IllegalArgumentException
+   *           If a configuration does not come from this configuration admin
+   *           service or if some properties are not valid.
+   * @throws IllegalStateException
+   *           If one of the configurations has been deleted.
+   */
+  void updateAll(Map<Configuration, Dictionary<String, ?>> updates)
+      throws IOException;
+}
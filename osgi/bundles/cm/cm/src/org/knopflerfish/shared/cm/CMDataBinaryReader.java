@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.shared.cm;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Reads configuration properties written by {@link CMDataBinaryWriter}.
+ *
+ * <p>
+ * Property keys are shared between all dictionaries read by the same reader,
+ * so that a large number of configurations with the same keys do not hold
+ * a copy of each key per configuration.
+ * </p>
+ */
+public class CMDataBinaryReader
+{
+  /**
+   * Max number of keys to remember.
+   */
+  private final static int MAX_KEYS = 4096;
+
+  private static Class<?> classBigDecimal = null;
+  static {
+    try {
+      classBigDecimal = Class.forName("java.math.BigDecimal");
+    } catch (final Throwable ignore) {
+      classBigDecimal = null;
+    }
+  }
+
+  private final HashMap<String, String> keys = new HashMap<String, String>();
+
+  /**
+   * Check if the given bytes are the start of binary CM data.
+   *
+   * @param b0
+   *          The first byte.
+   * @param b1
+   *          The second byte.
+   * @return {@code true} if the bytes are {@link CMDataBinaryWriter#MAGIC}.
+   */
+  public static boolean isBinary(int b0, int b1)
+  {
+    return ((b0 & 0xff) << 8 | (b1 & 0xff)) == CMDataBinaryWriter.MAGIC;
+  }
+
+  /**
+   * Read a dictionary with configuration properties.
+   *
+   * @param in
+   *          The input to read from, positioned at the magic number.
+   * @return The properties read.
+   * @throws IOException
+   *           If reading fails or if the data is not valid binary CM data.
+   */
+  public Hashtable<String, Object> readCMData(DataInput in)
+      throws IOException
+  {
+    final int magic = in.readUnsignedShort();
+    if (magic != CMDataBinaryWriter.MAGIC) {
+      throw new IOException("Not binary CM data, bad magic "
+                            + Integer.toHexString(magic));
+    }
+    final int version = in.readUnsignedByte();
+    if (version != CMDataBinaryWriter.VERSION) {
+      throw new IOException("Unsupported binary CM data version " + version);
+    }
+    final int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Bad binary CM data size " + size);
+    }
+    final Hashtable<String, Object> res = new Hashtable<String, Object>();
+    for (int i = 0; i < size; i++) {
+      final String key = key(readString(in));
+      final Object value = readValue(in.readByte(), in);
+      if (value != null) {
+        res.put(key, value);
+      }
+    }
+    return res;
+  }
+
+  private String key(String key)
+  {
+    synchronized (keys) {
+      final String res = keys.get(key);
+      if (res != null) {
+        return res;
+      }
+      if (keys.size() < MAX_KEYS) {
+        keys.put(key, key);
+      }
+    }
+    return key;
+  }
+
+  static String readString(DataInput in)
+      throws IOException
+  {
+    final String s = in.readUTF();
+    if (s.length() < CMDataBinaryWriter.MAX_CHUNK) {
+      return s;
+    }
+    final StringBuffer sb = new StringBuffer(s);
+    String chunk;
+    do {
+      chunk = in.readUTF();
+      sb.append(chunk);
+    } while (chunk.length() == CMDataBinaryWriter.MAX_CHUNK);
+    return sb.toString();
+  }
+
+  private Object readValue(byte tag, DataInput in)
+      throws IOException
+  {
+    switch (tag) {
+    case CMDataBinaryWriter.NULL:
+      return null;
+    case CMDataBinaryWriter.STRING:
+      return readString(in);
+    case CMDataBinaryWriter.INTEGER:
+      return new Integer(in.readInt());
+    case CMDataBinaryWriter.LONG:
+      return new Long(in.readLong());
+    case CMDataBinaryWriter.SHORT:
+      return new Short(in.readShort());
+    case CMDataBinaryWriter.BYTE:
+      return new Byte(in.readByte());
+    case CMDataBinaryWriter.CHARACTER:
+      return new Character(in.readChar());
+    case CMDataBinaryWriter.BOOLEAN:
+      return in.readBoolean() ? Boolean.TRUE : Boolean.FALSE;
+    case CMDataBinaryWriter.FLOAT:
+      return new Float(in.readFloat());
+    case CMDataBinaryWriter.DOUBLE:
+      return new Double(in.readDouble());
+    case CMDataBinaryWriter.BIG_INTEGER:
+      return new BigInteger(readString(in));
+    case CMDataBinaryWriter.BIG_DECIMAL:
+      return newBigDecimal(readString(in));
+    case CMDataBinaryWriter.VECTOR: {
+      final int size = readLength(in);
+      final Vector<Object> v = new Vector<Object>(Math.min(size, 1024));
+      for (int i = 0; i < size; i++) {
+        v.addElement(readValue(in.readByte(), in));
+      }
+      return v;
+    }
+    case CMDataBinaryWriter.ARRAY:
+      return readArray(in);
+    default:
+      throw new IOException("Bad binary CM data value tag " + tag);
+    }
+  }
+
+  private Object readArray(DataInput in)
+      throws IOException
+  {
+    final Class<?> componentType = readClass(in.readByte(), in);
+    final int length = readLength(in);
+    if (!componentType.isPrimitive()) {
+      final Object[] a = (Object[]) Array.newInstance(componentType, length);
+      for (int i = 0; i < length; i++) {
+        final Object o = readValue(in.readByte(), in);
+        if (o != null && !componentType.isInstance(o)) {
+          throw new IOException("Bad binary CM data array element " + o);
+        }
+        a[i] = o;
+      }
+      return a;
+    } else if (componentType == Integer.TYPE) {
+      final int[] a = new int[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readInt();
+      }
+      return a;
+    } else if (componentType == Long.TYPE) {
+      final long[] a = new long[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readLong();
+      }
+      return a;
+    } else if (componentType == Short.TYPE) {
+      final short[] a = new short[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readShort();
+      }
+      return a;
+    } else if (componentType == Byte.TYPE) {
+      final byte[] a = new byte[length];
+      in.readFully(a);
+      return a;
+    } else if (componentType == Character.TYPE) {
+      final char[] a = new char[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readChar();
+      }
+      return a;
+    } else if (componentType == Boolean.TYPE) {
+      final boolean[] a = new boolean[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readBoolean();
+      }
+      return a;
+    } else if (componentType == Float.TYPE) {
+      final float[] a = new float[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readFloat();
+      }
+      return a;
+    } else {
+      final double[] a = new double[length];
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readDouble();
+      }
+      return a;
+    }
+  }
+
+  private static Class<?> readClass(byte tag, DataInput in)
+      throws IOException
+  {
+    switch (tag) {
+    case CMDataBinaryWriter.STRING:
+      return String.class;
+    case CMDataBinaryWriter.INTEGER:
+      return Integer.class;
+    case CMDataBinaryWriter.LONG:
+      return Long.class;
+    case CMDataBinaryWriter.SHORT:
+      return Short.class;
+    case CMDataBinaryWriter.BYTE:
+      return Byte.class;
+    case CMDataBinaryWriter.CHARACTER:
+      return Character.class;
+    case CMDataBinaryWriter.BOOLEAN:
+      return Boolean.class;
+    case CMDataBinaryWriter.FLOAT:
+      return Float.class;
+    case CMDataBinaryWriter.DOUBLE:
+      return Double.class;
+    case CMDataBinaryWriter.BIG_INTEGER:
+      return BigInteger.class;
+    case CMDataBinaryWriter.BIG_DECIMAL:
+      if (classBigDecimal == null) {
+        throw new IOException("BigDecimal is not available");
+      }
+      return classBigDecimal;
+    case CMDataBinaryWriter.VECTOR:
+      return Vector.class;
+    case CMDataBinaryWriter.ARRAY:
+      return Array.newInstance(readClass(in.readByte(), in), 0).getClass();
+    case CMDataBinaryWriter.P_INT:
+      return Integer.TYPE;
+    case CMDataBinaryWriter.P_LONG:
+      return Long.TYPE;
+    case CMDataBinaryWriter.P_SHORT:
+      return Short.TYPE;
+    case CMDataBinaryWriter.P_BYTE:
+      return Byte.TYPE;
+    case CMDataBinaryWriter.P_CHAR:
+      return Character.TYPE;
+    case CMDataBinaryWriter.P_BOOLEAN:
+      return Boolean.TYPE;
+    case CMDataBinaryWriter.P_FLOAT:
+      return Float.TYPE;
+    case CMDataBinaryWriter.P_DOUBLE:
+      return Double.TYPE;
+    default:
+      throw new IOException("Bad binary CM data class tag " + tag);
+    }
+  }
+
+  private static int readLength(DataInput in)
+      throws IOException
+  {
+    final int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Bad binary CM data length " + length);
+    }
+    return length;
+  }
+
+  private static Object newBigDecimal(String s)
+      throws IOException
+  {
+    if (classBigDecimal == null) {
+      throw new IOException("BigDecimal is not available");
+    }
+    try {
+      return classBigDecimal.getConstructor(new Class<?>[] { String.class })
+          .newInstance(new Object[] { s });
+    } catch (final Exception e) {
+      throw new IOException("Bad BigDecimal value " + s + ": " + e);
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.shared.cm;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * Writes configuration properties in a compact binary format, see
+ * {@link CMDataBinaryReader} for reading it back.
+ *
+ * <p>
+ * The format holds the same data as the XML format written by
+ * {@link CMDataWriter}, but with the type of each value given by a tag byte
+ * and numbers in their binary form. It starts with {@link #MAGIC} and
+ * {@link #VERSION} followed by the number of properties and each key with
+ * its value. Collections are written as vectors.
+ * </p>
+ */
+public class CMDataBinaryWriter
+{
+  /**
+   * First two bytes of binary CM data, can not be the start of an XML
+   * document.
+   */
+  public final static int MAGIC = 0xCFDB;
+
+  /**
+   * Version of the binary format.
+   */
+  public final static int VERSION = 1;
+
+  // Value and class tags
+  final static byte NULL = 0;
+  final static byte STRING = 1;
+  final static byte INTEGER = 2;
+  final static byte LONG = 3;
+  final static byte SHORT = 4;
+  final static byte BYTE = 5;
+  final static byte CHARACTER = 6;
+  final static byte BOOLEAN = 7;
+  final static byte FLOAT = 8;
+  final static byte DOUBLE = 9;
+  final static byte BIG_INTEGER = 10;
+  final static byte BIG_DECIMAL = 11;
+  final static byte VECTOR = 12;
+  final static byte ARRAY = 13;
+
+  // Primitive array component tags
+  final static byte P_INT = 20;
+  final static byte P_LONG = 21;
+  final static byte P_SHORT = 22;
+  final static byte P_BYTE = 23;
+  final static byte P_CHAR = 24;
+  final static byte P_BOOLEAN = 25;
+  final static byte P_FLOAT = 26;
+  final static byte P_DOUBLE = 27;
+
+  /**
+   * Max number of chars in a string chunk, makes sure that a chunk always
+   * fits in the 64k bytes of a {@link DataOutput#writeUTF(String)}.
+   */
+  final static int MAX_CHUNK = 0xffff / 3;
+
+  private static Class<?> classBigDecimal = null;
+  static {
+    try {
+      classBigDecimal = Class.forName("java.math.BigDecimal");
+    } catch (final Throwable ignore) {
+      classBigDecimal = null;
+    }
+  }
+
+  private final static Hashtable<Class<?>, Byte> classToTag
+    = new Hashtable<Class<?>, Byte>();
+  static {
+    classToTag.put(String.class, new Byte(STRING));
+    classToTag.put(Integer.class, new Byte(INTEGER));
+    classToTag.put(Long.class, new Byte(LONG));
+    classToTag.put(Short.class, new Byte(SHORT));
+    classToTag.put(Byte.class, new Byte(BYTE));
+    classToTag.put(Character.class, new Byte(CHARACTER));
+    classToTag.put(Boolean.class, new Byte(BOOLEAN));
+    classToTag.put(Float.class, new Byte(FLOAT));
+    classToTag.put(Double.class, new Byte(DOUBLE));
+    classToTag.put(BigInteger.class, new Byte(BIG_INTEGER));
+    if (classBigDecimal != null) {
+      classToTag.put(classBigDecimal, new Byte(BIG_DECIMAL));
+    }
+    classToTag.put(Integer.TYPE, new Byte(P_INT));
+    classToTag.put(Long.TYPE, new Byte(P_LONG));
+    classToTag.put(Short.TYPE, new Byte(P_SHORT));
+    classToTag.put(Byte.TYPE, new Byte(P_BYTE));
+    classToTag.put(Character.TYPE, new Byte(P_CHAR));
+    classToTag.put(Boolean.TYPE, new Byte(P_BOOLEAN));
+    classToTag.put(Float.TYPE, new Byte(P_FLOAT));
+    classToTag.put(Double.TYPE, new Byte(P_DOUBLE));
+  }
+
+  /**
+   * Write a dictionary with configuration properties.
+   *
+   * @param dictionary
+   *          The properties to write.
+   * @param out
+   *          The output to write to.
+   * @throws IOException
+   *           If writing fails or if a value has a type that is not allowed
+   *           in a configuration.
+   */
+  public static void writeCMData(Dictionary<String, ?> dictionary,
+                                 DataOutput out)
+      throws IOException
+  {
+    out.writeShort(MAGIC);
+    out.writeByte(VERSION);
+    out.writeInt(dictionary.size());
+    final Enumeration<String> keys = dictionary.keys();
+    while (keys.hasMoreElements()) {
+      final String key = keys.nextElement();
+      writeString(key, out);
+      writeValue(dictionary.get(key), out);
+    }
+  }
+
+  static void writeString(String s, DataOutput out)
+      throws IOException
+  {
+    // Long strings are written as a sequence of chunks, a full chunk is
+    // always followed by another, possibly empty, chunk.
+    int pos = 0;
+    do {
+      final int end = Math.min(s.length(), pos + MAX_CHUNK);
+      out.writeUTF(pos == 0 && end == s.length() ? s : s.substring(pos, end));
+      pos += MAX_CHUNK;
+    } while (pos <= s.length());
+  }
+
+  static private void writeValue(Object value, DataOutput out)
+      throws IOException
+  {
+    if (value == null) {
+      out.writeByte(NULL);
+      return;
+    }
+    final Class<? extends Object> valueClass = value.getClass();
+    if (valueClass.isArray()) {
+      out.writeByte(ARRAY);
+      writeArray(value, out);
+      return;
+    } else if (value instanceof Collection) {
+      final Collection<?> c = (Collection<?>) value;
+      out.writeByte(VECTOR);
+      out.writeInt(c.size());
+      for (final Iterator<?> it = c.iterator(); it.hasNext();) {
+        writeValue(it.next(), out);
+      }
+      return;
+    }
+    final byte tag = tagOf(valueClass);
+    out.writeByte(tag);
+    switch (tag) {
+    case STRING:
+      writeString((String) value, out);
+      break;
+    case INTEGER:
+      out.writeInt(((Integer) value).intValue());
+      break;
+    case LONG:
+      out.writeLong(((Long) value).longValue());
+      break;
+    case SHORT:
+      out.writeShort(((Short) value).shortValue());
+      break;
+    case BYTE:
+      out.writeByte(((Byte) value).byteValue());
+      break;
+    case CHARACTER:
+      out.writeChar(((Character) value).charValue());
+      break;
+    case BOOLEAN:
+      out.writeBoolean(((Boolean) value).booleanValue());
+      break;
+    case FLOAT:
+      out.writeFloat(((Float) value).floatValue());
+      break;
+    case DOUBLE:
+      out.writeDouble(((Double) value).doubleValue());
+      break;
+    case BIG_INTEGER:
+    case BIG_DECIMAL:
+      writeString(value.toString(), out);
+      break;
+    default:
+      throw new IOException("Not a configuration value: " + valueClass);
+    }
+  }
+
+  /**
+   * Write the component class of an array followed by its length and
+   * elements.
+   */
+  static private void writeArray(Object array, DataOutput out)
+      throws IOException
+  {
+    final Class<?> componentType = array.getClass().getComponentType();
+    writeClass(componentType, out);
+    final int length = Array.getLength(array);
+    out.writeInt(length);
+    if (!componentType.isPrimitive()) {
+      final Object[] oa = (Object[]) array;
+      for (int i = 0; i < length; i++) {
+        writeValue(oa[i], out);
+      }
+    } else if (componentType == Integer.TYPE) {
+      final int[] a = (int[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeInt(a[i]);
+      }
+    } else if (componentType == Long.TYPE) {
+      final long[] a = (long[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeLong(a[i]);
+      }
+    } else if (componentType == Short.TYPE) {
+      final short[] a = (short[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeShort(a[i]);
+      }
+    } else if (componentType == Byte.TYPE) {
+      out.write((byte[]) array);
+    } else if (componentType == Character.TYPE) {
+      final char[] a = (char[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeChar(a[i]);
+      }
+    } else if (componentType == Boolean.TYPE) {
+      final boolean[] a = (boolean[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeBoolean(a[i]);
+      }
+    } else if (componentType == Float.TYPE) {
+      final float[] a = (float[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeFloat(a[i]);
+      }
+    } else {
+      final double[] a = (double[]) array;
+      for (int i = 0; i < length; i++) {
+        out.writeDouble(a[i]);
+      }
+    }
+  }
+
+  static private void writeClass(Class<?> c, DataOutput out)
+      throws IOException
+  {
+    if (c.isArray()) {
+      out.writeByte(ARRAY);
+      writeClass(c.getComponentType(), out);
+    } else if (c == Vector.class) {
+      out.writeByte(VECTOR);
+    } else {
+      out.writeByte(tagOf(c));
+    }
+  }
+
+  static private byte tagOf(Class<?> c)
+      throws IOException
+  {
+    final Byte tag = classToTag.get(c);
+    if (tag == null) {
+      throw new IOException("Not a configuration type: " + c);
+    }
+    return tag.byteValue();
+  }
+}
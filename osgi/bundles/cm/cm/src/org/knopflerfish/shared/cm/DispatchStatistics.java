@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.shared.cm;
+
+import java.util.Map;
+
+/**
+ * Knopflerfish extension to the configuration admin service giving access
+ * to counters for the delivery of configurations to managed services and of
+ * configuration events to configuration listeners.
+ *
+ * <p>
+ * The <code>ConfigurationAdmin</code> service object handed out by the
+ * Knopflerfish CM implementation also implements this interface.
+ * </p>
+ */
+public interface DispatchStatistics {
+
+  /**
+   * Get a snapshot of the dispatch counters.
+   *
+   * <p>
+   * The keys are on the form <code>&lt;queue&gt;.&lt;counter&gt;</code>
+   * where queue is <code>update</code> for deliveries to managed services
+   * and <code>event</code> for configuration events. The counters are
+   * <code>queued</code>, <code>coalesced</code>, <code>dispatched</code>,
+   * <code>depth</code>, <code>depth.max</code>, <code>latency.avg</code> and
+   * <code>latency.max</code>, latencies are in milliseconds. The keys
+   * <code>threads</code> and <code>threads.max</code> give the current and
+   * maximum number of dispatch threads.
+   * </p>
+   *
+   * @return Sorted map from counter name to value.
+   */
+  Map<String, Long> getDispatchStatistics();
+}
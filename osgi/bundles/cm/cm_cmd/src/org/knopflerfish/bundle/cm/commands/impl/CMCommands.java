@@ -75,6 +75,7 @@ import org.knopflerfish.service.console.CommandGroupAdapter;
 import org.knopflerfish.service.console.Session;
 import org.knopflerfish.shared.cm.CMDataReader;
 import org.knopflerfish.shared.cm.CMDataWriter;
+import org.knopflerfish.shared.cm.DispatchStatistics;
 import org.knopflerfish.util.sort.Sort;
 
 // ******************** CMCommands ********************
@@ -788,6 +789,44 @@ public class CMCommands
     return retcode;
   }
 
+  public final static String USAGE_STATS = "";
+
+  public final static String[] HELP_STATS =
+    new String[] { "Show counters for the delivery of configurations and",
+                  "configuration events.",
+                  "The depth counters give the number of queued deliveries,",
+                  "latencies are the time from queueing to delivery in ms." };
+
+  public int cmdStats(Dictionary<?, ?> opts,
+                      Reader in,
+                      PrintWriter out,
+                      Session session)
+  {
+    int retcode = 1; // 1 initially not set to 0 until end of try block
+    ConfigurationAdmin srvCA = null;
+    try {
+      srvCA = getCA();
+      if (!(srvCA instanceof DispatchStatistics)) {
+        throw new Exception("The CM service does not provide statistics.");
+      }
+      final Map<String, Long> stats =
+        ((DispatchStatistics) srvCA).getDispatchStatistics();
+      for (final Map.Entry<String, Long> entry : stats.entrySet()) {
+        out.println(" " + entry.getKey() + "= " + entry.getValue());
+      }
+      retcode = 0; // Success!
+    } catch (final Exception e) {
+      out.print("Stats failed. Details:");
+      final String reason = e.getMessage();
+      out.println(reason == null ? "<unknown>" : reason);
+    } finally {
+      if (srvCA != null) {
+        bc.ungetService(refCA);
+      }
+    }
+    return retcode;
+  }
+
   /** Helper method that get the CA service. */
   ConfigurationAdmin getCA()
       throws Exception
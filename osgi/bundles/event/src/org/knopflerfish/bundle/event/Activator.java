@@ -53,15 +53,25 @@ public class Activator implements BundleActivator {
     = "org.knopflerfish.eventadmin.queuehandler.multiple";
   private static final String QUEUE_HANDLER_TIMEOUT_PROP
     = "org.knopflerfish.eventadmin.queuehandler.timeout";
+  private static final String WORKERS_PROP
+    = "org.knopflerfish.eventadmin.workers";
+  private static final String QUEUE_SIZE_PROP
+    = "org.knopflerfish.eventadmin.queue.size";
+  private static final String QUEUE_OVERFLOW_PROP
+    = "org.knopflerfish.eventadmin.queue.overflow";
 
   static BundleContext bc;
   static LogRef log;
   static EventAdminService eventAdmin;
   static EventHandlerTracker handlerTracker;
+  static DeliveryWatchdog watchdog;
   static long timeout = 0;
   static boolean useMultipleQueueHandlers = true;
   static long queueHandlerTimeout = 1100;
   static long timeWarning = 0;
+  static int workers = 0;
+  static int queueSize = 0;
+  static boolean dropOnOverflow = false;
 
   public void start(BundleContext bc) throws Exception
   {
@@ -102,6 +112,34 @@ public class Activator implements BundleActivator {
       timeWarning = 0;
     }
 
+    try {
+      final String workersS = Activator.bc.getProperty(WORKERS_PROP);
+      if (null != workersS && 0 < workersS.length()) {
+        workers = Integer.parseInt(workersS.trim());
+      }
+    } catch (NumberFormatException ignore) {
+      workers = 0;
+    }
+
+    try {
+      final String queueSizeS = Activator.bc.getProperty(QUEUE_SIZE_PROP);
+      if (null != queueSizeS && 0 < queueSizeS.length()) {
+        queueSize = Integer.parseInt(queueSizeS.trim());
+      }
+    } catch (NumberFormatException ignore) {
+      queueSize = 0;
+    }
+
+    final String overflow = Activator.bc.getProperty(QUEUE_OVERFLOW_PROP);
+    if (null != overflow) {
+      dropOnOverflow = "drop".equalsIgnoreCase(overflow.trim());
+    }
+
+    if (timeout > 0) {
+      watchdog = new DeliveryWatchdog(timeout);
+      watchdog.start();
+    }
+
     handlerTracker.open();
 
     eventAdmin = new EventAdminService();
@@ -112,5 +150,9 @@ public class Activator implements BundleActivator {
   {
     eventAdmin.stop();
     handlerTracker.close();
+    if (watchdog != null) {
+      watchdog.stopIt();
+      watchdog = null;
+    }
   }
 }
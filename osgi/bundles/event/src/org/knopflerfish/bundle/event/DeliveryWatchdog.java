@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.event;
+
+import java.util.LinkedList;
+
+import org.knopflerfish.util.Timer;
+
+/**
+ * Detects event handlers that do not return from
+ * <code>handleEvent()</code> within the configured timeout.
+ *
+ * Events are delivered on the delivering thread itself, i.e., a
+ * queue handler, a worker or, for <code>sendEvent()</code>, a helper
+ * thread of the {@link SyncDeliveryPool}. The delivering thread
+ * registers each handler call with the watchdog. A single watchdog
+ * thread checks the deadline of the oldest call in progress. When a
+ * call has not returned in time, the handler is blacklisted, the
+ * delivery of the event is abandoned and the remaining handlers of the
+ * event, followed by the remaining events of the delivering thread,
+ * are handed over to another thread so that they are not delayed by
+ * the slow handler.
+ */
+public class DeliveryWatchdog extends Thread {
+
+  /**
+   * A handler call in progress.
+   */
+  static class Watch {
+    final InternalAdminEvent event;
+    final TrackedEventHandler handler;
+    /** Index of the handler in the handlers of the event. */
+    final int index;
+    final Thread thread;
+    final long deadline;
+    boolean timedOut = false;
+
+    Watch(InternalAdminEvent event, TrackedEventHandler handler, int index,
+          Thread thread, long deadline)
+    {
+      this.event = event;
+      this.handler = handler;
+      this.index = index;
+      this.thread = thread;
+      this.deadline = deadline;
+    }
+  }
+
+  /** The timeout in milliseconds. */
+  private final long timeout;
+
+  /**
+   * Handler calls in progress. Since all calls have the same timeout
+   * the first one has the earliest deadline.
+   */
+  private final LinkedList<Watch> watches = new LinkedList<Watch>();
+
+  private boolean running = true;
+
+
+  /**
+   * Create a watchdog thread.
+   *
+   * @param timeout Max time in milliseconds for a handler call.
+   */
+  public DeliveryWatchdog(long timeout)
+  {
+    super("EventAdmin-Watchdog");
+    setDaemon(true);
+    this.timeout = timeout;
+  }
+
+
+  /**
+   * Called by the delivering thread just before calling an event
+   * handler.
+   *
+   * @param event The event to deliver.
+   * @param handler The handler to call.
+   * @param index The index of the handler in the handlers of the event.
+   * @return Watch object to pass to {@link #done(Watch)}.
+   */
+  synchronized Watch start(InternalAdminEvent event,
+                           TrackedEventHandler handler,
+                           int index)
+  {
+    final Watch w = new Watch(event, handler, index, Thread.currentThread(),
+                              Timer.timeMillis() + timeout);
+    watches.add(w);
+    if (watches.size() == 1) {
+      notifyAll();
+    }
+    return w;
+  }
+
+
+  /**
+   * Called by the delivering thread when the event handler has
+   * returned.
+   *
+   * @param w The object returned by {@link #start}.
+   */
+  void done(Watch w)
+  {
+    final boolean timedOut;
+    synchronized (this) {
+      timedOut = w.timedOut;
+      if (!timedOut) {
+        watches.remove(w);
+      }
+    }
+    if (timedOut) {
+      // A successful delivery clears the blacklist, restore it.
+      w.handler.setBlacklist(true);
+    }
+  }
+
+
+  public void run()
+  {
+    while (true) {
+      Watch overrun = null;
+      synchronized (this) {
+        try {
+          while (running && overrun == null) {
+            if (watches.isEmpty()) {
+              wait();
+            } else {
+              final long left = watches.getFirst().deadline - Timer.timeMillis();
+              if (left > 0) {
+                wait(left);
+              } else {
+                overrun = watches.removeFirst();
+                overrun.timedOut = true;
+                if (isReplaceable(overrun.thread)) {
+                  // Must be done while holding the lock, so that
+                  // the delivering thread does not call the next
+                  // handler if the slow call returns right now.
+                  overrun.event.setAbandoned();
+                }
+              }
+            }
+          }
+        } catch (InterruptedException ie) {
+          Activator.log.error("EventAdmin watchdog was interrupted unexpectedly");
+        }
+        if (!running) {
+          return;
+        }
+      }
+      if (overrun != null) {
+        // Must be outside synchronized since logging causes events.
+        overrun.handler.setBlacklist(true);
+        overrun.event.log(overrun.handler,
+                          "Event delivery to event handler timed out, "
+                          +"blacklisting event handler.");
+        if (overrun.event.isAbandoned()) {
+          final InternalAdminEvent rest
+            = overrun.event.getRemaining(overrun.index + 1);
+          if (overrun.thread instanceof QueueHandler) {
+            ((QueueHandler) overrun.thread).deliveryTimedOut(rest);
+          } else if (overrun.thread instanceof WorkerPool.Worker) {
+            ((WorkerPool.Worker) overrun.thread).deliveryTimedOut(rest);
+          } else {
+            ((SyncDeliveryPool.Helper) overrun.thread).deliveryTimedOut(rest);
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   * True if the remaining deliveries of the given thread can be
+   * handed over to another thread.
+   */
+  private static boolean isReplaceable(Thread thread)
+  {
+    return thread instanceof QueueHandler
+      || thread instanceof WorkerPool.Worker
+      || thread instanceof SyncDeliveryPool.Helper;
+  }
+
+
+  /**
+   * Stop the watchdog thread.
+   */
+  void stopIt()
+  {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    try {
+      join();
+    } catch (InterruptedException e) {
+      // Ignore
+    }
+  }
+
+}
@@ -34,13 +34,17 @@
 
 package org.knopflerfish.bundle.event;
 
+import org.knopflerfish.service.event.BatchEventAdmin;
+import org.knopflerfish.service.event.EventQueueStatistics;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -58,13 +62,18 @@ import java.util.Set;
  * @author Magnus Klack (refactoring by Bj\u00f6rn Andersson)
  */
 public class EventAdminService
-  implements EventAdmin
+  implements BatchEventAdmin
 {
   final private Map<Object, QueueHandler> queueHandlers
     = new HashMap<Object, QueueHandler>();
   final private MultiListener ml;
   final private ConfigurationListenerImpl cli;
-  private ServiceRegistration<EventAdmin> reg;
+  private ServiceRegistration<?> reg;
+  private ServiceRegistration<?> statsReg;
+  /** Worker pool used for postEvent, null if queue handlers are used.*/
+  private volatile WorkerPool pool = null;
+  /** Helper threads used for sendEvent, null if there is no timeout.*/
+  private volatile SyncDeliveryPool syncPool = null;
 
   public EventAdminService() {
     ml = new MultiListener();
@@ -75,41 +84,74 @@ public class EventAdminService
     try {
       final InternalAdminEvent iae
         = new InternalAdminEvent(event, getMatchingHandlers(event.getTopic()));
-      if (iae.getHandlers() == null) { // No-one to deliver to
-        return;
-      }
+      post(iae);
+    } catch(Exception e){
+      Activator.log.error("Unknown exception in postEvent():", e);
+    }
+  }
 
-      QueueHandler queueHandler = null;
-      boolean newQueueHandlerCreated = false;
-      synchronized(queueHandlers) {
-        final Thread currentThread = Thread.currentThread();
-        if (currentThread instanceof QueueHandler) {
-          // Event posted by event handler, queue it on the queue that
-          // called the event handler to keep the number of queue
-          // handlers down.
-          queueHandler = (QueueHandler) currentThread;
-        } else {
-          final Object key = Activator.useMultipleQueueHandlers
-            ? (Object) currentThread : (Object) this;
-          queueHandler = queueHandlers.get(key);
-          if (null==queueHandler) {
-            queueHandler = new QueueHandler(queueHandlers, key);
-            queueHandler.start();
-            queueHandlers.put(queueHandler.getKey(), queueHandler);
-            newQueueHandlerCreated = true;
-          }
+  public void postEvents(String topic,
+                         Map<String, ?> properties,
+                         List<? extends Map<String, ?>> eventProperties)
+  {
+    final Set<String> invariantKeys = new HashSet<String>();
+    final Event[] events = createEvents(topic, properties, eventProperties,
+                                        invariantKeys);
+    if (events == null) {
+      return;
+    }
+    try {
+      final InternalAdminEvent iae
+        = new InternalAdminEvent(events, invariantKeys,
+                                 getMatchingHandlers(topic));
+      post(iae);
+    } catch(Exception e){
+      Activator.log.error("Unknown exception in postEvents():", e);
+    }
+  }
+
+  private void post(InternalAdminEvent iae) {
+    if (iae.getHandlers() == null) { // No-one to deliver to
+      return;
+    }
+    iae.setPosted();
+
+    final WorkerPool wp = pool;
+    if (wp != null) {
+      final Object key = Activator.useMultipleQueueHandlers
+        ? (Object) Thread.currentThread() : (Object) this;
+      wp.addEvent(key, iae);
+      return;
+    }
+
+    QueueHandler queueHandler = null;
+    boolean newQueueHandlerCreated = false;
+    synchronized(queueHandlers) {
+      final Thread currentThread = Thread.currentThread();
+      if (currentThread instanceof QueueHandler) {
+        // Event posted by event handler, queue it on the queue that
+        // called the event handler to keep the number of queue
+        // handlers down.
+        queueHandler = (QueueHandler) currentThread;
+      } else {
+        final Object key = Activator.useMultipleQueueHandlers
+          ? (Object) currentThread : (Object) this;
+        queueHandler = queueHandlers.get(key);
+        if (null==queueHandler) {
+          queueHandler = new QueueHandler(queueHandlers, key);
+          queueHandler.start();
+          queueHandlers.put(queueHandler.getKey(), queueHandler);
+          newQueueHandlerCreated = true;
         }
-        queueHandler.addEvent(iae);
       }
-      // Must not do logging from within synchronized code since that
-      // may cause deadlock between the Log-service and the
-      // EventAdmin-service; each new log entry is sent out as an
-      // event via EventAdmin...
-      if (newQueueHandlerCreated && Activator.log.doDebug()) {
-        Activator.log.debug(queueHandler.getName() +" created.");
-      }
-    } catch(Exception e){
-      Activator.log.error("Unknown exception in postEvent():", e);
+      queueHandler.addEvent(iae);
+    }
+    // Must not do logging from within synchronized code since that
+    // may cause deadlock between the Log-service and the
+    // EventAdmin-service; each new log entry is sent out as an
+    // event via EventAdmin...
+    if (newQueueHandlerCreated && Activator.log.doDebug()) {
+      Activator.log.debug(queueHandler.getName() +" created.");
     }
   }
 
@@ -117,32 +159,131 @@ public class EventAdminService
     try {
       final InternalAdminEvent iae
         = new InternalAdminEvent(event, getMatchingHandlers(event.getTopic()));
-      if (iae.getHandlers() == null) { // No-one to deliver to
-        return;
-      }
-      iae.deliver();
+      send(iae);
     } catch(Exception e){
       Activator.log.error("Unknown exception in sendEvent():", e);
     }
   }
 
-  Set<TrackedEventHandler> getMatchingHandlers(String topic) {
+  public void sendEvents(String topic,
+                         Map<String, ?> properties,
+                         List<? extends Map<String, ?>> eventProperties)
+  {
+    final Set<String> invariantKeys = new HashSet<String>();
+    final Event[] events = createEvents(topic, properties, eventProperties,
+                                        invariantKeys);
+    if (events == null) {
+      return;
+    }
+    try {
+      final InternalAdminEvent iae
+        = new InternalAdminEvent(events, invariantKeys,
+                                 getMatchingHandlers(topic));
+      send(iae);
+    } catch(Exception e){
+      Activator.log.error("Unknown exception in sendEvents():", e);
+    }
+  }
+
+  private void send(InternalAdminEvent iae) {
+    if (iae.getHandlers() == null) { // No-one to deliver to
+      return;
+    }
+    final SyncDeliveryPool sp = syncPool;
+    if (sp != null) {
+      sp.send(iae);
+    } else {
+      iae.deliver();
+    }
+  }
+
+  /**
+   * Create the events of a batch.
+   *
+   * @param invariantKeys Set to add the lower case names of the
+   *          properties with the same value in all events to.
+   * @return The events or null if there are none.
+   */
+  private static Event[] createEvents(String topic,
+                                      Map<String, ?> properties,
+                                      List<? extends Map<String, ?>> eventProperties,
+                                      Set<String> invariantKeys)
+  {
+    if (eventProperties == null || eventProperties.isEmpty()) {
+      return null;
+    }
+    final Event[] events = new Event[eventProperties.size()];
+    int i = 0;
+    for (final Map<String, ?> eventProps : eventProperties) {
+      final Map<String, Object> props = new HashMap<String, Object>();
+      if (properties != null) {
+        props.putAll(properties);
+      }
+      if (eventProps != null) {
+        props.putAll(eventProps);
+      }
+      events[i++] = new Event(topic, props);
+    }
+
+    invariantKeys.add(EventConstants.EVENT_TOPIC);
+    if (properties != null) {
+      for (final String key : properties.keySet()) {
+        invariantKeys.add(key.toLowerCase());
+      }
+      for (final Map<String, ?> eventProps : eventProperties) {
+        if (eventProps != null) {
+          for (final String key : eventProps.keySet()) {
+            invariantKeys.remove(key.toLowerCase());
+          }
+        }
+      }
+    }
+    return events;
+  }
+
+  TrackedEventHandler[] getMatchingHandlers(String topic) {
     return Activator.handlerTracker.getHandlersMatching(topic);
   }
 
   synchronized void start() {
+    if (Activator.workers > 0) {
+      pool = new WorkerPool(Activator.workers, Activator.queueSize,
+                            Activator.dropOnOverflow);
+    }
+    if (Activator.watchdog != null) {
+      syncPool = new SyncDeliveryPool();
+    }
     ml.start();
     cli.start();
-    reg = Activator.bc.registerService(EventAdmin.class, this, null);
+    reg = Activator.bc.registerService(new String[] {
+        EventAdmin.class.getName(), BatchEventAdmin.class.getName() },
+                                       this, null);
+    if (pool != null) {
+      statsReg = Activator.bc
+        .registerService(EventQueueStatistics.class.getName(), pool, null);
+    }
   }
 
   synchronized void stop() {
     reg.unregister();;
     reg = null;
+    if (statsReg != null) {
+      statsReg.unregister();
+      statsReg = null;
+    }
 
     cli.stop();
     ml.stop();
 
+    if (pool != null) {
+      pool.stop();
+      pool = null;
+    }
+    if (syncPool != null) {
+      syncPool.stop();
+      syncPool = null;
+    }
+
     Set<QueueHandler> activeQueueHandlers = null;
     synchronized(queueHandlers) {
       activeQueueHandlers = new HashSet<QueueHandler>(queueHandlers.values());
@@ -34,8 +34,11 @@
 
 package org.knopflerfish.bundle.event;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -56,6 +59,52 @@ public class EventHandlerTracker
   private final Hashtable<String, Set<TrackedEventHandler>> wildcardsToHandlers
     = new Hashtable<String, Set<TrackedEventHandler>>();
 
+  /** Max number of topics to keep in the matching handlers cache. */
+  private static final int MAX_CACHED_TOPICS = 1024;
+
+  /** Cached value for topics without any matching handlers. */
+  private static final TrackedEventHandler[] NO_HANDLERS
+    = new TrackedEventHandler[0];
+
+  /**
+   * Cache of topic to matching handlers. Cleared whenever the set of
+   * handlers or their topics change. Entries are only added while
+   * holding the lock on this object.
+   */
+  private final Hashtable<String, TrackedEventHandler[]> topicCache
+    = new Hashtable<String, TrackedEventHandler[]>();
+
+  /**
+   * Topic tree with the wildcard subscriptions that ends with
+   * <code>"/*"</code> or is <code>"*"</code>. Built on demand, null
+   * when it must be rebuilt.
+   */
+  private TopicNode wildcardTree = null;
+
+  /**
+   * Wildcard subscriptions where the <code>"*"</code> does not follow
+   * a <code>"/"</code>. Built together with <code>wildcardTree</code>.
+   */
+  private List<String> otherWildcards = null;
+
+
+  /**
+   * A node in the wildcard topic tree. The path from the root to a
+   * node is a sequence of topic segments.
+   */
+  private static class TopicNode {
+    final HashMap<String, TopicNode> children
+      = new HashMap<String, TopicNode>();
+
+    /**
+     * Handlers subscribing to all topics below this node, i.e., to
+     * the topic formed by the path to this node followed by
+     * <code>"/*"</code>.
+     */
+    Set<TrackedEventHandler> handlers = null;
+  }
+
+
   public EventHandlerTracker(BundleContext bc)
   {
     this.bc = bc;
@@ -73,6 +122,7 @@ public class EventHandlerTracker
     tracker.close();
     topicsToHandlers.clear();
     wildcardsToHandlers.clear();
+    handlersChanged();
   }
 
 
@@ -101,10 +151,22 @@ public class EventHandlerTracker
 
   public void addHandlerForTopic(String topic, TrackedEventHandler teh) {
     addToSetIn(topic, teh, topicsToHandlers);
+    handlersChanged();
   }
 
   public void addHandlerForWildcard(String wildcard, TrackedEventHandler teh) {
     addToSetIn(wildcard, teh, wildcardsToHandlers);
+    handlersChanged();
+  }
+
+  /**
+   * Must be called after any of the handler sets have been modified,
+   * but not while holding the lock on any of them.
+   */
+  synchronized void handlersChanged() {
+    topicCache.clear();
+    wildcardTree = null;
+    otherWildcards = null;
   }
 
   private static void addToSetIn(String key,
@@ -134,38 +196,102 @@ public class EventHandlerTracker
   }
 
 
-  public Set<TrackedEventHandler> getHandlersMatching(String topic)
+  /**
+   * Get the handlers subscribing to the given topic.
+   *
+   * @param topic The topic of an event.
+   * @return The matching handlers or <code>null</code> if there are
+   *         none. The returned array must not be modified.
+   */
+  public TrackedEventHandler[] getHandlersMatching(String topic)
   {
-    Set<TrackedEventHandler> result = new HashSet<TrackedEventHandler>();
-    addSetMatching(result, topicsToHandlers.get(topic));
-    synchronized (wildcardsToHandlers) {
-      for (Entry<String, Set<TrackedEventHandler>> entry : wildcardsToHandlers
-          .entrySet()) {
-        String wildcard = entry.getKey();
-        if (topic.startsWith(wildcard)) {
-          addSetMatching(result, entry.getValue());
-        }
-      }
+    TrackedEventHandler[] res = topicCache.get(topic);
+    if (res == null) {
+      res = computeHandlersMatching(topic);
     }
-    return result;
+    return res.length > 0 ? res : null;
   }
 
   public boolean anyHandlersMatching(String topic)
   {
-    Set<TrackedEventHandler> matching = topicsToHandlers.get(topic);
-    if (matching != null && !matching.isEmpty()) {
-      return true;
+    return getHandlersMatching(topic) != null;
+  }
+
+  private synchronized TrackedEventHandler[] computeHandlersMatching(String topic)
+  {
+    TrackedEventHandler[] res = topicCache.get(topic);
+    if (res != null) {
+      return res;
+    }
+    if (wildcardTree == null) {
+      buildWildcardTree();
+    }
+    final Set<TrackedEventHandler> result = new HashSet<TrackedEventHandler>();
+    addSetMatching(result, topicsToHandlers.get(topic));
+
+    TopicNode node = wildcardTree;
+    addSetMatching(result, node.handlers);
+    int start = 0;
+    int end;
+    while (node != null && (end = topic.indexOf('/', start)) > -1) {
+      node = node.children.get(topic.substring(start, end));
+      if (node != null) {
+        addSetMatching(result, node.handlers);
+      }
+      start = end + 1;
+    }
+    for (final String wildcard : otherWildcards) {
+      if (topic.startsWith(wildcard)) {
+        addSetMatching(result, wildcardsToHandlers.get(wildcard));
+      }
+    }
+
+    res = result.isEmpty()
+      ? NO_HANDLERS
+      : result.toArray(new TrackedEventHandler[result.size()]);
+    if (topicCache.size() >= MAX_CACHED_TOPICS) {
+      topicCache.clear();
     }
+    topicCache.put(topic, res);
+    return res;
+  }
+
+  /**
+   * Build the wildcard topic tree from the current wildcard
+   * subscriptions. A wildcard subscription is stored as its prefix,
+   * e.g., the subscription <code>"a/b/*"</code> is stored as
+   * <code>"a/b/"</code>.
+   */
+  private void buildWildcardTree()
+  {
+    final TopicNode root = new TopicNode();
+    final List<String> others = new ArrayList<String>();
     synchronized (wildcardsToHandlers) {
       for (Entry<String, Set<TrackedEventHandler>> entry : wildcardsToHandlers
           .entrySet()) {
-        String wildcard = entry.getKey();
-        if (topic.startsWith(wildcard) && !entry.getValue().isEmpty()) {
-          return true;
+        final String wildcard = entry.getKey();
+        if (wildcard.length() == 0 || wildcard.endsWith("/")) {
+          TopicNode node = root;
+          int start = 0;
+          int end;
+          while ((end = wildcard.indexOf('/', start)) > -1) {
+            final String segment = wildcard.substring(start, end);
+            TopicNode child = node.children.get(segment);
+            if (child == null) {
+              child = new TopicNode();
+              node.children.put(segment, child);
+            }
+            node = child;
+            start = end + 1;
+          }
+          node.handlers = entry.getValue();
+        } else {
+          others.add(wildcard);
         }
       }
     }
-    return false;
+    wildcardTree = root;
+    otherWildcards = others;
   }
 
 }
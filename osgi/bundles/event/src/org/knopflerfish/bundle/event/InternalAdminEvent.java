@@ -35,7 +35,6 @@
 package org.knopflerfish.bundle.event;
 
 import java.security.AccessControlException;
-import java.util.Iterator;
 import java.util.Set;
 
 import org.knopflerfish.util.Timer;
@@ -58,8 +57,35 @@ public class InternalAdminEvent {
 
   private Event event;
 
-  private Set<TrackedEventHandler> handlers;
-  private TimeoutDeliver timeoutDeliver;
+  private TrackedEventHandler[] handlers;
+
+  /** All events, when delivering a batch, otherwise null. */
+  private Event[] batch = null;
+
+  /** Properties with the same value in all events of the batch. */
+  private Set<String> invariantKeys = null;
+
+  /** True if the latest value is delivered to coalescing handlers. */
+  private boolean coalesce = false;
+
+  /** Index of the first handler in handlers to deliver to. */
+  private int first = 0;
+
+  /**
+   * Set by the watchdog when the delivering thread is stuck in an
+   * event handler. The remaining handlers are then delivered by
+   * another thread, see {@link #getRemaining(int)}.
+   */
+  private volatile boolean abandoned = false;
+
+  /**
+   * The event that a <code>sendEvent()</code> caller waits for, null
+   * if no-one waits for the delivery.
+   */
+  private InternalAdminEvent sent = null;
+
+  /** True when the delivery of a sent event is complete. */
+  private boolean delivered = false;
 
   /**
    * Standard constructor of the InternalAdminEvent
@@ -70,12 +96,74 @@ public class InternalAdminEvent {
    *          ServiceReference to the EventHandlers this event should be
    *          delivered to.
    */
-  public InternalAdminEvent(Event event, Set<TrackedEventHandler> handlers)
+  public InternalAdminEvent(Event event, TrackedEventHandler[] handlers)
   {
     this.event = event;
     this.handlers = handlers;
   }
 
+  /**
+   * Create an internal event for a batch of events with the same
+   * topic.
+   *
+   * @param events The events, must not be empty.
+   * @param invariantKeys Lower case names of the properties that have
+   *          the same value in all events.
+   * @param handlers The event handlers to deliver the events to.
+   */
+  public InternalAdminEvent(Event[] events,
+                            Set<String> invariantKeys,
+                            TrackedEventHandler[] handlers)
+  {
+    this(events[0], handlers);
+    if (events.length > 1) {
+      this.batch = events;
+      this.invariantKeys = invariantKeys;
+    }
+  }
+
+  /**
+   * Create an internal event for delivery to the handlers of another
+   * internal event, starting with the handler at index
+   * <code>first</code>.
+   */
+  private InternalAdminEvent(InternalAdminEvent iae, int first)
+  {
+    this.event = iae.event;
+    this.handlers = iae.handlers;
+    this.batch = iae.batch;
+    this.invariantKeys = iae.invariantKeys;
+    this.coalesce = iae.coalesce;
+    this.sent = iae.sent;
+    this.first = first;
+  }
+
+  /**
+   * Prepare for asynchronous delivery. Coalescing event handlers will
+   * only get the latest posted event with the topic when the
+   * delivery takes place.
+   */
+  void setPosted()
+  {
+    for (final TrackedEventHandler handler : handlers) {
+      if (handler.getDeliveryMode() == TrackedEventHandler.DELIVERY_COALESCE) {
+        coalesce = true;
+        if (batch == null) {
+          if (handler.matches(event)) {
+            handler.setLatest(event);
+          }
+        } else {
+          for (int i = batch.length - 1; i >= 0; i--) {
+            if (handler.matches(batch[i])) {
+              handler.setLatest(batch[i]);
+              break;
+            }
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Returns the event
    *
@@ -86,12 +174,94 @@ public class InternalAdminEvent {
     return event;
   }
 
-  public Set<TrackedEventHandler> getHandlers()
+  public TrackedEventHandler[] getHandlers()
   {
     return handlers;
   }
 
+  /**
+   * Prepare for delivery by another thread while the
+   * <code>sendEvent()</code> caller waits in {@link #waitDelivered()}.
+   */
+  void setSent()
+  {
+    sent = this;
+  }
+
+  /**
+   * Wait until a sent event has been delivered to all handlers,
+   * except those that did not return within the delivery timeout.
+   */
+  synchronized void waitDelivered()
+    throws InterruptedException
+  {
+    while (!delivered) {
+      wait();
+    }
+  }
+
+  /**
+   * Release the <code>sendEvent()</code> caller, if any.
+   */
+  void setDelivered()
+  {
+    if (sent != null) {
+      synchronized (sent) {
+        sent.delivered = true;
+        sent.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Called by the watchdog, while it holds its lock, when the
+   * delivering thread has been stuck in an event handler longer than
+   * the delivery timeout. The delivering thread will not call any
+   * more handlers when the slow handler returns.
+   */
+  void setAbandoned()
+  {
+    abandoned = true;
+  }
+
+  /**
+   * True if the delivery has been abandoned after a delivery timeout.
+   */
+  boolean isAbandoned()
+  {
+    return abandoned;
+  }
+
+  /**
+   * Get an event for delivery to the handlers that an abandoned
+   * delivery did not call.
+   *
+   * @param next Index of the first handler to deliver to.
+   * @return The event to deliver or null if there are no more
+   *         handlers, in that case the <code>sendEvent()</code>
+   *         caller, if any, is released.
+   */
+  InternalAdminEvent getRemaining(int next)
+  {
+    if (next < handlers.length) {
+      return new InternalAdminEvent(this, next);
+    }
+    setDelivered();
+    return null;
+  }
+
   public void deliver()
+  {
+    try {
+      deliverChecked();
+    } finally {
+      if (!abandoned) {
+        setDelivered();
+      }
+    }
+  }
+
+  private void deliverChecked()
   {
     SecurityManager securityManager = getSecurityManager();
 
@@ -127,7 +297,7 @@ public class InternalAdminEvent {
     }
   }
 
-  private void log(TrackedEventHandler handler, String txt)
+  void log(TrackedEventHandler handler, String txt)
   {
     final ServiceReference<EventHandler> sr = handler.getServiceReference();
     final Bundle b = sr.getBundle();
@@ -141,79 +311,62 @@ public class InternalAdminEvent {
 
   private void deliverToHandles()
   {
-    Iterator<TrackedEventHandler> i = handlers.iterator();
-    try {
-      while (i.hasNext()) {
-        TrackedEventHandler handler = i.next();
-        if (Activator.timeout == 0) {
-          // Deliver event without timeout
-          try {
-            if (Activator.timeWarning == 0) {
-              // Plain delivery without duration check.
-              handler.handleEventSubjectToFilter(event);
-            } else {
-              // Deliver with duration warning
-              final long tickStart = Timer.timeMillis();
-              handler.handleEventSubjectToFilter(event);
-              final long tickEnd = Timer.timeMillis();
-              if (tickEnd - tickStart > Activator.timeWarning) {
-                log(handler, "Slow eventhandler " + (tickEnd - tickStart)
-                    + " ms.");
-              }
+    final DeliveryWatchdog watchdog = Activator.watchdog;
+    for (int i = first; i < handlers.length; i++) {
+      final TrackedEventHandler handler = handlers[i];
+      if (watchdog == null) {
+        // Deliver event without timeout
+        try {
+          if (Activator.timeWarning == 0) {
+            // Plain delivery without duration check.
+            deliverTo(handler);
+          } else {
+            // Deliver with duration warning
+            final long tickStart = Timer.timeMillis();
+            deliverTo(handler);
+            final long tickEnd = Timer.timeMillis();
+            if (tickEnd - tickStart > Activator.timeWarning) {
+              log(handler, "Slow eventhandler " + (tickEnd - tickStart)
+                  + " ms.");
             }
-          } catch (Throwable e) {
-            log(handler, "Exception in eventhandler " + e.getMessage());
-            Activator.log.error("Handler threw exception in handleEvent.", e);
           }
-        } else { // use timeout
-          // Check if thread is available
-          synchronized (this) {
-            TimeoutDeliver localDeliver = deliver(this, event, handler);
-            try {
-              wait(Activator.timeout);
-            } catch (InterruptedException e) {
-              // Ignore
-            }
-
-            // Check if delivery was successful
-            if (localDeliver.stopDeliveryNotification()) {
-              handler.setBlacklist(true);
-              log(handler,
-                  "Event delivery to event handler timed out, "
-                  +"blacklisting event handler.");
-            }
-          }
-        }// end if(!isBlacklisted.....
-      }// end for
-    } finally {
-      close();
-    }
-  }
-
-  public synchronized TimeoutDeliver deliver(final Object caller,
-                                             final Event event,
-                                             final TrackedEventHandler handler)
-  {
-    if (timeoutDeliver == null) {
-      timeoutDeliver = new TimeoutDeliver();
-      timeoutDeliver.start();
-    }
-
-    if (timeoutDeliver.isActive()) {
-      timeoutDeliver.close();
-      timeoutDeliver = new TimeoutDeliver();
-      timeoutDeliver.start();
+        } catch (Throwable e) {
+          log(handler, "Exception in eventhandler " + e.getMessage());
+          Activator.log.error("Handler threw exception in handleEvent.", e);
+        }
+      } else { // use timeout
+        // Deliver on this thread, the watchdog blacklists the handler
+        // if it does not return in time.
+        final DeliveryWatchdog.Watch watch
+          = watchdog.start(this, handler, i);
+        try {
+          deliverTo(handler);
+        } catch (Throwable e) {
+          log(handler, "Exception in eventhandler " + e.getMessage());
+          Activator.log.error("Handler threw exception in handleEvent.", e);
+        } finally {
+          watchdog.done(watch);
+        }
+        if (abandoned) {
+          // The remaining handlers are delivered by another thread.
+          return;
+        }
+      }
     }
-
-    timeoutDeliver.deliver(caller, event, handler);
-    return timeoutDeliver;
   }
 
-  public synchronized void close()
+  private void deliverTo(TrackedEventHandler handler)
   {
-    if (timeoutDeliver != null) {
-      timeoutDeliver.close();
-      timeoutDeliver = null;
+    if (coalesce
+        && handler.getDeliveryMode() == TrackedEventHandler.DELIVERY_COALESCE) {
+      final Event latest = handler.takeLatest(event.getTopic());
+      if (latest != null) {
+        handler.handleEventSubjectToFilter(latest);
+      }
+    } else if (batch != null) {
+      handler.handleEventsSubjectToFilter(batch, invariantKeys);
+    } else {
+      handler.handleEventSubjectToFilter(event);
     }
   }
 
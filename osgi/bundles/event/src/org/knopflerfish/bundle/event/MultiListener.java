@@ -53,11 +53,11 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventConstants;
 import org.osgi.service.log.LogEntry;
-import org.osgi.service.log.LogListener;
 import org.osgi.service.log.LogReaderService;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import org.knopflerfish.service.log.FilteringLogListener;
 import org.knopflerfish.service.log.LogRef;
 import org.knopflerfish.service.log.LogService;
 
@@ -67,7 +67,8 @@ import org.knopflerfish.service.log.LogService;
  * @author Magnus Klack, Martin Berg (refactoring by Bj\u00f6rn Andersson)
  */
 public class MultiListener
-  implements LogListener, ServiceListener, FrameworkListener, BundleListener
+  implements FilteringLogListener, ServiceListener, FrameworkListener,
+  BundleListener
 {
   private long ourBundleId;
   ServiceTracker<LogReaderService,LogReaderService> logReaderTracker
@@ -191,6 +192,25 @@ public class MultiListener
   private static final String LOG_DEBUG_TOPIC = LOG_PREFIX + "LOG_DEBUG";
   private static final String LOG_OTHER_TOPIC = LOG_PREFIX + "LOG_OTHER";
 
+  /**
+   * The least severe log level that there are event handlers for, so that
+   * the log does not create entries that are not posted.
+   */
+  public int getLogLevel() {
+    if (Activator.handlerTracker.anyHandlersMatching(LOG_OTHER_TOPIC)) {
+      return Integer.MAX_VALUE;
+    } else if (Activator.handlerTracker.anyHandlersMatching(LOG_DEBUG_TOPIC)) {
+      return LogRef.LOG_DEBUG;
+    } else if (Activator.handlerTracker.anyHandlersMatching(LOG_INFO_TOPIC)) {
+      return LogRef.LOG_INFO;
+    } else if (Activator.handlerTracker.anyHandlersMatching(LOG_WARNING_TOPIC)) {
+      return LogRef.LOG_WARNING;
+    } else if (Activator.handlerTracker.anyHandlersMatching(LOG_ERROR_TOPIC)) {
+      return LogRef.LOG_ERROR;
+    }
+    return 0;
+  }
+
   /**
    * A listener for entries in the log
    * @param logEntry the entry of the log
@@ -63,6 +63,12 @@ public class QueueHandler extends Thread {
   /** The state of this queue handler thread.*/
   private boolean running;
 
+  /**
+   * The queue handler that took over the events of this one after a
+   * delivery timeout, or null.
+   */
+  private QueueHandler replacement = null;
+
   private int maxQueueSize = 0;
   private int eventCnt = 0;
 
@@ -95,6 +101,11 @@ public class QueueHandler extends Thread {
       return;
     }
     synchronized (this) {
+      if (replacement != null) {
+        // Posted by the slow handler that this thread is stuck in.
+        replacement.addEvent(event);
+        return;
+      }
       syncQueue.add(event);
       final int queueSize = syncQueue.size();
       if (queueSize>maxQueueSize) maxQueueSize = queueSize;
@@ -119,6 +130,11 @@ public class QueueHandler extends Thread {
         // new events.
         event.deliver();
         eventCnt++;
+        if (event.isAbandoned()) {
+          // Replaced by another queue handler after a delivery
+          // timeout, see deliveryTimedOut().
+          return;
+        }
       } else {
         long duration = 0;
         try {
@@ -160,10 +176,47 @@ public class QueueHandler extends Thread {
       Activator.log.debug(msg);
     }
     synchronized(queueHandlers) {
-      queueHandlers.remove(getKey());
+      if (queueHandlers.get(getKey()) == this) {
+        queueHandlers.remove(getKey());
+      }
     }
   }// end run()
 
+  /**
+   * Called by the watchdog when an event handler called by this
+   * thread has not returned within the timeout. The remaining part of
+   * the event being delivered and the queued events are handed over to
+   * a new queue handler, this thread terminates when the event handler
+   * returns.
+   *
+   * @param rest The remaining part of the event being delivered, or
+   *             null if there is nothing more to deliver for it.
+   */
+  void deliveryTimedOut(InternalAdminEvent rest) {
+    QueueHandler newQueueHandler = null;
+    synchronized(queueHandlers) {
+      synchronized (this) {
+        if (running && replacement == null) {
+          running = false;
+          newQueueHandler = new QueueHandler(queueHandlers, key);
+          if (rest != null) {
+            newQueueHandler.syncQueue.add(rest);
+          }
+          newQueueHandler.syncQueue.addAll(syncQueue);
+          syncQueue.clear();
+          replacement = newQueueHandler;
+          if (queueHandlers.get(key) == this) {
+            queueHandlers.put(key, newQueueHandler);
+          }
+          newQueueHandler.start();
+        }
+      }
+    }
+    if (newQueueHandler != null && Activator.log.doDebug()) {
+      Activator.log.debug(getName() +" replaced after delivery timeout.");
+    }
+  }
+
   /**
    * Stop this thread.
    */
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.event;
+
+import java.util.LinkedList;
+
+/**
+ * Delivers events sent by <code>sendEvent()</code> when a delivery
+ * timeout is used.
+ *
+ * The event is delivered by a helper thread while the caller waits.
+ * When an event handler does not return within the timeout, the
+ * watchdog hands the remaining handlers over to another helper
+ * thread. Thus the caller is released when all other handlers have
+ * been called, even if the slow handler never returns. Idle helper
+ * threads are reused.
+ */
+public class SyncDeliveryPool {
+
+  /**
+   * A helper thread.
+   */
+  class Helper extends Thread {
+    /** The event to deliver, null when idle.*/
+    InternalAdminEvent event = null;
+
+    Helper(int n) {
+      super("EventAdmin-SyncDelivery " + n);
+      setDaemon(true);
+    }
+
+    public void run() {
+      work(this);
+    }
+
+    /**
+     * Called by the watchdog when an event handler called by this
+     * helper has not returned within the timeout. The remaining part
+     * of the event is delivered by another helper. This helper
+     * becomes idle when the event handler returns.
+     *
+     * @param rest The remaining part of the event being delivered, or
+     *             null if there is nothing more to deliver for it.
+     */
+    void deliveryTimedOut(InternalAdminEvent rest) {
+      if (rest != null && !handOver(rest)) {
+        // Stopped, release the caller.
+        rest.setDelivered();
+      }
+    }
+  }
+
+  /** Max number of idle helper threads to keep.*/
+  final static int MAX_IDLE = 4;
+
+  /** Idle helper threads, most recently used first.*/
+  final private LinkedList<Helper> idle = new LinkedList<Helper>();
+
+  private boolean running = true;
+  private int created = 0;
+
+
+  /**
+   * Deliver an event on a helper thread and wait until it has been
+   * delivered.
+   *
+   * @param event The event to deliver.
+   */
+  public void send(InternalAdminEvent event)
+  {
+    event.setSent();
+    if (!handOver(event)) {
+      event.deliver();
+      return;
+    }
+    try {
+      event.waitDelivered();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+  /**
+   * Hand an event to an idle helper, or to a new one if no helper is
+   * idle.
+   *
+   * @return false if the pool is stopped.
+   */
+  private synchronized boolean handOver(InternalAdminEvent event)
+  {
+    if (!running) {
+      return false;
+    }
+    if (idle.isEmpty()) {
+      final Helper helper = new Helper(created++);
+      helper.event = event;
+      helper.start();
+    } else {
+      idle.removeFirst().event = event;
+      notifyAll();
+    }
+    return true;
+  }
+
+
+  private void work(Helper helper)
+  {
+    while (true) {
+      InternalAdminEvent event;
+      synchronized (this) {
+        try {
+          while (running && helper.event == null) {
+            wait();
+          }
+        } catch (InterruptedException ie) {
+          Activator.log.error("EventAdmin sync delivery helper was interrupted unexpectedly");
+        }
+        event = helper.event;
+        if (event == null) {
+          if (running) {
+            continue;
+          }
+          return;
+        }
+      }
+      // Must be outside synchronized since the delivery can cause
+      // new events.
+      event.deliver();
+      synchronized (this) {
+        helper.event = null;
+        if (!running || idle.size() >= MAX_IDLE) {
+          return;
+        }
+        idle.addFirst(helper);
+      }
+    }
+  }
+
+
+  /**
+   * Stop the pool. Idle helpers terminate, busy ones terminate when
+   * done.
+   */
+  void stop()
+  {
+    synchronized (this) {
+      running = false;
+      idle.clear();
+      notifyAll();
+    }
+  }
+
+}
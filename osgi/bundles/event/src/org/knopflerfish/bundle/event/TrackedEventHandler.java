@@ -34,10 +34,17 @@
 
 package org.knopflerfish.bundle.event;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.knopflerfish.service.event.BatchEventConstants;
+import org.knopflerfish.service.event.BatchEventHandler;
+
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
@@ -47,14 +54,33 @@ import org.osgi.service.event.EventConstants;
 import org.osgi.service.event.EventHandler;
 
 public class TrackedEventHandler {
+  /** Delivery mode, deliver events one by one. */
+  static final int DELIVERY_EVENT = 0;
+  /** Delivery mode, deliver batches in one call. */
+  static final int DELIVERY_BATCH = 1;
+  /** Delivery mode, deliver the latest posted event per topic. */
+  static final int DELIVERY_COALESCE = 2;
+
   private final EventHandlerTracker tracker;
   private ServiceReference<EventHandler> sr = null;
   private final EventHandler tracked;
   private Filter filter = null;
+  /**
+   * Lower case names of the properties used by the filter, null if
+   * not known.
+   */
+  private Set<String> filterKeys = new HashSet<String>();
+  private int deliveryMode = DELIVERY_EVENT;
+  /** Latest posted event per topic not yet delivered, coalesce mode. */
+  private final Map<String, Event> latest = new HashMap<String, Event>();
   private boolean destroyed = false;
   private boolean blacklisted = false;
-  private HashSet<Set<TrackedEventHandler>> referencingSets
-    = new HashSet<Set<TrackedEventHandler>>();
+  /**
+   * The handler sets this handler has been added to. A list since the
+   * sets are mutable and must be compared by identity.
+   */
+  private List<Set<TrackedEventHandler>> referencingSets
+    = new ArrayList<Set<TrackedEventHandler>>();
 
   private TrackedEventHandler(EventHandlerTracker tracker, EventHandler tracked)
   {
@@ -75,6 +101,86 @@ public class TrackedEventHandler {
     return false;
   }
 
+  /**
+   * Deliver a batch of events with the same topic.
+   *
+   * @param events The events to deliver.
+   * @param invariantKeys Lower case names of properties that have the
+   *          same value in all the events.
+   * @return true if at least one event was delivered.
+   */
+  public boolean handleEventsSubjectToFilter(Event[] events,
+                                             Set<String> invariantKeys)
+  {
+    if (destroyed || isBlacklisted()) {
+      return false;
+    }
+    Event[] matching = events;
+    if (filter != null) {
+      if (filterKeys != null && invariantKeys.containsAll(filterKeys)) {
+        // The filter gives the same result for all events.
+        if (!events[0].matches(filter)) {
+          return false;
+        }
+      } else {
+        final List<Event> res = new ArrayList<Event>(events.length);
+        for (final Event event : events) {
+          if (event.matches(filter)) {
+            res.add(event);
+          }
+        }
+        if (res.isEmpty()) {
+          return false;
+        }
+        if (res.size() < events.length) {
+          matching = res.toArray(new Event[res.size()]);
+        }
+      }
+    }
+    if (deliveryMode == DELIVERY_BATCH && tracked instanceof BatchEventHandler) {
+      ((BatchEventHandler) tracked).handleEvents(matching);
+    } else {
+      for (final Event event : matching) {
+        tracked.handleEvent(event);
+      }
+    }
+    setBlacklist(false);
+    return true;
+  }
+
+  /**
+   * Check if the filter of this handler matches an event.
+   */
+  boolean matches(Event event)
+  {
+    return filter == null || event.matches(filter);
+  }
+
+  int getDeliveryMode()
+  {
+    return deliveryMode;
+  }
+
+  /**
+   * Save the latest posted event for its topic, used in coalesce
+   * mode.
+   */
+  synchronized void setLatest(Event event)
+  {
+    latest.put(event.getTopic(), event);
+  }
+
+  /**
+   * Get and clear the latest posted event for a topic, used in
+   * coalesce mode.
+   *
+   * @return The event or null if it already has been delivered.
+   */
+  synchronized Event takeLatest(String topic)
+  {
+    return latest.remove(topic);
+  }
+
   public synchronized boolean isBlacklisted()
   {
     return blacklisted;
@@ -97,9 +203,21 @@ public class TrackedEventHandler {
   public void update(ServiceReference<EventHandler> sr)
   {
     this.sr = sr;
-    // removeAllReferences();
+    // Subscribe to the new topics before leaving the old ones so that
+    // events on topics present in both are not missed.
+    final List<Set<TrackedEventHandler>> oldSets = referencingSets;
+    referencingSets = new ArrayList<Set<TrackedEventHandler>>();
     updateEventFilter();
+    updateDeliveryMode();
     updateTopicsAndWildcards();
+    for (final Set<TrackedEventHandler> s : referencingSets) {
+      for (int i = oldSets.size() - 1; i >= 0; i--) {
+        if (oldSets.get(i) == s) {
+          oldSets.remove(i);
+        }
+      }
+    }
+    removeReferences(oldSets);
   }
 
   public ServiceReference<EventHandler> getServiceReference()
@@ -119,8 +237,10 @@ public class TrackedEventHandler {
     try {
       if (filterString == null) {
         filter = null;
+        filterKeys = new HashSet<String>();
       } else {
         filter = FrameworkUtil.createFilter(filterString);
+        filterKeys = getFilterKeys(filterString);
       }
     } catch (InvalidSyntaxException e) {
       filter = null;
@@ -133,6 +253,62 @@ public class TrackedEventHandler {
     }
   }
 
+  private void updateDeliveryMode()
+  {
+    final Object o = sr.getProperty(BatchEventConstants.DELIVERY);
+    if (BatchEventConstants.DELIVERY_BATCH.equals(o)) {
+      deliveryMode = DELIVERY_BATCH;
+    } else if (BatchEventConstants.DELIVERY_COALESCE.equals(o)) {
+      deliveryMode = DELIVERY_COALESCE;
+    } else {
+      deliveryMode = DELIVERY_EVENT;
+    }
+  }
+
+  /**
+   * Get the names of the properties used in an LDAP filter.
+   *
+   * @param filter A valid LDAP filter string.
+   * @return The lower case property names or <code>null</code> if the
+   *         filter could not be parsed.
+   */
+  static Set<String> getFilterKeys(String filter)
+  {
+    final Set<String> res = new HashSet<String>();
+    final int len = filter.length();
+    int i = 0;
+    while (i < len) {
+      if (filter.charAt(i) == '(') {
+        int start = i + 1;
+        while (start < len && Character.isWhitespace(filter.charAt(start))) {
+          start++;
+        }
+        if (start < len && "&|!(".indexOf(filter.charAt(start)) < 0) {
+          int end = start;
+          while (end < len && "=<>~()".indexOf(filter.charAt(end)) < 0) {
+            end++;
+          }
+          if (end == len || filter.charAt(end) == '('
+              || filter.charAt(end) == ')') {
+            return null;
+          }
+          res.add(filter.substring(start, end).trim().toLowerCase());
+          // Skip the value, '(' and ')' are escaped in values.
+          i = end;
+          while (i < len && filter.charAt(i) != ')') {
+            if (filter.charAt(i) == '\\') {
+              i++;
+            }
+            i++;
+          }
+          continue;
+        }
+      }
+      i++;
+    }
+    return res;
+  }
+
   private void updateTopicsAndWildcards()
   {
     Object o = sr.getProperty(EventConstants.EVENT_TOPIC);
@@ -188,10 +364,16 @@ public class TrackedEventHandler {
 
   void removeAllReferences()
   {
-    for (Set<TrackedEventHandler> s : referencingSets)
+    removeReferences(referencingSets);
+  }
+
+  private void removeReferences(List<Set<TrackedEventHandler>> sets)
+  {
+    for (Set<TrackedEventHandler> s : sets)
       synchronized (s) {
         s.remove(this);
       }
+    tracker.handlersChanged();
   }
 
 }
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.event;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.knopflerfish.service.event.EventQueueStatistics;
+
+/**
+ * Delivers posted events using a fixed number of worker threads.
+ *
+ * Events are queued on a sub-queue per key, normally the posting
+ * thread. A sub-queue is handled by at most one worker at a time, thus
+ * events with the same key are delivered in the order they were
+ * posted, while events with different keys are delivered in parallel.
+ */
+public class WorkerPool implements EventQueueStatistics {
+
+  /**
+   * Events posted with the same key.
+   */
+  private static class KeyQueue {
+    final Object key;
+    final LinkedList<InternalAdminEvent> events
+      = new LinkedList<InternalAdminEvent>();
+    boolean busy = false;
+
+    KeyQueue(Object key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * A worker thread.
+   */
+  class Worker extends Thread {
+    final int index;
+
+    /** The sub-queue that this worker is delivering an event from.*/
+    KeyQueue current = null;
+
+    /** True if replaced by another worker after a delivery timeout.*/
+    boolean abandoned = false;
+
+    Worker(int n) {
+      super("EventAdmin-Worker " + n);
+      setDaemon(true);
+      index = n;
+    }
+
+    public void run() {
+      work(this);
+    }
+
+    /**
+     * Called by the watchdog when an event handler called by this
+     * worker has not returned within the timeout. Another worker
+     * takes over the sub-queue, starting with the remaining part of
+     * the event being delivered, and this worker is replaced by a new
+     * one. This worker terminates when the event handler returns.
+     *
+     * @param rest The remaining part of the event being delivered, or
+     *             null if there is nothing more to deliver for it.
+     */
+    void deliveryTimedOut(InternalAdminEvent rest) {
+      replace(this, rest);
+    }
+  }
+
+  final private Worker[] workers;
+
+  /** Map from key to sub-queue with events not yet delivered.*/
+  final private Map<Object, KeyQueue> keyQueues
+    = new HashMap<Object, KeyQueue>();
+
+  /** Sub-queues with events that no worker is delivering.*/
+  final private LinkedList<KeyQueue> ready = new LinkedList<KeyQueue>();
+
+  /** Max number of queued events, 0 means no limit.*/
+  final private int maxQueued;
+
+  /** Drop events instead of blocking the poster when queue is full.*/
+  final private boolean dropOnOverflow;
+
+  /** Max number of topics to keep delivery counts for.*/
+  final static int MAX_TOPIC_COUNTS = 256;
+
+  /** Key used to count events for topics beyond MAX_TOPIC_COUNTS.*/
+  final static String OTHER_TOPICS = "<other topics>";
+
+  /** Max time in ms to wait for each worker to stop.*/
+  final static long STOP_TIMEOUT = 5000;
+
+  /**
+   * Number of delivered events per topic.
+   */
+  final private Map<String, long[]> topicCounts = new HashMap<String, long[]>();
+
+  private boolean running = true;
+  private int queued = 0;
+  private int maxDepth = 0;
+  private long dropped = 0;
+  private int idleWorkers = 0;
+  private int blockedPosters = 0;
+  private final long startTime = System.currentTimeMillis();
+
+
+  /**
+   * Create and start a worker pool.
+   *
+   * @param size Number of worker threads.
+   * @param maxQueued Max number of queued events, 0 for no limit.
+   * @param dropOnOverflow If true, drop events posted when the queue is
+   *   full, otherwise block the poster until there is room.
+   */
+  public WorkerPool(int size, int maxQueued, boolean dropOnOverflow)
+  {
+    this.maxQueued = maxQueued;
+    this.dropOnOverflow = dropOnOverflow;
+    workers = new Worker[size];
+    for (int i = 0; i < size; i++) {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+  }
+
+
+  /**
+   * Queue an event for delivery.
+   *
+   * Events posted by a worker thread, i.e. by an event handler, are
+   * always queued, to avoid that all workers block each other.
+   *
+   * @param key Events with the same key are delivered in order.
+   * @param event The event to deliver.
+   * @return false if the event was dropped.
+   */
+  public synchronized boolean addEvent(Object key, InternalAdminEvent event)
+  {
+    if (maxQueued > 0 && queued >= maxQueued
+        && !(Thread.currentThread() instanceof Worker)) {
+      if (dropOnOverflow) {
+        dropped++;
+        return false;
+      }
+      blockedPosters++;
+      try {
+        while (running && queued >= maxQueued) {
+          wait();
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        dropped++;
+        return false;
+      } finally {
+        blockedPosters--;
+      }
+    }
+    if (!running) {
+      return false;
+    }
+    KeyQueue kq = keyQueues.get(key);
+    if (kq == null) {
+      kq = new KeyQueue(key);
+      keyQueues.put(key, kq);
+    }
+    kq.events.add(event);
+    if (!kq.busy && kq.events.size() == 1) {
+      ready.add(kq);
+      if (idleWorkers > 0) {
+        notifyAll();
+      }
+    }
+    if (++queued > maxDepth) {
+      maxDepth = queued;
+    }
+    return true;
+  }
+
+
+  private void work(Worker worker)
+  {
+    while (true) {
+      KeyQueue kq;
+      InternalAdminEvent event;
+      synchronized (this) {
+        idleWorkers++;
+        try {
+          while (running && ready.isEmpty()) {
+            wait();
+          }
+        } catch (InterruptedException ie) {
+          Activator.log.error("EventAdmin worker was interrupted unexpectedly");
+        } finally {
+          idleWorkers--;
+        }
+        if (!running) {
+          return;
+        }
+        if (ready.isEmpty()) {
+          continue;
+        }
+        kq = ready.removeFirst();
+        kq.busy = true;
+        worker.current = kq;
+        event = kq.events.removeFirst();
+      }
+      // Must be outside synchronized since the delivery can cause
+      // new events.
+      event.deliver();
+      synchronized (this) {
+        queued--;
+        countTopic(event.getEvent().getTopic());
+        if (blockedPosters > 0) {
+          notifyAll();
+        }
+        if (event.isAbandoned()) {
+          // The sub-queue is taken over by another worker, see
+          // replace().
+          return;
+        }
+        worker.current = null;
+        releaseKeyQueue(kq);
+      }
+    }
+  }
+
+
+  /**
+   * Mark a sub-queue as not busy, queue it for delivery if it has
+   * more events, otherwise remove it.
+   */
+  private void releaseKeyQueue(KeyQueue kq)
+  {
+    kq.busy = false;
+    if (kq.events.isEmpty()) {
+      if (keyQueues.get(kq.key) == kq) {
+        keyQueues.remove(kq.key);
+      }
+    } else {
+      ready.add(kq);
+      if (idleWorkers > 0) {
+        notifyAll();
+      }
+    }
+  }
+
+
+  /**
+   * Replace a worker that is stuck in a slow event handler.
+   *
+   * @param rest Event to deliver before the other events of the
+   *             sub-queue of the worker, or null.
+   */
+  private void replace(Worker worker, InternalAdminEvent rest)
+  {
+    Worker newWorker = null;
+    synchronized (this) {
+      if (running && !worker.abandoned && worker.current != null) {
+        worker.abandoned = true;
+        if (rest != null) {
+          worker.current.events.addFirst(rest);
+          queued++;
+        }
+        releaseKeyQueue(worker.current);
+        worker.current = null;
+        newWorker = new Worker(worker.index);
+        workers[worker.index] = newWorker;
+        newWorker.start();
+      }
+    }
+    if (newWorker != null && Activator.log.doDebug()) {
+      Activator.log.debug(worker.getName() +" replaced after delivery timeout.");
+    }
+  }
+
+
+  /**
+   * Current number of queued events.
+   */
+  public synchronized int getQueueDepth()
+  {
+    return queued;
+  }
+
+
+  /**
+   * Max number of queued events.
+   */
+  public synchronized int getMaxQueueDepth()
+  {
+    return maxDepth;
+  }
+
+
+  /**
+   * Number of events dropped because the queue was full.
+   */
+  public synchronized long getDropped()
+  {
+    return dropped;
+  }
+
+
+  /**
+   * Count a delivered event. At most MAX_TOPIC_COUNTS topics are
+   * counted separately, events for other topics are counted
+   * together.
+   */
+  private void countTopic(String topic)
+  {
+    long[] cnt = topicCounts.get(topic);
+    if (cnt == null && topicCounts.size() >= MAX_TOPIC_COUNTS) {
+      topic = OTHER_TOPICS;
+      cnt = topicCounts.get(topic);
+    }
+    if (cnt != null) {
+      cnt[0]++;
+    } else {
+      topicCounts.put(topic, new long[] { 1 });
+    }
+  }
+
+
+  /**
+   * Number of delivered events per topic.
+   *
+   * @return Map from topic to number of delivered events.
+   */
+  public synchronized Map<String, Long> getTopicCounts()
+  {
+    final Map<String, Long> res = new HashMap<String, Long>();
+    for (Iterator<Map.Entry<String, long[]>> it = topicCounts.entrySet().iterator(); it.hasNext(); ) {
+      final Map.Entry<String, long[]> e = it.next();
+      res.put(e.getKey(), Long.valueOf(e.getValue()[0]));
+    }
+    return res;
+  }
+
+
+  /**
+   * Stop all workers. Events that are not yet delivered are discarded.
+   * Waits at most STOP_TIMEOUT ms for each worker, a worker stuck in
+   * an event handler is left to finish on its own.
+   */
+  void stop()
+  {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    for (int i = 0; i < workers.length; i++) {
+      if (workers[i] != Thread.currentThread()) {
+        try {
+          workers[i].join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        if (workers[i].isAlive()) {
+          Activator.log.warn("EventAdmin worker " + workers[i].getName()
+                             + " did not stop within " + STOP_TIMEOUT + " ms.");
+        }
+      }
+    }
+    if (Activator.log.doDebug()) {
+      final long secs = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+      final StringBuffer sb = new StringBuffer();
+      sb.append("EventAdmin worker pool stopped, ").append(workers.length)
+        .append(" workers, max queue size ").append(getMaxQueueDepth())
+        .append(", dropped events ").append(getDropped()).append(".");
+      final Map<String, Long> counts = getTopicCounts();
+      for (Iterator<Map.Entry<String, Long>> it = counts.entrySet().iterator(); it.hasNext(); ) {
+        final Map.Entry<String, Long> e = it.next();
+        sb.append(" ").append(e.getKey()).append(": ").append(e.getValue())
+          .append(" events (").append(e.getValue().longValue() / secs).append("/s).");
+      }
+      Activator.log.debug(sb.toString());
+    }
+  }
+
+}
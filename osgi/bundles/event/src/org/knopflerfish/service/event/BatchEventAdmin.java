@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.service.event;
+
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * Event Admin service that can deliver a batch of events with the
+ * same topic in one call.
+ * <p>
+ * The events of a batch are delivered to normal event handlers one by
+ * one in the order given, just as if they had been posted (or sent)
+ * one at a time. Event handlers that has opted in for batch delivery
+ * via the {@link BatchEventConstants#DELIVERY} service property
+ * receives the whole batch in one call.
+ * <p>
+ * Each event in a batch has the properties in the common properties
+ * map and the properties in its own properties map, with the latter
+ * taking precedence. The event filter of an event handler that only
+ * uses common properties is evaluated once per batch.
+ */
+public interface BatchEventAdmin extends EventAdmin {
+
+  /**
+   * Initiate asynchronous, ordered delivery of a batch of events.
+   *
+   * @param topic The topic of all events in the batch.
+   * @param properties Properties common to all events in the batch,
+   *          may be <code>null</code>.
+   * @param eventProperties One map with the specific properties for
+   *          each event in the batch, an element may be
+   *          <code>null</code>.
+   * @throws IllegalArgumentException If the topic is not valid.
+   */
+  void postEvents(String topic, Map<String, ?> properties,
+                  List<? extends Map<String, ?>> eventProperties);
+
+  /**
+   * Initiate synchronous delivery of a batch of events. This method
+   * does not return to the caller until delivery of all the events
+   * is completed.
+   *
+   * @param topic The topic of all events in the batch.
+   * @param properties Properties common to all events in the batch,
+   *          may be <code>null</code>.
+   * @param eventProperties One map with the specific properties for
+   *          each event in the batch, an element may be
+   *          <code>null</code>.
+   * @throws IllegalArgumentException If the topic is not valid.
+   */
+  void sendEvents(String topic, Map<String, ?> properties,
+                  List<? extends Map<String, ?>> eventProperties);
+}
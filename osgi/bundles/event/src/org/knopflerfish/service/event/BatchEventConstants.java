@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.service.event;
+
+/**
+ * Constants for the Knopflerfish Event Admin extensions.
+ */
+public interface BatchEventConstants {
+
+  /**
+   * Service property of an event handler that selects how events are
+   * delivered to it. The value must be one of
+   * {@link #DELIVERY_EVENT}, {@link #DELIVERY_BATCH} or
+   * {@link #DELIVERY_COALESCE}. If not set the events are delivered
+   * one by one.
+   */
+  String DELIVERY = "org.knopflerfish.event.delivery";
+
+  /**
+   * Deliver each event by calling <code>handleEvent(Event)</code>.
+   */
+  String DELIVERY_EVENT = "event";
+
+  /**
+   * Deliver each batch of events by calling
+   * {@link BatchEventHandler#handleEvents(org.osgi.service.event.Event[])}.
+   * The handler must implement {@link BatchEventHandler}, otherwise
+   * events are delivered one by one.
+   */
+  String DELIVERY_BATCH = "batch";
+
+  /**
+   * Only deliver the latest value for each topic. Asynchronously
+   * delivered events that have not yet been delivered to the handler
+   * when a newer event with the same topic is posted are dropped for
+   * this handler, as are all but the last matching event of a posted
+   * batch.
+   * Synchronously delivered events are never dropped.
+   */
+  String DELIVERY_COALESCE = "coalesce";
+}
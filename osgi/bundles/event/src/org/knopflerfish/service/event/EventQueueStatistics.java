@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.service.event;
+
+import java.util.Map;
+
+/**
+ * Statistics for the queue of posted events.
+ * <p>
+ * Registered by the Knopflerfish Event Admin when posted events are
+ * delivered by a fixed pool of worker threads, i.e., when the
+ * framework property <code>org.knopflerfish.eventadmin.workers</code>
+ * is set to a value greater than zero.
+ */
+public interface EventQueueStatistics {
+
+  /**
+   * Get the current number of posted events that have not yet been
+   * delivered, including those being delivered.
+   *
+   * @return The number of queued events.
+   */
+  int getQueueDepth();
+
+  /**
+   * Get the largest number of queued events seen.
+   *
+   * @return The max number of queued events.
+   */
+  int getMaxQueueDepth();
+
+  /**
+   * Get the number of posted events that were dropped because the
+   * queue was full.
+   *
+   * @return The number of dropped events.
+   */
+  long getDropped();
+
+  /**
+   * Get the number of delivered events per topic. Only a limited
+   * number of topics are counted separately, the events of other
+   * topics are counted together under a key that is not a valid topic.
+   *
+   * @return Map from topic to number of delivered events.
+   */
+  Map<String, Long> getTopicCounts();
+}
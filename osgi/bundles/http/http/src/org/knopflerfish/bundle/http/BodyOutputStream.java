@@ -75,6 +75,12 @@ public class BodyOutputStream extends BufferedOutputStream
     return count;
   }
 
+  // The stream that this body is written to
+  OutputStream getTarget()
+  {
+    return out;
+  }
+
   public synchronized void setBufferSize(int size)
   {
     if (totalCount != 0) {
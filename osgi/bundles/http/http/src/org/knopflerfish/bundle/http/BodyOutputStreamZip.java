@@ -170,6 +170,9 @@ public class BodyOutputStreamZip  extends BodyOutputStream
     if (inProgress())
       throw new IllegalStateException("Can not change to compress mode when response is in progress");
 
+    // Each compressed body is a gzip member of its own
+    deflater.reset();
+    crc.reset();
     writeGzipHeader();
     this.useGzip = true;
   }
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.knopflerfish.service.log.LogRef;
+
+/**
+ * Non-blocking acceptor for the NIO connection mode.
+ *
+ * <p>
+ * New connections are accepted on a selector and handed to the transaction
+ * manager. When a worker has served a request on a keep-alive connection and
+ * no further request data is buffered, the connection is parked here instead
+ * of blocking the worker thread. Parked connections are handed back to a
+ * worker as soon as the next request starts to arrive and are closed when
+ * they have been idle longer than the connection timeout.
+ * </p>
+ *
+ * <p>
+ * This class is only loaded when the NIO mode is configured and
+ * <code>java.nio</code> is available.
+ * </p>
+ */
+public class ConnectionSelector
+  implements Runnable
+{
+  // Poll interval while the number of active transactions is at its maximum
+  private final static long THROTTLE_INTERVAL = 50;
+
+  // Interval between checks for expired parked connections
+  private final static long EXPIRE_INTERVAL = 1000;
+
+  private final HttpConfigWrapper httpConfig;
+
+  private final LogRef log;
+
+  private final TransactionManager transactionManager;
+
+  private final ServerSocketChannel serverChannel;
+
+  private final Selector selector;
+
+  private final SelectionKey serverKey;
+
+  // Connections returned by the workers, registered by the selector thread
+  private final ArrayList<SocketChannel> parkQueue =
+    new ArrayList<SocketChannel>();
+
+  private final ArrayList<SocketChannel> ready = new ArrayList<SocketChannel>();
+
+  private volatile boolean done = false;
+
+  // constructors
+
+  public ConnectionSelector(final HttpConfigWrapper httpConfig,
+                            final LogRef log,
+                            final TransactionManager transactionManager,
+                            final InetSocketAddress address,
+                            final int backlog)
+      throws IOException
+  {
+    this.httpConfig = httpConfig;
+    this.log = log;
+    this.transactionManager = transactionManager;
+
+    serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.socket().bind(address, backlog);
+      serverChannel.configureBlocking(false);
+      selector = Selector.open();
+      serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (final IOException ioe) {
+      serverChannel.close();
+      throw ioe;
+    }
+  }
+
+  // public methods
+
+  public ServerSocket getServerSocket()
+  {
+    return serverChannel.socket();
+  }
+
+  /**
+   * Park an idle keep-alive connection until its next request arrives.
+   *
+   * @param client
+   *          the connection, must have been accepted by this selector.
+   * @return <code>false</code> if the selector is closed and the caller
+   *         must close the connection itself.
+   */
+  public boolean park(final Socket client)
+  {
+    final SocketChannel channel = client.getChannel();
+    if (channel == null) {
+      return false;
+    }
+    synchronized (parkQueue) {
+      if (done) {
+        return false;
+      }
+      parkQueue.add(channel);
+    }
+    selector.wakeup();
+    return true;
+  }
+
+  public void close()
+  {
+    done = true;
+    selector.wakeup();
+  }
+
+  // implements Runnable
+
+  public void run()
+  {
+    long nextExpire = System.currentTimeMillis() + EXPIRE_INTERVAL;
+
+    try {
+      while (!done) {
+        final boolean throttled =
+          transactionManager.getActiveTransactionCount() >= httpConfig
+              .getMaxConnections();
+        serverKey.interestOps(throttled ? 0 : SelectionKey.OP_ACCEPT);
+
+        selector.select(throttled ? THROTTLE_INTERVAL : EXPIRE_INTERVAL);
+        if (done) {
+          break;
+        }
+
+        registerParked();
+
+        final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          final SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key == serverKey) {
+            if (key.isAcceptable()) {
+              accept();
+            }
+          } else if (key.isReadable()) {
+            // A channel must be deregistered before it can be switched back
+            // to blocking mode, that happens on the next select operation.
+            key.cancel();
+            ready.add((SocketChannel) key.channel());
+          }
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now >= nextExpire) {
+          expireParked(now);
+          nextExpire = now + EXPIRE_INTERVAL;
+        }
+
+        if (!ready.isEmpty()) {
+          selector.selectNow();
+          for (int i = 0; i < ready.size(); i++) {
+            dispatch(ready.get(i));
+          }
+          ready.clear();
+        }
+      }
+    } catch (final ClosedSelectorException ignore) {
+    } catch (final IOException ioe) {
+      if (!done && log.doWarn()) {
+        log.warn("Connection selector failed on port "
+                 + serverChannel.socket().getLocalPort(), ioe);
+      }
+    } finally {
+      synchronized (parkQueue) {
+        done = true;
+      }
+      closeAll();
+    }
+  }
+
+  // private methods
+
+  private void accept()
+      throws IOException
+  {
+    SocketChannel channel;
+    try {
+      // Leave connections beyond the maximum in the backlog, the selector
+      // stops accepting until the number of transactions has dropped.
+      while (transactionManager.getActiveTransactionCount()
+             < httpConfig.getMaxConnections()
+             && (channel = serverChannel.accept()) != null) {
+        dispatch(channel);
+      }
+    } catch (final IOException ioe) {
+      if (!serverChannel.isOpen()) {
+        throw ioe;
+      }
+      if (log.doDebug()) {
+        log.debug("Communication error on port "
+                  + serverChannel.socket().getLocalPort(), ioe);
+      }
+    }
+  }
+
+  private void dispatch(final SocketChannel channel)
+  {
+    try {
+      channel.configureBlocking(true);
+      transactionManager.startTransaction(channel.socket(), httpConfig, this);
+    } catch (final IOException ioe) {
+      if (log.doDebug()) {
+        log.debug("Failed to dispatch connection: " + ioe);
+      }
+      closeChannel(channel);
+    }
+  }
+
+  private void registerParked()
+  {
+    synchronized (parkQueue) {
+      if (parkQueue.isEmpty()) {
+        return;
+      }
+      final Long now = new Long(System.currentTimeMillis());
+      for (int i = 0; i < parkQueue.size(); i++) {
+        final SocketChannel channel = parkQueue.get(i);
+        try {
+          channel.configureBlocking(false);
+          channel.register(selector, SelectionKey.OP_READ, now);
+        } catch (final IOException ioe) {
+          closeChannel(channel);
+        }
+      }
+      parkQueue.clear();
+    }
+  }
+
+  private void expireParked(final long now)
+  {
+    final long timeout = 1000L * httpConfig.getConnectionTimeout();
+    for (final SelectionKey key : selector.keys()) {
+      if (key != serverKey && key.isValid()
+          && now - ((Long) key.attachment()).longValue() > timeout) {
+        key.cancel();
+        closeChannel(key.channel());
+      }
+    }
+  }
+
+  private void closeAll()
+  {
+    try {
+      for (final SelectionKey key : selector.keys()) {
+        closeChannel(key.channel());
+      }
+      selector.close();
+    } catch (final Exception ignore) {
+    }
+    synchronized (parkQueue) {
+      for (int i = 0; i < parkQueue.size(); i++) {
+        closeChannel(parkQueue.get(i));
+      }
+      parkQueue.clear();
+    }
+    for (int i = 0; i < ready.size(); i++) {
+      closeChannel(ready.get(i));
+    }
+    ready.clear();
+  }
+
+  private static void closeChannel(final Channel channel)
+  {
+    try {
+      channel.close();
+    } catch (final IOException ignore) {
+    }
+  }
+
+} // ConnectionSelector
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A size limited cache of gzip compressed resource bodies.
+ *
+ * <p>
+ * Resources that are compressed when sent are compressed once, on the first
+ * request, and then served from this cache until they are modified or
+ * evicted. Entries are keyed by the resource URL and are replaced when the
+ * modification time of the resource changes. The least recently used entries
+ * are evicted when the total size exceeds the configured limit.
+ * </p>
+ */
+public class GzipCache
+{
+  // private fields
+
+  private final HttpConfig httpConfig;
+
+  // Access ordered, eldest entry is the least recently used one
+  private final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  private long size = 0;
+
+  private long hits = 0;
+
+  private long misses = 0;
+
+  private long bytesSaved = 0;
+
+  // constructors
+
+  public GzipCache(final HttpConfig httpConfig)
+  {
+    this.httpConfig = httpConfig;
+  }
+
+  // public methods
+
+  /**
+   * Get the compressed body of a resource, compressing it if not cached.
+   *
+   * @return the compressed body or <code>null</code> if the resource shall
+   *         not be cached, i.e., if it is too large or the cache is disabled.
+   */
+  public byte[] get(final ResourceInfo resource)
+      throws IOException
+  {
+    final long maxSize = httpConfig.getGzipCacheSize();
+    final long length = resource.getLength();
+    if (length < 0 || length > maxSize
+        || length > httpConfig.getGzipCacheMaxResource()) {
+      return null;
+    }
+
+    final String key = resource.getURL().toExternalForm();
+    synchronized (this) {
+      final Entry entry = entries.get(key);
+      if (entry != null && entry.lastModified == resource.getLastModified()
+          && entry.length == length) {
+        hits++;
+        bytesSaved += length - entry.data.length;
+        return entry.data;
+      }
+      misses++;
+    }
+
+    final Entry entry =
+      new Entry(resource.getLastModified(), length, compress(resource));
+    synchronized (this) {
+      final Entry old = entries.put(key, entry);
+      if (old != null) {
+        size -= old.data.length;
+      }
+      size += entry.data.length;
+      trim(maxSize);
+    }
+    return entry.data;
+  }
+
+  public synchronized void clear()
+  {
+    entries.clear();
+    size = 0;
+  }
+
+  public synchronized int getEntryCount()
+  {
+    return entries.size();
+  }
+
+  /**
+   * The total size of the cached compressed bodies in bytes.
+   */
+  public synchronized long getSize()
+  {
+    return size;
+  }
+
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * The number of body bytes not sent thanks to cache hits, i.e., the sum of
+   * the differences between the uncompressed and compressed sizes.
+   */
+  public synchronized long getBytesSaved()
+  {
+    return bytesSaved;
+  }
+
+  // private methods
+
+  private void trim(final long maxSize)
+  {
+    final Iterator<Entry> it = entries.values().iterator();
+    while (size > maxSize && it.hasNext()) {
+      size -= it.next().data.length;
+      it.remove();
+    }
+  }
+
+  private static byte[] compress(final ResourceInfo resource)
+      throws IOException
+  {
+    final ByteArrayOutputStream bos =
+      new ByteArrayOutputStream((int) resource.getLength() / 2 + 32);
+    final GZIPOutputStream zos = new GZIPOutputStream(bos);
+    final InputStream is = resource.openStream();
+    try {
+      final byte[] buf = new byte[4096];
+      int n;
+      while ((n = is.read(buf)) != -1) {
+        zos.write(buf, 0, n);
+      }
+    } finally {
+      is.close();
+    }
+    zos.finish();
+    return bos.toByteArray();
+  }
+
+  private static class Entry
+  {
+    final long lastModified;
+    final long length;
+    final byte[] data;
+
+    Entry(long lastModified, long length, byte[] data)
+    {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.data = data;
+    }
+  }
+
+} // GzipCache
@@ -81,6 +81,20 @@ public class HeaderBase
 
   protected static final String TRANSFER_ENCODING_VALUE_CHUNKED = "chunked";
 
+  protected static final String ETAG_HEADER_KEY = "ETag";
+
+  protected static final String IF_NONE_MATCH_HEADER_KEY = "If-None-Match";
+
+  protected static final String IF_MODIFIED_SINCE_HEADER_KEY = "If-Modified-Since";
+
+  protected static final String RANGE_HEADER_KEY = "Range";
+
+  protected static final String IF_RANGE_HEADER_KEY = "If-Range";
+
+  protected static final String ACCEPT_RANGES_HEADER_KEY = "Accept-Ranges";
+
+  protected static final String CONTENT_RANGE_HEADER_KEY = "Content-Range";
+
   // HACK SMA Expect: 100-Continue
   protected static final String EXPECT_HEADER_KEY = "expect";
   protected static final String EXPECT_100_CONTINUE_VALUE = "100-Continue";
@@ -101,6 +101,27 @@ public class HttpConfig
   public final static String ALWAYS_ZIP_MIME_TYPES_KEY = "org.knopflerfish.http.always_compress.mime_types";
   private final static String DEFAULT_ALWAYS_ZIP_MIME_TYPES = "text";
   private final Hashtable<String, String> compressMimeTypes = new Hashtable<String, String>(10);
+
+  // Max total size in bytes of the cache of compressed resource bodies,
+  // 0 disables the cache
+  public final static String GZIP_CACHE_SIZE_KEY = "org.knopflerfish.http.gzip_cache.size";
+  private final static int DEFAULT_GZIP_CACHE_SIZE = 1048576;
+  private int gzipCacheSize = DEFAULT_GZIP_CACHE_SIZE;
+
+  // Resources larger than this (in bytes) are compressed on the fly
+  // instead of being cached
+  public final static String GZIP_CACHE_MAX_RESOURCE_KEY = "org.knopflerfish.http.gzip_cache.max_resource";
+  private final static int DEFAULT_GZIP_CACHE_MAX_RESOURCE = 262144;
+  private int gzipCacheMaxResource = DEFAULT_GZIP_CACHE_MAX_RESOURCE;
+
+  // Connection handling model for plain HTTP, "blocking" (one worker thread
+  // per connection, including idle keep-alive connections) or "nio" (idle
+  // keep-alive connections are parked on a selector and only connections
+  // with a pending request are handed to a worker thread)
+  public final static String CONNECTION_MODE_KEY = "org.knopflerfish.http.connection.mode";
+  public final static String CONNECTION_MODE_BLOCKING = "blocking";
+  public final static String CONNECTION_MODE_NIO = "nio";
+  private String connectionMode = CONNECTION_MODE_BLOCKING;
   //
   public HttpConfigWrapper HTTP = new HttpConfigWrapper(false, this);
   public HttpConfigWrapper HTTPS = new HttpConfigWrapper(true, this);
@@ -244,6 +265,12 @@ public class HttpConfig
                getPropertyAsInteger(bc, HttpConfig.IDLE_WORKER_THREAD_TIMEOUT_KEY, DEFAULT_THREADS_IDLE_TIMEOUT));
     config.put(HttpConfig.ALWAYS_ZIP_MIME_TYPES_KEY,
                getPropertyAsString(bc, HttpConfig.ALWAYS_ZIP_MIME_TYPES_KEY, DEFAULT_ALWAYS_ZIP_MIME_TYPES));
+    config.put(HttpConfig.GZIP_CACHE_SIZE_KEY,
+               getPropertyAsInteger(bc, HttpConfig.GZIP_CACHE_SIZE_KEY, DEFAULT_GZIP_CACHE_SIZE));
+    config.put(HttpConfig.GZIP_CACHE_MAX_RESOURCE_KEY,
+               getPropertyAsInteger(bc, HttpConfig.GZIP_CACHE_MAX_RESOURCE_KEY, DEFAULT_GZIP_CACHE_MAX_RESOURCE));
+    config.put(HttpConfig.CONNECTION_MODE_KEY,
+               getPropertyAsString(bc, HttpConfig.CONNECTION_MODE_KEY, CONNECTION_MODE_BLOCKING));
                
     return config;
   }
@@ -338,6 +365,20 @@ public class HttpConfig
         } else if (key.equals(ALWAYS_ZIP_MIME_TYPES_KEY)) {
           parseCompressMimeTypes((String)value);
           this.configuration.put(key, value);
+        } else if (key.equals(GZIP_CACHE_SIZE_KEY)) {
+          this.gzipCacheSize = ((Integer) value).intValue();
+          this.configuration.put(key, value);
+        } else if (key.equals(GZIP_CACHE_MAX_RESOURCE_KEY)) {
+          this.gzipCacheMaxResource = ((Integer) value).intValue();
+          this.configuration.put(key, value);
+        } else if (key.equals(CONNECTION_MODE_KEY)) {
+          final String mode = ((String) value).trim().toLowerCase();
+          if (!CONNECTION_MODE_BLOCKING.equals(mode)
+              && !CONNECTION_MODE_NIO.equals(mode)) {
+            throw new ConfigurationException(key, "invalid value=" + value);
+          }
+          this.connectionMode = mode;
+          this.configuration.put(key, value);
         } else {
           this.configuration.put(key, value);
         }
@@ -470,6 +511,18 @@ public class HttpConfig
   public int getThreadIdleTimeout() {
     return threadsIdleTimeout;
   }
+
+  public int getGzipCacheSize() {
+    return gzipCacheSize;
+  }
+
+  public int getGzipCacheMaxResource() {
+    return gzipCacheMaxResource;
+  }
+
+  public String getConnectionMode() {
+    return connectionMode;
+  }
   
   public void updated(Dictionary<String, ?> configuration)
       throws ConfigurationException
@@ -149,6 +149,16 @@ public class HttpConfigWrapper
     return config.requireClientAuth();
   }
 
+  /**
+   * NIO connection handling is only used for plain HTTP, HTTPS
+   * connections are always handled by the blocking model.
+   */
+  public boolean isNioMode()
+  {
+    return !isSecure
+           && HttpConfig.CONNECTION_MODE_NIO.equals(config.getConnectionMode());
+  }
+
   public boolean checkCompressMimeType(String type)
   {
     return config.checkCompressMimeType(type);
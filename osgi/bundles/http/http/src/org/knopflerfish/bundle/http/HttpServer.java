@@ -59,6 +59,8 @@ public class HttpServer
 
   private final TransactionManager transactionManager;
 
+  private final GzipCache gzipCache;
+
   private final SocketListener httpSocketListener;
 
   private final SocketListener httpsSocketListener;
@@ -80,7 +82,9 @@ public class HttpServer
     registrations = new Registrations();
 
     contextManager = new ServletContextManager(httpConfig, log, registrations);
-    serviceFactory = new HttpServiceFactory(log, registrations, contextManager);
+    gzipCache = new GzipCache(httpConfig);
+    serviceFactory =
+      new HttpServiceFactory(log, registrations, contextManager, gzipCache);
 
     sessionManager = new HttpSessionManager(httpConfig);
     transactionManager =
@@ -147,6 +151,7 @@ public class HttpServer
     if (sessionManager != null) {
       sessionManager.destroy();
     }
+    gzipCache.clear();
   }
 
   synchronized void doHttpReg()
@@ -186,6 +191,11 @@ public class HttpServer
     return transactionManager;
   }
 
+  public GzipCache getGzipCache()
+  {
+    return gzipCache;
+  }
+
   public boolean isHttpOpen()
   {
     return httpSocketListener.isOpen();
@@ -53,15 +53,19 @@ public class HttpServiceFactory
 
   private final ServletContextManager contextManager;
 
+  private final GzipCache gzipCache;
+
   // constructors
 
   public HttpServiceFactory(final LogRef log,
                             final Registrations registrations,
-                            final ServletContextManager contextManager)
+                            final ServletContextManager contextManager,
+                            final GzipCache gzipCache)
   {
     this.log = log;
     this.registrations = registrations;
     this.contextManager = contextManager;
+    this.gzipCache = gzipCache;
   }
 
   // implements ServiceFactory
@@ -69,7 +73,8 @@ public class HttpServiceFactory
   public HttpService getService(Bundle bundle,
                                 ServiceRegistration<HttpService> serviceReg)
   {
-    return new HttpServiceImpl(bundle, log, registrations, contextManager);
+    return new HttpServiceImpl(bundle, log, registrations, contextManager,
+                               gzipCache);
   }
 
   public void ungetService(Bundle bundle,
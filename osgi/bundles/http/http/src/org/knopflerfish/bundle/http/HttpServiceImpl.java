@@ -65,6 +65,8 @@ public class HttpServiceImpl
 
   private final ServletContextManager contextManager;
 
+  private final GzipCache gzipCache;
+
   private final Vector<String> bundleRegistrations = new Vector<String>();
 
   private boolean closed = false;
@@ -75,12 +77,14 @@ public class HttpServiceImpl
 
   public HttpServiceImpl(final Bundle bundle, final LogRef log,
                          final Registrations registrations,
-                         final ServletContextManager contextManager)
+                         final ServletContextManager contextManager,
+                         final GzipCache gzipCache)
   {
     this.bundle = bundle;
     this.log = log;
     this.registrations = registrations;
     this.contextManager = contextManager;
+    this.gzipCache = gzipCache;
   }
 
   // public methods
@@ -169,7 +173,7 @@ public class HttpServiceImpl
     // HACK CSM now caching "last updated" time
     register(alias,
              new ResourceRegistration(alias, realPath, httpContext,
-                                      contextManager, System
+                                      contextManager, gzipCache, System
                                           .currentTimeMillis()));
   }
 
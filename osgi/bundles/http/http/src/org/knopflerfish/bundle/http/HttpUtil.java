@@ -202,6 +202,9 @@ public class HttpUtil
                     "Request-URI Too Large");
     statusCodes.put(new Integer(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE),
                     "Unsupported Media Type");
+    statusCodes
+        .put(new Integer(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE),
+             "Requested Range Not Satisfiable");
     statusCodes.put(new Integer(HttpServletResponse.SC_INTERNAL_SERVER_ERROR),
                     "Internal Server Error");
     statusCodes.put(new Integer(HttpServletResponse.SC_NOT_IMPLEMENTED),
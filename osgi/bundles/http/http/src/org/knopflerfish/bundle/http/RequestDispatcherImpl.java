@@ -35,20 +35,18 @@
 package org.knopflerfish.bundle.http;
 
 import java.io.BufferedInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Locale;
 import java.util.Stack;
+import java.util.StringTokenizer;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -73,6 +71,9 @@ public class RequestDispatcherImpl
   private final static Dictionary<Thread, Stack<String>> threadStacks =
     new Hashtable<Thread, Stack<String>>();
 
+  // Requests for more ranges than this are served as a whole
+  private final static int MAX_RANGES = 16;
+
   // private fields
 
   private final String servletPath;
@@ -89,7 +90,9 @@ public class RequestDispatcherImpl
 
   private String pathInfo = null;
 
-  private URL resourceURL = null;
+  private ResourceInfo resourceInfo = null;
+
+  private GzipCache gzipCache = null;
   
   /**
    * HACK CSM
@@ -104,7 +107,7 @@ public class RequestDispatcherImpl
   RequestDispatcherImpl(final String servletPath, final Servlet servlet,
                         final HttpContext httpContext, long newDate)
   {
-    this(servletPath, servlet, httpContext, null, newDate, null);
+    this(servletPath, servlet, httpContext, null, newDate, null, null);
   }
 
   /**
@@ -112,14 +115,16 @@ public class RequestDispatcherImpl
    */
   RequestDispatcherImpl(final String servletPath, final Servlet servlet,
                         final HttpContext httpContext,
-                        final ServletConfig config, long newDate, URL resourceURL)
+                        final ServletConfig config, long newDate,
+                        ResourceInfo resourceInfo, GzipCache gzipCache)
   {
     this.servletPath = servletPath;
     this.servlet = servlet;
     this.httpContext = httpContext;
     this.config = config;
     lastModificationDate = newDate;
-    this.resourceURL = resourceURL;
+    this.resourceInfo = resourceInfo;
+    this.gzipCache = gzipCache;
   }
 
   // private methods
@@ -214,51 +219,349 @@ public class RequestDispatcherImpl
     } else {
 
 
-      final String target = HttpUtil.makeTarget(uri, servletPath);
-      final ServletContext context = config.getServletContext();
-      // final URL url = context.getResource(target);
-      final URLConnection resource = resourceURL.openConnection();
+      final ResourceInfo resource = resourceInfo;
 
       // HACK CSM
-      final long date = getLastModified(resource);
+      final long date = resource.getLastModified();
+      final String etag = resource.getETag();
       if (date > -1) {
+        response.setDateHeader("Last-Modified", date);
+      }
+
+      final String contentType = resource.getContentType();
+      if (contentType != null) {
+        response.setContentType(contentType);
+      }
+
+      if (isNotModified(request, etag, date)) {
+        setETag(response, etag, isCompressing(response));
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+      // END HACK CSM
+
+      final long length = resource.getLength();
+      if (length < 0 || length > Integer.MAX_VALUE
+          || !(response instanceof ResponseImpl
+               || response instanceof NoBodyResponse)) {
+        final InputStream is = resource.openStream();
+        response.copy(is);
+        is.close();
+        return;
+      }
+
+      response.setHeader(HeaderBase.ACCEPT_RANGES_HEADER_KEY, "bytes");
+      if (response instanceof NoBodyResponse) {
+        serviceHead((NoBodyResponse) response, resource, etag, length);
+        return;
+      }
+
+      final ResponseImpl resp = (ResponseImpl) response;
+      final long[] ranges = getRanges(request, etag, date, length);
+      if (ranges == null) {
+        if (!resp.isCompressing()) {
+          setETag(resp, etag, false);
+          resp.setContentLength((int) length);
+          resp.transfer(resource, 0, length);
+          return;
+        }
+        setETag(resp, etag, true);
+        resp.addHeader("Vary", HeaderBase.ACCEPT_ENCODING);
+        final byte[] gz = gzipCache != null ? gzipCache.get(resource) : null;
+        if (gz == null) {
+          resp.transfer(resource, 0, length);
+        } else {
+          // Send the cached compressed body as is
+          resp.setContentLength(gz.length);
+          resp.setHeader(HeaderBase.CONTENT_ENCODING, "gzip");
+          resp.getRawOutputStream().write(gz);
+        }
+        return;
+      }
+
+      setETag(resp, etag, false);
+      if (ranges.length == 0) {
+        resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        resp.setHeader(HeaderBase.CONTENT_RANGE_HEADER_KEY, "bytes */"
+                                                            + length);
+        resp.setContentType(null);
+        resp.setContentLength(0);
+      } else if (ranges.length == 2) {
+        final long first = ranges[0];
+        final long last = ranges[1];
+        resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        resp.setHeader(HeaderBase.CONTENT_RANGE_HEADER_KEY,
+                       contentRange(first, last, length));
+        resp.setContentLength((int) (last - first + 1));
+        resp.transfer(resource, first, last - first + 1);
+      } else {
+        serviceMultiRange(resp, resource, ranges, contentType);
+      }
+    }
+  }
+
+  /**
+   * Set the headers that a GET request without a range would get. A body
+   * that is compressed on the fly has no known length.
+   */
+  private void serviceHead(NoBodyResponse response,
+                           ResourceInfo resource,
+                           String etag,
+                           long length)
+      throws IOException
+  {
+    if (!isCompressing(response)) {
+      setETag(response, etag, false);
+      response.setContentLength((int) length);
+      return;
+    }
+    setETag(response, etag, true);
+    response.addHeader("Vary", HeaderBase.ACCEPT_ENCODING);
+    final byte[] gz = gzipCache != null ? gzipCache.get(resource) : null;
+    response.setContentLength(gz != null ? gz.length : -1);
+    response.setHeader(HeaderBase.CONTENT_ENCODING, "gzip");
+  }
+
+  /**
+   * True if the body of the response, or of the corresponding GET response
+   * for a HEAD request, is compressed on the fly.
+   */
+  private static boolean isCompressing(Response response)
+  {
+    if (response instanceof NoBodyResponse) {
+      response = ((NoBodyResponse) response).getResponse();
+    }
+    return response instanceof ResponseImpl
+           && ((ResponseImpl) response).isCompressing();
+  }
+
+  /**
+   * Check the conditional headers of a request. An entity tag in
+   * <code>If-None-Match</code> takes precedence over the date in
+   * <code>If-Modified-Since</code>.
+   */
+  private boolean isNotModified(Request request, String etag, long date)
+  {
+    final String ifNoneMatch =
+      request.getHeader(HeaderBase.IF_NONE_MATCH_HEADER_KEY);
+    if (ifNoneMatch != null) {
+      if (etag == null) {
+        return false;
+      }
+      final String gzipETag = gzipETag(etag);
+      final StringTokenizer st = new StringTokenizer(ifNoneMatch, ",");
+      while (st.hasMoreTokens()) {
+        String tag = st.nextToken().trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if ("*".equals(tag) || etag.equals(tag) || gzipETag.equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    if (date > -1) {
+      try {
+        final long if_modified =
+          request.getDateHeader(HeaderBase.IF_MODIFIED_SINCE_HEADER_KEY);
+        if (if_modified > 0 && date / 1000 <= if_modified / 1000) {
+          return true;
+        }
+      } catch (final IllegalArgumentException iae) {
+        // An 'If-Modified-Since' header is present but the value
+        // can not be parsed; ignore it.
+        final LogRef log = Activator.log;
+        if (null != log && log.doDebug()) {
+          log.debug("Ignoring broken 'If-Modified-Since' header: "
+                        + iae.getMessage(), iae);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the byte ranges requested by a GET request.
+   *
+   * @return <code>null</code> if the whole resource shall be sent, an empty
+   *         array if none of the requested ranges can be satisfied, otherwise
+   *         pairs of first and last (inclusive) byte positions.
+   */
+  private long[] getRanges(Request request, String etag, long date,
+                           long length)
+  {
+    final String range = request.getHeader(HeaderBase.RANGE_HEADER_KEY);
+    if (range == null || !"GET".equalsIgnoreCase(request.getMethod())) {
+      return null;
+    }
+
+    // Only send a part if the client's copy is of the current resource
+    final String ifRange = request.getHeader(HeaderBase.IF_RANGE_HEADER_KEY);
+    if (ifRange != null) {
+      final String value = ifRange.trim();
+      if (value.startsWith("\"") || value.startsWith("W/")) {
+        if (!value.equals(etag)) {
+          return null;
+        }
+      } else {
         try {
-          final long if_modified = request.getDateHeader("If-Modified-Since");
-          if (if_modified > 0 && date / 1000 <= if_modified / 1000) {
-            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-            return;
+          final long ifDate =
+            request.getDateHeader(HeaderBase.IF_RANGE_HEADER_KEY);
+          if (ifDate <= 0 || date / 1000 != ifDate / 1000) {
+            return null;
           }
         } catch (final IllegalArgumentException iae) {
-          // An 'If-Modified-Since' header is present but the value
-          // can not be parsed; ignore it.
-          final LogRef log = Activator.log;
-          if (null != log && log.doDebug()) {
-            log.debug("Ignoring broken 'If-Modified-Since' header: "
-                          + iae.getMessage(), iae);
-          }
+          return null;
         }
-        response.setDateHeader("Last-Modified", date);
       }
-      // END HACK CSM
-      
-      String contentType = context.getMimeType(target);
-      
-      if (contentType == null) {
-        contentType = resource.getContentType();
+    }
+
+    return parseRanges(range, length);
+  }
+
+  /**
+   * Parse the value of a <code>Range</code> header.
+   *
+   * @return <code>null</code> if the value is not a valid byte range set or
+   *         has too many ranges, otherwise as {@link #getRanges}.
+   */
+  static long[] parseRanges(String range, long length)
+  {
+    range = range.trim();
+    if (!range.regionMatches(true, 0, "bytes=", 0, 6)) {
+      return null;
+    }
+
+    final StringTokenizer st = new StringTokenizer(range.substring(6), ",");
+    if (st.countTokens() > MAX_RANGES) {
+      return null;
+    }
+    final long[] res = new long[2 * st.countTokens()];
+    int n = 0;
+    try {
+      while (st.hasMoreTokens()) {
+        final String spec = st.nextToken().trim();
+        final int dash = spec.indexOf('-');
+        if (dash == -1) {
+          return null;
+        }
+        final String firstPos = spec.substring(0, dash).trim();
+        final String lastPos = spec.substring(dash + 1).trim();
+        long first;
+        long last;
+        if (firstPos.length() == 0) {
+          // Suffix range, the last N bytes
+          final long suffix = Long.parseLong(lastPos);
+          if (suffix < 0) {
+            return null;
+          }
+          first = Math.max(0, length - suffix);
+          last = length - 1;
+          if (suffix == 0) {
+            continue;
+          }
+        } else {
+          first = Long.parseLong(firstPos);
+          last = lastPos.length() == 0 ? Long.MAX_VALUE
+                                       : Long.parseLong(lastPos);
+          if (first < 0 || last < first) {
+            return null;
+          }
+          last = Math.min(last, length - 1);
+        }
+        if (first >= length) {
+          continue;
+        }
+        res[n++] = first;
+        res[n++] = last;
       }
-      
+    } catch (final NumberFormatException nfe) {
+      return null;
+    }
+
+    if (n == res.length) {
+      return res;
+    }
+    final long[] satisfiable = new long[n];
+    System.arraycopy(res, 0, satisfiable, 0, n);
+    return satisfiable;
+  }
+
+  /**
+   * The gzip encoded body of a resource is a different entity than the
+   * resource itself and needs an entity tag of its own.
+   */
+  private static String gzipETag(String etag)
+  {
+    return etag.substring(0, etag.length() - 1) + "-gz\"";
+  }
+
+  private static void setETag(HttpServletResponse response,
+                              String etag,
+                              boolean gzip)
+  {
+    if (etag != null) {
+      response.setHeader(HeaderBase.ETAG_HEADER_KEY,
+                         gzip ? gzipETag(etag) : etag);
+    }
+  }
+
+  private static String contentRange(long first, long last, long length)
+  {
+    return "bytes " + first + "-" + last + "/" + length;
+  }
+
+  /**
+   * Send several ranges of a resource as a multipart/byteranges body.
+   */
+  private void serviceMultiRange(ResponseImpl response,
+                                 ResourceInfo resource,
+                                 long[] ranges,
+                                 String contentType)
+      throws IOException
+  {
+    final String boundary =
+      "KF_BYTERANGES_" + Long.toHexString(System.currentTimeMillis())
+          + Integer.toHexString(resource.hashCode());
+
+    final byte[][] partHeads = new byte[ranges.length / 2][];
+    long total = 0;
+    for (int i = 0; i < partHeads.length; i++) {
+      final long first = ranges[2 * i];
+      final long last = ranges[2 * i + 1];
+      final StringBuilder sb = new StringBuilder(128);
+      sb.append("\r\n--").append(boundary).append("\r\n");
       if (contentType != null) {
-        final String encoding = resource.getContentEncoding();
-        if (encoding != null) {
-          contentType += "; charset=" + encoding;
-        }
-        response.setContentType(contentType);
+        sb.append(HeaderBase.CONTENT_TYPE_HEADER_KEY).append(": ")
+            .append(contentType).append("\r\n");
       }
+      sb.append(HeaderBase.CONTENT_RANGE_HEADER_KEY).append(": ")
+          .append(contentRange(first, last, resource.getLength()))
+          .append("\r\n\r\n");
+      partHeads[i] = sb.toString().getBytes("ISO-8859-1");
+      total += partHeads[i].length + last - first + 1;
+    }
+    final byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1");
+    total += tail.length;
+    if (total > Integer.MAX_VALUE) {
+      response.setContentLength((int) resource.getLength());
+      response.transfer(resource, 0, resource.getLength());
+      return;
+    }
 
-      final InputStream is = resource.getInputStream();
-      response.copy(is);
-      is.close();
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setContentType(null);
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setContentLength((int) total);
+    final OutputStream out = response.getRawOutputStream();
+    for (int i = 0; i < partHeads.length; i++) {
+      out.write(partHeads[i]);
+      response.transfer(resource, ranges[2 * i],
+                        ranges[2 * i + 1] - ranges[2 * i] + 1);
     }
+    out.write(tail);
   }
 
   private void serviceTrace(HttpServletRequest req, HttpServletResponse resp)
@@ -500,53 +803,6 @@ public class RequestDispatcherImpl
     return lastModificationDate;
   }
 
-  // HACK CSM
-  /**
-   * Gets the last modified value for file modification detection. Aids in
-   * "conditional get" and intermediate proxy/node cacheing.
-   *
-   * Approach used follows that used by Sun for JNLP handling to workaround an
-   * apparent issue where file URLs do not correctly return a last modified
-   * time.
-   *
-   */
-  protected long getLastModified(URLConnection conn)
-  {
-    long lastModified = 0;
-
-     
-    try {
-      // Get last modified time
-      // final URLConnection conn = resUrl.openConnection();
-      lastModified = conn.getLastModified();
-      //conn.getInputStream().close();
-      //((HttpURLConnection)conn).disconnect();
-    } catch (final Exception e) {
-      // do nothing
-    }
-
-    if (lastModified == 0) {
-      // Arguably a bug in the JRE will not set the lastModified
-      // for file URLs, and always return 0. This is a
-      // workaround for that problem.
-      //final String filepath = resUrl.getPath();
-      final String filepath = conn.getURL().getPath();
-      if (filepath != null) {
-        final File f = new File(filepath);
-        if (f.exists()) {
-          lastModified = f.lastModified();
-        }
-      }
-    }
-
-    if (lastModified == 0) {
-      // HCK CSM we assume that the resource is in the bundle
-      lastModified = lastModificationDate;
-    }
-
-    return lastModified;
-  }
-
 } // RequestDispatcherImpl
 
 /*
@@ -576,6 +832,12 @@ class NoBodyResponse
     noBody = new NoBodyOutputStream();
   }
 
+  // file private
+  Response getResponse()
+  {
+    return resp;
+  }
+
   // file private
   void setContentLength()
   {
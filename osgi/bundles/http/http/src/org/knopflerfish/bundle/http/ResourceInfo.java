@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Cached meta data for a resource served by a {@link ResourceRegistration}.
+ *
+ * <p>
+ * The meta data is read from the resource once and reused for following
+ * requests. Resources backed by a file are revalidated on each use by
+ * checking the length and modification time of the file; other resources,
+ * i.e., bundle entries, do not change while their registration exists.
+ * </p>
+ */
+public class ResourceInfo
+{
+  // private fields
+
+  private final URL url;
+
+  private final String externalForm;
+
+  private final File file;
+
+  private final long length;
+
+  private final long lastModified;
+
+  private final String etag;
+
+  private final String contentType;
+
+  // constructors
+
+  /**
+   * @param url
+   *          the resource.
+   * @param mimeType
+   *          the mime type from the servlet context, or <code>null</code> to
+   *          use the content type reported by the resource.
+   * @param defaultDate
+   *          modification time to use when the resource does not have one,
+   *          i.e., the time of the registration.
+   */
+  ResourceInfo(final URL url, final String mimeType, final long defaultDate)
+      throws IOException
+  {
+    this.url = url;
+    this.externalForm = url.toExternalForm();
+
+    File f = null;
+    if ("file".equals(url.getProtocol())) {
+      f = new File(url.getPath());
+      if (!f.isFile()) {
+        f = null;
+      }
+    }
+    this.file = f;
+
+    final URLConnection conn = url.openConnection();
+    if (file != null) {
+      length = file.length();
+    } else {
+      length = conn.getContentLength();
+    }
+    lastModified = getLastModified(conn, file, defaultDate);
+
+    String type = mimeType;
+    if (type == null) {
+      type = conn.getContentType();
+    }
+    if (type != null) {
+      final String encoding = conn.getContentEncoding();
+      if (encoding != null) {
+        type += "; charset=" + encoding;
+      }
+    }
+    contentType = type;
+
+    etag = length >= 0 && lastModified > 0
+      ? "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified)
+        + "\""
+      : null;
+  }
+
+  // public methods
+
+  public URL getURL()
+  {
+    return url;
+  }
+
+  /**
+   * The file holding the resource or <code>null</code> if the resource is
+   * not a plain file.
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * The length of the resource in bytes, -1 if not known.
+   */
+  public long getLength()
+  {
+    return length;
+  }
+
+  public long getLastModified()
+  {
+    return lastModified;
+  }
+
+  /**
+   * The strong entity tag of the resource, <code>null</code> if length or
+   * modification time is not known.
+   */
+  public String getETag()
+  {
+    return etag;
+  }
+
+  public String getContentType()
+  {
+    return contentType;
+  }
+
+  public InputStream openStream()
+      throws IOException
+  {
+    return url.openStream();
+  }
+
+  /**
+   * Check if this meta data was read from the given URL.
+   */
+  public boolean isFor(URL other)
+  {
+    return externalForm.equals(other.toExternalForm());
+  }
+
+  /**
+   * Check if the meta data still describes the resource.
+   */
+  public boolean isValid()
+  {
+    if (file != null) {
+      return file.lastModified() == lastModified && file.length() == length;
+    }
+    return true;
+  }
+
+  // private methods
+
+  /**
+   * Gets the last modified value for file modification detection. Aids in
+   * "conditional get" and intermediate proxy/node cacheing.
+   *
+   * Approach used follows that used by Sun for JNLP handling to workaround an
+   * apparent issue where file URLs do not correctly return a last modified
+   * time.
+   */
+  private static long getLastModified(final URLConnection conn,
+                                      final File file,
+                                      final long defaultDate)
+  {
+    if (file != null) {
+      return file.lastModified();
+    }
+
+    long lastModified = 0;
+    try {
+      lastModified = conn.getLastModified();
+    } catch (final Exception e) {
+      // do nothing
+    }
+
+    if (lastModified == 0) {
+      // HACK CSM we assume that the resource is in the bundle
+      lastModified = defaultDate;
+    }
+
+    return lastModified;
+  }
+
+} // ResourceInfo
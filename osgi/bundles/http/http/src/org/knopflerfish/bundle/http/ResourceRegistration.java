@@ -34,6 +34,7 @@
 
 package org.knopflerfish.bundle.http;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Hashtable;
@@ -46,6 +47,10 @@ import org.osgi.service.http.HttpContext;
 public class ResourceRegistration
   implements Registration
 {
+  // private constants
+
+  // Max number of resources to keep meta data for
+  private final static int MAX_RESOURCE_INFOS = 256;
 
   // private fields
 
@@ -59,56 +64,111 @@ public class ResourceRegistration
 
   private final ServletConfig config;
 
+  private final GzipCache gzipCache;
+
   // HACK CSM
   private final long lastModificationDate;
 
   // Bundle that made the registration, quick fix for console
   private Object owner;
 
+  // Resource meta data keyed by target path
+  private final Hashtable<String, ResourceInfo> resourceInfos =
+    new Hashtable<String, ResourceInfo>();
+
+  // The default context always maps a name to the same bundle entry, so
+  // there is no need to ask it again for a resource we already know.
+  private final boolean isStaticContext;
+
   // constructors
 
   // HACK CSM
   public ResourceRegistration(final String alias, final String realPath,
                               final HttpContext httpContext,
                               final ServletContextManager contextManager,
+                              final GzipCache gzipCache,
                               long newDate)
   {
     this.alias = alias;
+    this.gzipCache = gzipCache;
     this.httpContext = httpContext;
     this.contextManager = contextManager;
     // HACK CSM
     lastModificationDate = newDate;
 
+    isStaticContext = httpContext instanceof DefaultHttpContext;
     context = contextManager.getServletContext(httpContext, realPath);
     config = new ServletConfigImpl(new Hashtable<String, String>(), context);
   }
 
   // private methods
 
-  private URL getResource(String path)
+  private URL getResource(String target)
   {
-    if (path.startsWith(alias)) {
-      try {
-        return context.getResource(HttpUtil.makeTarget(path, alias));
-      } catch (final MalformedURLException ignore) {
-      }
+    try {
+      return context.getResource(target);
+    } catch (final MalformedURLException ignore) {
     }
 
     return null;
   }
 
+  private ResourceInfo getResourceInfo(String path)
+  {
+    if (!path.startsWith(alias)) {
+      return null;
+    }
+
+    final String target = HttpUtil.makeTarget(path, alias);
+    ResourceInfo info = resourceInfos.get(target);
+    URL url = null;
+    if (info != null && !isStaticContext) {
+      url = getResource(target);
+      if (url == null || !info.isFor(url)) {
+        info = null;
+      }
+    }
+    if (info != null && info.isValid()) {
+      return info;
+    }
+
+    if (url == null) {
+      url = getResource(target);
+      if (url == null) {
+        resourceInfos.remove(target);
+        return null;
+      }
+    }
+    try {
+      info = new ResourceInfo(url, context.getMimeType(target),
+                              lastModificationDate);
+    } catch (final IOException ioe) {
+      // Treat a resource that can not be read as missing.
+      info = null;
+    }
+    if (info == null) {
+      return null;
+    }
+    if (resourceInfos.size() >= MAX_RESOURCE_INFOS) {
+      resourceInfos.clear();
+    }
+    resourceInfos.put(target, info);
+
+    return info;
+  }
+
   // implements Registration
   @Override
   public RequestDispatcherImpl getRequestDispatcher(String uri)
   {
-    final URL url = getResource(uri);
+    final ResourceInfo info = getResourceInfo(uri);
     
-    if (url == null)
+    if (info == null)
       return null;
     
     final RequestDispatcherImpl dispatcher =
       new RequestDispatcherImpl(alias, null, httpContext, config,
-                                lastModificationDate, url);
+                                lastModificationDate, info, gzipCache);
     dispatcher.setURI(uri);
     
     return dispatcher;
@@ -123,6 +183,7 @@ public class ResourceRegistration
   @Override
   public void destroy()
   {
+    resourceInfos.clear();
     contextManager.ungetServletContext(context);
   }
 
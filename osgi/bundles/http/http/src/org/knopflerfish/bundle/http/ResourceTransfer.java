@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.http;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes file resources to a connection using {@link FileChannel#transferTo},
+ * letting the operating system copy the data directly to the socket when the
+ * connection has a channel (NIO connection mode).
+ *
+ * <p>
+ * This class is only loaded when <code>java.nio</code> is available.
+ * </p>
+ */
+class ResourceTransfer
+{
+
+  private ResourceTransfer()
+  {
+  }
+
+  /**
+   * Write a part of a file to a connection.
+   *
+   * @param file
+   *          the file to read from.
+   * @param offset
+   *          the position in the file of the first byte to write.
+   * @param length
+   *          the number of bytes to write.
+   * @param socket
+   *          the connection, may be <code>null</code>.
+   * @param out
+   *          the output stream of the connection, used when the socket does
+   *          not have a channel.
+   */
+  static void transfer(final File file,
+                       long offset,
+                       long length,
+                       final Socket socket,
+                       final OutputStream out)
+      throws IOException
+  {
+    WritableByteChannel target = socket != null ? socket.getChannel() : null;
+    if (target == null) {
+      target = Channels.newChannel(out);
+    }
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel fc = raf.getChannel();
+      while (length > 0) {
+        final long n = fc.transferTo(offset, length, target);
+        if (n <= 0) {
+          throw new EOFException("Resource " + file + " was truncated");
+        }
+        offset += n;
+        length -= n;
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+} // ResourceTransfer
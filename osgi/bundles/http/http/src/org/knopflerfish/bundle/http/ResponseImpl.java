@@ -34,11 +34,14 @@
 
 package org.knopflerfish.bundle.http;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -96,6 +99,12 @@ public class ResponseImpl
   private boolean emptyBody = false;
   
   byte[] copyBuffer = new byte[4096];
+
+  // The connection of the current transaction, if any
+  private Socket socket = null;
+
+  // FileChannel is not part of the minimum execution environment
+  private static final boolean nioAvailable = isNioAvailable();
   
   
   // private methods
@@ -174,6 +183,10 @@ public class ResponseImpl
 
   }
   
+  void setSocket(Socket socket) {
+    this.socket = socket;
+  }
+
   public void handle() {
     keepAlive = request.getKeepAlive();
     chunked = request.isHTTP_1_1();
@@ -380,6 +393,7 @@ public class ResponseImpl
     cookies.removeAllElements();
 
     request = null;
+    socket = null;
    
     try {
       bodyOut.close();
@@ -812,6 +826,12 @@ public class ResponseImpl
     }
   }
   
+  // True if the body will be compressed on the fly
+  boolean isCompressing()
+  {
+    return useGzip;
+  }
+
   public boolean useGzip()
   {
     return false;
@@ -845,4 +865,58 @@ public class ResponseImpl
       bodyOut.write(copyBuffer, 0, bytesRead);
     }
   }
+
+  /**
+   * Write a part of a resource to the body. File resources are transferred
+   * directly to the connection, bypassing the body buffer.
+   */
+  void transfer(ResourceInfo resource, long offset, long length)
+      throws IOException
+  {
+    final File file = resource.getFile();
+    if (file != null && nioAvailable && !useGzip) {
+      bodyOut.flushBuffer();
+      ResourceTransfer.transfer(file, offset, length, socket,
+                                bodyOut.getTarget());
+      return;
+    }
+
+    final InputStream is = resource.openStream();
+    try {
+      while (offset > 0) {
+        final long n = is.skip(offset);
+        if (n <= 0) {
+          if (is.read() == -1) {
+            throw new EOFException("Resource " + resource.getURL()
+                                   + " was truncated");
+          }
+          offset--;
+        } else {
+          offset -= n;
+        }
+      }
+      while (length > 0) {
+        final int n =
+          is.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, length));
+        if (n == -1) {
+          throw new EOFException("Resource " + resource.getURL()
+                                 + " was truncated");
+        }
+        bodyOut.write(copyBuffer, 0, n);
+        length -= n;
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  private static boolean isNioAvailable()
+  {
+    try {
+      Class.forName("java.nio.channels.FileChannel");
+      return true;
+    } catch (final Throwable t) {
+      return false;
+    }
+  }
 } // ResponseImpl
@@ -160,6 +160,14 @@ public class ServletInputStreamImpl
     // is.printInfo("reset() - after");
   }
   
+  /**
+   * Check if there is input that can be read without blocking, regardless of
+   * any limit set for the current request body.
+   */
+  boolean hasPendingInput() throws IOException {
+    return is.available() > 0;
+  }
+
   @Override
   public void close() throws IOException {
     is.close();
@@ -37,6 +37,7 @@ package org.knopflerfish.bundle.http;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -83,12 +84,17 @@ public class SocketListener
 
   private boolean isEnabled = false;
 
+  private boolean isNioMode = false;
+
   private Boolean requireClientAuth = null;
 
   private boolean done = false;
 
   private ServerSocket socket = null;
 
+  // Non-null when connections are handled in NIO mode
+  private ConnectionSelector selector = null;
+
   private Thread thread = null;
 
   // constructors
@@ -120,6 +126,7 @@ public class SocketListener
     host = httpConfig.getHost();
     maxConnections = httpConfig.getMaxConnections();
     isEnabled = httpConfig.isEnabled();
+    isNioMode = httpConfig.isNioMode();
 
     destroy();
 
@@ -151,7 +158,19 @@ public class SocketListener
         if (log.doDebug()) {
           log.debug("Creating socket");
         }
-        if (host == null || host.length() == 0) {
+        if (isNioMode && isNioAvailable()) {
+          InetSocketAddress address = new InetSocketAddress(port);
+          if (host != null && host.length() > 0) {
+            address = new InetSocketAddress(host, port);
+            if (address.isUnresolved()) {
+              address = new InetSocketAddress(port);
+            }
+          }
+          selector =
+            new ConnectionSelector(httpConfig, log, transactionManager,
+                                   address, maxConnections);
+          socket = selector.getServerSocket();
+        } else if (host == null || host.length() == 0) {
           socket = new ServerSocket(port, maxConnections);
         } else {
           try {
@@ -326,7 +345,14 @@ public class SocketListener
       log.info(sch + " server started on port " + port);
     }
 
-    thread = new Thread(this, sch + " server:" + port);
+    if (selector != null) {
+      if (log.doInfo()) {
+        log.info(sch + " server uses NIO connection handling");
+      }
+      thread = new Thread(selector, sch + " server:" + port);
+    } else {
+      thread = new Thread(this, sch + " server:" + port);
+    }
     thread.start();
 
   }
@@ -364,6 +390,14 @@ public class SocketListener
       thread.interrupt();
     }
 
+    if (selector != null) {
+      // Closing the selector also closes the server socket and all parked
+      // connections.
+      selector.close();
+      selector = null;
+      socket = null;
+    }
+
     if (socket != null) {
       // Try different ways to find out local address.
       final int port = socket.getLocalPort();
@@ -480,6 +514,24 @@ public class SocketListener
     }
   }
 
+  /**
+   * The NIO classes are not part of the minimum execution environment, fall
+   * back to the blocking model when they are missing.
+   */
+  private boolean isNioAvailable()
+  {
+    try {
+      Class.forName("java.nio.channels.ServerSocketChannel");
+      return true;
+    } catch (final Throwable t) {
+      if (log.doWarn()) {
+        log.warn("NIO connection mode is not supported by this runtime,"
+                 + " using blocking mode");
+      }
+      return false;
+    }
+  }
+
   public boolean isOpen()
   {
     return socket != null;
@@ -490,7 +542,8 @@ public class SocketListener
         && (requireClientAuth == config.requireClientAuth())
         && port == config.getPort() && config.getHost().equals(host)
         && config.getMaxConnections() == maxConnections
-        && isEnabled == config.isEnabled();
+        && isEnabled == config.isEnabled()
+        && isNioMode == config.isNioMode();
   }
 
 } // SocketListener
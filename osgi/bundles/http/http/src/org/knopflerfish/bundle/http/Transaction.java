@@ -73,6 +73,8 @@ public class Transaction
   private ResponseImpl responseImpl;
   
   private int requestCount = 0;
+
+  private ConnectionSelector selector = null;
   
   String name = null;
 
@@ -92,9 +94,17 @@ public class Transaction
   // public methods
 
   public void init(final Socket client, final HttpConfigWrapper httpConfig)
+  {
+    init(client, httpConfig, null);
+  }
+
+  public void init(final Socket client,
+                   final HttpConfigWrapper httpConfig,
+                   final ConnectionSelector selector)
   {
     this.httpConfig = httpConfig;
     this.client = client;
+    this.selector = selector;
   }
 
  
@@ -108,6 +118,7 @@ public class Transaction
     int localPort = 0;
     int remotePort = 0;
     boolean reservedKeepAlive = false;
+    boolean parked = false;
     
     long startTime = System.currentTimeMillis();
     
@@ -123,6 +134,7 @@ public class Transaction
       }
       requestImpl.init(is, localAddress, localPort, remoteAddress, remotePort, httpConfig);
       responseImpl.init(os, requestImpl, httpConfig);
+      responseImpl.setSocket(client);
       
       while (true) {
         try {
@@ -131,15 +143,18 @@ public class Transaction
           requestCount++;
           
           // Determine if keep-alive is requested and if request can be granted,
-          // given the thread keep alive policy
-          if (requestImpl.getKeepAlive()) {
-            if (!reservedKeepAlive)
-              responseImpl.setKeepAlive(reservedKeepAlive = transManager.reserveKeepAlive());
-          } 
-          else if (reservedKeepAlive) {
-            transManager.releaseKeepAlive();
-            reservedKeepAlive = false;
-          }          
+          // given the thread keep alive policy. Connections from a selector
+          // do not hold a thread while idle and are not limited by it.
+          if (selector == null) {
+            if (requestImpl.getKeepAlive()) {
+              if (!reservedKeepAlive)
+                responseImpl.setKeepAlive(reservedKeepAlive = transManager.reserveKeepAlive());
+            }
+            else if (reservedKeepAlive) {
+              transManager.releaseKeepAlive();
+              reservedKeepAlive = false;
+            }
+          }
 
           final String method = requestImpl.getMethod();
           final String uri = requestImpl.getRequestURI();
@@ -193,6 +208,15 @@ public class Transaction
           // Activator.log.info(Thread.currentThread().getName() + " - we are trying to keep-alive");
           
           final InputStream is = requestImpl.getRawInputStream();
+
+          // Hand the idle connection back to the selector unless the next
+          // (pipelined) request has already been received.
+          if (selector != null && is instanceof ServletInputStreamImpl
+              && !((ServletInputStreamImpl) is).hasPendingInput()) {
+            parked = selector.park(client);
+            break;
+          }
+
           // Activator.log.info(Thread.currentThread().getName() + " markSupported()=" + is.markSupported()); 
           if (is != null && is.markSupported()) {
             is.mark(4);
@@ -248,23 +272,26 @@ public class Transaction
       
       if (reservedKeepAlive)
         transManager.releaseKeepAlive();
-      
-      if (is != null) {
-        try {
-          is.close();
-        } catch (final Exception ignore) {
+
+      // A parked connection is owned by the selector, keep it open
+      if (!parked) {
+        if (is != null) {
+          try {
+            is.close();
+          } catch (final Exception ignore) {
+          }
         }
-      }
-      if (os != null) {
-        try {
-          os.close();
-        } catch (final Exception ignore) {
+        if (os != null) {
+          try {
+            os.close();
+          } catch (final Exception ignore) {
+          }
         }
-      }
-      if (client != null) {
-        try {
-          client.close();
-        } catch (final Exception ignore) {
+        if (client != null) {
+          try {
+            client.close();
+          } catch (final Exception ignore) {
+          }
         }
       }
     }
@@ -105,6 +105,18 @@ public class TransactionManager
 
   public void startTransaction(final Socket client,
                                final HttpConfigWrapper httpConfig)
+  {
+    startTransaction(client, httpConfig, null);
+  }
+
+  /**
+   * Start a transaction for a connection accepted by a connection selector.
+   * Instead of waiting for the next request on a keep-alive connection the
+   * transaction will park the connection on the given selector.
+   */
+  public void startTransaction(final Socket client,
+                               final HttpConfigWrapper httpConfig,
+                               final ConnectionSelector selector)
   {
     // Stop refusing transaction when we are stopping or have stopped
     if (!isRunning) {
@@ -112,7 +124,7 @@ public class TransactionManager
     }
     
     final Transaction transaction = new Transaction(TransactionManager.this, ++transactionCount, log, registrations); 
-    transaction.init(client, httpConfig);
+    transaction.init(client, httpConfig, selector);
     
     if (log.doDebug()) {
       log.debug("Starting new transaction: " + (transactionCount));
@@ -44,6 +44,7 @@ import java.util.Vector;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 
+import org.knopflerfish.bundle.http.GzipCache;
 import org.knopflerfish.bundle.http.HttpConfig;
 import org.knopflerfish.bundle.http.HttpServer;
 import org.knopflerfish.bundle.http.HttpServerFactory;
@@ -77,14 +78,15 @@ public class HttpCommandGroup
   //
   // List command
   //
-  public final static String USAGE_LIST = "[-c] [-r] [-t] [-l]";
+  public final static String USAGE_LIST = "[-c] [-r] [-t] [-g] [-l]";
   public final static String[] HELP_LIST =
     new String[] {
                   "List all the configured HTTP servers",
                   "-c  Show configuration info",
                   "-r  Show all registrations, servlets and resources",
                   "-t  Show info on transactions",
-                  "-l  List in long format, same as supplying -c -r -t, providing extensive details" };
+                  "-g  Show info on the cache of compressed resources",
+                  "-l  List in long format, same as supplying -c -r -t -g, providing extensive details" };
 
   public int cmdList(Dictionary<?, ?> opts,
                      Reader in,
@@ -152,6 +154,16 @@ public class HttpCommandGroup
         out.println("    " + "Transactions Handled: " + transManager.getTransactionCount());
         out.println("    " + "Requests Handled    : " + transManager.getRequestCount());
       }
+      if (doLong || null != opts.get("-g")) {
+        out.println("  Gzip Cache");
+        final GzipCache gzipCache = httpServer.getGzipCache();
+        out.println("    " + "Entries    : " + gzipCache.getEntryCount());
+        out.println("    " + "Size       : " + gzipCache.getSize() + " of "
+                    + config.getGzipCacheSize() + " bytes");
+        out.println("    " + "Hits       : " + gzipCache.getHits());
+        out.println("    " + "Misses     : " + gzipCache.getMisses());
+        out.println("    " + "Bytes Saved: " + gzipCache.getBytesSaved());
+      }
     }
     return 0;
   }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.log;
+
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogService;
+
+/**
+ * Writer thread used by the {@link FileLog} in asynchronous mode.
+ *
+ * <p>
+ * Log entries are put in a bounded ring buffer by the logging threads
+ * and written to the file log by a single writer thread. The writer
+ * drains all buffered entries in one go and flushes the file after
+ * each drained batch when the log is configured to flush, otherwise
+ * when a given number of entries has been written or a given time
+ * has passed since the last flush.
+ * </p>
+ *
+ * <p>
+ * When the buffer is full the overflow policy decides what happens
+ * with a new entry; the logging thread is either blocked until
+ * there is room in the buffer, or the entry is dropped. The number
+ * of dropped entries is counted and reported in the log file.
+ * </p>
+ */
+final class AsyncLogWriter extends Thread {
+  /** Block the logging thread until there is room in the buffer. */
+  static final int OVERFLOW_BLOCK = 0;
+  /** Drop debug entries, block for all other entries. */
+  static final int OVERFLOW_DROP_DEBUG = 1;
+  /** Drop all entries that does not fit in the buffer. */
+  static final int OVERFLOW_DROP_ALL = 2;
+
+  /** The file log to write entries to. */
+  private final FileLog fileLog;
+
+  /** The ring buffer. */
+  private final LogEntry[] buffer;
+  /** Index of the oldest entry in the buffer. */
+  private int head = 0;
+  /** Number of entries in the buffer. */
+  private int count = 0;
+
+  /** One of the <code>OVERFLOW_*</code> constants. */
+  private final int overflow;
+  /** Flush after this many unflushed entries. */
+  private final int flushSize;
+  /** Flush when this many milliseconds have passed since the last flush. */
+  private final long flushInterval;
+
+  /** Total number of dropped entries. */
+  private long dropped = 0;
+  /** Number of dropped entries not yet reported in the log file. */
+  private long droppedUnreported = 0;
+
+  private boolean stopped = false;
+
+  /**
+   * Create a writer thread for the given file log.
+   *
+   * @param fileLog the file log to write to.
+   * @param size the number of entries in the ring buffer.
+   * @param flushSize flush after this many unflushed entries.
+   * @param flushInterval maximum time in milliseconds between flushes
+   *                      of written entries.
+   * @param overflow one of the <code>OVERFLOW_*</code> constants.
+   */
+  AsyncLogWriter(final FileLog fileLog,
+                 final int size,
+                 final int flushSize,
+                 final long flushInterval,
+                 final int overflow)
+  {
+    super("KF FileLog writer");
+    setDaemon(true);
+    this.fileLog = fileLog;
+    this.buffer = new LogEntry[size < 1 ? 1 : size];
+    this.flushSize = flushSize < 1 ? 1 : flushSize;
+    this.flushInterval = flushInterval < 1 ? 1 : flushInterval;
+    this.overflow = overflow;
+  }
+
+  /**
+   * Map the value of the overflow property to one of the
+   * <code>OVERFLOW_*</code> constants.
+   *
+   * @param s the property value.
+   * @return the overflow policy, <code>OVERFLOW_BLOCK</code> for
+   *         unknown values.
+   */
+  static int parseOverflow(final String s) {
+    if ("drop-debug".equalsIgnoreCase(s)) {
+      return OVERFLOW_DROP_DEBUG;
+    } else if ("drop-all".equalsIgnoreCase(s)) {
+      return OVERFLOW_DROP_ALL;
+    }
+    return OVERFLOW_BLOCK;
+  }
+
+  /**
+   * Add a log entry to the buffer.
+   *
+   * @param le the log entry to write.
+   * @return <code>false</code> if the writer has been stopped and the
+   *         entry was not accepted, <code>true</code> otherwise.
+   */
+  synchronized boolean add(final LogEntry le) {
+    while (!stopped && count == buffer.length) {
+      if (mustDrop(le)) {
+        dropped++;
+        droppedUnreported++;
+        return true;
+      }
+      try {
+        wait();
+      } catch (final InterruptedException ie) {
+        // Do not block an interrupted thread, drop the entry instead.
+        Thread.currentThread().interrupt();
+        dropped++;
+        droppedUnreported++;
+        return true;
+      }
+    }
+    if (stopped) {
+      return false;
+    }
+    buffer[(head + count) % buffer.length] = le;
+    count++;
+    if (count == 1) {
+      notifyAll();
+    }
+    return true;
+  }
+
+  private boolean mustDrop(final LogEntry le) {
+    // Never block the writer thread itself, e.g., when it logs an
+    // I/O error that is grabbed from System.err.
+    if (Thread.currentThread() == this) {
+      return true;
+    }
+    switch (overflow) {
+    case OVERFLOW_DROP_ALL:
+      return true;
+    case OVERFLOW_DROP_DEBUG:
+      return le.getLevel() >= LogService.LOG_DEBUG;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * The total number of log entries dropped due to a full buffer.
+   */
+  synchronized long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Stop the writer thread after writing and flushing all buffered
+   * entries.
+   */
+  void stopIt() {
+    synchronized (this) {
+      stopped = true;
+      notifyAll();
+    }
+    if (Thread.currentThread() != this) {
+      try {
+        join();
+      } catch (final InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    int unflushed = 0;
+    long lastFlush = System.currentTimeMillis();
+    while (true) {
+      LogEntry[] batch;
+      long droppedNow;
+      synchronized (this) {
+        while (count == 0 && droppedUnreported == 0 && !stopped) {
+          try {
+            if (unflushed > 0) {
+              final long left
+                = lastFlush + flushInterval - System.currentTimeMillis();
+              if (left <= 0) {
+                break;
+              }
+              wait(left);
+            } else {
+              wait();
+            }
+          } catch (final InterruptedException ie) {
+          }
+        }
+        if (count == 0 && droppedUnreported == 0 && stopped) {
+          break;
+        }
+        batch = new LogEntry[count];
+        for (int i = 0; i < count; i++) {
+          final int ix = (head + i) % buffer.length;
+          batch[i] = buffer[ix];
+          buffer[ix] = null;
+        }
+        head = (head + count) % buffer.length;
+        if (count == buffer.length) {
+          notifyAll();
+        }
+        count = 0;
+        droppedNow = droppedUnreported;
+        droppedUnreported = 0;
+      }
+
+      if (droppedNow > 0) {
+        fileLog.writeNote("[" + droppedNow + " log entries dropped]");
+        unflushed++;
+      }
+      for (final LogEntry le : batch) {
+        fileLog.write(le);
+      }
+      unflushed += batch.length;
+      final long now = System.currentTimeMillis();
+      if (unflushed > 0
+          && (fileLog.flushEachEntry() || unflushed >= flushSize
+              || now - lastFlush >= flushInterval)) {
+        fileLog.flush();
+        unflushed = 0;
+        lastFlush = now;
+      }
+    }
+    fileLog.flush();
+  }
+
+}
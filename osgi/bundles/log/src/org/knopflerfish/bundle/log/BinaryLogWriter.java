@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+
+import org.knopflerfish.service.log.BinaryLogReader;
+
+/**
+ * Writes log entries to the binary data file and the sparse index
+ * file of one generation of the file log. See {@link BinaryLogReader}
+ * for a description of the file format.
+ */
+final class BinaryLogWriter {
+  /** Number of records in an index block. */
+  static final int BLOCK_RECORDS = 128;
+
+  /** Max number of distinct bundle ids listed for an index block. */
+  static final int BLOCK_BUNDLES = 16;
+
+  private final DataOutputStream data;
+  private final DataOutputStream index;
+
+  /** Offset of the next record in the data file. */
+  private long offset;
+
+  /** Buffer used to encode a record. */
+  private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+  private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+  // Statistics for the current block.
+  private long blockOffset;
+  private int blockRecords = 0;
+  private long blockMinTime;
+  private long blockMaxTime;
+  private int blockMinLevel;
+  private final long[] blockBundles = new long[BLOCK_BUNDLES];
+  private int blockBundleCount;
+
+  /**
+   * Create new data and index files for a generation of the file
+   * log.
+   *
+   * @param dir the log directory.
+   * @param name the base name of the generation.
+   */
+  BinaryLogWriter(final File dir, final String name) throws IOException {
+    data = open(new File(dir, name + BinaryLogReader.DATA_SUFFIX),
+                BinaryLogReader.DATA_MAGIC);
+    try {
+      index = open(new File(dir, name + BinaryLogReader.INDEX_SUFFIX),
+                   BinaryLogReader.INDEX_MAGIC);
+    } catch (final IOException ioe) {
+      data.close();
+      throw ioe;
+    }
+    offset = BinaryLogReader.HEADER_SIZE;
+  }
+
+  private static DataOutputStream open(final File file, final int magic)
+    throws IOException
+  {
+    final DataOutputStream out = new DataOutputStream
+      (new BufferedOutputStream(new FileOutputStream(file)));
+    out.writeInt(magic);
+    out.writeInt(BinaryLogReader.FORMAT_VERSION);
+    return out;
+  }
+
+  /**
+   * Append a log entry to the data file. The index is updated when a
+   * block is full.
+   *
+   * @param le the log entry to write.
+   */
+  void write(final LogEntry le) throws IOException {
+    final Bundle b = le.getBundle();
+    final long bid = b != null ? b.getBundleId() : -1;
+    final ServiceReference<?> sr = le.getServiceReference();
+    final Object sid = sr != null ? sr.getProperty(Constants.SERVICE_ID) : null;
+    final Throwable t = le.getException();
+    String exception = null;
+    if (t != null) {
+      final StringWriter sw = new StringWriter();
+      final PrintWriter pw = new PrintWriter(sw);
+      t.printStackTrace(pw);
+      pw.flush();
+      exception = sw.toString();
+    }
+
+    recordBytes.reset();
+    record.writeLong(le.getTime());
+    record.writeLong(bid);
+    record.writeInt(le.getLevel());
+    record.writeLong(sid instanceof Long ? ((Long) sid).longValue() : -1);
+    writeString(record, le.getMessage());
+    writeString(record, exception);
+    record.flush();
+
+    if (blockRecords == 0) {
+      blockOffset = offset;
+      blockMinTime = Long.MAX_VALUE;
+      blockMaxTime = Long.MIN_VALUE;
+      blockMinLevel = Integer.MAX_VALUE;
+      blockBundleCount = 0;
+    }
+    data.writeInt(recordBytes.size());
+    recordBytes.writeTo(data);
+    offset += 4 + recordBytes.size();
+
+    blockRecords++;
+    if (le.getTime() < blockMinTime) {
+      blockMinTime = le.getTime();
+    }
+    if (le.getTime() > blockMaxTime) {
+      blockMaxTime = le.getTime();
+    }
+    if (le.getLevel() < blockMinLevel) {
+      blockMinLevel = le.getLevel();
+    }
+    addBundle(bid);
+    if (blockRecords >= BLOCK_RECORDS) {
+      writeIndex();
+    }
+  }
+
+  private void addBundle(final long bid) {
+    if (blockBundleCount < 0) {
+      return;
+    }
+    for (int i = 0; i < blockBundleCount; i++) {
+      if (blockBundles[i] == bid) {
+        return;
+      }
+    }
+    if (blockBundleCount == blockBundles.length) {
+      blockBundleCount = -1; // Too many, the block may contain any bundle.
+    } else {
+      blockBundles[blockBundleCount++] = bid;
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String s)
+    throws IOException
+  {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = s.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Write the index entry for the current block.
+   */
+  private void writeIndex() throws IOException {
+    if (blockRecords == 0) {
+      return;
+    }
+    // The data of the block must be on disk before it is indexed.
+    data.flush();
+    index.writeLong(blockOffset);
+    index.writeInt((int) (offset - blockOffset));
+    index.writeInt(blockRecords);
+    index.writeLong(blockMinTime);
+    index.writeLong(blockMaxTime);
+    index.writeInt(blockMinLevel);
+    index.writeInt(blockBundleCount);
+    for (int i = 0; i < blockBundleCount; i++) {
+      index.writeLong(blockBundles[i]);
+    }
+    index.flush();
+    blockRecords = 0;
+  }
+
+  /**
+   * Flush the data file. Records after the last index block are found
+   * by readers by scanning the end of the data file.
+   */
+  void flush() throws IOException {
+    data.flush();
+  }
+
+  /**
+   * Index the current block and close the files.
+   */
+  void close() throws IOException {
+    try {
+      writeIndex();
+    } finally {
+      try {
+        data.close();
+      } finally {
+        index.close();
+      }
+    }
+  }
+}
@@ -51,16 +51,36 @@ import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
 
+import org.knopflerfish.service.log.BinaryLogReader;
+
 /**
  * A FileLog saves log entries to a circular set of files. The files
  * are named <code>gosglog</code> followed by an integer. The file
  * <code>gosglog0</code> is the current log file,
  * <code>gosglog1</code> is the one before and so on.
  *
+ * <p>
+ * When the framework property
+ * <code>org.knopflerfish.log.file.async</code> is <code>true</code>
+ * log entries are handed over to an {@link AsyncLogWriter} that
+ * writes them to file in a separate thread, so that logging threads
+ * do not have to wait for disk I/O.
+ * </p>
+ *
+ * <p>
+ * When the framework property
+ * <code>org.knopflerfish.log.file.binary</code> is <code>true</code>
+ * each generation also gets a binary data file and an index file,
+ * see {@link BinaryLogReader}.
+ * </p>
  */
 public final class FileLog implements LogListener {
   /** Base name of log files. */
-  private static final String LOGBASE = "gosglog";
+  private static final String LOGBASE = BinaryLogReader.LOGBASE;
+
+  /** Suffixes of the files that belongs to a generation. */
+  private static final String[] SUFFIXES = new String[] {
+    "", BinaryLogReader.DATA_SUFFIX, BinaryLogReader.INDEX_SUFFIX };
 
   // ********** Configuration data **********
   /** Size of curent log. */
@@ -76,9 +96,24 @@ public final class FileLog implements LogListener {
    */
   PrintWriter log;
 
+  /** If binary log files shall be written. */
+  private final boolean binary;
+
+  /**
+   * Writer for the binary files of the current generation. Is
+   * <code>null</code> if not enabled or opening of the files failed.
+   */
+  private BinaryLogWriter binLog;
+
   /** Handle to the configuration object */
   private final LogConfigImpl configuration;
 
+  /**
+   * The writer thread used in asynchronous mode, <code>null</code>
+   * when entries are written by the logging thread.
+   */
+  private final AsyncLogWriter writer;
+
   /**
    * The constructor creates a file log object base on configuration
    * data.  It will initialize a new empty log file.
@@ -89,19 +124,49 @@ public final class FileLog implements LogListener {
   public FileLog(final BundleContext bc, final LogConfigImpl lc) {
     configuration = lc;
     logdir = configuration.getDir();
+    binary = "true".equalsIgnoreCase(LogConfigImpl
+        .getProperty(LogConfigImpl.PROP_LOG_FILE_BINARY, "false"));
 
     // Start by removing old log files, and rename previous log files
     // to old log files.
     savePreviousLog();
     // Open a new log, if possible
     openLog();
+
+    if ("true".equalsIgnoreCase(LogConfigImpl
+        .getProperty(LogConfigImpl.PROP_LOG_FILE_ASYNC, "false"))) {
+      final int size = LogConfigImpl
+          .getIntegerProperty(LogConfigImpl.PROP_LOG_FILE_ASYNC_QUEUE_SIZE,
+                              new Integer(1000)).intValue();
+      final int flushSize = LogConfigImpl
+          .getIntegerProperty(LogConfigImpl.PROP_LOG_FILE_ASYNC_FLUSH_SIZE,
+                              new Integer(100)).intValue();
+      final int flushInterval = LogConfigImpl
+          .getIntegerProperty(LogConfigImpl.PROP_LOG_FILE_ASYNC_FLUSH_INTERVAL,
+                              new Integer(1000)).intValue();
+      final int overflow = AsyncLogWriter.parseOverflow(LogConfigImpl
+          .getProperty(LogConfigImpl.PROP_LOG_FILE_ASYNC_OVERFLOW, "block"));
+      writer = new AsyncLogWriter(this, size, flushSize, flushInterval,
+                                  overflow);
+      writer.start();
+    } else {
+      writer = null;
+    }
   }
 
   /**
    * * The stop method is called by the log reader service factory when * the
    * log bundle is stoped. Flush data and close the current log file.
    */
-  synchronized void stop() {
+  void stop() {
+    if (writer != null) {
+      writer.stopIt();
+    }
+    close();
+  }
+
+  private synchronized void close() {
+    closeBinary();
     if (log != null) {
       log.flush();
       log.close();
@@ -109,6 +174,23 @@ public final class FileLog implements LogListener {
     }
   }
 
+  /**
+   * Close the binary log. Any error is reported in the text log,
+   * not on <code>System.err</code>, since that may be redirected to
+   * the log service and thus back to this file log.
+   */
+  private void closeBinary() {
+    if (binLog != null) {
+      final BinaryLogWriter bl = binLog;
+      binLog = null;
+      try {
+        bl.close();
+      } catch (IOException e) {
+        writeNote("Failed to close binary log due to: " + e.getMessage());
+      }
+    }
+  }
+
   /**
    * Set the number of log file generations.
    *
@@ -155,6 +237,15 @@ public final class FileLog implements LogListener {
                          + " due to: " + e.getMessage());
       log = null;
     }
+    if (binary && log != null) {
+      try {
+        binLog = new BinaryLogWriter(logdir, LOGBASE + "0");
+      } catch (IOException e) {
+        binLog = null;
+        writeNote("Failed to open binary log in " + logdir
+                  + " due to: " + e.getMessage());
+      }
+    }
   }
 
   /**
@@ -164,12 +255,14 @@ public final class FileLog implements LogListener {
     if (logdir == null)
       return;
     for (int i = configuration.getMaxGen() - 1; i > 0; i--) {
-      final File dst = new File(logdir, LOGBASE + i);
-      final File src = new File(logdir, LOGBASE + (i - 1));
-      if (dst.exists()) {
-        dst.delete();
+      for (final String suffix : SUFFIXES) {
+        final File dst = new File(logdir, LOGBASE + i + suffix);
+        final File src = new File(logdir, LOGBASE + (i - 1) + suffix);
+        if (dst.exists()) {
+          dst.delete();
+        }
+        src.renameTo(dst);
       }
-      src.renameTo(dst);
     }
   }
 
@@ -187,6 +280,9 @@ public final class FileLog implements LogListener {
       final File src = new File(logdir, LOGBASE + i + ".old");
       if (src.exists()) {
         src.delete();
+        for (int j = 1; j < SUFFIXES.length; j++) {
+          new File(logdir, LOGBASE + i + SUFFIXES[j] + ".old").delete();
+        }
       } else
         done = true;
     }
@@ -194,13 +290,15 @@ public final class FileLog implements LogListener {
     // Move current logs to old logs
     done = false;
     for (int i = 0; !done; i++) {
-      final File src = new File(logdir, LOGBASE + i);
-      if (src.exists()) {
-        File dst = new File(logdir, LOGBASE + i + ".old");
-        if (dst.exists()) {
-          dst.delete();
+      if (new File(logdir, LOGBASE + i).exists()) {
+        for (final String suffix : SUFFIXES) {
+          final File src = new File(logdir, LOGBASE + i + suffix);
+          final File dst = new File(logdir, LOGBASE + i + suffix + ".old");
+          if (dst.exists()) {
+            dst.delete();
+          }
+          src.renameTo(dst);
         }
-        src.renameTo(dst);
       } else
         done = true;
     }
@@ -222,24 +320,107 @@ public final class FileLog implements LogListener {
       final File src = new File(logdir, LOGBASE + i);
       if (src.exists()) {
         src.delete();
+        for (int j = 1; j < SUFFIXES.length; j++) {
+          new File(logdir, LOGBASE + i + SUFFIXES[j]).delete();
+        }
       } else
         done = true;
     }
   }
 
   /**
-   * A new log entry has arrived write it to the log file.
+   * A new log entry has arrived write it to the log file. In
+   * asynchronous mode the entry is queued for the writer thread.
    *
    * @param le
    *            The new LogEntry
    */
-  public synchronized void logged(LogEntry le) {
+  public void logged(LogEntry le) {
+    if (writer != null && writer.add(le)) {
+      return;
+    }
+    synchronized (this) {
+      write(le);
+      if (configuration.getFlush()) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * The number of log entries that have been dropped since the file
+   * log was started because the asynchronous writer could not keep
+   * up.
+   *
+   * @return number of dropped log entries.
+   */
+  long getDropped() {
+    return writer != null ? writer.getDropped() : 0;
+  }
+
+  /**
+   * Check if the log file shall be flushed after each log entry.
+   */
+  boolean flushEachEntry() {
+    return configuration.getFlush();
+  }
+
+  /**
+   * Write a line of text that is not a log entry to the log file.
+   *
+   * @param s the text to write.
+   */
+  synchronized void writeNote(String s) {
+    if (log != null) {
+      logSize += s.length();
+      log.println(s);
+    }
+  }
+
+  /**
+   * Stop writing the binary log after an error. The binary log is
+   * closed before the error is noted in the text log, so that
+   * reporting the error does not write to the failed binary log.
+   *
+   * @param op the operation that failed.
+   * @param e the error.
+   */
+  private void binaryLogFailed(String op, IOException e) {
+    closeBinary();
+    writeNote("Failed to " + op + " binary log due to: " + e.getMessage());
+  }
+
+  /**
+   * Flush the current log file.
+   */
+  synchronized void flush() {
+    if (log != null) {
+      log.flush();
+    }
+    if (binLog != null) {
+      try {
+        binLog.flush();
+      } catch (IOException e) {
+        binaryLogFailed("flush", e);
+      }
+    }
+  }
+
+  /**
+   * Write a log entry to the log file without flushing it, rotating
+   * the log files if the current file is full.
+   *
+   * @param le
+   *            The LogEntry to write.
+   */
+  synchronized void write(LogEntry le) {
     if (log != null) {
       String s = le.toString();
       if (logSize + s.length() > configuration.getFileSize()) {
         AccessController.doPrivileged(new PrivilegedAction<Object>() {
             public Object run() {
               log.close();
+              closeBinary();
               saveOldGen();
               openLog();
               return null;
@@ -248,8 +429,12 @@ public final class FileLog implements LogListener {
       }
       logSize += s.length();
       log.println(s);
-      if (configuration.getFlush()) {
-        log.flush();
+      if (binLog != null) {
+        try {
+          binLog.write(le);
+        } catch (IOException e) {
+          binaryLogFailed("write", e);
+        }
       }
     }
   }
@@ -92,6 +92,16 @@ class LogConfigImpl
 
   static final String PROP_LOG_FILE = "org.knopflerfish.log.file";
   static final String PROP_LOG_FILE_DIR = "org.knopflerfish.log.file.dir";
+  static final String PROP_LOG_FILE_BINARY = "org.knopflerfish.log.file.binary";
+  static final String PROP_LOG_FILE_ASYNC = "org.knopflerfish.log.file.async";
+  static final String PROP_LOG_FILE_ASYNC_QUEUE_SIZE
+    = "org.knopflerfish.log.file.async.queue.size";
+  static final String PROP_LOG_FILE_ASYNC_FLUSH_SIZE
+    = "org.knopflerfish.log.file.async.flush.size";
+  static final String PROP_LOG_FILE_ASYNC_FLUSH_INTERVAL
+    = "org.knopflerfish.log.file.async.flush.interval";
+  static final String PROP_LOG_FILE_ASYNC_OVERFLOW
+    = "org.knopflerfish.log.file.async.overflow";
   static final String PROP_LOG_GRABIO = "org.knopflerfish.log.grabio";
   static final String PROP_LOG_LEVEL = "org.knopflerfish.log.level";
   static final String PROP_LOG_MEMORY_SIZE = "org.knopflerfish.log.memory.size";
@@ -141,8 +151,18 @@ class LogConfigImpl
     = new HashMap<String, Integer>();
 
   // Mapping from bundle id to log level. This is a cache computed
-  // by evaluate all installed bundles against the current blFilters
-  private final Map<Long, Integer> bidFilters = new HashMap<Long, Integer>();
+  // by evaluate all installed bundles against the current blFilters.
+  // The map is never modified once published, updates replaces it
+  // with a new map while holding bidFiltersLock.
+  private volatile Map<Long, Integer> bidFilters = new HashMap<Long, Integer>();
+  private final Object bidFiltersLock = new Object();
+
+  // The default log level, cached from the L_FILTER configuration value.
+  private volatile int filterLevel = LOG_WARNING;
+
+  // Incremented each time a log level changes, used to validate log
+  // levels cached by the LogServiceImpl of each bundle.
+  private volatile int levelGeneration = 0;
 
   private LogReaderServiceFactory logReaderCallback;
 
@@ -269,7 +289,7 @@ class LogConfigImpl
 
   @Override
   public int getFilter() {
-    return LogUtil.toLevel((String) get(L_FILTER), LOG_WARNING);
+    return filterLevel;
   }
 
   /*
@@ -450,6 +470,18 @@ class LogConfigImpl
     return ((Boolean) get(FLUSH)).booleanValue();
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.knopflerfish.service.log.LogConfig#getDroppedCount()
+   */
+
+  @Override
+  public long getDroppedCount() {
+    final LogReaderServiceFactory lr = logReaderCallback;
+    return lr != null ? lr.getDropped() : 0;
+  }
+
 
   /*
    * (non-Javadoc)
@@ -491,11 +523,7 @@ class LogConfigImpl
    * Return the log filter level for the given bundle.
    */
   int getLevel(final Bundle bundle) {
-    final Long key = new Long(bundle.getBundleId());
-    Integer level = null;
-    synchronized (bidFilters) {
-      level = bidFilters.get(key);
-    }
+    final Integer level = bidFilters.get(new Long(bundle.getBundleId()));
 
     // final PrintStream out = (null!=origOut) ? origOut : System.out;
     // out.println("LogConfigImpl.getLevel(" +key +"): " +level);
@@ -503,6 +531,21 @@ class LogConfigImpl
     return (level != null) ? level.intValue() : getFilter();
   }
 
+  /**
+   * The current log level generation. Any log level returned by
+   * {@link #getLevel(Bundle)} or {@link #getFilter()} is valid as long
+   * as the generation is unchanged.
+   */
+  int getLevelGeneration() {
+    return levelGeneration;
+  }
+
+  private void levelsChanged() {
+    synchronized (bidFiltersLock) {
+      levelGeneration++;
+    }
+  }
+
   static String[] getBL(final String bundleStr) {
     final String[] bundle = new String[]{null, null};
     final int ix = bundleStr.indexOf(";");
@@ -527,25 +570,27 @@ class LogConfigImpl
     final Bundle[] bundles = bc.getBundles();
     for (int i = bundles.length - 1; 0 <= i; i--) {
       final Bundle bundle = bundles[i];
-      computeBidFilter(bidFiltersTmp, bundle);
+      final Integer level = computeBidFilter(bundle);
+      if (null != level) {
+        bidFiltersTmp.put(new Long(bundle.getBundleId()), level);
+      }
     }
 
     // Atomic update...
-    synchronized (bidFilters) {
-      bidFilters.clear();
-      bidFilters.putAll(bidFiltersTmp);
+    synchronized (bidFiltersLock) {
+      bidFilters = bidFiltersTmp;
     }
+    levelsChanged();
   }
 
   /**
-   * Compute and cache a bidFilter entry from blFilters for the given
-   * bundle.
+   * Compute a bidFilter entry from blFilters for the given bundle.
    *
-   * @param bidFilters The bundle id to level map to cache the result in
-   * @param bundle The bundle to update the cached log level for.
+   * @param bundle The bundle to compute the log level for.
+   * @return the log level for the bundle or <code>null</code> if the
+   *         default level applies.
    */
-  private void computeBidFilter(final Map<Long, Integer> bidFilters,
-                                final Bundle bundle)
+  private Integer computeBidFilter(final Bundle bundle)
   {
     Integer level = blFilters.get(bundle.getLocation());
     if (null == level) {
@@ -564,12 +609,33 @@ class LogConfigImpl
       level = blFilters.get(String.valueOf(bundle.getBundleId()));
     }
 
-    if (null != level) {
-      final Long key = new Long(bundle.getBundleId());
-      synchronized (bidFilters) {
-        bidFilters.put(key, level);
+    return level;
+  }
+
+  /**
+   * Update the cached bidFilter entry for the given bundle.
+   *
+   * @param key The bundle id of the bundle.
+   * @param level The new log level for the bundle, <code>null</code>
+   *              to remove the entry.
+   */
+  private void updateBidFilter(final Long key, final Integer level)
+  {
+    synchronized (bidFiltersLock) {
+      if (level != null ? level.equals(bidFilters.get(key))
+          : !bidFilters.containsKey(key)) {
+        return;
       }
+      final Map<Long, Integer> bidFiltersTmp
+        = new HashMap<Long, Integer>(bidFilters);
+      if (level != null) {
+        bidFiltersTmp.put(key, level);
+      } else {
+        bidFiltersTmp.remove(key);
+      }
+      bidFilters = bidFiltersTmp;
     }
+    levelsChanged();
   }
 
   /**
@@ -606,13 +672,11 @@ class LogConfigImpl
     switch (event.getType()) {
       case BundleEvent.INSTALLED: // Fall through
       case BundleEvent.UPDATED:
-        computeBidFilter(bidFilters, event.getBundle());
+        updateBidFilter(new Long(event.getBundle().getBundleId()),
+                        computeBidFilter(event.getBundle()));
         break;
       case BundleEvent.UNINSTALLED:
-        final Long key = new Long(event.getBundle().getBundleId());
-        synchronized (bidFilters) {
-          bidFilters.remove(key);
-        }
+        updateBidFilter(new Long(event.getBundle().getBundleId()), null);
         break;
       default:
     }
@@ -660,6 +724,10 @@ class LogConfigImpl
     synchronized (configCollection) {
       configCollection.put(key, value);
     }
+    if (L_FILTER.equals(key)) {
+      filterLevel = LogUtil.toLevel((String) value, LOG_WARNING);
+      levelsChanged();
+    }
   }
 
   /**
@@ -909,6 +977,9 @@ class LogConfigImpl
                 configCollection.put(key, value);
               }
             }
+            filterLevel = LogUtil.toLevel((String) get(L_FILTER),
+                                          LOG_WARNING);
+            levelsChanged();
           }
         }
       }
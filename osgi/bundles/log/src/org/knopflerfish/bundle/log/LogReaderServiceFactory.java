@@ -45,8 +45,11 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
 import org.osgi.service.log.LogReaderService;
 
+import org.knopflerfish.service.log.FilteringLogListener;
+
 /**
  * A LogReaderServiceFactory implements the log functionality.  I.e.,
  * it keeps log entries in memory and initiates callbacks to
@@ -67,7 +70,20 @@ public final class LogReaderServiceFactory
    * A FileLog that writes log entries to file. (Accessed from the
    * LogConfigCommandGroup).
    */
-  FileLog fileLog;
+  volatile FileLog fileLog;
+
+  /**
+   * The total number of plain log listeners added to all log reader
+   * services, i.e., listeners that want all log entries.
+   */
+  private volatile int nListeners = 0;
+
+  /**
+   * The filtering log listeners added to all log reader services.
+   * Replaced, never modified, when a listener is added or removed.
+   */
+  private volatile FilteringLogListener[] filteringListeners =
+    new FilteringLogListener[0];
 
   /**
    * The logReaderServicies table maps LogReaderServiceImpl object
@@ -130,46 +146,48 @@ public final class LogReaderServiceFactory
    * @param size the new maximum number of log entries in memory.
    * @param memorySize the current maximum number of in memory log entries.
    */
-  synchronized void resetMemorySize(int size, int memorySize) {
+  void resetMemorySize(int size, int memorySize) {
     if (size <= 0) {
       size = 1;
     }
-    LogEntry[] new_history = new LogEntry[size];
-    int leftSize = historyInsertionPoint;
-    // Copy all entries to the left of the insertion point in
-    // history to end of the new_history.
-    if (leftSize > 0) {
-      // There are entries to the left
-      if (leftSize > size) {
-        // To many entries; ignore oldest (leftmost)
-        System.arraycopy(history, leftSize - size + 1, new_history,
-                         1, size - 1);
-      } else {
-        // Copy all entries to the left
-        System.arraycopy(history, 0, new_history, size - leftSize,
-                         leftSize);
-        // Are there more entries to the right?
-        int remaindingSize = size - leftSize;
-        int remaindingEntries = memorySize - leftSize;
-        if (remaindingSize > remaindingEntries) {
-          // Copy all entries to the right
-          System.arraycopy(history, leftSize, new_history,
-                           remaindingSize - remaindingEntries,
-                           remaindingEntries);
+    synchronized (historyLock) {
+      LogEntry[] new_history = new LogEntry[size];
+      int leftSize = historyInsertionPoint;
+      // Copy all entries to the left of the insertion point in
+      // history to end of the new_history.
+      if (leftSize > 0) {
+        // There are entries to the left
+        if (leftSize > size) {
+          // To many entries; ignore oldest (leftmost)
+          System.arraycopy(history, leftSize - size + 1, new_history,
+                           1, size - 1);
         } else {
-          // Too many entries; ignore oldest (leftmost)
-          System.arraycopy(history, memorySize - remaindingSize,
-                           new_history, 0, remaindingSize);
+          // Copy all entries to the left
+          System.arraycopy(history, 0, new_history, size - leftSize,
+                           leftSize);
+          // Are there more entries to the right?
+          int remaindingSize = size - leftSize;
+          int remaindingEntries = memorySize - leftSize;
+          if (remaindingSize > remaindingEntries) {
+            // Copy all entries to the right
+            System.arraycopy(history, leftSize, new_history,
+                             remaindingSize - remaindingEntries,
+                             remaindingEntries);
+          } else {
+            // Too many entries; ignore oldest (leftmost)
+            System.arraycopy(history, memorySize - remaindingSize,
+                             new_history, 0, remaindingSize);
+          }
         }
+      } else {
+        // Copy the last size entries from history
+        int s = (size > memorySize) ? memorySize : size;
+        int fromPos = (size > memorySize) ? 0 : memorySize - s;
+        System.arraycopy(history, fromPos, new_history, size - s, s);
       }
-    } else {
-      // Copy the last size entries from history
-      int s = (size > memorySize) ? memorySize : size;
-      int fromPos = (size > memorySize) ? 0 : memorySize - s;
-      System.arraycopy(history, fromPos, new_history, size - s, s);
+      history = new_history;
+      historyInsertionPoint = 0;
     }
-    history = new_history;
-    historyInsertionPoint = 0;
   }
 
   // If the file log is active, restart it since the log directory has changed.
@@ -186,7 +204,7 @@ public final class LogReaderServiceFactory
     if (newValue && fileLog == null) {
       fileLog = new FileLog(bc, configuration);
       if (oldValue == null) {
-        synchronized (history) {
+        synchronized (historyLock) {
           fileLog.saveMemEntries(new ArrayEnumeration<LogEntry>(history,
                                                       historyInsertionPoint));
         }
@@ -235,6 +253,7 @@ public final class LogReaderServiceFactory
                            LogReaderService s)
   {
     logReaderServicies.remove(s);
+    ((LogReaderServiceImpl) s).close();
   }
 
   /*
@@ -243,6 +262,13 @@ public final class LogReaderServiceFactory
    * getLog is called.
    */
 
+  /**
+   * Lock protecting <code>history</code> and
+   * <code>historyInsertionPoint</code>. Only held while updating or
+   * copying the history.
+   */
+  private final Object historyLock = new Object();
+
   /** The history list (an array used as a circular list). */
   private LogEntry[] history;
 
@@ -256,7 +282,9 @@ public final class LogReaderServiceFactory
    * Return an enumeration of the historyLength last entries in the log.
    */
   public Enumeration<LogEntry> getLog() {
-    return new ArrayEnumeration<LogEntry>(history, historyInsertionPoint);
+    synchronized (historyLock) {
+      return new ArrayEnumeration<LogEntry>(history, historyInsertionPoint);
+    }
   }
 
   /**
@@ -266,16 +294,83 @@ public final class LogReaderServiceFactory
    * @return log filter level for the specified bundle.
    */
   protected int getLogLevel(final Bundle bundle) {
-    // The synchronized block below is needed to work around a bug in
-    // JDK1.2.2 on Linux (with green threads).
-    synchronized (configuration) {
-      Integer res = AccessController
-        .doPrivileged(new PrivilegedAction<Integer>() {
-            public Integer run() {
-              return getFilterLevel(bundle);
-            }
-          });
-      return res;
+    return getFilterLevel(bundle);
+  }
+
+  /**
+   * The current log level generation of the log configuration. A log
+   * level returned by {@link #getLogLevel(Bundle)} is valid as long as
+   * the generation is unchanged.
+   */
+  int getLevelGeneration() {
+    return configuration.getLevelGeneration();
+  }
+
+  /**
+   * The number of log entries dropped by the file log, see
+   * {@link FileLog#getDropped()}.
+   */
+  long getDropped() {
+    final FileLog fl = fileLog;
+    return fl != null ? fl.getDropped() : 0;
+  }
+
+  /**
+   * Check if there are log listeners that must be called with a log
+   * entry of the given level, also when the level is filtered out of
+   * the log.
+   *
+   * @param level the level of the log entry.
+   */
+  boolean hasLogListeners(int level) {
+    if (nListeners > 0) {
+      return true;
+    }
+    final FilteringLogListener[] fls = filteringListeners;
+    for (final FilteringLogListener fl : fls) {
+      if (level <= fl.getLogLevel()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Called by the log reader services when a log listener is added.
+   *
+   * @param l the added log listener.
+   */
+  synchronized void listenerAdded(LogListener l) {
+    if (l instanceof FilteringLogListener) {
+      final FilteringLogListener[] fls =
+        new FilteringLogListener[filteringListeners.length + 1];
+      System.arraycopy(filteringListeners, 0, fls, 0, filteringListeners.length);
+      fls[filteringListeners.length] = (FilteringLogListener) l;
+      filteringListeners = fls;
+    } else {
+      nListeners++;
+    }
+  }
+
+  /**
+   * Called by the log reader services when a log listener is removed.
+   *
+   * @param l the removed log listener.
+   */
+  synchronized void listenerRemoved(LogListener l) {
+    if (l instanceof FilteringLogListener) {
+      for (int i = 0; i < filteringListeners.length; i++) {
+        if (filteringListeners[i] == l) {
+          final FilteringLogListener[] fls =
+            new FilteringLogListener[filteringListeners.length - 1];
+          System.arraycopy(filteringListeners, 0, fls, 0, i);
+          System.arraycopy(filteringListeners, i + 1, fls, i, fls.length - i);
+          filteringListeners = fls;
+          break;
+        }
+      }
+    } else {
+      nListeners--;
     }
   }
 
@@ -289,22 +384,28 @@ public final class LogReaderServiceFactory
    * @param le The new LogEntry
    */
   protected void log(final LogEntryImpl le) {
+    final boolean accepted = le.getLevel() <= getFilterLevel(le.getBundle());
+    if (!accepted && !hasLogListeners(le.getLevel())) {
+      return;
+    }
     AccessController.doPrivileged(new PrivilegedAction<Object>() {
         public Object run() {
-          synchronized(LogReaderServiceFactory.this) {
-            if (le.getLevel() <= getFilterLevel(le.getBundle())) {
-              if (fileLog != null) {
-                fileLog.logged(le);
-              }
-              if (configuration.getOut()) {
-                System.out.println(le);
-              }
+          if (accepted) {
+            synchronized (historyLock) {
               history[historyInsertionPoint] = le;
               historyInsertionPoint++;
               if (historyInsertionPoint == history.length) {
                 historyInsertionPoint = 0;
               }
             }
+            if (configuration.getOut()) {
+              System.out.println(le);
+            }
+            // The file log does its own synchronization.
+            final FileLog fl = fileLog;
+            if (fl != null) {
+              fl.logged(le);
+            }
           }
           for (Enumeration<LogReaderServiceImpl> e = logReaderServicies.keys();
                e.hasMoreElements();) {
@@ -80,6 +80,7 @@ public class LogReaderServiceImpl implements LogReaderService {
       throw new IllegalArgumentException("LogListener can not be null");
     if (!listeners.contains(l)) {
       listeners.addElement(l);
+      lrsf.listenerAdded(l);
     }
   }
 
@@ -93,7 +94,20 @@ public class LogReaderServiceImpl implements LogReaderService {
   public synchronized void removeLogListener(LogListener l) {
     if (l == null)
       throw new IllegalArgumentException("LogListener can not be null");
-    listeners.removeElement(l);
+    if (listeners.removeElement(l)) {
+      lrsf.listenerRemoved(l);
+    }
+  }
+
+  /**
+   * Remove all log listeners, called when the service is released by
+   * the bundle that uses it.
+   */
+  synchronized void close() {
+    for (final LogListener l : listeners) {
+      lrsf.listenerRemoved(l);
+    }
+    listeners.removeAllElements();
   }
 
   /**
@@ -51,6 +51,13 @@ public class LogServiceImpl implements LogService {
   /** The log reader service factory to forward requests to. */
   private LogReaderServiceFactory lrsf;
 
+  /**
+   * The log level of the bundle in the lower 32 bits and the level
+   * generation it was computed for in the upper 32 bits. Kept in a
+   * single field so that it is updated atomically.
+   */
+  private volatile long cachedLevel = -1L << 32;
+
   /**
    * The constructor saves the Bundle and the LogReaderServiceFactory.
    * 
@@ -75,7 +82,9 @@ public class LogServiceImpl implements LogService {
    */
   public void log(int level, String msg)
   {
-    lrsf.log(new LogEntryImpl(bundle, level, msg));
+    if (isLogged(level)) {
+      lrsf.log(new LogEntryImpl(bundle, level, msg));
+    }
   }
 
   /**
@@ -90,7 +99,9 @@ public class LogServiceImpl implements LogService {
    */
   public void log(int level, String msg, Throwable t)
   {
-    lrsf.log(new LogEntryImpl(bundle, level, msg, t));
+    if (isLogged(level)) {
+      lrsf.log(new LogEntryImpl(bundle, level, msg, t));
+    }
   }
 
   /**
@@ -107,7 +118,9 @@ public class LogServiceImpl implements LogService {
                   int level,
                   String msg)
   {
-    lrsf.log(new LogEntryImpl(bundle, sref, level, msg));
+    if (isLogged(level)) {
+      lrsf.log(new LogEntryImpl(bundle, sref, level, msg));
+    }
   }
 
   /**
@@ -127,7 +140,9 @@ public class LogServiceImpl implements LogService {
                   String msg,
                   Throwable t)
   {
-    lrsf.log(new LogEntryImpl(bundle, sref, level, msg, t));
+    if (isLogged(level)) {
+      lrsf.log(new LogEntryImpl(bundle, sref, level, msg, t));
+    }
   }
 
   /**
@@ -147,7 +162,28 @@ public class LogServiceImpl implements LogService {
    */
   public int getLogLevel()
   {
-    return lrsf.getLogLevel(bundle);
+    final int generation = lrsf.getLevelGeneration();
+    final long cached = cachedLevel;
+    if ((int) (cached >>> 32) == generation) {
+      return (int) cached;
+    }
+    final int level = lrsf.getLogLevel(bundle);
+    cachedLevel = ((long) generation << 32) | (level & 0xffffffffL);
+    return level;
+  }
+
+  /**
+   * Check if a log entry with the given level shall be created. Entries
+   * that are filtered out by the log level are still needed when there
+   * are plain log listeners, since all entries are forwarded to them, or
+   * filtering log listeners that want the level.
+   *
+   * @param level
+   *          The severity level of the entry.
+   */
+  private boolean isLogged(int level)
+  {
+    return level <= getLogLevel() || lrsf.hasLogListeners(level);
   }
 
 }
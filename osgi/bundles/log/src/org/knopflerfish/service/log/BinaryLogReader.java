@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.service.log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reader for the binary file log.
+ *
+ * <p>
+ * When the framework property <code>org.knopflerfish.log.file.binary</code>
+ * is <code>true</code> the Knopflerfish log service writes each log
+ * entry to a binary data file in addition to the text log file. Each
+ * generation of the file log, <code>gosglog<em>N</em></code>, then has
+ * a data file <code>gosglog<em>N</em>.bin</code> and a sparse index
+ * file <code>gosglog<em>N</em>.idx</code> in the log directory.
+ * </p>
+ *
+ * <p>
+ * The data file starts with the int {@link #DATA_MAGIC} and the int
+ * {@link #FORMAT_VERSION} followed by length prefixed records. Each
+ * record is an int with the number of bytes that follows, then the
+ * time stamp (long), the bundle id (long, -1 for none), the level
+ * (int), the service id (long, -1 for none), the message and the
+ * exception (strings). A string is written as an int with the number
+ * of bytes followed by the bytes of the UTF-8 encoding; -1 is used
+ * for <code>null</code>.
+ * </p>
+ *
+ * <p>
+ * The index file starts with the int {@link #INDEX_MAGIC} and the int
+ * {@link #FORMAT_VERSION} followed by one entry for each block of
+ * consecutive records in the data file. An entry holds the offset of
+ * the block (long), its length in bytes (int), the number of records
+ * (int), the smallest and largest time stamp (longs), the most severe
+ * level (int) and the number of distinct bundle ids (int) followed by
+ * the bundle ids (longs). The number of bundle ids is -1 when there
+ * are too many to list, then the block may contain any bundle. Records
+ * after the last indexed block have not been indexed yet and are
+ * always scanned.
+ * </p>
+ *
+ * <p>
+ * A query reads the index to find the blocks that may contain
+ * matching records and only reads those parts of the data files.
+ * </p>
+ */
+public class BinaryLogReader {
+  /** Base name of the log files. */
+  public static final String LOGBASE = "gosglog";
+
+  /** Suffix of binary data files. */
+  public static final String DATA_SUFFIX = ".bin";
+
+  /** Suffix of index files. */
+  public static final String INDEX_SUFFIX = ".idx";
+
+  /**
+   * Suffix added to the log files of the previous session when the
+   * log is started.
+   */
+  public static final String OLD_SUFFIX = ".old";
+
+  /** The first int of a data file. */
+  public static final int DATA_MAGIC = 0x4b464c44;
+
+  /** The first int of an index file. */
+  public static final int INDEX_MAGIC = 0x4b464c49;
+
+  /** The version of the format of data and index files. */
+  public static final int FORMAT_VERSION = 1;
+
+  /** Size of the header of data and index files. */
+  public static final int HEADER_SIZE = 8;
+
+  /** The directory with the log files. */
+  private final File dir;
+
+  /**
+   * Create a reader for the binary log files in the given directory.
+   *
+   * @param dir
+   *          the log directory, see {@link LogConfig#getDir()}.
+   */
+  public BinaryLogReader(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Get the generations with a binary data file.
+   *
+   * @return the generation numbers, the oldest generation first.
+   */
+  public int[] getGenerations() {
+    return getGenerations("");
+  }
+
+  /**
+   * Get the generations of the previous session with a binary data
+   * file. I.e., the files that were renamed with the suffix
+   * {@link #OLD_SUFFIX} when the log was started.
+   *
+   * @return the generation numbers, the oldest generation first.
+   */
+  public int[] getOldGenerations() {
+    return getGenerations(OLD_SUFFIX);
+  }
+
+  private int[] getGenerations(final String suffix) {
+    final List<Integer> gens = new ArrayList<Integer>();
+    for (int i = 0; new File(dir, LOGBASE + i + suffix).exists(); i++) {
+      if (new File(dir, LOGBASE + i + DATA_SUFFIX + suffix).exists()) {
+        gens.add(0, new Integer(i));
+      }
+    }
+    final int[] res = new int[gens.size()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = gens.get(i).intValue();
+    }
+    return res;
+  }
+
+  /**
+   * Get all log records that match the given criteria, oldest record
+   * first. The files are read lazily while the returned enumeration is
+   * traversed.
+   *
+   * @param fromTime
+   *          only return records with a time stamp at or after this time.
+   * @param toTime
+   *          only return records with a time stamp at or before this time.
+   * @param bundleIds
+   *          only return records from these bundles, <code>null</code>
+   *          for records from all bundles. Use -1 to select records that
+   *          are not connected to a bundle.
+   * @param level
+   *          only return records with this level or a more severe level.
+   * @return enumeration of matching {@link Record}s.
+   */
+  public Enumeration<Record> query(final long fromTime,
+                                   final long toTime,
+                                   final long[] bundleIds,
+                                   final int level) {
+    return query(fromTime, toTime, bundleIds, level, false);
+  }
+
+  /**
+   * Get all log records that match the given criteria, oldest record
+   * first, optionally including the log files of the previous session.
+   *
+   * @param fromTime
+   *          only return records with a time stamp at or after this time.
+   * @param toTime
+   *          only return records with a time stamp at or before this time.
+   * @param bundleIds
+   *          only return records from these bundles, <code>null</code>
+   *          for records from all bundles. Use -1 to select records that
+   *          are not connected to a bundle.
+   * @param level
+   *          only return records with this level or a more severe level.
+   * @param includeOld
+   *          if <code>true</code> the records of the previous session,
+   *          see {@link #getOldGenerations()}, are returned before the
+   *          records of the current session.
+   * @return enumeration of matching {@link Record}s.
+   */
+  public Enumeration<Record> query(final long fromTime,
+                                   final long toTime,
+                                   final long[] bundleIds,
+                                   final int level,
+                                   final boolean includeOld) {
+    final List<String> bases = new ArrayList<String>();
+    final List<String> suffixes = new ArrayList<String>();
+    if (includeOld) {
+      for (final int gen : getOldGenerations()) {
+        bases.add(LOGBASE + gen);
+        suffixes.add(OLD_SUFFIX);
+      }
+    }
+    for (final int gen : getGenerations()) {
+      bases.add(LOGBASE + gen);
+      suffixes.add("");
+    }
+    return new RecordEnumeration(bases, suffixes, fromTime, toTime,
+                                 bundleIds, level);
+  }
+
+  /**
+   * A log entry read from a binary data file.
+   */
+  public static class Record {
+    private final long time;
+    private final long bundleId;
+    private final int level;
+    private final long serviceId;
+    private final String message;
+    private final String exception;
+
+    Record(long time, long bundleId, int level, long serviceId,
+           String message, String exception) {
+      this.time = time;
+      this.bundleId = bundleId;
+      this.level = level;
+      this.serviceId = serviceId;
+      this.message = message;
+      this.exception = exception;
+    }
+
+    /** The time the log entry was created. */
+    public long getTime() {
+      return time;
+    }
+
+    /** The id of the bundle that created the entry, -1 if none. */
+    public long getBundleId() {
+      return bundleId;
+    }
+
+    /** The severity level of the entry. */
+    public int getLevel() {
+      return level;
+    }
+
+    /** The id of the service associated with the entry, -1 if none. */
+    public long getServiceId() {
+      return serviceId;
+    }
+
+    /** The message of the entry. */
+    public String getMessage() {
+      return message;
+    }
+
+    /**
+     * The stack trace of the exception of the entry,
+     * <code>null</code> if none.
+     */
+    public String getException() {
+      return exception;
+    }
+  }
+
+  /**
+   * Summary of a block of records as stored in an index file.
+   */
+  private static class Block {
+    long offset;
+    int length;
+    long minTime = Long.MAX_VALUE;
+    long maxTime = Long.MIN_VALUE;
+    int minLevel = Integer.MAX_VALUE;
+    long[] bundleIds;
+
+    boolean mayMatch(long fromTime, long toTime, long[] selected, int level) {
+      if (maxTime < fromTime || minTime > toTime || minLevel > level) {
+        return false;
+      }
+      if (selected == null || bundleIds == null) {
+        return true;
+      }
+      for (final long bid : bundleIds) {
+        if (contains(selected, bid)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  static boolean contains(long[] a, long v) {
+    for (final long element : a) {
+      if (element == v) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Read the index of the given generation.
+   *
+   * @param base the file name of the generation without suffixes.
+   * @param suffix the suffix added last to the file names.
+   * @return the indexed blocks followed by a block without statistics
+   *         covering the records after the last indexed block.
+   */
+  private List<Block> readIndex(String base, String suffix, long dataLength)
+    throws IOException
+  {
+    final List<Block> blocks = new ArrayList<Block>();
+    long end = HEADER_SIZE;
+    final File idx = new File(dir, base + INDEX_SUFFIX + suffix);
+    if (idx.exists()) {
+      final DataInputStream in = new DataInputStream
+        (new BufferedInputStream(new FileInputStream(idx)));
+      try {
+        if (in.readInt() == INDEX_MAGIC && in.readInt() == FORMAT_VERSION) {
+          while (true) {
+            final Block b = new Block();
+            b.offset = in.readLong();
+            b.length = in.readInt();
+            in.readInt(); // Number of records
+            b.minTime = in.readLong();
+            b.maxTime = in.readLong();
+            b.minLevel = in.readInt();
+            final int n = in.readInt();
+            if (n >= 0) {
+              b.bundleIds = new long[n];
+              for (int i = 0; i < n; i++) {
+                b.bundleIds[i] = in.readLong();
+              }
+            }
+            if (b.offset + b.length > dataLength) {
+              break;
+            }
+            blocks.add(b);
+            end = b.offset + b.length;
+          }
+        }
+      } catch (final EOFException _eof) {
+        // End of index, the last entry may be incomplete.
+      } finally {
+        in.close();
+      }
+    }
+    if (end < dataLength) {
+      final Block tail = new Block();
+      tail.offset = end;
+      tail.length = (int) (dataLength - end);
+      tail.minTime = Long.MIN_VALUE;
+      tail.maxTime = Long.MAX_VALUE;
+      tail.minLevel = Integer.MIN_VALUE;
+      blocks.add(tail);
+    }
+    return blocks;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    final int n = in.readInt();
+    if (n < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[n];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private class RecordEnumeration implements Enumeration<Record> {
+    private final List<String> bases;
+    private final List<String> suffixes;
+    private final long fromTime;
+    private final long toTime;
+    private final long[] bundleIds;
+    private final int level;
+
+    private int genIx = 0;
+    private RandomAccessFile raf;
+    private List<Block> blocks;
+    private int blockIx;
+    /** The records of the current block, <code>null</code> if none. */
+    private DataInputStream block;
+    private Record next;
+
+    RecordEnumeration(List<String> bases, List<String> suffixes,
+                      long fromTime, long toTime,
+                      long[] bundleIds, int level) {
+      this.bases = bases;
+      this.suffixes = suffixes;
+      this.fromTime = fromTime;
+      this.toTime = toTime;
+      this.bundleIds = bundleIds;
+      this.level = level;
+      next = advance();
+    }
+
+    public boolean hasMoreElements() {
+      return next != null;
+    }
+
+    public Record nextElement() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      final Record res = next;
+      next = advance();
+      return res;
+    }
+
+    private Record advance() {
+      try {
+        while (true) {
+          if (raf == null && !openNextGeneration()) {
+            return null;
+          }
+          if (block == null || block.available() < 4) {
+            if (!nextBlock()) {
+              close();
+              continue;
+            }
+          }
+          final int len = block.readInt();
+          if (len <= 0 || len > block.available()) {
+            // Damaged or incomplete record, skip rest of block.
+            block = null;
+            continue;
+          }
+          final byte[] bytes = new byte[len];
+          block.readFully(bytes);
+          final DataInputStream in
+            = new DataInputStream(new ByteArrayInputStream(bytes));
+          final long time = in.readLong();
+          final long bid = in.readLong();
+          final int lvl = in.readInt();
+          if (time < fromTime || time > toTime || lvl > level
+              || (bundleIds != null && !contains(bundleIds, bid))) {
+            continue;
+          }
+          final long sid = in.readLong();
+          final String message = readString(in);
+          return new Record(time, bid, lvl, sid, message, readString(in));
+        }
+      } catch (final IOException ioe) {
+        close();
+        return null;
+      }
+    }
+
+    private boolean openNextGeneration() throws IOException {
+      while (genIx < bases.size()) {
+        final String base = bases.get(genIx);
+        final String suffix = suffixes.get(genIx++);
+        final File data = new File(dir, base + DATA_SUFFIX + suffix);
+        if (!data.exists()) {
+          continue;
+        }
+        final RandomAccessFile f = new RandomAccessFile(data, "r");
+        final long length = f.length();
+        if (length < HEADER_SIZE || f.readInt() != DATA_MAGIC
+            || f.readInt() != FORMAT_VERSION) {
+          f.close();
+          continue;
+        }
+        raf = f;
+        blocks = readIndex(base, suffix, length);
+        blockIx = 0;
+        block = null;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean nextBlock() throws IOException {
+      block = null;
+      while (blockIx < blocks.size()) {
+        final Block b = blocks.get(blockIx++);
+        if (b.mayMatch(fromTime, toTime, bundleIds, level)) {
+          final byte[] bytes = new byte[b.length];
+          raf.seek(b.offset);
+          raf.readFully(bytes);
+          block = new DataInputStream(new ByteArrayInputStream(bytes));
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void close() {
+      block = null;
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (final IOException _ioe) {
+        }
+        raf = null;
+      }
+    }
+  }
+}
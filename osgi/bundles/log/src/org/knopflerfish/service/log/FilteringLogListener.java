@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.service.log;
+
+import org.osgi.service.log.LogListener;
+
+/**
+ * A log listener that only needs log entries up to a certain level.
+ *
+ * <p>
+ * The Knopflerfish log forwards all log entries to plain log listeners,
+ * also those that are filtered out of the log itself. Thus a single plain
+ * log listener forces the log service to create entries for every log
+ * call. When all registered listeners implement this interface the log
+ * service only creates entries that are wanted by the log or by one of the
+ * listeners.
+ * </p>
+ *
+ * @since 1.3
+ */
+public interface FilteringLogListener extends LogListener {
+
+  /**
+   * Get the least severe level that this listener wants to be called
+   * for. I.e., the listener is called for log entries with a level that
+   * is numerically less than or equal to the returned value. The value
+   * may change at any time, it is checked for each log call.
+   *
+   * @return the highest log level that this listener wants, or zero if
+   *         it currently wants no log entries.
+   */
+  public int getLogLevel();
+}
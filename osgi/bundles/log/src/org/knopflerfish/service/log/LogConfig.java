@@ -124,6 +124,14 @@ public interface LogConfig {
 
   public boolean getFlush();
 
+  /**
+   * @return the number of log entries that the file log has dropped
+   *         since it was started, because its asynchronous writer could
+   *         not keep up.
+   * @since 1.3
+   */
+  public long getDroppedCount();
+
   /**
    * Define the format of the time-stamp used when presenting log
    * entries. I.e., in the file log and to <code>System.out</code>.
@@ -34,12 +34,15 @@
 
 package org.knopflerfish.bundle.logcommands;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
@@ -56,6 +59,8 @@ import org.osgi.service.log.LogService;
 import org.knopflerfish.service.console.CommandGroupAdapter;
 import org.knopflerfish.service.console.Session;
 import org.knopflerfish.service.console.Util;
+import org.knopflerfish.service.log.BinaryLogReader;
+import org.knopflerfish.service.log.LogConfig;
 
 // ******************** LogCommandGroup ********************
 /**
@@ -130,23 +135,9 @@ public class LogCommandGroup
 
           final boolean fflag = opts.get("-f") != null;
 
-          final String lflag = (String) opts.get("-l");
-          int level;
-          if (lflag != null) {
-            if (lflag.equalsIgnoreCase("error")) {
-              level = LogService.LOG_ERROR;
-            } else if (lflag.equalsIgnoreCase("warning")) {
-              level = LogService.LOG_WARNING;
-            } else if (lflag.equalsIgnoreCase("info")) {
-              level = LogService.LOG_INFO;
-            } else if (lflag.equalsIgnoreCase("debug")) {
-              level = LogService.LOG_DEBUG;
-            } else {
-              out.println("Unknown level: " + lflag);
-              return new Integer(1);
-            }
-          } else {
-            level = LogService.LOG_DEBUG;
+          final int level = getLevel(opts, out);
+          if (level < 0) {
+            return new Integer(1);
           }
 
           final String hflag = (String) opts.get("-h");
@@ -208,23 +199,7 @@ public class LogCommandGroup
             sb.setLength(0);
             sb.append(tf.format(new Date(le.getTime())));
             pad(sb, 16);
-            switch (le.getLevel()) {
-            case LogService.LOG_INFO:
-              sb.append("INFO");
-              break;
-            case LogService.LOG_DEBUG:
-              sb.append("DEBUG");
-              break;
-            case LogService.LOG_WARNING:
-              sb.append("WARNING");
-              break;
-            case LogService.LOG_ERROR:
-              sb.append("ERROR");
-              break;
-            default:
-              sb.append("UNKNOWN");
-              break;
-            }
+            appendLevel(sb, le.getLevel());
             pad(sb, 23);
             final Bundle b = le.getBundle();
             if (b != null) {
@@ -256,6 +231,260 @@ public class LogCommandGroup
     return res.intValue();
   }
 
+  //
+  // Query command
+  //
+
+  public final static String USAGE_QUERY =
+    "[-f] [-o] [-b #time#] [-e #time#] [-h #hours#] [-l #level#] [-n #count#] [-s] [<bundle>] ...";
+
+  public final static String[] HELP_QUERY =
+    new String[] {
+                  "Show log entries from the binary log files",
+                  "Entries are read from all generations of the binary file",
+                  "log, written when org.knopflerfish.log.file.binary is true.",
+                  "If no parameters are given show all entries, oldest first",
+                  "-f         Show framework events that aren't connected to a bundle",
+                  "-o         Also show entries from the log files of the previous session",
+                  "-b #time#  Show only entries at or after #time#",
+                  "-e #time#  Show only entries at or before #time#",
+                  "-h #hours# Show only entries entered in the #hours# last hours",
+                  "-l #level# Show only entries with minimum level error,warning,info or debug",
+                  "-n #count# Show the #count# latest matching entries",
+                  "-s         Show stacktrace for exceptions",
+                  "<bundle>   Name or id of bundle, the id may be of an uninstalled bundle",
+                  "#time# is given as yyyyMMdd, yyyyMMdd-HH:mm or yyyyMMdd-HH:mm:ss",
+                  "An end #time# includes the whole day, minute or second given" };
+
+  public int cmdQuery(final Dictionary<String, ?> opts,
+                      final Reader in,
+                      final PrintWriter out,
+                      final Session session)
+  {
+    final Integer res =
+      AccessController.doPrivileged(new PrivilegedAction<Integer>() {
+        public Integer run()
+        {
+          final LogConfig configuration = LogCommands.logConfigTracker
+              .getService();
+          final File dir = configuration != null ? configuration.getDir()
+              : null;
+          if (dir == null) {
+            out.println("No log directory available");
+            return new Integer(1);
+          }
+
+          final boolean fflag = opts.get("-f") != null;
+          long[] bids = null;
+          final String[] selection = (String[]) opts.get("bundle");
+          if (selection != null || fflag) {
+            final ArrayList<Long> bv = new ArrayList<Long>();
+            if (fflag) {
+              bv.add(new Long(-1));
+            }
+            if (selection != null) {
+              final Bundle[] bundles = bc.getBundles();
+              Util.selectBundles(bundles, selection);
+              for (final Bundle bundle : bundles) {
+                if (bundle != null) {
+                  bv.add(new Long(bundle.getBundleId()));
+                }
+              }
+              // Bundle ids of bundles that are no longer installed.
+              for (final String sel : selection) {
+                try {
+                  bv.add(new Long(Long.parseLong(sel)));
+                } catch (final NumberFormatException _nfe) {
+                }
+              }
+            }
+            bids = new long[bv.size()];
+            for (int i = 0; i < bids.length; i++) {
+              bids[i] = bv.get(i).longValue();
+            }
+          }
+
+          final int level = getLevel(opts, out);
+          if (level < 0) {
+            return new Integer(1);
+          }
+
+          long startTime = Long.MIN_VALUE;
+          long endTime = Long.MAX_VALUE;
+          try {
+            final String bflag = (String) opts.get("-b");
+            if (bflag != null) {
+              startTime = parseTime(bflag, false);
+            }
+            final String eflag = (String) opts.get("-e");
+            if (eflag != null) {
+              endTime = parseTime(eflag, true);
+            }
+          } catch (final ParseException pe) {
+            out.println("Illegal time: " + pe.getMessage());
+            return new Integer(1);
+          }
+          final String hflag = (String) opts.get("-h");
+          if (hflag != null) {
+            try {
+              startTime = Math.max(startTime, System.currentTimeMillis()
+                  - (long) (60 * 60 * 1000 * (new Double(hflag))
+                      .doubleValue()));
+            } catch (final NumberFormatException e) {
+              out.println("Illegal number of hours: " + hflag);
+              return new Integer(1);
+            }
+          }
+
+          int count = Integer.MAX_VALUE;
+          final String nflag = (String) opts.get("-n");
+          if (nflag != null) {
+            try {
+              count = Integer.parseInt(nflag);
+            } catch (final NumberFormatException e) {
+              out.println("Illegal number as count: " + nflag);
+              return new Integer(1);
+            }
+          }
+
+          final boolean oflag = opts.get("-o") != null;
+          final BinaryLogReader reader = new BinaryLogReader(dir);
+          if (reader.getGenerations().length == 0
+              && (!oflag || reader.getOldGenerations().length == 0)) {
+            out.println("No binary log files in " + dir);
+            return new Integer(1);
+          }
+          final Vector<BinaryLogReader.Record> lv
+            = new Vector<BinaryLogReader.Record>();
+          for (final Enumeration<BinaryLogReader.Record> e = reader
+              .query(startTime, endTime, bids, level, oflag);
+               e.hasMoreElements();) {
+            lv.addElement(e.nextElement());
+            if (lv.size() > count) {
+              lv.removeElementAt(0);
+            }
+          }
+
+          final StringBuilder sb = new StringBuilder();
+          final SimpleDateFormat tf = new SimpleDateFormat("MMM dd HH:mm:ss ");
+          for (final BinaryLogReader.Record r : lv) {
+            sb.setLength(0);
+            sb.append(tf.format(new Date(r.getTime())));
+            pad(sb, 16);
+            appendLevel(sb, r.getLevel());
+            pad(sb, 23);
+            if (r.getBundleId() >= 0) {
+              sb.append(" #").append(r.getBundleId());
+              pad(sb, 28);
+              final Bundle b = bc.getBundle(r.getBundleId());
+              if (b != null) {
+                sb.append(Util.shortName(b));
+              }
+            } else {
+              sb.append(" FRAMEWORK");
+            }
+            pad(sb, 42);
+            sb.append(" - ");
+            sb.append(r.getMessage());
+            if (r.getServiceId() >= 0) {
+              sb.append(", Service#");
+              sb.append(r.getServiceId());
+            }
+            out.println(sb.toString());
+            if (r.getException() != null && opts.get("-s") != null) {
+              out.print(r.getException());
+            }
+          }
+          return new Integer(0);
+        }
+      });
+    return res.intValue();
+  }
+
+  /**
+   * Parse a time given as yyyyMMdd, yyyyMMdd-HH:mm or
+   * yyyyMMdd-HH:mm:ss.
+   *
+   * @param s the time to parse.
+   * @param end if <code>true</code> the time is an inclusive end
+   *          bound, return the last millisecond of the given day,
+   *          minute or second instead of the first.
+   */
+  static long parseTime(final String s, final boolean end)
+    throws ParseException
+  {
+    final String pattern;
+    final int unit;
+    switch (s.length()) {
+    case 8:
+      pattern = "yyyyMMdd";
+      unit = Calendar.DATE;
+      break;
+    case 14:
+      pattern = "yyyyMMdd-HH:mm";
+      unit = Calendar.MINUTE;
+      break;
+    default:
+      pattern = "yyyyMMdd-HH:mm:ss";
+      unit = Calendar.SECOND;
+      break;
+    }
+    final SimpleDateFormat df = new SimpleDateFormat(pattern);
+    df.setLenient(false);
+    final Date d = df.parse(s);
+    if (!end) {
+      return d.getTime();
+    }
+    final Calendar cal = Calendar.getInstance();
+    cal.setTime(d);
+    cal.add(unit, 1);
+    return cal.getTime().getTime() - 1;
+  }
+
+  /**
+   * Get the level given by the <code>-l</code> option.
+   *
+   * @return the level or -1 if the option value is not a level.
+   */
+  static int getLevel(final Dictionary<String, ?> opts, final PrintWriter out)
+  {
+    final String lflag = (String) opts.get("-l");
+    if (lflag == null) {
+      return LogService.LOG_DEBUG;
+    } else if (lflag.equalsIgnoreCase("error")) {
+      return LogService.LOG_ERROR;
+    } else if (lflag.equalsIgnoreCase("warning")) {
+      return LogService.LOG_WARNING;
+    } else if (lflag.equalsIgnoreCase("info")) {
+      return LogService.LOG_INFO;
+    } else if (lflag.equalsIgnoreCase("debug")) {
+      return LogService.LOG_DEBUG;
+    }
+    out.println("Unknown level: " + lflag);
+    return -1;
+  }
+
+  static void appendLevel(final StringBuilder sb, final int level)
+  {
+    switch (level) {
+    case LogService.LOG_INFO:
+      sb.append("INFO");
+      break;
+    case LogService.LOG_DEBUG:
+      sb.append("DEBUG");
+      break;
+    case LogService.LOG_WARNING:
+      sb.append("WARNING");
+      break;
+    case LogService.LOG_ERROR:
+      sb.append("ERROR");
+      break;
+    default:
+      sb.append("UNKNOWN");
+      break;
+    }
+  }
+
   void pad(StringBuilder sb, int n)
   {
     while (sb.length() < n) {
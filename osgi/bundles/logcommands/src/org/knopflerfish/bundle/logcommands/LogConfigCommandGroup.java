@@ -455,6 +455,7 @@ public class LogConfigCommandGroup
       out.println("  file size:    " + configuration.getFileSize());
       out.println("  generations:  " + configuration.getMaxGen());
       out.println("  flush:        " + configuration.getFlush());
+      out.println("  dropped:      " + configuration.getDroppedCount());
       out.println("  log location: " + configuration.getDir());
     }
     return 0;
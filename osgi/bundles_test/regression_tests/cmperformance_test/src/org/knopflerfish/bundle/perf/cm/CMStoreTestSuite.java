@@ -0,0 +1,557 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.perf.cm;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
+import org.osgi.service.cm.ManagedService;
+
+import org.knopflerfish.shared.cm.BatchConfigurationAdmin;
+import org.knopflerfish.shared.cm.DispatchStatistics;
+
+/**
+ * Checks the journal store, the property index, batch updates and the
+ * dispatch counters of the CM bundle. The CM bundle is restarted with a
+ * journal store in the data area of this bundle and is restarted with
+ * its original store when done.
+ */
+public class CMStoreTestSuite extends TestSuite {
+  static final String STORE_DIR_PROP = "com.gatespace.bundle.cm.store";
+  static final String STORE_TYPE_PROP = "org.knopflerfish.cm.store.type";
+  static final String INDEX_KEYS_PROP = "org.knopflerfish.cm.index.keys";
+  static final String SYNC_PROP = "org.knopflerfish.cm.journal.sync";
+  static final String[] PROPS = new String[] {
+    STORE_DIR_PROP, STORE_TYPE_PROP, INDEX_KEYS_PROP, SYNC_PROP
+  };
+
+  static final String PREFIX = "cmstore.";
+  static final String FACTORY_PID = PREFIX + "factory";
+
+  static final String[] FILTERS = new String[] {
+    "(name=cfg3)",
+    "(NAME=cfg3)",
+    "(name=cfg1*)",
+    "(name~=CFG5)",
+    "(name=7)",
+    "(port=8003)",
+    "(port>=8007)",
+    "(enabled=true)",
+    "(tags=t1)",
+    "(tags=all)",
+    "(ids=3)",
+    "(optional=*)",
+    "(!(optional=*))",
+    "(!(name=cfg1))",
+    "(nokey=*)",
+    "(&(port=8001)(enabled=false))",
+    "(&(name=cfg3)(name=cfg4))",
+    "(&(tags=t0)(!(enabled=true)))",
+    "(&(service.factoryPid=" + FACTORY_PID + ")(port<=8004))",
+    "(|(name=cfg2)(port=8005))",
+    "(|(optional=*)(name=14))",
+    "(|(&(tags=t2)(enabled=true))(!(port>=8002)))",
+  };
+
+  BundleContext bc;
+  Bundle cmBundle;
+  ConfigurationAdmin ca;
+  File storeDir;
+  final Map<String, String> oldProps = new HashMap<String, String>();
+
+  /** The PIDs of the configurations created by Index. */
+  final List<String> pids = new ArrayList<String>();
+
+  public CMStoreTestSuite(BundleContext bc) {
+    super("CMStoreTestSuite");
+    this.bc = bc;
+
+    addTest(new Setup());
+    addTest(new Index());
+    addTest(new TornWrite());
+    addTest(new BatchRollback());
+    addTest(new Compaction());
+    addTest(new Statistics());
+    addTest(new Cleanup());
+  }
+
+
+  public class Setup extends TestCase {
+    public String getName() {
+      return "Setup";
+    }
+
+    public String getDescription() {
+      return "Restart CM with an empty journal store";
+    }
+
+    public void runTest() throws Throwable {
+      final ServiceReference<ConfigurationAdmin> sr
+        = bc.getServiceReference(ConfigurationAdmin.class);
+      assertNotNull("ConfigurationAdmin service must be registered", sr);
+      cmBundle = sr.getBundle();
+      for (final String key : PROPS) {
+        oldProps.put(key, System.getProperty(key));
+        if (bc.getProperty(key) != null && System.getProperty(key) == null) {
+          fail(key + " set as a framework property, can not be changed");
+        }
+      }
+      storeDir = bc.getDataFile("cm_store");
+      assertNotNull("File system support needed", storeDir);
+      delete(storeDir);
+
+      setProperty(STORE_DIR_PROP, storeDir.getAbsolutePath());
+      setProperty(STORE_TYPE_PROP, "journal");
+      setProperty(INDEX_KEYS_PROP, "name,port,enabled,tags,ids,optional");
+      setProperty(SYNC_PROP, "false");
+      stopCM();
+      startCM();
+    }
+  }
+
+  public class Cleanup extends TestCase {
+    public String getName() {
+      return "Cleanup";
+    }
+
+    public String getDescription() {
+      return "Restart CM with its original store";
+    }
+
+    public void runTest() throws Throwable {
+      if (cmBundle == null) {
+        return;
+      }
+      for (final String key : PROPS) {
+        setProperty(key, oldProps.get(key));
+      }
+      stopCM();
+      startCM();
+      delete(storeDir);
+    }
+  }
+
+  public class Index extends TestCase {
+    public String getName() {
+      return "Index";
+    }
+
+    public String getDescription() {
+      return "Check that listConfigurations gives the configurations that"
+        + " match filters with &, |, ! and non-string values, before and"
+        + " after the index is rebuilt from the store";
+    }
+
+    public void runTest() throws Throwable {
+      for (int i = 0; i < 40; i++) {
+        final Configuration c = i % 4 == 0
+          ? ca.createFactoryConfiguration(FACTORY_PID, null)
+          : ca.getConfiguration(PREFIX + "cfg" + i, null);
+        final Hashtable<String, Object> props = new Hashtable<String, Object>();
+        if (i % 7 == 0) {
+          props.put("name", new Integer(i));
+        } else {
+          props.put("name", "cfg" + i);
+        }
+        props.put("port", new Integer(8000 + i % 10));
+        props.put("enabled", Boolean.valueOf(i % 2 == 0));
+        props.put("tags", new String[] { "t" + i % 3, "all" });
+        final Vector<Integer> ids = new Vector<Integer>();
+        ids.addElement(new Integer(i));
+        ids.addElement(new Integer(i % 5));
+        props.put("ids", ids);
+        if (i % 5 == 0) {
+          props.put("optional", "o" + i);
+        }
+        c.update(props);
+        pids.add(c.getPid());
+      }
+      checkFilters();
+      stopCM();
+      startCM();
+      checkFilters();
+    }
+
+    void checkFilters() throws Exception {
+      final Map<String, Dictionary<String, Object>> all = getTestConfigs();
+      assertEquals("Number of configurations", pids.size(), all.size());
+      for (final String f : FILTERS) {
+        final Filter filter = FrameworkUtil.createFilter(f);
+        final Set<String> expected = new HashSet<String>();
+        for (final Map.Entry<String, Dictionary<String, Object>> e
+               : all.entrySet()) {
+          if (filter.match(e.getValue())) {
+            expected.add(e.getKey());
+          }
+        }
+        final Set<String> actual = new HashSet<String>();
+        final Configuration[] cs = ca.listConfigurations(f);
+        if (cs != null) {
+          for (final Configuration c : cs) {
+            if (pids.contains(c.getPid())) {
+              actual.add(c.getPid());
+            }
+          }
+        }
+        assertEquals("Configurations matching " + f, expected, actual);
+      }
+    }
+  }
+
+  public class TornWrite extends TestCase {
+    public String getName() {
+      return "TornWrite";
+    }
+
+    public String getDescription() {
+      return "Cut off the last record of the journal and check that CM"
+        + " recovers the previous configuration and can write again";
+    }
+
+    public void runTest() throws Throwable {
+      final String pid = PREFIX + "torn";
+      update(pid, "v", new Integer(1));
+      stopCM();
+      final File journal = new File(storeDir, "cm_journal");
+      final long before = journal.length();
+      startCM();
+      update(pid, "v", new Integer(2));
+      stopCM();
+      final long after = journal.length();
+      assertTrue("Journal grew", after > before);
+      final RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+      try {
+        raf.setLength(before + (after - before) / 2);
+      } finally {
+        raf.close();
+      }
+      startCM();
+      assertEquals("Value before the torn write", new Integer(1),
+                   get(pid, "v"));
+      assertEquals("Other configurations", pids.size(),
+                   getTestConfigs().size());
+
+      update(pid, "v", new Integer(3));
+      stopCM();
+      startCM();
+      assertEquals("Value written after recovery", new Integer(3),
+                   get(pid, "v"));
+    }
+  }
+
+  public class BatchRollback extends TestCase {
+    public String getName() {
+      return "BatchRollback";
+    }
+
+    public String getDescription() {
+      return "Check that a batch update with an invalid dictionary changes"
+        + " nothing and that a valid batch is stored";
+    }
+
+    public void runTest() throws Throwable {
+      final String pidA = PREFIX + "batch.a";
+      final String pidB = PREFIX + "batch.b";
+      update(pidA, "v", new Integer(1));
+      update(pidB, "v", new Integer(1));
+      final BatchConfigurationAdmin bca = (BatchConfigurationAdmin) ca;
+
+      final Map<Configuration, Dictionary<String, ?>> updates
+        = new HashMap<Configuration, Dictionary<String, ?>>();
+      updates.put(ca.getConfiguration(pidA, null), props("v", new Integer(2)));
+      updates.put(ca.getConfiguration(pidB, null), props("v", new Object()));
+      try {
+        bca.updateAll(updates);
+        fail("Batch with an invalid value must be rejected");
+      } catch (IllegalArgumentException expected) {
+      }
+      assertEquals("A after rejected batch", new Integer(1), get(pidA, "v"));
+      assertEquals("B after rejected batch", new Integer(1), get(pidB, "v"));
+
+      updates.clear();
+      updates.put(ca.getConfiguration(pidA, null), props("v", new Integer(3)));
+      updates.put(ca.getConfiguration(pidB, null), props("v", new Integer(3)));
+      bca.updateAll(updates);
+      stopCM();
+      startCM();
+      assertEquals("A after batch", new Integer(3), get(pidA, "v"));
+      assertEquals("B after batch", new Integer(3), get(pidB, "v"));
+    }
+  }
+
+  public class Compaction extends TestCase {
+    public String getName() {
+      return "Compaction";
+    }
+
+    public String getDescription() {
+      return "Supersede most of the journal and check that it is"
+        + " compacted without losing configurations";
+    }
+
+    public void runTest() throws Throwable {
+      final String pid = PREFIX + "compact";
+      final StringBuffer sb = new StringBuffer();
+      for (int i = 0; i < 4096; i++) {
+        sb.append((char) ('a' + i % 26));
+      }
+      final String data = sb.toString();
+      final int n = 200;
+      final Configuration c = ca.getConfiguration(pid, null);
+      for (int i = 0; i < n; i++) {
+        c.update(props("data", data + i));
+      }
+      final File journal = new File(storeDir, "cm_journal");
+      final long limit = n * data.length() / 4;
+      final long end = System.currentTimeMillis() + 10000;
+      while (journal.length() > limit && System.currentTimeMillis() < end) {
+        Thread.sleep(50);
+      }
+      assertTrue("Journal compacted to " + journal.length() + " bytes",
+                 journal.length() <= limit);
+
+      c.update(props("data", "last"));
+      stopCM();
+      startCM();
+      assertEquals("Value after compaction", "last", get(pid, "data"));
+      assertEquals("Other configurations", pids.size(),
+                   getTestConfigs().size());
+    }
+  }
+
+  public class Statistics extends TestCase {
+    public String getName() {
+      return "Statistics";
+    }
+
+    public String getDescription() {
+      return "Check that updates to a busy managed service are coalesced"
+        + " and counted by the dispatch statistics";
+    }
+
+    public void runTest() throws Throwable {
+      final String pid = PREFIX + "stats";
+      update(pid, "v", new Integer(0));
+
+      final List<Object> received = new ArrayList<Object>();
+      final boolean[] gate = new boolean[1];
+      final ManagedService ms = new ManagedService() {
+          public void updated(Dictionary<String, ?> props) {
+            synchronized (received) {
+              received.add(props != null ? props.get("v") : null);
+              received.notifyAll();
+              while (!gate[0]) {
+                try {
+                  received.wait();
+                } catch (InterruptedException ie) {
+                  return;
+                }
+              }
+            }
+          }
+        };
+      final int[] events = new int[1];
+      final ConfigurationListener cl = new ConfigurationListener() {
+          public void configurationEvent(ConfigurationEvent event) {
+            if (pid.equals(event.getPid())) {
+              synchronized (events) {
+                events[0]++;
+                events.notifyAll();
+              }
+            }
+          }
+        };
+
+      final DispatchStatistics ds = (DispatchStatistics) ca;
+      final Map<String, Long> before = ds.getDispatchStatistics();
+      final ServiceRegistration<?> clReg = bc.registerService(
+          ConfigurationListener.class.getName(), cl, null);
+      final ServiceRegistration<?> msReg = bc.registerService(
+          ManagedService.class.getName(), ms, props("service.pid", pid));
+      try {
+        synchronized (received) {
+          waitFor(received, 1);
+          // The managed service is busy, the updates are coalesced.
+          for (int i = 1; i <= 5; i++) {
+            update(pid, "v", new Integer(i));
+          }
+          gate[0] = true;
+          received.notifyAll();
+          waitFor(received, 2);
+        }
+        synchronized (events) {
+          final long end = System.currentTimeMillis() + 10000;
+          while (events[0] < 5 && System.currentTimeMillis() < end) {
+            events.wait(100);
+          }
+          assertEquals("Configuration events", 5, events[0]);
+        }
+        assertEquals("Delivered values", 2, received.size());
+        assertEquals("Initial value", new Integer(0), received.get(0));
+        assertEquals("Latest value", new Integer(5), received.get(1));
+
+        final Map<String, Long> after = ds.getDispatchStatistics();
+        log("dispatch statistics " + after);
+        assertEquals("Coalesced updates", 4,
+                     delta(before, after, "update.coalesced"));
+        assertEquals("Queued updates", 2,
+                     delta(before, after, "update.queued"));
+        assertEquals("Dispatched updates", 2,
+                     delta(before, after, "update.dispatched"));
+        assertEquals("Update queue depth", 0,
+                     after.get("update.depth").longValue());
+        assertTrue("Max update queue depth",
+                   after.get("update.depth.max").longValue() >= 1);
+        assertTrue("Queued events",
+                   delta(before, after, "event.queued") >= 5);
+        assertTrue("Dispatch threads",
+                   after.get("threads").longValue()
+                   <= after.get("threads.max").longValue());
+      } finally {
+        synchronized (received) {
+          gate[0] = true;
+          received.notifyAll();
+        }
+        msReg.unregister();
+        clReg.unregister();
+      }
+    }
+
+    void waitFor(List<Object> received, int n) throws InterruptedException {
+      final long end = System.currentTimeMillis() + 10000;
+      while (received.size() < n && System.currentTimeMillis() < end) {
+        received.wait(100);
+      }
+      assertEquals("Deliveries to the managed service", n, received.size());
+    }
+  }
+
+
+  void stopCM() throws Exception {
+    ca = null;
+    cmBundle.stop();
+  }
+
+  void startCM() throws Exception {
+    cmBundle.start();
+    final ServiceReference<ConfigurationAdmin> sr
+      = bc.getServiceReference(ConfigurationAdmin.class);
+    TestCase.assertNotNull("ConfigurationAdmin service after restart", sr);
+    ca = bc.getService(sr);
+  }
+
+  /**
+   * Get the properties of all configurations created by this suite.
+   */
+  Map<String, Dictionary<String, Object>> getTestConfigs() throws Exception {
+    final Map<String, Dictionary<String, Object>> res
+      = new HashMap<String, Dictionary<String, Object>>();
+    final Configuration[] cs = ca.listConfigurations(null);
+    if (cs != null) {
+      for (final Configuration c : cs) {
+        if (pids.contains(c.getPid())) {
+          res.put(c.getPid(), c.getProperties());
+        }
+      }
+    }
+    return res;
+  }
+
+  void update(String pid, String key, Object value) throws Exception {
+    ca.getConfiguration(pid, null).update(props(key, value));
+  }
+
+  Object get(String pid, String key) throws Exception {
+    final Dictionary<String, Object> props
+      = ca.getConfiguration(pid, null).getProperties();
+    return props != null ? props.get(key) : null;
+  }
+
+  static Hashtable<String, Object> props(String key, Object value) {
+    final Hashtable<String, Object> props = new Hashtable<String, Object>();
+    props.put(key, value);
+    return props;
+  }
+
+  static long delta(Map<String, Long> before,
+                    Map<String, Long> after,
+                    String key) {
+    return after.get(key).longValue() - before.get(key).longValue();
+  }
+
+  static void setProperty(String key, String value) {
+    if (value != null) {
+      System.setProperty(key, value);
+    } else {
+      System.clearProperty(key);
+    }
+  }
+
+  static void delete(File f) {
+    final File[] files = f.listFiles();
+    if (files != null) {
+      for (final File child : files) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+
+  static void log(String msg) {
+    System.out.println("cm_store: " + msg);
+  }
+}
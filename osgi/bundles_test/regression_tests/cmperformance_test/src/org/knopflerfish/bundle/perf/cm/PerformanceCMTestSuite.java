@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.perf.cm;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.PushbackReader;
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.BundleContext;
+
+import org.knopflerfish.shared.cm.CMDataBinaryReader;
+import org.knopflerfish.shared.cm.CMDataBinaryWriter;
+import org.knopflerfish.shared.cm.CMDataReader;
+import org.knopflerfish.shared.cm.CMDataWriter;
+
+/**
+ * Compares the XML and the binary format for configuration data, first
+ * checking that both formats give back the written properties, then
+ * measuring the time to write and read <code>nConfigs</code>
+ * configurations in each format.
+ */
+public class PerformanceCMTestSuite extends TestSuite {
+  BundleContext bc;
+
+  int nConfigs = 20000;
+  int nRounds  = 3;
+
+  Hashtable<String, Object>[] configs;
+
+  public PerformanceCMTestSuite(BundleContext bc) {
+    super("PerformanceCMTestSuite");
+    this.bc = bc;
+
+    try {
+      nConfigs = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.cm.nconfigs", "" + nConfigs));
+    } catch (Exception ignored) {
+    }
+
+    try {
+      nRounds = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.cm.nrounds", "" + nRounds));
+    } catch (Exception ignored) {
+    }
+
+    addTest(new Setup());
+    addTest(new RoundTrip());
+    addTest(new XmlFormat());
+    addTest(new BinaryFormat());
+    addTest(new Cleanup());
+  }
+
+
+  public class Setup extends TestCase {
+    public String getName() {
+      return "Setup";
+    }
+
+    public String getDescription() {
+      return "Create " + nConfigs + " configurations with properties of"
+        + " all allowed kinds";
+    }
+
+    @SuppressWarnings("unchecked")
+    public void runTest() throws Throwable {
+      configs = new Hashtable[nConfigs];
+      for (int i = 0; i < nConfigs; i++) {
+        configs[i] = createConfig(i);
+      }
+    }
+  }
+
+  public class Cleanup extends TestCase {
+    public String getName() {
+      return "Cleanup";
+    }
+
+    public String getDescription() {
+      return "Release the test configurations";
+    }
+
+    public void runTest() throws Throwable {
+      configs = null;
+    }
+  }
+
+  public class RoundTrip extends TestCase {
+    public String getName() {
+      return "RoundTrip";
+    }
+
+    public String getDescription() {
+      return "Check that configurations are read back unchanged from the"
+        + " binary format and when converted binary to XML to binary";
+    }
+
+    public void runTest() throws Throwable {
+      final CMDataBinaryReader binaryReader = new CMDataBinaryReader();
+      final CMDataReader xmlReader = new CMDataReader();
+      for (int i = 0; i < Math.min(nConfigs, 100); i++) {
+        final Hashtable<String, Object> fromBinary =
+          binaryReader.readCMData(new DataInputStream(new ByteArrayInputStream(toBinary(configs[i]))));
+        assertDictionaryEquals("binary", configs[i], fromBinary);
+
+        final Hashtable<String, Object> fromXml =
+          xmlReader.readCMData(reader(toXml(fromBinary)));
+        final Hashtable<String, Object> back =
+          binaryReader.readCMData(new DataInputStream(new ByteArrayInputStream(toBinary(fromXml))));
+        assertDictionaryEquals("binary-xml-binary", configs[i], back);
+      }
+    }
+  }
+
+  public class XmlFormat extends TestCase {
+    public String getName() {
+      return "XmlFormat";
+    }
+
+    public String getDescription() {
+      return "Write and read " + nConfigs + " configurations in XML format";
+    }
+
+    public void runTest() throws Throwable {
+      final byte[][] data = new byte[nConfigs][];
+      final CMDataReader reader = new CMDataReader();
+      for (int r = 0; r < nRounds; r++) {
+        long size = 0;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nConfigs; i++) {
+          data[i] = toXml(configs[i]);
+          size += data[i].length;
+        }
+        final long writeTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        for (int i = 0; i < nConfigs; i++) {
+          reader.readCMData(reader(data[i]));
+        }
+        final long readTime = System.currentTimeMillis() - start;
+        log("xml round=" + r + " write " + writeTime + "ms, read " + readTime
+            + "ms, " + (size / nConfigs) + " bytes/config");
+      }
+    }
+  }
+
+  public class BinaryFormat extends TestCase {
+    public String getName() {
+      return "BinaryFormat";
+    }
+
+    public String getDescription() {
+      return "Write and read " + nConfigs + " configurations in binary"
+        + " format";
+    }
+
+    public void runTest() throws Throwable {
+      final byte[][] data = new byte[nConfigs][];
+      final CMDataBinaryReader reader = new CMDataBinaryReader();
+      for (int r = 0; r < nRounds; r++) {
+        long size = 0;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nConfigs; i++) {
+          data[i] = toBinary(configs[i]);
+          size += data[i].length;
+        }
+        final long writeTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        for (int i = 0; i < nConfigs; i++) {
+          reader.readCMData(new DataInputStream(new ByteArrayInputStream(data[i])));
+        }
+        final long readTime = System.currentTimeMillis() - start;
+        log("binary round=" + r + " write " + writeTime + "ms, read "
+            + readTime + "ms, " + (size / nConfigs) + " bytes/config");
+      }
+    }
+  }
+
+
+  /**
+   * Create a configuration similar to what is commonly stored in CM.
+   */
+  static Hashtable<String, Object> createConfig(int i) {
+    final Hashtable<String, Object> h = new Hashtable<String, Object>();
+    final String fpid = "org.knopflerfish.bundle.perf.cm.factory" + (i % 10);
+    final String pid = fpid + "._" + i;
+    h.put("service.pid", pid);
+    h.put("service.factoryPid", fpid);
+    h.put("service.bundleLocation", "file:jars/perf/perf_cm-" + (i % 10) + ".jar");
+    h.put("org.knopflerfish.bundle.cm.changeCount", new Long(i));
+    h.put("name", "Configuration number " + i);
+    h.put("host", "host" + (i % 100) + ".example.org");
+    h.put("port", new Integer(8000 + i % 1000));
+    h.put("timeout", new Long(30000L + i));
+    h.put("ratio", new Double(i / 7.0));
+    h.put("weight", new Float(i / 3.0f));
+    h.put("level", new Short((short) (i % 8)));
+    h.put("flags", new Byte((byte) i));
+    h.put("separator", new Character((char) ('a' + i % 26)));
+    h.put("enabled", Boolean.valueOf(i % 2 == 0));
+    h.put("serial", BigInteger.valueOf(i).shiftLeft(70));
+    h.put("aliases", new String[] { "alias" + i, "alias" + (i + 1) });
+    h.put("ports", new int[] { i, i + 1, i + 2 });
+    h.put("mask", new boolean[] { true, false, i % 3 == 0 });
+    h.put("ids", new Long[] { new Long(i), new Long(-i) });
+    final Vector<Object> topics = new Vector<Object>();
+    topics.addElement("org/knopflerfish/perf/" + i);
+    topics.addElement("org/knopflerfish/perf/*");
+    h.put("topics", topics);
+    h.put("matrix", new int[][] { { i, 1 }, { 2, i } });
+    return h;
+  }
+
+  static byte[] toBinary(Dictionary<String, Object> d) throws Exception {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
+    final DataOutputStream out = new DataOutputStream(bout);
+    CMDataBinaryWriter.writeCMData(d, out);
+    out.flush();
+    return bout.toByteArray();
+  }
+
+  static byte[] toXml(Dictionary<String, Object> d) throws Exception {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream(4096);
+    final PrintWriter w =
+      new PrintWriter(new OutputStreamWriter(bout, CMDataWriter.ENCODING));
+    final String pid = (String) d.get("service.pid");
+    final String fpid = (String) d.get("service.factoryPid");
+    if (fpid == null) {
+      CMDataWriter.writeConfiguration(pid, d, w);
+    } else {
+      CMDataWriter.writeFactoryConfiguration(fpid, pid, d, w);
+    }
+    w.close();
+    return bout.toByteArray();
+  }
+
+  static PushbackReader reader(byte[] data) throws Exception {
+    return new PushbackReader(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), CMDataReader.ENCODING), 8192), 8);
+  }
+
+  static void assertDictionaryEquals(String msg,
+                                     Dictionary<String, Object> expected,
+                                     Dictionary<String, Object> actual) {
+    Assert.assertEquals(msg + " size", expected.size(), actual.size());
+    for (Enumeration<String> e = expected.keys(); e.hasMoreElements();) {
+      final String key = e.nextElement();
+      assertValueEquals(msg + " " + key, expected.get(key), actual.get(key));
+    }
+  }
+
+  static void assertValueEquals(String msg, Object expected, Object actual) {
+    Assert.assertNotNull(msg + " missing", actual);
+    Assert.assertEquals(msg + " type", expected.getClass(), actual.getClass());
+    if (expected.getClass().isArray()) {
+      Assert.assertEquals(msg + " length", Array.getLength(expected), Array.getLength(actual));
+      for (int i = 0; i < Array.getLength(expected); i++) {
+        assertValueEquals(msg + "[" + i + "]", Array.get(expected, i), Array.get(actual, i));
+      }
+    } else if (expected instanceof Vector) {
+      final Vector<?> ev = (Vector<?>) expected;
+      final Vector<?> av = (Vector<?>) actual;
+      Assert.assertEquals(msg + " size", ev.size(), av.size());
+      for (int i = 0; i < ev.size(); i++) {
+        assertValueEquals(msg + "[" + i + "]", ev.elementAt(i), av.elementAt(i));
+      }
+    } else {
+      Assert.assertEquals(msg, expected, actual);
+    }
+  }
+
+  static void log(String msg) {
+    System.out.println("cm_perf: " + msg);
+  }
+}
@@ -32,6 +32,10 @@ import org.knopflerfish.bundle.eventadmin_test.scenario11.impl.Scenario11TestSui
 import org.knopflerfish.bundle.eventadmin_test.scenario12.impl.Scenario12TestSuite;
 import org.knopflerfish.bundle.eventadmin_test.scenario13.impl.Scenario13TestSuite;
 import org.knopflerfish.bundle.eventadmin_test.scenario14.impl.Scenario14TestSuite;
+import org.knopflerfish.bundle.eventadmin_test.scenario15.impl.Scenario15TestSuite;
+import org.knopflerfish.bundle.eventadmin_test.scenario16.impl.Scenario16TestSuite;
+import org.knopflerfish.bundle.eventadmin_test.scenario17.impl.Scenario17TestSuite;
+import org.knopflerfish.bundle.eventadmin_test.scenario18.impl.Scenario18TestSuite;
 
 import junit.framework.*;
 
@@ -82,6 +86,14 @@ public class Activator implements BundleActivator {
         testSuiteAllTests.addTest(testSuiteScenario13);
         TestSuite testSuiteScenario14 = new Scenario14TestSuite(context);
         testSuiteAllTests.addTest(testSuiteScenario14);
+        TestSuite testSuiteScenario15 = new Scenario15TestSuite(context);
+        testSuiteAllTests.addTest(testSuiteScenario15);
+        TestSuite testSuiteScenario16 = new Scenario16TestSuite(context);
+        testSuiteAllTests.addTest(testSuiteScenario16);
+        TestSuite testSuiteScenario17 = new Scenario17TestSuite(context);
+        testSuiteAllTests.addTest(testSuiteScenario17);
+        TestSuite testSuiteScenario18 = new Scenario18TestSuite(context);
+        testSuiteAllTests.addTest(testSuiteScenario18);
 
         /* create the hashtable to put properties in */
         Hashtable props = new Hashtable();
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.knopflerfish.bundle.eventadmin_test.scenario15.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+import org.knopflerfish.service.event.BatchEventAdmin;
+import org.knopflerfish.service.event.BatchEventConstants;
+import org.knopflerfish.service.event.BatchEventHandler;
+
+/**
+ * Tests batch delivery via the Knopflerfish BatchEventAdmin service.
+ */
+public class Scenario15TestSuite extends TestSuite {
+  private static final String TOPIC = "com/acme/batch";
+  private static final int BATCH_SIZE = 10;
+
+  private final BundleContext bc;
+  private final List<ServiceRegistration<?>> regs
+    = new ArrayList<ServiceRegistration<?>>();
+
+  public Scenario15TestSuite(BundleContext context) {
+    super("Scenario 15 - Batch delivery");
+    bc = context;
+    addTest(new SendBatch());
+    addTest(new PostBatch());
+    addTest(new Cleanup());
+  }
+
+
+  /**
+   * Event handler that records what it receives.
+   */
+  class Consumer implements BatchEventHandler {
+    final List<Event> events = new ArrayList<Event>();
+    final List<Integer> batches = new ArrayList<Integer>();
+
+    Consumer(String filter, String delivery) {
+      final Dictionary<String, Object> props = new Hashtable<String, Object>();
+      props.put(EventConstants.EVENT_TOPIC, TOPIC);
+      if (filter != null) {
+        props.put(EventConstants.EVENT_FILTER, filter);
+      }
+      if (delivery != null) {
+        props.put(BatchEventConstants.DELIVERY, delivery);
+      }
+      regs.add(bc.registerService(EventHandler.class.getName(), this, props));
+    }
+
+    public synchronized void handleEvent(Event event) {
+      events.add(event);
+      batches.add(Integer.valueOf(1));
+      notifyAll();
+    }
+
+    public synchronized void handleEvents(Event[] evs) {
+      for (final Event event : evs) {
+        events.add(event);
+      }
+      batches.add(Integer.valueOf(evs.length));
+      notifyAll();
+    }
+
+    synchronized void waitFor(int n) throws InterruptedException {
+      final long end = System.currentTimeMillis() + 5000;
+      while (events.size() < n && System.currentTimeMillis() < end) {
+        wait(100);
+      }
+    }
+
+    synchronized void assertSeq(String msg, int first, int last) {
+      Assert.assertEquals(msg + ", number of events", last - first + 1, events.size());
+      for (int i = 0; i < events.size(); i++) {
+        Assert.assertEquals(msg + ", event order", Integer.valueOf(first + i),
+                     events.get(i).getProperty("seq"));
+        Assert.assertEquals(msg + ", common property", "s1",
+                     events.get(i).getProperty("source"));
+      }
+    }
+
+    synchronized void clear() {
+      events.clear();
+      batches.clear();
+    }
+  }
+
+
+  BatchEventAdmin getBatchEventAdmin() {
+    final ServiceReference<?> sr
+      = bc.getServiceReference(BatchEventAdmin.class.getName());
+    Assert.assertNotNull("No BatchEventAdmin service", sr);
+    return (BatchEventAdmin) bc.getService(sr);
+  }
+
+  List<Map<String, Object>> createBatch() {
+    final List<Map<String, Object>> res = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      final Map<String, Object> props = new HashMap<String, Object>();
+      props.put("seq", Integer.valueOf(i));
+      res.add(props);
+    }
+    return res;
+  }
+
+  Map<String, Object> createCommon() {
+    final Map<String, Object> common = new HashMap<String, Object>();
+    common.put("source", "s1");
+    return common;
+  }
+
+
+  Consumer batch;
+  Consumer batchFiltered;
+  Consumer plain;
+  Consumer commonFiltered;
+  Consumer coalesce;
+
+  class SendBatch extends TestCase {
+    public SendBatch() {
+      super("Scenario 15 SendBatch");
+    }
+
+    public void runTest() throws Throwable {
+      batch = new Consumer(null, BatchEventConstants.DELIVERY_BATCH);
+      batchFiltered = new Consumer("(seq>=5)", BatchEventConstants.DELIVERY_BATCH);
+      plain = new Consumer("(seq<=4)", null);
+      commonFiltered = new Consumer("(source=s1)", BatchEventConstants.DELIVERY_BATCH);
+      coalesce = new Consumer(null, BatchEventConstants.DELIVERY_COALESCE);
+
+      getBatchEventAdmin().sendEvents(TOPIC, createCommon(), createBatch());
+
+      batch.assertSeq("batch", 0, BATCH_SIZE - 1);
+      assertEquals("batch, one call", 1, batch.batches.size());
+      batchFiltered.assertSeq("filtered batch", 5, BATCH_SIZE - 1);
+      assertEquals("filtered batch, one call", 1, batchFiltered.batches.size());
+      plain.assertSeq("plain", 0, 4);
+      assertEquals("plain, one call per event", 5, plain.batches.size());
+      commonFiltered.assertSeq("common filter", 0, BATCH_SIZE - 1);
+      // Synchronous delivery is never coalesced.
+      coalesce.assertSeq("coalesce", 0, BATCH_SIZE - 1);
+    }
+  }
+
+  class PostBatch extends TestCase {
+    public PostBatch() {
+      super("Scenario 15 PostBatch");
+    }
+
+    public void runTest() throws Throwable {
+      batch.clear();
+      batchFiltered.clear();
+      plain.clear();
+      commonFiltered.clear();
+      coalesce.clear();
+
+      getBatchEventAdmin().postEvents(TOPIC, createCommon(), createBatch());
+
+      batch.waitFor(BATCH_SIZE);
+      batchFiltered.waitFor(BATCH_SIZE - 5);
+      plain.waitFor(5);
+      commonFiltered.waitFor(BATCH_SIZE);
+      coalesce.waitFor(1);
+      Thread.sleep(200);
+
+      batch.assertSeq("batch", 0, BATCH_SIZE - 1);
+      assertEquals("batch, one call", 1, batch.batches.size());
+      batchFiltered.assertSeq("filtered batch", 5, BATCH_SIZE - 1);
+      plain.assertSeq("plain", 0, 4);
+      commonFiltered.assertSeq("common filter", 0, BATCH_SIZE - 1);
+      // Only the latest event of a posted batch is delivered.
+      coalesce.assertSeq("coalesce", BATCH_SIZE - 1, BATCH_SIZE - 1);
+    }
+  }
+
+  class Cleanup extends TestCase {
+    public Cleanup() {
+      super("Cleanup");
+    }
+
+    public void runTest() throws Throwable {
+      for (final ServiceRegistration<?> reg : regs) {
+        try {
+          reg.unregister();
+        } catch (IllegalStateException ignore) {
+        }
+      }
+      regs.clear();
+    }
+  }
+}
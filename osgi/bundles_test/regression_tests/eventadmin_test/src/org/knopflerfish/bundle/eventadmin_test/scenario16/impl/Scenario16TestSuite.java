@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.knopflerfish.bundle.eventadmin_test.scenario16.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * Tests that an event handler that does not return within the
+ * delivery timeout does not delay or prevent the delivery to the other
+ * event handlers.
+ *
+ * The Event Admin bundle is restarted with the timeout, and for the
+ * last test case with a worker pool, configured via system properties.
+ */
+public class Scenario16TestSuite extends TestSuite {
+  private static final String TOPIC = "com/acme/timeout";
+  private static final String TIMEOUT_PROP
+    = "org.knopflerfish.eventadmin.timeout";
+  private static final String WORKERS_PROP
+    = "org.knopflerfish.eventadmin.workers";
+  private static final String TIMEOUT = "300";
+  private static final int N_EVENTS = 10;
+  private static final int N_CONSUMERS = 4;
+
+  private final BundleContext bc;
+  private final List<ServiceRegistration<?>> regs
+    = new ArrayList<ServiceRegistration<?>>();
+  private final List<Hanger> hangers = new ArrayList<Hanger>();
+  private String oldTimeout;
+  private String oldWorkers;
+  private boolean active = false;
+
+  public Scenario16TestSuite(BundleContext context) {
+    super("Scenario 16 - Delivery timeout");
+    bc = context;
+    addTest(new Setup());
+    addTest(new PostHang());
+    addTest(new SendHang());
+    addTest(new WorkersPostHang());
+    addTest(new Cleanup());
+  }
+
+
+  /**
+   * Event handler that records the sequence numbers it receives.
+   */
+  class Consumer implements EventHandler {
+    final List<Integer> seqs = new ArrayList<Integer>();
+
+    Consumer() {
+      register(this);
+    }
+
+    public synchronized void handleEvent(Event event) {
+      seqs.add((Integer) event.getProperty("seq"));
+      notifyAll();
+    }
+
+    synchronized void waitFor(int n) throws InterruptedException {
+      final long end = System.currentTimeMillis() + 5000;
+      while (seqs.size() < n && System.currentTimeMillis() < end) {
+        wait(100);
+      }
+    }
+
+    synchronized void assertSeq(String msg, int n) {
+      Assert.assertEquals(msg + ", number of events", n, seqs.size());
+      for (int i = 0; i < n; i++) {
+        Assert.assertEquals(msg + ", event order", Integer.valueOf(i),
+                            seqs.get(i));
+      }
+    }
+  }
+
+  /**
+   * Event handler that does not return from the first call until
+   * released.
+   */
+  class Hanger implements EventHandler {
+    boolean released = false;
+    int calls = 0;
+
+    Hanger() {
+      register(this);
+      hangers.add(this);
+    }
+
+    public synchronized void handleEvent(Event event) {
+      if (calls++ == 0) {
+        final long end = System.currentTimeMillis() + 20000;
+        while (!released && System.currentTimeMillis() < end) {
+          try {
+            wait(100);
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+      }
+    }
+
+    synchronized void release() {
+      released = true;
+      notifyAll();
+    }
+  }
+
+
+  void register(EventHandler handler) {
+    final Dictionary<String, Object> props = new Hashtable<String, Object>();
+    props.put(EventConstants.EVENT_TOPIC, TOPIC);
+    regs.add(bc.registerService(EventHandler.class.getName(), handler, props));
+  }
+
+  EventAdmin getEventAdmin() {
+    final ServiceReference<EventAdmin> sr
+      = bc.getServiceReference(EventAdmin.class);
+    Assert.assertNotNull("No EventAdmin service", sr);
+    return bc.getService(sr);
+  }
+
+  Event createEvent(int seq) {
+    final Dictionary<String, Object> props = new Hashtable<String, Object>();
+    props.put("seq", Integer.valueOf(seq));
+    return new Event(TOPIC, props);
+  }
+
+  Consumer[] createConsumers() {
+    final Consumer[] res = new Consumer[N_CONSUMERS];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = new Consumer();
+      if (i == 0) {
+        new Hanger();
+      }
+    }
+    return res;
+  }
+
+  void releaseHangers() {
+    for (final Hanger hanger : hangers) {
+      hanger.release();
+    }
+    hangers.clear();
+  }
+
+  void unregisterAll() {
+    releaseHangers();
+    for (final ServiceRegistration<?> reg : regs) {
+      try {
+        reg.unregister();
+      } catch (IllegalStateException ignore) {
+      }
+    }
+    regs.clear();
+  }
+
+  /**
+   * Restart the Event Admin bundle with the given configuration.
+   */
+  void restartEventAdmin(String timeout, String workers) throws Exception {
+    final Bundle eaBundle
+      = bc.getServiceReference(EventAdmin.class).getBundle();
+    setProperty(TIMEOUT_PROP, timeout);
+    setProperty(WORKERS_PROP, workers);
+    eaBundle.stop();
+    eaBundle.start();
+  }
+
+  static void setProperty(String key, String value) {
+    if (value == null) {
+      System.getProperties().remove(key);
+    } else {
+      System.setProperty(key, value);
+    }
+  }
+
+  void postAndCheck(String msg) throws Throwable {
+    final Consumer[] consumers = createConsumers();
+    final EventAdmin ea = getEventAdmin();
+    for (int i = 0; i < N_EVENTS; i++) {
+      ea.postEvent(createEvent(i));
+    }
+    for (final Consumer consumer : consumers) {
+      consumer.waitFor(N_EVENTS);
+    }
+    for (int i = 0; i < consumers.length; i++) {
+      consumers[i].assertSeq(msg + ", consumer " + i, N_EVENTS);
+    }
+    unregisterAll();
+  }
+
+
+  class Setup extends TestCase {
+    public Setup() {
+      super("Scenario 16 Setup");
+    }
+
+    public void runTest() throws Throwable {
+      oldTimeout = System.getProperty(TIMEOUT_PROP);
+      oldWorkers = System.getProperty(WORKERS_PROP);
+      restartEventAdmin(TIMEOUT, "0");
+      // A framework property takes precedence over the system property.
+      active = TIMEOUT.equals(bc.getProperty(TIMEOUT_PROP))
+        && "0".equals(bc.getProperty(WORKERS_PROP));
+      if (!active) {
+        System.out.println("Scenario 16: timeout or workers set by a"
+                           + " framework property, tests skipped.");
+      }
+    }
+  }
+
+  class PostHang extends TestCase {
+    public PostHang() {
+      super("Scenario 16 PostHang");
+    }
+
+    public void runTest() throws Throwable {
+      if (active) {
+        postAndCheck("queue handler");
+      }
+    }
+  }
+
+  class SendHang extends TestCase {
+    public SendHang() {
+      super("Scenario 16 SendHang");
+    }
+
+    public void runTest() throws Throwable {
+      if (!active) {
+        return;
+      }
+      final Consumer[] consumers = createConsumers();
+      final EventAdmin ea = getEventAdmin();
+      final long start = System.currentTimeMillis();
+      for (int i = 0; i < N_EVENTS; i++) {
+        ea.sendEvent(createEvent(i));
+        for (int j = 0; j < consumers.length; j++) {
+          consumers[j].assertSeq("send, consumer " + j, i + 1);
+        }
+      }
+      final long time = System.currentTimeMillis() - start;
+      assertTrue("sendEvent blocked by slow handler for " + time + " ms",
+                 time < 5000);
+      unregisterAll();
+    }
+  }
+
+  class WorkersPostHang extends TestCase {
+    public WorkersPostHang() {
+      super("Scenario 16 WorkersPostHang");
+    }
+
+    public void runTest() throws Throwable {
+      if (!active) {
+        return;
+      }
+      restartEventAdmin(TIMEOUT, "2");
+      postAndCheck("worker pool");
+    }
+  }
+
+  class Cleanup extends TestCase {
+    public Cleanup() {
+      super("Cleanup");
+    }
+
+    public void runTest() throws Throwable {
+      unregisterAll();
+      // Restore the defaults before the properties, the Event Admin
+      // keeps the previous value when a property is unset.
+      restartEventAdmin(oldTimeout != null ? oldTimeout : "0",
+                        oldWorkers != null ? oldWorkers : "0");
+      setProperty(TIMEOUT_PROP, oldTimeout);
+      setProperty(WORKERS_PROP, oldWorkers);
+    }
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.knopflerfish.bundle.eventadmin_test.scenario17.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+import org.knopflerfish.service.event.EventQueueStatistics;
+
+/**
+ * Tests the bounded queue of the worker pool and its statistics.
+ *
+ * The Event Admin bundle is restarted with a worker pool configured
+ * via system properties.
+ */
+public class Scenario17TestSuite extends TestSuite {
+  private static final String TOPIC = "com/acme/bounded";
+  private static final String[] PROPS = {
+    "org.knopflerfish.eventadmin.workers",
+    "org.knopflerfish.eventadmin.queue.size",
+    "org.knopflerfish.eventadmin.queue.overflow",
+  };
+  /** Values that restore the default configuration. */
+  private static final String[] DEFAULTS = { "0", "0", "block" };
+  private static final int QUEUE_SIZE = 5;
+  private static final int N_EVENTS = 20;
+
+  private final BundleContext bc;
+  private final String[] oldValues = new String[PROPS.length];
+  private ServiceRegistration<?> reg;
+  private Consumer consumer;
+  private boolean active = false;
+
+  public Scenario17TestSuite(BundleContext context) {
+    super("Scenario 17 - Bounded worker pool queue");
+    bc = context;
+    addTest(new Setup());
+    addTest(new DropOnOverflow());
+    addTest(new BlockOnOverflow());
+    addTest(new Cleanup());
+  }
+
+
+  /**
+   * Event handler that records the sequence numbers it receives. The
+   * first call does not return until released.
+   */
+  class Consumer implements EventHandler {
+    final List<Integer> seqs = new ArrayList<Integer>();
+    boolean released = false;
+
+    Consumer() {
+      final Dictionary<String, Object> props = new Hashtable<String, Object>();
+      props.put(EventConstants.EVENT_TOPIC, TOPIC);
+      reg = bc.registerService(EventHandler.class.getName(), this, props);
+    }
+
+    public synchronized void handleEvent(Event event) {
+      seqs.add((Integer) event.getProperty("seq"));
+      notifyAll();
+      final long end = System.currentTimeMillis() + 10000;
+      while (!released && System.currentTimeMillis() < end) {
+        try {
+          wait(100);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+
+    synchronized void waitFor(int n) throws InterruptedException {
+      final long end = System.currentTimeMillis() + 5000;
+      while (seqs.size() < n && System.currentTimeMillis() < end) {
+        wait(100);
+      }
+    }
+
+    synchronized void release() {
+      released = true;
+      notifyAll();
+    }
+
+    synchronized void assertOrdered(String msg) {
+      for (int i = 1; i < seqs.size(); i++) {
+        Assert.assertTrue(msg + ", event order",
+                          seqs.get(i - 1).intValue() < seqs.get(i).intValue());
+      }
+    }
+
+    synchronized int size() {
+      return seqs.size();
+    }
+  }
+
+
+  Event createEvent(int seq) {
+    final Dictionary<String, Object> props = new Hashtable<String, Object>();
+    props.put("seq", Integer.valueOf(seq));
+    return new Event(TOPIC, props);
+  }
+
+  EventAdmin getEventAdmin() {
+    final ServiceReference<EventAdmin> sr
+      = bc.getServiceReference(EventAdmin.class);
+    Assert.assertNotNull("No EventAdmin service", sr);
+    return bc.getService(sr);
+  }
+
+  EventQueueStatistics getStatistics() {
+    final ServiceReference<EventQueueStatistics> sr
+      = bc.getServiceReference(EventQueueStatistics.class);
+    Assert.assertNotNull("No EventQueueStatistics service", sr);
+    return bc.getService(sr);
+  }
+
+  long getTopicCount(EventQueueStatistics stats) {
+    final Map<String, Long> counts = stats.getTopicCounts();
+    final Long cnt = counts.get(TOPIC);
+    return cnt != null ? cnt.longValue() : 0;
+  }
+
+  /**
+   * Restart the Event Admin bundle with the given configuration.
+   */
+  void restartEventAdmin(String[] values) throws Exception {
+    final Bundle eaBundle
+      = bc.getServiceReference(EventAdmin.class).getBundle();
+    setProperties(values);
+    eaBundle.stop();
+    eaBundle.start();
+  }
+
+  static void setProperties(String[] values) {
+    for (int i = 0; i < PROPS.length; i++) {
+      if (values[i] == null) {
+        System.getProperties().remove(PROPS[i]);
+      } else {
+        System.setProperty(PROPS[i], values[i]);
+      }
+    }
+  }
+
+  boolean configured(String[] values) {
+    for (int i = 0; i < PROPS.length; i++) {
+      // A framework property takes precedence over the system property.
+      if (!values[i].equals(bc.getProperty(PROPS[i]))) {
+        System.out.println("Scenario 17: " + PROPS[i] + " set by a"
+                           + " framework property, tests skipped.");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  void unregister() {
+    if (consumer != null) {
+      consumer.release();
+      consumer = null;
+    }
+    if (reg != null) {
+      reg.unregister();
+      reg = null;
+    }
+  }
+
+
+  class Setup extends TestCase {
+    public Setup() {
+      super("Scenario 17 Setup");
+    }
+
+    public void runTest() throws Throwable {
+      for (int i = 0; i < PROPS.length; i++) {
+        oldValues[i] = System.getProperty(PROPS[i]);
+      }
+    }
+  }
+
+  class DropOnOverflow extends TestCase {
+    public DropOnOverflow() {
+      super("Scenario 17 DropOnOverflow");
+    }
+
+    public void runTest() throws Throwable {
+      final String[] values = { "1", String.valueOf(QUEUE_SIZE), "drop" };
+      restartEventAdmin(values);
+      active = configured(values);
+      if (!active) {
+        return;
+      }
+      consumer = new Consumer();
+      final EventAdmin ea = getEventAdmin();
+      final EventQueueStatistics stats = getStatistics();
+      final long dropped = stats.getDropped();
+
+      ea.postEvent(createEvent(0));
+      consumer.waitFor(1);
+      assertEquals("first event delivered", 1, consumer.size());
+      for (int i = 1; i < N_EVENTS; i++) {
+        ea.postEvent(createEvent(i));
+      }
+      assertTrue("queue depth " + stats.getQueueDepth(),
+                 stats.getQueueDepth() <= QUEUE_SIZE);
+      assertEquals("max queue depth", QUEUE_SIZE, stats.getMaxQueueDepth());
+      final long nDropped = stats.getDropped() - dropped;
+      assertTrue("dropped events " + nDropped,
+                 nDropped >= N_EVENTS - QUEUE_SIZE);
+
+      consumer.release();
+      consumer.waitFor(N_EVENTS - (int) nDropped);
+      Thread.sleep(200);
+      assertEquals("delivered events", N_EVENTS - nDropped, consumer.size());
+      consumer.assertOrdered("drop");
+      assertEquals("topic count", consumer.size(), getTopicCount(stats));
+      assertEquals("queue depth when done", 0, stats.getQueueDepth());
+      unregister();
+    }
+  }
+
+  class BlockOnOverflow extends TestCase {
+    public BlockOnOverflow() {
+      super("Scenario 17 BlockOnOverflow");
+    }
+
+    public void runTest() throws Throwable {
+      final String[] values = { "1", String.valueOf(QUEUE_SIZE), "block" };
+      restartEventAdmin(values);
+      if (!active || !configured(values)) {
+        return;
+      }
+      consumer = new Consumer();
+      final EventAdmin ea = getEventAdmin();
+      final EventQueueStatistics stats = getStatistics();
+
+      final Throwable[] error = new Throwable[1];
+      final Thread poster = new Thread("Scenario 17 poster") {
+          public void run() {
+            try {
+              for (int i = 0; i < N_EVENTS; i++) {
+                ea.postEvent(createEvent(i));
+              }
+            } catch (Throwable t) {
+              error[0] = t;
+            }
+          }
+        };
+      poster.start();
+      consumer.waitFor(1);
+      poster.join(500);
+      assertTrue("poster blocked on full queue", poster.isAlive());
+      assertEquals("queue depth", QUEUE_SIZE, stats.getQueueDepth());
+
+      consumer.release();
+      poster.join(5000);
+      assertFalse("poster done", poster.isAlive());
+      assertNull("poster error", error[0]);
+      consumer.waitFor(N_EVENTS);
+      assertEquals("delivered events", N_EVENTS, consumer.size());
+      consumer.assertOrdered("block");
+      assertEquals("dropped events", 0, stats.getDropped());
+      assertEquals("max queue depth", QUEUE_SIZE, stats.getMaxQueueDepth());
+      unregister();
+    }
+  }
+
+  class Cleanup extends TestCase {
+    public Cleanup() {
+      super("Cleanup");
+    }
+
+    public void runTest() throws Throwable {
+      unregister();
+      // Restore the defaults before the properties, the Event Admin
+      // keeps the previous value when a property is unset.
+      final String[] values = new String[PROPS.length];
+      for (int i = 0; i < PROPS.length; i++) {
+        values[i] = oldValues[i] != null ? oldValues[i] : DEFAULTS[i];
+      }
+      restartEventAdmin(values);
+      setProperties(oldValues);
+    }
+  }
+}
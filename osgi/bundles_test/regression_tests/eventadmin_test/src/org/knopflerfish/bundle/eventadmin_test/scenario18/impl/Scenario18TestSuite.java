@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.knopflerfish.bundle.eventadmin_test.scenario18.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * Tests the matching of event topics against the topics and wildcard
+ * subscriptions of event handlers, also after the subscriptions have
+ * changed and when more topics than the matching cache holds are used.
+ */
+public class Scenario18TestSuite extends TestSuite {
+  private static final String MARKER = "scenario18";
+
+  private final BundleContext bc;
+  private final List<Consumer> consumers = new ArrayList<Consumer>();
+
+  public Scenario18TestSuite(BundleContext context) {
+    super("Scenario 18 - Topic matching");
+    bc = context;
+    addTest(new Setup());
+    addTest(new Match());
+    addTest(new Modified());
+    addTest(new ManyTopics());
+    addTest(new Cleanup());
+  }
+
+
+  /**
+   * Event handler that records the topics of the events from this
+   * test that it receives.
+   */
+  class Consumer implements EventHandler {
+    final String name;
+    final List<String> topics = new ArrayList<String>();
+    ServiceRegistration<?> reg;
+
+    Consumer(String name, String[] subscriptions) {
+      this.name = name;
+      reg = bc.registerService(EventHandler.class.getName(), this,
+                               createProps(subscriptions));
+      consumers.add(this);
+    }
+
+    public synchronized void handleEvent(Event event) {
+      if (event.getProperty(MARKER) != null) {
+        topics.add(event.getTopic());
+      }
+    }
+
+    synchronized int count(String topic) {
+      int res = 0;
+      for (final String t : topics) {
+        if (t.equals(topic)) {
+          res++;
+        }
+      }
+      return res;
+    }
+
+    synchronized void clear() {
+      topics.clear();
+    }
+  }
+
+
+  static Dictionary<String, Object> createProps(String[] subscriptions) {
+    final Dictionary<String, Object> props = new Hashtable<String, Object>();
+    props.put(EventConstants.EVENT_TOPIC, subscriptions);
+    return props;
+  }
+
+  EventAdmin getEventAdmin() {
+    final ServiceReference<EventAdmin> sr
+      = bc.getServiceReference(EventAdmin.class);
+    Assert.assertNotNull("No EventAdmin service", sr);
+    return bc.getService(sr);
+  }
+
+  void send(String topic) {
+    final Dictionary<String, Object> props = new Hashtable<String, Object>();
+    props.put(MARKER, Boolean.TRUE);
+    getEventAdmin().sendEvent(new Event(topic, props));
+  }
+
+  /**
+   * Send an event and check that exactly the named consumers got it.
+   */
+  void assertMatching(String topic, String[] expected) {
+    for (final Consumer c : consumers) {
+      c.clear();
+    }
+    send(topic);
+    final Set<String> exp = new HashSet<String>(Arrays.asList(expected));
+    for (final Consumer c : consumers) {
+      if (c.reg != null) {
+        Assert.assertEquals("Events on '" + topic + "' to " + c.name,
+                            exp.contains(c.name) ? 1 : 0, c.count(topic));
+      }
+    }
+  }
+
+  Consumer all;
+  Consumer acme;
+  Consumer foo;
+  Consumer fooExact;
+  Consumer fo;
+  Consumer multi;
+  Consumer acmex;
+
+  class Setup extends TestCase {
+    public Setup() {
+      super("Scenario 18 Setup");
+    }
+
+    public void runTest() throws Throwable {
+      all = new Consumer("all", new String[] { "*" });
+      acme = new Consumer("acme", new String[] { "com/acme/*" });
+      foo = new Consumer("foo", new String[] { "com/acme/foo/*" });
+      fooExact = new Consumer("fooExact", new String[] { "com/acme/foo" });
+      fo = new Consumer("fo", new String[] { "com/acme/fo*" });
+      multi = new Consumer("multi", new String[] {
+          "com/other/bar", "com/acme/foo/bar/*" });
+      acmex = new Consumer("acmex", new String[] { "com/acmex/*" });
+    }
+  }
+
+  class Match extends TestCase {
+    public Match() {
+      super("Scenario 18 Match");
+    }
+
+    public void runTest() throws Throwable {
+      // Twice, the second time the result comes from the cache.
+      for (int i = 0; i < 2; i++) {
+        assertMatching("com/acme/foo",
+                       new String[] { "all", "acme", "fooExact", "fo" });
+        assertMatching("com/acme/foo/bar",
+                       new String[] { "all", "acme", "foo", "fo" });
+        assertMatching("com/acme/foo/bar/baz",
+                       new String[] { "all", "acme", "foo", "fo", "multi" });
+        assertMatching("com/acme/fox",
+                       new String[] { "all", "acme", "fo" });
+        assertMatching("com/acme",
+                       new String[] { "all" });
+        assertMatching("com/acmex/y",
+                       new String[] { "all", "acmex" });
+        assertMatching("com/other/bar",
+                       new String[] { "all", "multi" });
+        assertMatching("org/none",
+                       new String[] { "all" });
+      }
+    }
+  }
+
+  class Modified extends TestCase {
+    public Modified() {
+      super("Scenario 18 Modified");
+    }
+
+    public void runTest() throws Throwable {
+      fooExact.reg.setProperties(createProps(new String[] { "com/other/*" }));
+      assertMatching("com/acme/foo",
+                     new String[] { "all", "acme", "fo" });
+      assertMatching("com/other/bar",
+                     new String[] { "all", "multi", "fooExact" });
+
+      acme.reg.unregister();
+      acme.reg = null;
+      assertMatching("com/acme/foo/bar",
+                     new String[] { "all", "foo", "fo" });
+
+      acme = new Consumer("acme2", new String[] { "com/*" });
+      assertMatching("com/acme/foo/bar",
+                     new String[] { "all", "acme2", "foo", "fo" });
+      assertMatching("org/none",
+                     new String[] { "all" });
+    }
+  }
+
+  class ManyTopics extends TestCase {
+    public ManyTopics() {
+      super("Scenario 18 ManyTopics");
+    }
+
+    public void runTest() throws Throwable {
+      // More topics than the Event Admin caches matching handlers for.
+      final int n = 3000;
+      for (int i = 0; i < n; i++) {
+        send("com/acme/foo/" + i);
+      }
+      for (int i = 0; i < n; i += 100) {
+        assertMatching("com/acme/foo/" + i,
+                       new String[] { "all", "acme2", "foo", "fo" });
+      }
+    }
+  }
+
+  class Cleanup extends TestCase {
+    public Cleanup() {
+      super("Cleanup");
+    }
+
+    public void runTest() throws Throwable {
+      for (final Consumer c : consumers) {
+        if (c.reg != null) {
+          try {
+            c.reg.unregister();
+          } catch (IllegalStateException ignore) {
+          }
+          c.reg = null;
+        }
+      }
+      consumers.clear();
+    }
+  }
+}
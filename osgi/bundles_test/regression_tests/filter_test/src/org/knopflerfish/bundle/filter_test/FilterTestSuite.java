@@ -55,6 +55,8 @@ public class FilterTestSuite extends TestSuite {
     addTest(new Setup());
     addTest(new Frame0140a());
     addTest(new Frame0150a());
+    addTest(new Frame0160a());
+    addTest(new Frame0170a());
     addTest(new Cleanup());
   }
  
@@ -429,4 +431,162 @@ public class FilterTestSuite extends TestSuite {
       }
     }
   }
+
+
+  public class Frame0160a extends FWTestCase {
+    public String getDescription() {
+      return "Test that repeated use of the same filter string gives"
+        +" consistent results";
+    }
+
+    public void runTest() throws Throwable {
+      ServiceRegistration tsr = null;
+
+      try {
+        Hashtable props = new Hashtable();
+        props.put("frame160a", "value");
+        tsr = bc.registerService("java.lang.Object", this, props);
+
+        final String fs = "(&(objectClass=java.lang.Object)(frame160a=value))";
+        for (int i = 0; i < 3; i++) {
+          Filter f = bc.createFilter(fs);
+          if (!f.match(tsr.getReference())) {
+            fail("Failed to match against service reference in FRAME160A");
+          }
+          ServiceReference [] srs = bc.getServiceReferences((String) null, fs);
+          if (srs == null || srs.length != 1) {
+            fail("Expected one service reference in FRAME160A, got "
+                 + (srs == null ? 0 : srs.length));
+          }
+          srs = bc.getServiceReferences("java.lang.Object", fs);
+          if (srs == null || srs.length != 1) {
+            fail("Expected one service reference in FRAME160A, got "
+                 + (srs == null ? 0 : srs.length));
+          }
+        }
+
+        // Filters that fails to parse must fail every time.
+        for (int i = 0; i < 3; i++) {
+          try {
+            bc.createFilter("(frame160a=value");
+            fail("BundleContext.createFilter() did not throw expected"
+                 +" exception in FRAME160A");
+          } catch (InvalidSyntaxException ise) {
+            // ok
+          }
+          try {
+            bc.getServiceReferences((String) null, "(frame160a=value");
+            fail("BundleContext.getServiceReferences() did not throw expected"
+                 +" exception in FRAME160A");
+          } catch (InvalidSyntaxException ise) {
+            // ok
+          }
+        }
+
+        tsr.unregister();
+        tsr = null;
+        if (bc.getServiceReferences((String) null, fs) != null) {
+          fail("Found unregistered service in FRAME160A");
+        }
+        out.println("### framework test bundle :FRAME160A:PASS");
+      } finally {
+        if (tsr != null) {
+          try {
+            tsr.unregister();
+          } catch (Exception ignored) { }
+        }
+      }
+    }
+  }
+
+  public class Frame0170a extends FWTestCase {
+    public String getDescription() {
+      return "Test service lookup with filters on service.pid, that the"
+        +" framework may answer using an index";
+    }
+
+    int count(String clazz, String filter) throws InvalidSyntaxException {
+      ServiceReference [] srs = bc.getServiceReferences(clazz, filter);
+      return srs == null ? 0 : srs.length;
+    }
+
+    public void runTest() throws Throwable {
+      ServiceRegistration [] tsr = new ServiceRegistration[4];
+
+      try {
+        Hashtable props = new Hashtable();
+        props.put(Constants.SERVICE_PID, "frame170a.a");
+        props.put("frame170a", "true");
+        tsr[0] = bc.registerService("java.lang.Object", this, props);
+
+        props = new Hashtable();
+        props.put(Constants.SERVICE_PID,
+                  new String [] { "frame170a.a", "frame170a.b" });
+        props.put("frame170a", "true");
+        tsr[1] = bc.registerService("java.lang.Object", this, props);
+
+        props = new Hashtable();
+        Vector pids = new Vector();
+        pids.addElement("frame170a.b");
+        props.put(Constants.SERVICE_PID, pids);
+        props.put("frame170a", "true");
+        tsr[2] = bc.registerService(new String [] { "java.lang.Object",
+                                                    "java.lang.Runnable" },
+                                    new Runnable() { public void run() {} },
+                                    props);
+
+        props = new Hashtable();
+        props.put(Constants.SERVICE_PID, new Integer(170));
+        props.put("frame170a", "true");
+        tsr[3] = bc.registerService("java.lang.Object", this, props);
+
+        assertEquals("(service.pid=frame170a.a)",
+                     2, count(null, "(service.pid=frame170a.a)"));
+        assertEquals("(service.pid=frame170a.b)",
+                     2, count("java.lang.Object", "(service.pid=frame170a.b)"));
+        assertEquals("Runnable (service.pid=frame170a.b)",
+                     1, count("java.lang.Runnable", "(service.pid=frame170a.b)"));
+        assertEquals("(SERVICE.PID=frame170a.b)",
+                     2, count(null, "(SERVICE.PID=frame170a.b)"));
+        assertEquals("(service.pid=170)",
+                     1, count(null, "(service.pid=170)"));
+        assertEquals("(service.pid=frame170a.*)",
+                     3, count(null, "(service.pid=frame170a.*)"));
+        assertEquals("(&(objectClass=java.lang.Runnable)(service.pid=frame170a.a))",
+                     0, count(null, "(&(objectClass=java.lang.Runnable)"
+                              +"(service.pid=frame170a.a))"));
+        assertEquals("(&(frame170a=true)(service.pid=frame170a.a))",
+                     2, count("java.lang.Object", "(&(frame170a=true)"
+                              +"(service.pid=frame170a.a))"));
+        assertEquals("(service.pid=frame170a.c)",
+                     0, count(null, "(service.pid=frame170a.c)"));
+
+        // Change the pid and check that lookups follow
+        props = new Hashtable();
+        props.put(Constants.SERVICE_PID, "frame170a.c");
+        tsr[0].setProperties(props);
+        assertEquals("(service.pid=frame170a.a) after modify",
+                     1, count(null, "(service.pid=frame170a.a)"));
+        assertEquals("(service.pid=frame170a.c) after modify",
+                     1, count("java.lang.Object", "(service.pid=frame170a.c)"));
+
+        tsr[1].unregister();
+        tsr[1] = null;
+        assertEquals("(service.pid=frame170a.a) after unregister",
+                     0, count(null, "(service.pid=frame170a.a)"));
+        assertEquals("(service.pid=frame170a.b) after unregister",
+                     1, count(null, "(service.pid=frame170a.b)"));
+
+        out.println("### framework test bundle :FRAME170A:PASS");
+      } finally {
+        for (int i = 0; i < tsr.length; i++) {
+          if (tsr[i] != null) {
+            try {
+              tsr[i].unregister();
+            } catch (Exception ignored) { }
+          }
+        }
+      }
+    }
+  }
 }
@@ -33,7 +33,14 @@
 
 package org.knopflerfish.bundle.framework_test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -42,6 +49,7 @@ import org.knopflerfish.service.framework_test.FrameworkTest;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.wiring.FrameworkWiring;
@@ -61,6 +69,8 @@ public class CapabilityTestSuite extends TestSuite implements FrameworkTest
 
   PrintStream out = System.out;
 
+  String resolveSizes = System.getProperty("org.knopflerfish.bundle.framework_test.resolve.sizes", "200");
+
 
   public CapabilityTestSuite (BundleContext bc) {
     super("CapabilityTestSuite");
@@ -72,6 +82,7 @@ public class CapabilityTestSuite extends TestSuite implements FrameworkTest
     addTest(new Setup());
     addTest(new Frame610a());
     addTest(new Cleanup());
+    addTest(new Frame620a());
   }
 
 
@@ -217,4 +228,122 @@ public class CapabilityTestSuite extends TestSuite implements FrameworkTest
     }
   }
 
+
+  public final static String [] HELP_FRAME620A =  {
+    "Resolve synthetic bundle graphs where each bundle imports a package",
+    "and requires a capability from its parent bundle. Check that all",
+    "bundles resolve except one that requires a missing capability and",
+    "print the time it takes to resolve, refresh and resolve again.",
+    "Graph sizes are set by org.knopflerfish.bundle.framework_test.resolve.sizes"
+  };
+
+  class Frame620a extends FWTestCase {
+
+    public void runTest() throws Throwable {
+      fw = bc.getBundle(0).adapt(FrameworkWiring.class);
+      for (final String size : resolveSizes.split(",")) {
+        final int n = Integer.parseInt(size.trim());
+        final List<Bundle> bundles = new ArrayList<Bundle>(n + 1);
+        try {
+          long t0 = System.nanoTime();
+          for (int i = 0; i < n; i++) {
+            bundles.add(installGraphBundle(n, i, false));
+          }
+          final Bundle buMissing = installGraphBundle(n, n, true);
+          bundles.add(buMissing);
+          final long tInstall = (System.nanoTime() - t0) / 1000000;
+
+          t0 = System.nanoTime();
+          assertFalse("Not all bundles resolved", fw.resolveBundles(bundles));
+          final long tResolve = (System.nanoTime() - t0) / 1000000;
+          for (final Bundle b : bundles) {
+            if (b == buMissing) {
+              assertEquals("Missing capability", Bundle.INSTALLED, b.getState());
+            } else {
+              assertEquals("Resolved " + b, Bundle.RESOLVED, b.getState());
+            }
+          }
+          for (int i = 0; i < 3; i++) {
+            assertFalse("Still missing capability", fw.resolveBundles(bundles.subList(n, n + 1)));
+          }
+
+          t0 = System.nanoTime();
+          refresh(bundles);
+          final long tRefresh = (System.nanoTime() - t0) / 1000000;
+          t0 = System.nanoTime();
+          fw.resolveBundles(bundles);
+          final long tResolve2 = (System.nanoTime() - t0) / 1000000;
+          assertEquals("Resolved after refresh", Bundle.RESOLVED, bundles.get(n - 1).getState());
+
+          out.println("resolve_perf: " + n + " bundles, install " + tInstall
+                      + " ms, resolve " + tResolve + " ms, refresh " + tRefresh
+                      + " ms, resolve again " + tResolve2 + " ms");
+        } finally {
+          for (final Bundle b : bundles) {
+            try {
+              b.uninstall();
+            } catch (Exception ignored) { }
+          }
+          refresh(null);
+        }
+      }
+      fw = null;
+      out.println("### framework test bundle :FRAME620A:PASS");
+    }
+
+
+    /**
+     * Install bundle number i in a graph. Each bundle exports a
+     * package and provides a capability that its children import
+     * and require.
+     */
+    Bundle installGraphBundle(int n, int i, boolean missing) throws Exception {
+      final String id = n + "." + i;
+      final Manifest mf = new Manifest();
+      final Attributes ma = mf.getMainAttributes();
+      ma.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      ma.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+      ma.putValue(Constants.BUNDLE_SYMBOLICNAME, "framework_test.resolve." + id);
+      ma.putValue(Constants.EXPORT_PACKAGE, "framework_test.resolve.p" + id + ";version=1.0");
+      ma.putValue(Constants.PROVIDE_CAPABILITY,
+                  "framework_test.resolve;framework_test.resolve=n" + id);
+      if (missing) {
+        ma.putValue(Constants.REQUIRE_CAPABILITY,
+                    "framework_test.resolve;filter:=\"(framework_test.resolve=none)\"");
+      } else if (i > 0) {
+        final String parent = n + "." + ((i - 1) / 2);
+        ma.putValue(Constants.IMPORT_PACKAGE,
+                    "framework_test.resolve.p" + parent + ";version=\"[1.0,2.0)\"");
+        ma.putValue(Constants.REQUIRE_CAPABILITY,
+                    "framework_test.resolve;filter:=\"(framework_test.resolve=n" + parent + ")\"");
+      }
+      final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      new JarOutputStream(bout, mf).close();
+      return bc.installBundle("internal:resolve." + id,
+                              new ByteArrayInputStream(bout.toByteArray()));
+    }
+
+
+    void refresh(List<Bundle> bundles) throws InterruptedException {
+      final boolean[] done = new boolean[1];
+      final FrameworkListener fl = new FrameworkListener() {
+        @Override
+        public void frameworkEvent(FrameworkEvent event) {
+          synchronized (done) {
+            done[0] = true;
+            done.notifyAll();
+          }
+        }
+      };
+      synchronized (done) {
+        fw.refreshBundles(bundles, fl);
+        final long end = System.currentTimeMillis() + 60000;
+        while (!done[0] && System.currentTimeMillis() < end) {
+          done.wait(1000);
+        }
+      }
+      assertTrue("Refresh done", done[0]);
+    }
+  }
+
 }
@@ -0,0 +1,386 @@
+/* Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.framework_test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestSuite;
+
+import org.knopflerfish.service.framework_test.FrameworkTest;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.hooks.weaving.WeavingHook;
+import org.osgi.framework.hooks.weaving.WovenClass;
+
+/**
+ * Tests loading classes from one bundle using many threads.
+ * The target bundle is created on the fly from the classes of this
+ * bundle, that way it contains a large number of classes that has
+ * not yet been loaded.
+ */
+public class ClassLoadingTestSuite extends TestSuite implements FrameworkTest
+{
+  final static String PKG = "org/knopflerfish/bundle/framework_test";
+
+  BundleContext bc;
+
+  // Test target bundle
+  Bundle buCL;
+
+  PrintStream out = System.out;
+
+  int nThreads = Integer.getInteger("org.knopflerfish.bundle.framework_test.classload.threads", 8).intValue();
+
+
+  public ClassLoadingTestSuite (BundleContext bc) {
+    super("ClassLoadingTestSuite");
+    this.bc = bc;
+
+    addTest(new Setup());
+    addTest(new Frame800a());
+    addTest(new Frame810a());
+    addTest(new Frame820a());
+    addTest(new Cleanup());
+  }
+
+  class Setup extends FWTestCase {
+    public void runTest() throws Throwable {
+    }
+  }
+
+  class Cleanup extends FWTestCase {
+    public void runTest() throws Throwable {
+      if (buCL != null) {
+        try {
+          buCL.uninstall();
+        } catch (Exception ignored) { }
+      }
+      buCL = null;
+    }
+  }
+
+
+  public final static String [] HELP_FRAME800A =  {
+    "Load all classes of a lazy bundle from several threads at once.",
+    "Check that each class is woven once, that all threads get the",
+    "same class object and that the bundle is activated once."
+  };
+
+  class Frame800a extends FWTestCase {
+
+    public void runTest() throws Throwable {
+      final List<String> names = getClassNames();
+      buCL = installCopy("800a", true);
+
+      final Map<String, Integer> woven = new HashMap<String, Integer>();
+      final WeavingHook hook = new WeavingHook() {
+          public void weave(WovenClass wc) {
+            if (wc.getBundleWiring().getBundle() == buCL) {
+              synchronized (woven) {
+                final Integer n = woven.get(wc.getClassName());
+                woven.put(wc.getClassName(), n == null ? 1 : n + 1);
+              }
+            }
+          }
+        };
+      final int[] started = new int[1];
+      final SynchronousBundleListener bl = new SynchronousBundleListener() {
+          public void bundleChanged(BundleEvent evt) {
+            if (evt.getBundle() == buCL && evt.getType() == BundleEvent.STARTED) {
+              synchronized (started) {
+                started[0]++;
+              }
+            }
+          }
+        };
+      final ServiceRegistration<WeavingHook> reg
+        = bc.registerService(WeavingHook.class, hook, null);
+      bc.addBundleListener(bl);
+      try {
+        buCL.start(Bundle.START_ACTIVATION_POLICY);
+        assertEquals("Lazy bundle waiting for activation",
+                     Bundle.STARTING, buCL.getState());
+
+        final Class<?>[][] res = loadClasses(buCL, names, nThreads);
+        for (int i = 0; i < names.size(); i++) {
+          for (int t = 1; t < nThreads; t++) {
+            assertSame("Same class in all threads, " + names.get(i),
+                       res[0][i], res[t][i]);
+          }
+          assertEquals("Woven once, " + names.get(i),
+                       Integer.valueOf(1), woven.get(names.get(i)));
+        }
+        assertEquals("Bundle activated", Bundle.ACTIVE, buCL.getState());
+        assertEquals("Number of STARTED events", 1, started[0]);
+      } finally {
+        bc.removeBundleListener(bl);
+        reg.unregister();
+        buCL.uninstall();
+        buCL = null;
+      }
+      out.println("### framework test bundle :FRAME800A:PASS");
+    }
+  }
+
+
+  public final static String [] HELP_FRAME810A =  {
+    "Measure the time it takes to load all classes of a bundle",
+    "using 1, 2, 4, ... threads."
+  };
+
+  class Frame810a extends FWTestCase {
+
+    public void runTest() throws Throwable {
+      final List<String> names = getClassNames();
+      for (int n = 1; n <= nThreads; n *= 2) {
+        buCL = installCopy("810a." + n, false);
+        try {
+          final long t0 = System.nanoTime();
+          loadClasses(buCL, names, n);
+          final long t = (System.nanoTime() - t0) / 1000;
+          out.println("classload_perf: loaded " + names.size() + " classes from "
+                      + n + " threads in " + t + " us");
+        } finally {
+          buCL.uninstall();
+          buCL = null;
+        }
+      }
+      out.println("### framework test bundle :FRAME810A:PASS");
+    }
+  }
+
+
+  public final static String [] HELP_FRAME820A =  {
+    "Check that repeated lookups of missing classes and resources fail",
+    "and that a package that is dynamically imported is found once",
+    "an exporter has been installed."
+  };
+
+  class Frame820a extends FWTestCase {
+
+    public void runTest() throws Throwable {
+      final String cls = "org.knopflerfish.bundle.framework_test.Util";
+      final Map<String, String> dHeaders = new HashMap<String, String>();
+      dHeaders.put(Constants.DYNAMICIMPORT_PACKAGE,
+                   "org.knopflerfish.bundle.framework_test");
+      final Bundle buD = installCopy("820a.D", dHeaders, false);
+      Bundle buE = null;
+      try {
+        for (int i = 0; i < 3; i++) {
+          assertNull("Missing resource, " + i,
+                     buD.getResource("org/knopflerfish/no_such/res.txt"));
+          try {
+            buD.loadClass("org.knopflerfish.no_such.Cls");
+            fail("Missing class loaded, " + i);
+          } catch (ClassNotFoundException expected) { }
+          try {
+            buD.loadClass(cls);
+            fail("Class loaded without exporter, " + i);
+          } catch (ClassNotFoundException expected) { }
+        }
+
+        final Map<String, String> eHeaders = new HashMap<String, String>();
+        eHeaders.put(Constants.IMPORT_PACKAGE,
+                     bc.getBundle().getHeaders("").get(Constants.IMPORT_PACKAGE));
+        eHeaders.put(Constants.EXPORT_PACKAGE, "org.knopflerfish.bundle.framework_test");
+        buE = installCopy("820a.E", eHeaders, true);
+        final Class<?> c = buD.loadClass(cls);
+        assertSame("Class from exporter", buE, FrameworkUtil.getBundle(c));
+        assertNotNull("Resource from exporter",
+                      buD.getResource(PKG + "/Util.class"));
+      } finally {
+        buD.uninstall();
+        if (buE != null) {
+          buE.uninstall();
+        }
+      }
+      out.println("### framework test bundle :FRAME820A:PASS");
+    }
+  }
+
+
+  /**
+   * Get the names of all classes in the implementation package of
+   * this bundle.
+   */
+  List<String> getClassNames() {
+    final List<String> res = new ArrayList<String>();
+    final Enumeration<URL> e = bc.getBundle().findEntries(PKG, "*.class", false);
+    while (e.hasMoreElements()) {
+      final String path = e.nextElement().getPath();
+      final String name = path.substring(path.indexOf(PKG), path.length() - 6);
+      res.add(name.replace('/', '.'));
+    }
+    Collections.sort(res);
+    return res;
+  }
+
+
+  /**
+   * Install a bundle containing the classes of the implementation
+   * package of this bundle but without an activator.
+   */
+  Bundle installCopy(String id, boolean lazy) throws Exception {
+    final Map<String, String> headers = new HashMap<String, String>();
+    headers.put(Constants.IMPORT_PACKAGE,
+                bc.getBundle().getHeaders("").get(Constants.IMPORT_PACKAGE));
+    if (lazy) {
+      headers.put(Constants.BUNDLE_ACTIVATIONPOLICY, Constants.ACTIVATION_LAZY);
+    }
+    return installCopy(id, headers, true);
+  }
+
+
+  /**
+   * Install a generated bundle.
+   *
+   * @param id Used to create a unique symbolic name and location.
+   * @param headers Manifest headers of the bundle.
+   * @param classes If true, add the classes of the implementation
+   *                package of this bundle.
+   */
+  Bundle installCopy(String id, Map<String, String> headers, boolean classes)
+    throws Exception
+  {
+    final Manifest mf = new Manifest();
+    final Attributes ma = mf.getMainAttributes();
+    ma.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    ma.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+    ma.putValue(Constants.BUNDLE_SYMBOLICNAME, "framework_test.classload." + id);
+    for (Map.Entry<String, String> h : headers.entrySet()) {
+      ma.putValue(h.getKey(), h.getValue());
+    }
+
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final JarOutputStream jout = new JarOutputStream(bout, mf);
+    final byte[] buf = new byte[8192];
+    final Enumeration<URL> e = classes
+      ? bc.getBundle().findEntries(PKG, "*.class", false) : null;
+    while (e != null && e.hasMoreElements()) {
+      final URL url = e.nextElement();
+      final String path = url.getPath();
+      jout.putNextEntry(new JarEntry(path.substring(path.indexOf(PKG))));
+      final InputStream in = url.openStream();
+      try {
+        int n;
+        while ((n = in.read(buf)) > 0) {
+          jout.write(buf, 0, n);
+        }
+      } finally {
+        in.close();
+      }
+      jout.closeEntry();
+    }
+    jout.close();
+    return bc.installBundle("internal:classload." + id,
+                            new ByteArrayInputStream(bout.toByteArray()));
+  }
+
+
+  /**
+   * Load the named classes from a bundle using several threads
+   * that all start at the same time. Each thread loads the classes
+   * in a different order.
+   *
+   * @return The classes loaded by each thread, indexed as
+   *         <code>names</code>.
+   */
+  Class<?>[][] loadClasses(final Bundle b, final List<String> names, int n)
+    throws Throwable
+  {
+    final Class<?>[][] res = new Class<?>[n][names.size()];
+    final Throwable[] error = new Throwable[1];
+    final Object gate = new Object();
+    final boolean[] open = new boolean[1];
+    final Thread[] threads = new Thread[n];
+    for (int t = 0; t < n; t++) {
+      final int ti = t;
+      threads[t] = new Thread("classload#" + t) {
+          public void run() {
+            synchronized (gate) {
+              while (!open[0]) {
+                try {
+                  gate.wait();
+                } catch (InterruptedException ignored) { }
+              }
+            }
+            final int size = names.size();
+            final int offset = ti * size / res.length;
+            try {
+              for (int i = 0; i < size; i++) {
+                final int ix = (offset + i) % size;
+                res[ti][ix] = b.loadClass(names.get(ix));
+              }
+            } catch (Throwable te) {
+              synchronized (error) {
+                error[0] = te;
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+    synchronized (gate) {
+      open[0] = true;
+      gate.notifyAll();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    if (error[0] != null) {
+      throw error[0];
+    }
+    return res;
+  }
+
+}
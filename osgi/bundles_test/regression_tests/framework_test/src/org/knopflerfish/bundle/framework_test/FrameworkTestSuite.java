@@ -66,6 +66,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Configurable;
 import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
@@ -199,6 +200,9 @@ public class FrameworkTestSuite extends TestSuite implements FrameworkTest {
     // Bundle timer test
     addTest(new Frame290a());
 
+    // Async event delivery statistics
+    addTest(new Frame295a());
+
     addTest(new Cleanup());
   }
 
@@ -1439,7 +1443,7 @@ public class FrameworkTestSuite extends TestSuite implements FrameworkTest {
       // or directories are added or removed to/from the sub-dir
       // "org/knopflerfish/bundle/framework_test" of the jar-file.
       assertEquals("GetEntryPaths did not retrieve the correct number of "
-                   +"elements.", 152, i);
+                   +"elements.", 165, i);
 
       //existing file, non-directory, ending with slash
       enume = bc.getBundle().getEntryPaths("/bundleA_test-1.0.0.jar/");
@@ -4967,6 +4971,89 @@ public class FrameworkTestSuite extends TestSuite implements FrameworkTest {
   }
 
 
+  public final static String [] HELP_FRAME295A =  {
+    "Check that the special framework property with statistics for",
+    "the asynchronous event delivery threads counts the bundle",
+    "events delivered to a bundle listener."
+  };
+
+  class Frame295a extends FWTestCase {
+    final String STATISTICS_KEY
+      = "org.knopflerfish.framework.listener.statistics";
+
+    /**
+     * Sum of the delivered counts of all delivery threads.
+     */
+    long getDelivered() {
+      final String stats = bc.getProperty(STATISTICS_KEY);
+      assertNotNull("Statistics property must be set", stats);
+      long res = 0;
+      int start = 0;
+      int ix;
+      while ((ix = stats.indexOf("delivered=", start)) > -1) {
+        ix += "delivered=".length();
+        int end = ix;
+        while (end < stats.length() && Character.isDigit(stats.charAt(end))) {
+          end++;
+        }
+        res += Long.parseLong(stats.substring(ix, end));
+        start = end;
+      }
+      return res;
+    }
+
+    public void runTest() throws Throwable {
+      out.println("### framework test bundle :FRAME295A start");
+
+      final String nThreads
+        = bc.getProperty("org.knopflerfish.framework.listener.n_threads");
+      if ("0".equals(nThreads)) {
+        out.println("No async event delivery threads, nothing to check.");
+        out.println("### framework test bundle :FRAME295A:PASS");
+        return;
+      }
+      final String stats = bc.getProperty(STATISTICS_KEY);
+      out.println("Statistics before:\n" + stats);
+      assertTrue("One line per delivery thread",
+                 stats.startsWith("AsyncEventThread#0: depth="));
+
+      final int[] received = new int[1];
+      final BundleListener bl = new BundleListener() {
+          public void bundleChanged(BundleEvent be) {
+            synchronized (received) {
+              received[0]++;
+              received.notifyAll();
+            }
+          }
+        };
+      final long before = getDelivered();
+      bc.addBundleListener(bl);
+      try {
+        final Bundle b = Util.installBundle(bc, "bundleA_test-1.0.0.jar");
+        b.uninstall();
+        synchronized (received) {
+          final long end = System.currentTimeMillis() + 5000;
+          while (received[0] < 2 && System.currentTimeMillis() < end) {
+            received.wait(100);
+          }
+        }
+      } finally {
+        bc.removeBundleListener(bl);
+      }
+      assertTrue("Bundle events delivered", received[0] >= 2);
+      // The delivered count is updated after the listener call.
+      Thread.sleep(eventDelay);
+      final long after = getDelivered();
+      out.println("Statistics after:\n" + bc.getProperty(STATISTICS_KEY));
+      assertTrue("Delivered count must increase by at least "
+                 + received[0] + ", was " + before + " now " + after,
+                 after - before >= received[0]);
+
+      out.println("### framework test bundle :FRAME295A:PASS");
+    }
+  }
+
+
   // General status check functions
   // prevent control characters to be printed
   private String xlateData(byte [] b1) {
@@ -39,6 +39,7 @@ import org.knopflerfish.service.http_test.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 import org.osgi.framework.*;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
@@ -101,9 +102,12 @@ public class HttpTestSuite extends TestSuite  {
       addTest(new Http060a());
       addTest(new Http065a());
       addTest(new Http085a());
+      addTest(new Http090a());
+      addTest(new Http095a());
       addTest(new HttpThreadsTest(bc));
       addTest(new Cleanup());
       addTest(new Http100a());
+      addTest(new Http105a());
     }
     catch (Throwable t) {
       t.printStackTrace();
@@ -154,6 +158,52 @@ public class HttpTestSuite extends TestSuite  {
     }
   }
 
+  HttpURLConnection openConnection(String alias,
+                                   String method,
+                                   String[] headers)
+    throws IOException
+  {
+    final HttpURLConnection conn = (HttpURLConnection) getUrl(alias)
+      .openConnection();
+    conn.setRequestMethod(method);
+    conn.setUseCaches(false);
+    for (int i = 0; i < headers.length; i += 2) {
+      conn.setRequestProperty(headers[i], headers[i + 1]);
+    }
+    return conn;
+  }
+
+  static byte[] readAll(InputStream is)
+    throws IOException
+  {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try {
+      final byte[] buf = new byte[1024];
+      int n;
+      while (-1 != (n = is.read(buf))) {
+        bos.write(buf, 0, n);
+      }
+    } finally {
+      is.close();
+    }
+    return bos.toByteArray();
+  }
+
+  static byte[] getBody(HttpURLConnection conn)
+    throws IOException
+  {
+    final InputStream is = conn.getResponseCode() < 400
+      ? conn.getInputStream() : conn.getErrorStream();
+    return is == null ? new byte[0] : readAll(is);
+  }
+
+  static byte[] subArray(byte[] a, int from, int to)
+  {
+    final byte[] res = new byte[to - from];
+    System.arraycopy(a, from, res, 0, res.length);
+    return res;
+  }
+
   class FWTestCase extends TestCase {
     public String getName() {
       String name = getClass().getName();
@@ -807,6 +857,153 @@ public class HttpTestSuite extends TestSuite  {
 
 
 
+  public final static String USAGE_HTTP090A = "";
+  public final static String [] HELP_HTTP090A = {
+    "Register a resource and check the ETag, conditional GET,",
+    "byte range and HEAD responses for it."
+  };
+
+  class Http090a extends FWTestCase {
+    public void runTest() throws Throwable {
+      out.println("HttpTestSuite:HTTP090A starting");
+      assertNotNull("Setup: no http service object available", httpService);
+      String alias = "/range.html";
+      String resourceName = "/http_test/index.html";
+
+      HttpTestContext hc = new HttpTestContext("090A");
+      httpService.registerResources(alias, resourceName, hc);
+      try {
+        HttpURLConnection conn = openConnection(alias, "GET", new String[0]);
+        assertEquals("GET status", 200, conn.getResponseCode());
+        final byte[] full = getBody(conn);
+        final int len = full.length;
+        final String etag = conn.getHeaderField("ETag");
+        assertNotNull("ETag header", etag);
+        assertEquals("Accept-Ranges header",
+                     "bytes", conn.getHeaderField("Accept-Ranges"));
+        assertEquals("Content-Length", len, conn.getContentLength());
+
+        conn = openConnection(alias, "GET",
+                              new String[] { "If-None-Match", etag });
+        assertEquals("If-None-Match status", 304, conn.getResponseCode());
+        assertEquals("ETag of not modified", etag,
+                     conn.getHeaderField("ETag"));
+
+        conn = openConnection(alias, "GET",
+                              new String[] { "Range", "bytes=1-4" });
+        assertEquals("Range status", 206, conn.getResponseCode());
+        assertEquals("Content-Range", "bytes 1-4/" + len,
+                     conn.getHeaderField("Content-Range"));
+        assertTrue("Range body",
+                   Arrays.equals(subArray(full, 1, 5), getBody(conn)));
+
+        conn = openConnection(alias, "GET",
+                              new String[] { "Range", "bytes=-3" });
+        assertEquals("Suffix range status", 206, conn.getResponseCode());
+        assertTrue("Suffix range body",
+                   Arrays.equals(subArray(full, len - 3, len),
+                                 getBody(conn)));
+
+        conn = openConnection(alias, "GET",
+                              new String[] { "Range", "bytes=1-4",
+                                             "If-Range", "\"other\"" });
+        assertEquals("If-Range mismatch status", 200, conn.getResponseCode());
+        assertTrue("If-Range mismatch body",
+                   Arrays.equals(full, getBody(conn)));
+
+        conn = openConnection(alias, "GET",
+                              new String[] { "Range", "bytes=" + len + "-" });
+        assertEquals("Unsatisfiable range status", 416,
+                     conn.getResponseCode());
+        assertEquals("Unsatisfiable Content-Range", "bytes */" + len,
+                     conn.getHeaderField("Content-Range"));
+        getBody(conn);
+
+        conn = openConnection(alias, "HEAD", new String[0]);
+        assertEquals("HEAD status", 200, conn.getResponseCode());
+        assertEquals("HEAD ETag", etag, conn.getHeaderField("ETag"));
+        assertEquals("HEAD Content-Length", len, conn.getContentLength());
+        getBody(conn);
+      } finally {
+        httpService.unregister(alias);
+      }
+    }
+  }
+
+  public final static String USAGE_HTTP095A = "";
+  public final static String [] HELP_HTTP095A = {
+    "Register a text resource and check that it is served gzip",
+    "compressed, the same from the cache, and that HEAD and conditional",
+    "requests use the ETag of the compressed body."
+  };
+
+  class Http095a extends FWTestCase {
+    public void runTest() throws Throwable {
+      out.println("HttpTestSuite:HTTP095A starting");
+      assertNotNull("Setup: no http service object available", httpService);
+      String alias = "/gzip.html";
+      String resourceName = "/http_test/index.html";
+      final String[] gzip = new String[] { "Accept-Encoding", "gzip" };
+
+      HttpTestContext hc = new HttpTestContext("095A");
+      httpService.registerResources(alias, resourceName, hc);
+      try {
+        HttpURLConnection conn = openConnection(alias, "GET", new String[0]);
+        final byte[] plain = getBody(conn);
+        final String etag = conn.getHeaderField("ETag");
+        assertNull("No Content-Encoding",
+                   conn.getHeaderField("Content-Encoding"));
+
+        byte[] first = null;
+        String gzipETag = null;
+        // The second response is served from the cache.
+        for (int i = 0; i < 2; i++) {
+          conn = openConnection(alias, "GET", gzip);
+          assertEquals("GET status", 200, conn.getResponseCode());
+          assertEquals("Content-Encoding", "gzip",
+                       conn.getHeaderField("Content-Encoding")
+                       .toLowerCase());
+          final String vary = conn.getHeaderField("Vary");
+          assertTrue("Vary header: " + vary,
+                     vary != null && vary.indexOf("Accept-Encoding") >= 0);
+          final byte[] body = getBody(conn);
+          assertEquals("Content-Length", body.length,
+                       conn.getContentLength());
+          assertTrue("Decompressed body",
+                     Arrays.equals(plain,
+                                   readAll(new GZIPInputStream(
+                                     new ByteArrayInputStream(body)))));
+          if (first == null) {
+            first = body;
+            gzipETag = conn.getHeaderField("ETag");
+            assertNotNull("ETag header", gzipETag);
+            assertFalse("Compressed ETag differs", gzipETag.equals(etag));
+          } else {
+            assertTrue("Cached body", Arrays.equals(first, body));
+            assertEquals("Cached ETag", gzipETag, conn.getHeaderField("ETag"));
+          }
+        }
+
+        conn = openConnection(alias, "HEAD", gzip);
+        assertEquals("HEAD status", 200, conn.getResponseCode());
+        assertEquals("HEAD ETag", gzipETag, conn.getHeaderField("ETag"));
+        assertEquals("HEAD Content-Length", first.length,
+                     conn.getContentLength());
+        getBody(conn);
+
+        conn = openConnection(alias, "GET",
+                              new String[] { "Accept-Encoding", "gzip",
+                                             "If-None-Match", gzipETag });
+        assertEquals("If-None-Match status", 304, conn.getResponseCode());
+        assertEquals("ETag of not modified", gzipETag,
+                     conn.getHeaderField("ETag"));
+      } finally {
+        httpService.unregister(alias);
+      }
+    }
+  }
+
+
   class Cleanup extends FWTestCase {
     public void runTest() throws Throwable {
       out.println("HttpTestSuite:CLEANUP starting");
@@ -898,5 +1095,122 @@ public class HttpTestSuite extends TestSuite  {
     }
   }
 
+  // This test case restarts the HttpService in the NIO connection mode
+  // with few worker threads and restores the default mode afterwards.
+  public final static String USAGE_HTTP105A = "";
+  public final static String [] HELP_HTTP105A = {
+    "Check that idle keep-alive connections in the NIO connection mode",
+    "do not hold worker threads and are served again when the next",
+    "request arrives."
+  };
+
+  class Http105a extends FWTestCase {
+    final static String MODE_KEY = "org.knopflerfish.http.connection.mode";
+    final static String THREADS_KEY = "org.knopflerfish.http.threads.max";
+
+    public void runTest() throws Throwable {
+      out.println("HttpTestSuite:HTTP105A starting");
+      if (bc.getProperty(MODE_KEY) != null
+          || bc.getProperty(THREADS_KEY) != null) {
+        out.println("Connection mode set by framework properties, skipping");
+        return;
+      }
+      final Bundle httpBundle =
+        bc.getServiceReference(HttpServiceClass).getBundle();
+      final List<Socket> sockets = new ArrayList<Socket>();
+      String alias = "/nio.html";
+      try {
+        System.setProperty(MODE_KEY, "nio");
+        System.setProperty(THREADS_KEY, "2");
+        httpBundle.stop();
+        httpBundle.start();
+        Setup setup = new Setup();
+        setup.runTest();
+
+        HttpTestContext hc = new HttpTestContext("105A");
+        httpService.registerResources(alias, "/http_test/index.html", hc);
+
+        // More idle keep-alive connections than worker threads.
+        for (int i = 0; i < 4; i++) {
+          final Socket s = new Socket(hostname, Integer.parseInt(port));
+          s.setSoTimeout(10000);
+          sockets.add(s);
+          assertEquals("Response " + i, 200, get(s, alias));
+        }
+        // A new connection is served while the others are idle.
+        final Socket s = new Socket(hostname, Integer.parseInt(port));
+        s.setSoTimeout(10000);
+        sockets.add(s);
+        assertEquals("Response on new connection", 200, get(s, alias));
+
+        // The parked connections are handed back to a worker.
+        for (int i = 0; i < sockets.size(); i++) {
+          assertEquals("Second response " + i, 200,
+                       get(sockets.get(i), alias));
+        }
+      } finally {
+        for (Socket s : sockets) {
+          try {
+            s.close();
+          } catch (IOException ignored) {
+          }
+        }
+        System.clearProperty(MODE_KEY);
+        System.clearProperty(THREADS_KEY);
+        httpBundle.stop();
+        httpBundle.start();
+      }
+    }
+
+    /**
+     * Send a keep-alive GET request and read the response.
+     *
+     * @return the status code of the response.
+     */
+    int get(Socket s, String alias)
+      throws IOException
+    {
+      final OutputStream os = s.getOutputStream();
+      os.write(("GET " + alias + " HTTP/1.1\r\nHost: " + hostname
+                + "\r\n\r\n").getBytes("ISO-8859-1"));
+      os.flush();
+
+      final InputStream is = s.getInputStream();
+      final String status = readLine(is);
+      int len = -1;
+      String line;
+      while ((line = readLine(is)).length() > 0) {
+        final int ix = line.indexOf(':');
+        if (ix > 0 && "content-length".equalsIgnoreCase(line.substring(0, ix)
+                                                             .trim())) {
+          len = Integer.parseInt(line.substring(ix + 1).trim());
+        }
+      }
+      assertTrue("Content-Length in response", len >= 0);
+      for (int i = 0; i < len; i++) {
+        if (is.read() == -1) {
+          fail("Connection closed in response body");
+        }
+      }
+      return Integer.parseInt(status.split(" ")[1]);
+    }
+
+    String readLine(InputStream is)
+      throws IOException
+    {
+      final StringBuffer sb = new StringBuffer();
+      int c;
+      while ((c = is.read()) != '\n') {
+        if (c == -1) {
+          fail("Connection closed in response header");
+        }
+        if (c != '\r') {
+          sb.append((char) c);
+        }
+      }
+      return sb.toString();
+    }
+  }
+
 
 }
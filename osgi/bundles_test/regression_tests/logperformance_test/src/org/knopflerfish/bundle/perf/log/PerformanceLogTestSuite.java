@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.bundle.perf.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogReaderService;
+
+import org.knopflerfish.service.log.BinaryLogReader;
+import org.knopflerfish.service.log.FilteringLogListener;
+import org.knopflerfish.service.log.LogConfig;
+import org.knopflerfish.service.log.LogService;
+
+/**
+ * Measures the cost of log calls with a level that is filtered out
+ * by the log and with a level that is accepted, using 1 to
+ * <code>maxThreads</code> concurrent threads.
+ */
+public class PerformanceLogTestSuite extends TestSuite {
+  BundleContext bc;
+
+  int nCalls     = 100000;
+  int nEnabled   = 2000;
+  int maxThreads = 8;
+
+  ServiceReference<LogService> logSR;
+  LogService log;
+  ServiceReference<LogConfig> configSR;
+  LogConfig config;
+  boolean oldOut;
+
+  public PerformanceLogTestSuite(BundleContext bc) {
+    super("PerformanceLogTestSuite");
+    this.bc = bc;
+
+    try {
+      nCalls = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.log.ncalls", "" + nCalls));
+    } catch (Exception ignored) {
+    }
+
+    try {
+      nEnabled = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.log.nenabled", "" + nEnabled));
+    } catch (Exception ignored) {
+    }
+
+    try {
+      maxThreads = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.log.maxthreads", "" + maxThreads));
+    } catch (Exception ignored) {
+    }
+
+    addTest(new Setup());
+    addTest(new LogDisabled());
+    addTest(new LogEnabled());
+    addTest(new FilteredListener());
+    addTest(new AsyncOverflow());
+    addTest(new BinaryRoundTrip());
+    addTest(new Cleanup());
+  }
+
+
+  public class Setup extends TestCase {
+    public String getName() {
+      return "Setup";
+    }
+
+    public String getDescription() {
+      return "Get the log service and turn off log output to System.out";
+    }
+
+    public void runTest() throws Throwable {
+      logSR = bc.getServiceReference(LogService.class);
+      assertNotNull("Knopflerfish log service must be registered", logSR);
+      log = bc.getService(logSR);
+
+      configSR = bc.getServiceReference(LogConfig.class);
+      if (configSR != null) {
+        config = bc.getService(configSR);
+        oldOut = config.getOut();
+        config.setOut(false);
+      }
+    }
+  }
+
+  public class Cleanup extends TestCase {
+    public String getName() {
+      return "Cleanup";
+    }
+
+    public String getDescription() {
+      return "Restore the log configuration and release the log service";
+    }
+
+    public void runTest() throws Throwable {
+      if (config != null) {
+        config.setOut(oldOut);
+        bc.ungetService(configSR);
+        config = null;
+      }
+      if (log != null) {
+        bc.ungetService(logSR);
+        log = null;
+      }
+    }
+  }
+
+  public class LogDisabled extends TestCase {
+    public String getName() {
+      return "LogDisabled";
+    }
+
+    public String getDescription() {
+      return "Log " + nCalls + " entries per thread with a level that is"
+        + " filtered out, using 1 to " + maxThreads + " concurrent threads";
+    }
+
+    public void runTest() throws Throwable {
+      final int level = log.getLogLevel() + 1;
+      if (level > LogService.LOG_DEBUG) {
+        log("log level is debug, nothing is filtered out");
+        return;
+      }
+      for (int n = 1; n <= maxThreads; n *= 2) {
+        final long time = logEntries(n, nCalls, level);
+        log("disabled threads=" + n + " took " + time + "ms, "
+            + (time > 0 ? (n * (long) nCalls * 1000L / time) : -1)
+            + " calls/s");
+      }
+    }
+  }
+
+  public class LogEnabled extends TestCase {
+    public String getName() {
+      return "LogEnabled";
+    }
+
+    public String getDescription() {
+      return "Log " + nEnabled + " entries per thread with the current log"
+        + " level, using 1 to " + maxThreads + " concurrent threads";
+    }
+
+    public void runTest() throws Throwable {
+      final int level = log.getLogLevel();
+      for (int n = 1; n <= maxThreads; n *= 2) {
+        final long time = logEntries(n, nEnabled, level);
+        log("enabled threads=" + n + " took " + time + "ms, "
+            + (time > 0 ? (n * (long) nEnabled * 1000L / time) : -1)
+            + " calls/s");
+      }
+    }
+  }
+
+  public class FilteredListener extends TestCase {
+    public String getName() {
+      return "FilteredListener";
+    }
+
+    public String getDescription() {
+      return "Check that a filtering log listener gets entries with a"
+        + " level that is filtered out by the log but accepted by the"
+        + " listener";
+    }
+
+    public void runTest() throws Throwable {
+      final int level = log.getLogLevel() + 1;
+      if (level > LogService.LOG_DEBUG) {
+        log("log level is debug, nothing is filtered out");
+        return;
+      }
+      final ServiceReference<LogReaderService> lrsSR
+        = bc.getServiceReference(LogReaderService.class);
+      assertNotNull("Log reader service must be registered", lrsSR);
+      final LogReaderService lrs = bc.getService(lrsSR);
+      final int[] levels = new int[]{ level };
+      final int[] received = new int[1];
+      final FilteringLogListener listener = new FilteringLogListener() {
+          public int getLogLevel() {
+            return levels[0];
+          }
+
+          public void logged(LogEntry le) {
+            if ("log_perf filtered".equals(le.getMessage())) {
+              received[0]++;
+            }
+          }
+        };
+      try {
+        lrs.addLogListener(listener);
+        log.log(level, "log_perf filtered");
+        assertEquals("Filtered out entry delivered to the listener",
+                     1, received[0]);
+
+        levels[0] = level - 1;
+        log.log(level, "log_perf filtered");
+        assertEquals("Entry above the listener level not delivered",
+                     1, received[0]);
+      } finally {
+        lrs.removeLogListener(listener);
+        bc.ungetService(lrsSR);
+      }
+    }
+  }
+
+  public class AsyncOverflow extends TestCase {
+    public String getName() {
+      return "AsyncOverflow";
+    }
+
+    public String getDescription() {
+      return "Log to an asynchronous file log with a tiny buffer that drops"
+        + " entries on overflow and check that every entry is either"
+        + " written or counted as dropped";
+    }
+
+    public void runTest() throws Throwable {
+      if (!canRestartFileLog()) {
+        return;
+      }
+      final int n = 5000;
+      final int level = log.getLogLevel();
+      final int oldFileSize = config.getFileSize();
+      long dropped = 0;
+      try {
+        config.setFileSize(Integer.MAX_VALUE);
+        restartFileLog(false, true, "1", "drop-all");
+        for (int i = 0; i < n; i++) {
+          log.log(level, "log_perf async " + i);
+        }
+        dropped = config.getDroppedCount();
+      } finally {
+        restartFileLog(false, false, null, null);
+        config.setFileSize(oldFileSize);
+      }
+      log("async overflow dropped " + dropped + " of " + n + " entries");
+      assertTrue("Entries dropped by a full buffer", dropped > 0);
+
+      // Count the entries and drop notes written to the previous
+      // session's log, it was saved as .old when the file log restarted.
+      int written = 0;
+      long noted = 0;
+      final File file = new File(config.getDir(),
+                                 BinaryLogReader.LOGBASE + "0"
+                                 + BinaryLogReader.OLD_SUFFIX);
+      final BufferedReader in = new BufferedReader(new FileReader(file));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.indexOf("log_perf async ") >= 0) {
+            written++;
+          } else if (line.startsWith("[")
+                     && line.endsWith(" log entries dropped]")) {
+            noted += Long.parseLong(line.substring(1, line.indexOf(' ')));
+          }
+        }
+      } finally {
+        in.close();
+      }
+      assertEquals("Dropped entries noted in the log file", dropped, noted);
+      assertTrue("Entries written or dropped (written=" + written + ")",
+                 written <= n && written + dropped >= n);
+    }
+  }
+
+  public class BinaryRoundTrip extends TestCase {
+    public String getName() {
+      return "BinaryRoundTrip";
+    }
+
+    public String getDescription() {
+      return "Write entries to the binary file log and read them back"
+        + " with the binary log reader";
+    }
+
+    public void runTest() throws Throwable {
+      if (!canRestartFileLog()) {
+        return;
+      }
+      final int n = 100;
+      final int level = log.getLogLevel();
+      final long start = System.currentTimeMillis();
+      try {
+        restartFileLog(true, false, null, null);
+        for (int i = 0; i < n; i++) {
+          log.log(level, "log_perf binary " + i);
+        }
+        log.log(LogService.LOG_ERROR, "log_perf binary exception",
+                new IllegalStateException("log_perf binary"));
+      } finally {
+        // Restarting closes the binary log and writes its index.
+        restartFileLog(false, false, null, null);
+      }
+      final long end = System.currentTimeMillis();
+
+      final List<BinaryLogReader.Record> records
+        = new ArrayList<BinaryLogReader.Record>();
+      final Enumeration<BinaryLogReader.Record> e
+        = new BinaryLogReader(config.getDir())
+        .query(start, Long.MAX_VALUE,
+               new long[]{ bc.getBundle().getBundleId() },
+               LogService.LOG_DEBUG, true);
+      while (e.hasMoreElements()) {
+        final BinaryLogReader.Record r = e.nextElement();
+        if (r.getMessage().startsWith("log_perf binary")) {
+          records.add(r);
+        }
+      }
+      assertEquals("Records read back", n + 1, records.size());
+      for (int i = 0; i < n; i++) {
+        final BinaryLogReader.Record r = records.get(i);
+        assertEquals("Message", "log_perf binary " + i, r.getMessage());
+        assertEquals("Level", level, r.getLevel());
+        assertEquals("Bundle id", bc.getBundle().getBundleId(),
+                     r.getBundleId());
+        assertTrue("Time stamp", r.getTime() >= start && r.getTime() <= end);
+        assertNull("No exception", r.getException());
+      }
+      final BinaryLogReader.Record r = records.get(n);
+      assertEquals("Level", LogService.LOG_ERROR, r.getLevel());
+      assertNotNull("Exception", r.getException());
+      assertTrue("Exception stack trace: " + r.getException(),
+                 r.getException().indexOf("IllegalStateException") >= 0);
+    }
+  }
+
+  static final String PROP_LOG_FILE_BINARY
+    = "org.knopflerfish.log.file.binary";
+  static final String PROP_LOG_FILE_ASYNC
+    = "org.knopflerfish.log.file.async";
+  static final String PROP_LOG_FILE_ASYNC_QUEUE_SIZE
+    = "org.knopflerfish.log.file.async.queue.size";
+  static final String PROP_LOG_FILE_ASYNC_OVERFLOW
+    = "org.knopflerfish.log.file.async.overflow";
+
+  boolean canRestartFileLog() {
+    if (config == null || !config.getFile() || config.getDir() == null) {
+      log("file log is not enabled, skipping");
+      return false;
+    }
+    if (bc.getProperty(PROP_LOG_FILE_BINARY) != null
+        || bc.getProperty(PROP_LOG_FILE_ASYNC) != null) {
+      log("file log mode set by framework properties, skipping");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Restart the file log with the given settings. The file log reads
+   * them when it is created, framework properties are backed by
+   * system properties.
+   */
+  void restartFileLog(boolean binary, boolean async,
+                      String queueSize, String overflow) {
+    setProperty(PROP_LOG_FILE_BINARY, binary ? "true" : null);
+    setProperty(PROP_LOG_FILE_ASYNC, async ? "true" : null);
+    setProperty(PROP_LOG_FILE_ASYNC_QUEUE_SIZE, queueSize);
+    setProperty(PROP_LOG_FILE_ASYNC_OVERFLOW, overflow);
+    config.setFile(false);
+    config.setFile(true);
+  }
+
+  static void setProperty(String key, String value) {
+    if (value != null) {
+      System.setProperty(key, value);
+    } else {
+      System.clearProperty(key);
+    }
+  }
+
+  /**
+   * Let <code>nThreads</code> threads each log <code>n</code>
+   * entries with the given level concurrently.
+   *
+   * @return Elapsed wall-clock time in milliseconds.
+   */
+  long logEntries(int nThreads, final int n, final int level)
+    throws Throwable
+  {
+    final Throwable[] error = new Throwable[1];
+    final Thread[] threads = new Thread[nThreads];
+    final Object startLock = new Object();
+    final boolean[] go = new boolean[1];
+    for (int t = 0; t < nThreads; t++) {
+      threads[t] = new Thread("log_perf #" + t) {
+          public void run() {
+            try {
+              synchronized (startLock) {
+                while (!go[0]) {
+                  startLock.wait();
+                }
+              }
+              for (int i = 0; i < n; i++) {
+                log.log(level, "log_perf entry");
+              }
+            } catch (Throwable e) {
+              synchronized (error) {
+                error[0] = e;
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+    final long start = System.currentTimeMillis();
+    synchronized (startLock) {
+      go[0] = true;
+      startLock.notifyAll();
+    }
+    for (int t = 0; t < nThreads; t++) {
+      threads[t].join();
+    }
+    final long time = System.currentTimeMillis() - start;
+    if (error[0] != null) {
+      throw error[0];
+    }
+    return time;
+  }
+
+  static void log(String msg) {
+    System.out.println("log_perf: " + msg);
+  }
+}
@@ -12,6 +12,8 @@ public class PerformanceRegistryTestSuite extends TestSuite {
 
   int nListeners = 100;
   int nServices  = 1000;
+  int nLookups   = 1000;
+  int maxThreads = 64;
 
   public PerformanceRegistryTestSuite(BundleContext bc) {
     super("PerformanceRegistryTestSuite");
@@ -27,9 +29,20 @@ public class PerformanceRegistryTestSuite extends TestSuite {
     } catch (Exception ignored) {
     }
 
+    try {
+      nLookups = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.servicereg.nlookups", "" + nLookups));
+    } catch (Exception ignored) {
+    }
+
+    try {
+      maxThreads = Integer.parseInt(System.getProperty("org.knopflerfish.bundle.perf.servicereg.maxthreads", "" + maxThreads));
+    } catch (Exception ignored) {
+    }
+
     addTest(new Setup());
     addTest(new AddListeners());
     addTest(new RegisterServices());
+    addTest(new LookupServices());
     addTest(new ModifyServices());
     addTest(new UnregisterServices());
     addTest(new Cleanup());
@@ -159,6 +172,88 @@ public class PerformanceRegistryTestSuite extends TestSuite {
   }
 
 
+  public class LookupServices extends TestCase {
+    public String getName() {
+      return "LookupServices";
+    }
+
+    public String getDescription() {
+      return "Look up registered services with a filter using 1 to "
+        + maxThreads + " concurrent threads, " + nLookups
+        + " lookups per thread";
+    }
+
+    public void runTest() throws Throwable {
+      log("lookup with org.knopflerfish.framework.registry.lockfree="
+          + bc.getProperty("org.knopflerfish.framework.registry.lockfree"));
+      for (int n = 1; n <= maxThreads; n *= 2) {
+        final long time = lookupServices(n, nLookups);
+        log("lookup threads=" + n + " took " + time + "ms, "
+            + (time > 0 ? (n * (long) nLookups * 1000L / time) : -1)
+            + " lookups/s");
+      }
+    }
+  }
+
+
+  /**
+   * Let <code>nThreads</code> threads each perform <code>n</code>
+   * service lookups concurrently.
+   *
+   * @return Elapsed wall-clock time in milliseconds.
+   */
+  long lookupServices(int nThreads, final int n) throws Throwable {
+    final String clazz = TestService.class.getName();
+    final Throwable[] error = new Throwable[1];
+    final Thread[] threads = new Thread[nThreads];
+    final Object startLock = new Object();
+    final boolean[] go = new boolean[1];
+    for (int t = 0; t < nThreads; t++) {
+      final int offset = t;
+      threads[t] = new Thread("registry_perf lookup #" + t) {
+          public void run() {
+            try {
+              synchronized (startLock) {
+                while (!go[0]) {
+                  startLock.wait();
+                }
+              }
+              for (int i = 0; i < n; i++) {
+                final String filter = "(service.pid=my.service."
+                  + ((i + offset) % nServices) + ")";
+                final ServiceReference[] srs
+                  = bc.getServiceReferences(clazz, filter);
+                if (srs == null || srs.length != 1) {
+                  throw new Exception("Lookup of " + filter + " returned "
+                                      + (srs == null ? 0 : srs.length)
+                                      + " references");
+                }
+              }
+            } catch (Throwable e) {
+              synchronized (error) {
+                error[0] = e;
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+    final long start = System.currentTimeMillis();
+    synchronized (startLock) {
+      go[0] = true;
+      startLock.notifyAll();
+    }
+    for (int t = 0; t < nThreads; t++) {
+      threads[t].join();
+    }
+    final long time = System.currentTimeMillis() - start;
+    if (error[0] != null) {
+      throw error[0];
+    }
+    return time;
+  }
+
+
   void addListeners(int n) {
     log("adding " + n + " service listeners");
     for(int i = 0; i < n; i++) {
@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface for managing bundle data.
@@ -205,6 +206,29 @@ public interface BundleArchive {
   void setAutostartSetting(int setting) throws IOException;
 
 
+  /**
+   * Get the package wiring that was saved for this archive when the
+   * framework was last shut down.
+   *
+   * @param bundleSetKey Key of the current set of installed bundles.
+   * @return Map from imported package name to the id of the bundle
+   *         that provided it, or null if no wiring was saved for this
+   *         archive and set of installed bundles.
+   */
+  Map<String, Long> getSavedPackageWiring(String bundleSetKey);
+
+
+  /**
+   * Save the package wiring of this archive, to be restored when
+   * resolving after the next restart.
+   *
+   * @param bundleSetKey Key of the current set of installed bundles.
+   * @param wiring Map from imported package name to the id of the
+   *               bundle that provides it, null if not resolved.
+   */
+  void savePackageWiring(String bundleSetKey, Map<String, Long> wiring);
+
+
   /**
    * @return the location of the cached bundle.
    */
@@ -36,6 +36,7 @@ package org.knopflerfish.framework;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.security.ProtectionDomain;
@@ -46,6 +47,8 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
@@ -98,6 +101,50 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
   // Array of bundles for which a classload is triggering activation.
   private static ThreadLocal<ArrayList<BundleImpl>> tlBundlesToActivate = new ThreadLocal<ArrayList<BundleImpl>>();
 
+  /**
+   * Locks used when defining classes, one per class name that is
+   * currently being defined. Used instead of locking the whole
+   * class loader so that different classes can be defined in
+   * parallel.
+   */
+  private final ConcurrentHashMap<String, Object> classLoadingLocks
+    = new ConcurrentHashMap<String, Object>();
+
+  /**
+   * Paths of classes that were not found in the bundle space when
+   * searched for by this class loader. Null if the cache is disabled.
+   */
+  private final ConcurrentHashMap<String, Boolean> missedClasses;
+
+  /**
+   * Paths of resources that were not found in the bundle space when
+   * searched for by this class loader. Null if the cache is disabled.
+   */
+  private final ConcurrentHashMap<String, Boolean> missedResources;
+
+  /**
+   * Value of {@link FrameworkContext#classLoaderWiringGeneration} that
+   * the content of the miss caches is valid for.
+   */
+  private volatile int missCacheGeneration;
+
+  private final AtomicLong missCacheHits = new AtomicLong();
+
+  private final AtomicLong missCacheMisses = new AtomicLong();
+
+  static {
+    // Tell the VM that it does not need to lock the class loader
+    // when it calls loadClass(). Use reflection since this method
+    // is not available in all execution environments.
+    try {
+      final Method m = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+      m.setAccessible(true);
+      m.invoke(null);
+    } catch (final Throwable ignore) {
+      // Not supported, class loading will be serialized by the VM
+    }
+  }
+
 
   Debug debug;
 
@@ -115,6 +162,14 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
     bpkgs = gen.bpkgs;
     archive = gen.archive;
     classPath = new BundleClassPath(archive, gen);
+    if (fwCtx.props.CLASSLOADER_MISSCACHE_SIZE > 0) {
+      missedClasses = new ConcurrentHashMap<String, Boolean>();
+      missedResources = new ConcurrentHashMap<String, Boolean>();
+      missCacheGeneration = fwCtx.classLoaderWiringGeneration.get();
+    } else {
+      missedClasses = null;
+      missedResources = null;
+    }
     if (debug.classLoader) {
       debug.println(this + " Created new classloader");
     }
@@ -488,11 +543,33 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
    */
   void close() {
     archive = null;
+    if (missedClasses != null) {
+      missedClasses.clear();
+      missedResources.clear();
+    }
+    fwCtx.classLoaderWiringGeneration.incrementAndGet();
     if (debug.classLoader) {
-      debug.println(this + " Cleared archives");
+      debug.println(this + " Cleared archives, miss cache hits=" + missCacheHits
+                    + ", misses=" + missCacheMisses);
     }
   }
 
+
+  /**
+   * Number of lookups answered by the miss cache.
+   */
+  long getMissCacheHits() {
+    return missCacheHits.get();
+  }
+
+
+  /**
+   * Number of failed lookups that required a full search.
+   */
+  long getMissCacheMisses() {
+    return missCacheMisses.get();
+  }
+
   /**
    * Get all the resources with the given name in this bundle.
    * 
@@ -610,7 +687,31 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
         }
       }
 
-      final Object res = searchFor0(name, pkg, path, action, options, requestor, visited);
+      final ConcurrentHashMap<String, Boolean> missCache
+        = requestor == this ? getMissCache(action, options) : null;
+      Object res = null;
+      if (missCache == null) {
+        res = searchFor0(name, pkg, path, action, options, requestor, visited);
+      } else if (missCache.containsKey(path)) {
+        missCacheHits.incrementAndGet();
+        if (debug.classLoader) {
+          debug.println(this + " Search for: " + path + ", cached miss");
+        }
+      } else {
+        final int gen = missCacheGeneration;
+        res = searchFor0(name, pkg, path, action, options, requestor, visited);
+        if (res == null && (pkg == null || !bpkgs.hasDynamicImport(pkg))) {
+          missCacheMisses.incrementAndGet();
+          if (missCache.size() >= fwCtx.props.CLASSLOADER_MISSCACHE_SIZE) {
+            missCache.clear();
+          }
+          missCache.put(path, Boolean.TRUE);
+          // Drop the entry if the wiring changed during the search
+          if (gen != fwCtx.classLoaderWiringGeneration.get()) {
+            missCache.remove(path);
+          }
+        }
+      }
 
       if (initiator) {
         tlBundlesToActivate.set(null);
@@ -633,6 +734,32 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
     }
   }
 
+  /**
+   * Get the miss cache to use for a search, clearing the caches if
+   * the wiring has changed since they were filled.
+   *
+   * @return The cache or <code>null</code> if the search can not be cached.
+   */
+  private ConcurrentHashMap<String, Boolean> getMissCache(SearchAction action,
+                                                          int options) {
+    if (missedClasses == null || (options & (LIST | RECURSE)) != 0) {
+      return null;
+    }
+    final int gen = fwCtx.classLoaderWiringGeneration.get();
+    if (gen != missCacheGeneration) {
+      missedClasses.clear();
+      missedResources.clear();
+      missCacheGeneration = gen;
+    }
+    if (action == classSearch) {
+      return missedClasses;
+    } else if (action == resourceSearch) {
+      return missedResources;
+    }
+    return null;
+  }
+
+
   /**
    * Search for classloader to use according to OSGi search order.
    * 
@@ -898,6 +1025,35 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
     return bundle == bundle.fwCtx.systemBundle;
   }
 
+  /**
+   * Get the lock to hold while defining the named class.
+   *
+   * @param name Name of class to define.
+   * @return Lock object shared by all threads defining <code>name</code>.
+   */
+  private Object getClassDefineLock(String name) {
+    final Object lock = new Object();
+    final Object old = classLoadingLocks.putIfAbsent(name, lock);
+    return old != null ? old : lock;
+  }
+
+
+  /**
+   * Define a package unless it is already defined. Packages are
+   * defined while holding a class define lock, thus two threads
+   * defining classes in the same package may race here.
+   */
+  private void definePackageIfAbsent(String pkg) {
+    if (getPackage(pkg) == null) {
+      try {
+        definePackage(pkg, null, null, null, null, null, null, null);
+      } catch (final IllegalArgumentException ignore) {
+        // Defined by another thread
+      }
+    }
+  }
+
+
   /**
    * Search action
    */
@@ -919,48 +1075,55 @@ final public class BundleClassLoader extends ClassLoader implements BundleRefere
         if (cl.debug.classLoader) {
           cl.debug.println("classLoader(#" + cl.bpkgs.bg.bundle.id + ") - load class: " + name);
         }
-        synchronized (cl) {
-          Class<?> c = cl.findLoadedClass(name);
-          if (c == null) {
-            if (pkg != null) {
-              if (cl.getPackage(pkg) == null) {
-                cl.definePackage(pkg, null, null, null, null, null, null, null);
+        final Object lock = cl.getClassDefineLock(name);
+        try {
+          synchronized (lock) {
+            Class<?> c = cl.findLoadedClass(name);
+            if (c == null) {
+              if (pkg != null) {
+                cl.definePackageIfAbsent(pkg);
               }
-            }
 
-            WeavingHooks.WovenClassImpl wc = null;
-            if (cl != null && cl.bpkgs != null && cl.bpkgs.bg != null
-                && cl.bpkgs.bg.bundle != null) {
-              wc = new WeavingHooks.WovenClassImpl(cl.bpkgs.bg.bundle, name, bytes);
-              try {
-                cl.fwCtx.weavingHooks.callHooks(wc);
-                if (wc.hasAdditionalDynamicImports()) {
-                  cl.bpkgs.parseDynamicImports(wc.getDynamicImportsAsString());
+              WeavingHooks.WovenClassImpl wc = null;
+              if (cl != null && cl.bpkgs != null && cl.bpkgs.bg != null
+                  && cl.bpkgs.bg.bundle != null) {
+                wc = new WeavingHooks.WovenClassImpl(cl.bpkgs.bg.bundle, name, bytes);
+                try {
+                  cl.fwCtx.weavingHooks.callHooks(wc);
+                  if (wc.hasAdditionalDynamicImports()) {
+                    cl.bpkgs.parseDynamicImports(wc.getDynamicImportsAsString());
+                    cl.fwCtx.classLoaderWiringGeneration.incrementAndGet();
+                  }
+                  bytes = wc.getBytes();
+                } catch (final ClassFormatError cfe) {
+                  throw cfe;
+                } catch (final Throwable t) {
+                  final ClassFormatError cfe =
+                    new ClassFormatError("Failed to call WeavingHooks for " + name);
+                  cfe.initCause(t);
+                  throw cfe;
                 }
-                bytes = wc.getBytes();
-              } catch (final ClassFormatError cfe) {
-                throw cfe;
-              } catch (final Throwable t) {
-                final ClassFormatError cfe =
-                  new ClassFormatError("Failed to call WeavingHooks for " + name);
-                cfe.initCause(t);
-                throw cfe;
-              }
-            }
-            try {
-              if (cl.protectionDomain == null) {
-                // Kaffe can't handle null protectiondomain
-                c = cl.defineClass(name, bytes, 0, bytes.length);
-              } else {
-                c = cl.defineClass(name, bytes, 0, bytes.length, cl.protectionDomain);
               }
-            } finally {
-              if (wc != null) {
-                wc.setDefinedClass(c);
+              try {
+                if (cl.protectionDomain == null) {
+                  // Kaffe can't handle null protectiondomain
+                  c = cl.defineClass(name, bytes, 0, bytes.length);
+                } else {
+                  c = cl.defineClass(name, bytes, 0, bytes.length, cl.protectionDomain);
+                }
+              } finally {
+                if (wc != null) {
+                  wc.setDefinedClass(c);
+                }
               }
             }
+            return c;
           }
-          return c;
+        } finally {
+          // The class is now defined, or failed to be defined, threads
+          // still waiting for the lock will find it with findLoadedClass()
+          // or try again.
+          cl.classLoadingLocks.remove(name, lock);
         }
       } else {
         return items.get(0).loadClassBytes(name, cl);
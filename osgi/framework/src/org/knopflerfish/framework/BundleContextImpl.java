@@ -48,7 +48,6 @@ import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceListener;
@@ -97,6 +96,13 @@ public class BundleContextImpl
    */
   public String getProperty(String key) {
     checkValid();
+    if (FWProps.LISTENER_STATISTICS_KEY.equals(key)) {
+      final StringBuilder sb = new StringBuilder();
+      for (final String stat : bundle.fwCtx.listeners.getAsyncEventStatistics()) {
+        sb.append(stat).append('\n');
+      }
+      return sb.toString();
+    }
     return bundle.fwCtx.props.getProperty(key);
   }
 
@@ -457,7 +463,7 @@ public class BundleContextImpl
    */
   public Filter createFilter(String filter) throws InvalidSyntaxException {
     checkValid();
-    return FrameworkUtil.createFilter(filter);
+    return bundle.fwCtx.filterCache.getFilter(filter);
   }
 
 
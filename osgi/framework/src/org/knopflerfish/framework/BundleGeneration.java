@@ -667,6 +667,7 @@ public class BundleGeneration implements Comparable<BundleGeneration> {
     if (failReason != null) {
       throw new IllegalStateException("Failed to attach: " + failReason);
     }
+    bundle.fwCtx.classLoaderWiringGeneration.incrementAndGet();
     if (classLoader != null && classLoader instanceof BundleClassLoader) {
       try {
         ((BundleClassLoader)classLoader).attachFragment(fragmentBundle);
@@ -789,6 +789,7 @@ public class BundleImpl implements Bundle {
       newGeneration.checkPermissions(checkContext);
       newArchive.setStartLevel(oldStartLevel);
       fwCtx.storage.replaceBundleArchive(archive, newGeneration.archive);
+      fwCtx.resolver.dropSavedWiring();
     } catch (final Exception e) {
       if (newArchive != null) {
         newArchive.purge();
@@ -454,6 +454,7 @@ class BundlePackages {
               synchronized (this) {
                 okImports.add(-ii - 1, nip);
               }
+              fwCtx.classLoaderWiringGeneration.incrementAndGet();
               res = ep.bpkgs;
               break;
             }
@@ -1110,6 +1111,24 @@ class BundlePackages {
     }
   }
 
+  /**
+   * Check if a package matches any of our dynamic import patterns.
+   *
+   * @param pkg Package name
+   * @return True if <code>pkg</code> may be dynamically imported.
+   */
+  boolean hasDynamicImport(String pkg) {
+    for (final ImportPkg ip : dImportPatterns) {
+      if (ip.name == EMPTY_STRING ||
+          (ip.name.endsWith(".") && pkg.startsWith(ip.name)) ||
+          pkg.equals(ip.name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
   /**
    * Parse the dynamic import attribute
    */
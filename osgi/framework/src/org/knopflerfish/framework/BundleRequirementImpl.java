@@ -64,6 +64,19 @@ public class BundleRequirementImpl
   private final Filter filter;
   private BundleWireImpl wire = null;
 
+  /**
+   * Value required for the name-space attribute, see
+   * {@link #getNamespaceValue()}.
+   */
+  private String namespaceValue = null;
+  private boolean namespaceValueDone = false;
+
+  /**
+   * Generation of the resolver capabilities when this requirement
+   * was found to not match any of them, otherwise -1.
+   */
+  int noMatchGeneration = -1;
+
 
   /**
    * Creates a {@link BundleRequirement} from one entry in the parsed
@@ -93,7 +106,7 @@ public class BundleRequirementImpl
     final String filterStr = he.getDirectives().remove("filter");
     if (null!=filterStr && filterStr.length()>0) {
       try {
-        filter = FrameworkUtil.createFilter(filterStr);
+        filter = gen.bundle.fwCtx.filterCache.getFilter(filterStr);
         he.getDirectives().put("filter", filter.toString());
       } catch (final InvalidSyntaxException ise) {
         final String msg = "Invalid filter '" + filterStr + "' in "
@@ -219,6 +232,52 @@ public class BundleRequirementImpl
   }
 
 
+  /**
+   * Get the value that the filter of this requirement requires the
+   * attribute with the same name as the name-space to be equal to.
+   * E.g. "osgi.component" for the filter
+   * "(&amp;(osgi.extender=osgi.component)(version&gt;=1.0))" in the
+   * "osgi.extender" name-space.
+   *
+   * @return The required value, or null if the filter doesn't require
+   *         one specific value.
+   */
+  String getNamespaceValue() {
+    if (!namespaceValueDone) {
+      if (filter != null) {
+        try {
+          final LDAPExpr ldap =
+            gen.bundle.fwCtx.filterCache.getLDAPExpr(filter.toString());
+          if (ldap.operator == LDAPExpr.EQ) {
+            namespaceValue = getNamespaceValue(ldap);
+          } else if (ldap.operator == LDAPExpr.AND) {
+            for (final LDAPExpr arg : ldap.args) {
+              if (arg.operator == LDAPExpr.EQ) {
+                namespaceValue = getNamespaceValue(arg);
+                if (namespaceValue != null) {
+                  break;
+                }
+              }
+            }
+          }
+        } catch (final InvalidSyntaxException _ignore) {
+        }
+      }
+      namespaceValueDone = true;
+    }
+    return namespaceValue;
+  }
+
+
+  private String getNamespaceValue(LDAPExpr term) {
+    if (namespace.equals(term.attrName) && !term.isWildcard()
+        && term.attrValue.equals(term.attrValue.trim())) {
+      return term.attrValue;
+    }
+    return null;
+  }
+
+
   @Override
   public boolean matches(BundleCapability capability) {
     if (namespace.equals(capability.getNamespace())) {
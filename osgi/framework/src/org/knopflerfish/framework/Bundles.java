@@ -164,6 +164,7 @@ public class Bundles {
       }
       final BundleImpl res = new BundleImpl(fwCtx, ba, checkContext, caller);
       bundles.put(location, res);
+      fwCtx.resolver.dropSavedWiring();
       fwCtx.listeners.bundleChanged(new BundleEvent(BundleEvent.INSTALLED, res, caller));
       if (res.current().isExtension()) {
         // Try to resolve extensions
@@ -196,6 +197,7 @@ public class Bundles {
    */
   void remove(String location) {
     bundles.remove(location);
+    fwCtx.resolver.dropSavedWiring();
   }
 
   void addZombie(BundleImpl b) {
@@ -35,6 +35,7 @@ package org.knopflerfish.framework;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,11 +50,57 @@ public class Capabilities {
   private HashMap<String, ArrayList<BundleCapabilityImpl>> namespaceCapabilties =
       new HashMap<String, ArrayList<BundleCapabilityImpl>>();
 
+  /**
+   * Registered capabilities indexed by name space and by the values of
+   * the attribute with the same name as the name space. The lists are
+   * in the same order as in namespaceCapabilties.
+   */
+  private HashMap<String, HashMap<String, ArrayList<BundleCapabilityImpl>>> valueCapabilities =
+      new HashMap<String, HashMap<String, ArrayList<BundleCapabilityImpl>>>();
+
+  /**
+   * Number of capabilities, per name space, that can not be indexed
+   * because the name space attribute isn't a string or a list of strings.
+   */
+  private HashMap<String, Integer> unindexed = new HashMap<String, Integer>();
+
+  /**
+   * Incremented every time capabilities are added or removed.
+   */
+  private int generation = 0;
+
 
   List<BundleCapabilityImpl> getCapabilities(String namespace) {
     return namespaceCapabilties.get(namespace);
   }
 
+
+  /**
+   * Get capabilities in a name space that may have the given value
+   * for the name space attribute.
+   *
+   * @param namespace Name space to look in.
+   * @param value Value of the name space attribute or null for all
+   *              capabilities in the name space.
+   * @return Possible capabilities in registration order, or null if none.
+   */
+  List<BundleCapabilityImpl> getCapabilities(String namespace, String value) {
+    if (value == null || unindexed.containsKey(namespace)) {
+      return namespaceCapabilties.get(namespace);
+    }
+    final HashMap<String, ArrayList<BundleCapabilityImpl>> vc = valueCapabilities.get(namespace);
+    return vc != null ? vc.get(value) : null;
+  }
+
+
+  /**
+   * Get current generation of capabilities, changes every time capabilities
+   * are added or removed.
+   */
+  int getGeneration() {
+    return generation;
+  }
+
   void addCapabilities(Map<String, List<BundleCapabilityImpl>> capabilities) {
     for (Entry<String, List<BundleCapabilityImpl>> e : capabilities.entrySet()) {
       final String ns = e.getKey();
@@ -63,7 +110,29 @@ public class Capabilities {
         namespaceCapabilties.put(ns, bcl);  
       }
       bcl.addAll(e.getValue());
+      for (final BundleCapabilityImpl bc : e.getValue()) {
+        final List<String> vals = getStringValues(bc.getAttributes().get(ns));
+        if (vals != null) {
+          HashMap<String, ArrayList<BundleCapabilityImpl>> vc = valueCapabilities.get(ns);
+          if (vc == null) {
+            vc = new HashMap<String, ArrayList<BundleCapabilityImpl>>();
+            valueCapabilities.put(ns, vc);
+          }
+          for (final String v : vals) {
+            ArrayList<BundleCapabilityImpl> vbcl = vc.get(v);
+            if (vbcl == null) {
+              vbcl = new ArrayList<BundleCapabilityImpl>(1);
+              vc.put(v, vbcl);
+            }
+            vbcl.add(bc);
+          }
+        } else {
+          final Integer n = unindexed.get(ns);
+          unindexed.put(ns, n != null ? n + 1 : 1);
+        }
+      }
     }
+    generation++;
   }
 
   void removeCapabilities(Map<String, List<BundleCapabilityImpl>> capabilities) {
@@ -79,14 +148,64 @@ public class Capabilities {
         if (before != bcl.size() + e.getValue().size()) {
           throw new RuntimeException("Internal error, tried to remove unknown capabilities");          
         }
+        for (final BundleCapabilityImpl bc : e.getValue()) {
+          final List<String> vals = getStringValues(bc.getAttributes().get(ns));
+          if (vals != null) {
+            final HashMap<String, ArrayList<BundleCapabilityImpl>> vc = valueCapabilities.get(ns);
+            for (final String v : vals) {
+              final ArrayList<BundleCapabilityImpl> vbcl = vc.get(v);
+              vbcl.remove(bc);
+              if (vbcl.isEmpty()) {
+                vc.remove(v);
+              }
+            }
+            if (vc.isEmpty()) {
+              valueCapabilities.remove(ns);
+            }
+          } else {
+            final int n = unindexed.get(ns);
+            if (n > 1) {
+              unindexed.put(ns, n - 1);
+            } else {
+              unindexed.remove(ns);
+            }
+          }
+        }
       } else {
         throw new RuntimeException("Internal error, tried to remove unknown name space with capabilities");
       }
     }
+    generation++;
   }
 
   Collection<ArrayList<BundleCapabilityImpl>> getAll() {
     return namespaceCapabilties.values();
   }
 
+
+  /**
+   * Get the string values of a name space attribute.
+   *
+   * @return A list of strings or null if the value isn't a string
+   *         or a list of strings.
+   */
+  private static List<String> getStringValues(Object val) {
+    if (val instanceof String) {
+      return Collections.singletonList((String) val);
+    } else if (val instanceof Collection) {
+      final List<String> res = new ArrayList<String>();
+      for (final Object o : (Collection<?>) val) {
+        if (o instanceof String) {
+          if (!res.contains(o)) {
+            res.add((String) o);
+          }
+        } else {
+          return null;
+        }
+      }
+      return res;
+    }
+    return null;
+  }
+
 }
@@ -111,8 +111,49 @@ public class FWProps {
 
   public final static String LDAP_NOCACHE_PROP = "org.knopflerfish.framework.ldap.nocache";
 
+  /**
+   * Maximum number of compiled filters kept in the framework wide
+   * filter cache. Zero or a negative value disables the cache.
+   */
+  public final static String FILTER_CACHE_SIZE_PROP = "org.knopflerfish.framework.filter.cache.size";
+
+  /**
+   * Set to true to let service lookups read the service registry
+   * without taking the registry lock.
+   */
+  public final static String REGISTRY_LOCKFREE_PROP = "org.knopflerfish.framework.registry.lockfree";
+
+  /**
+   * Comma separated list of service property keys that the service
+   * registry keeps an index on.
+   */
+  public final static String REGISTRY_INDEX_PROP = "org.knopflerfish.framework.registry.index";
+
   public final static String LISTENER_N_THREADS_PROP = "org.knopflerfish.framework.listener.n_threads";
 
+  /**
+   * Maximum number of events queued for each asynchronous event
+   * delivery thread. Zero or less means unbounded.
+   */
+  public final static String LISTENER_QUEUE_SIZE_PROP = "org.knopflerfish.framework.listener.queue.size";
+
+  /**
+   * What to do when a bounded event queue is full, either
+   * {@link #LISTENER_QUEUE_OVERFLOW_BLOCK} or
+   * {@link #LISTENER_QUEUE_OVERFLOW_DROP}.
+   */
+  public final static String LISTENER_QUEUE_OVERFLOW_PROP = "org.knopflerfish.framework.listener.queue.overflow";
+
+  public final static String LISTENER_QUEUE_OVERFLOW_BLOCK = "block";
+
+  public final static String LISTENER_QUEUE_OVERFLOW_DROP = "drop";
+
+  /**
+   * Name of special property containing statistics for the
+   * asynchronous event delivery threads, one line per thread.
+   */
+  public final static String LISTENER_STATISTICS_KEY = "org.knopflerfish.framework.listener.statistics";
+
   /**
    * If the Main-Class manifest attribute is set and this bundles location is
    * present in the value (comma separated list) of the Framework property named
@@ -125,6 +166,12 @@ public class FWProps {
 
   public final static String STRICTBOOTCLASSLOADING_PROP = "org.knopflerfish.framework.strictbootclassloading";
 
+  /**
+   * Max number of failed class and resource lookups remembered by
+   * each bundle class loader. Zero or less disables the cache.
+   */
+  public final static String CLASSLOADER_MISSCACHE_SIZE_PROP = "org.knopflerfish.framework.classloader.misscache.size";
+
   public final static String VALIDATOR_PROP = "org.knopflerfish.framework.validator";
 
   public final static String SETCONTEXTCLASSLOADER_PROP = "org.knopflerfish.osgi.setcontextclassloader";
@@ -139,6 +186,12 @@ public class FWProps {
    */
   public final static String STARTLEVEL_COMPAT_PROP = "org.knopflerfish.framework.startlevel.compat";
 
+  /**
+   * Max number of threads used to start the bundles of one start level.
+   * One or less means that bundles are started one at a time.
+   */
+  public final static String STARTLEVEL_THREADS_PROP = "org.knopflerfish.framework.startlevel.threads";
+
   /**
    * Set to true indicates that the framework shouldn't write any files.
    */
@@ -187,6 +240,9 @@ public class FWProps {
   // OSGi R4 behavior.
   public boolean STRICTBOOTCLASSLOADING;
 
+  // Max number of failed lookups remembered by a bundle class loader.
+  public int CLASSLOADER_MISSCACHE_SIZE = 256;
+
   /**
    * The properties for this framework instance.
    */
@@ -289,6 +345,11 @@ public class FWProps {
     SETCONTEXTCLASSLOADER = getBooleanProperty(SETCONTEXTCLASSLOADER_PROP);
     REGISTERSERVICEURLHANDLER = getBooleanProperty(REGISTERSERVICEURLHANDLER_PROP);
     STRICTBOOTCLASSLOADING = getBooleanProperty(STRICTBOOTCLASSLOADING_PROP);
+    try {
+      CLASSLOADER_MISSCACHE_SIZE = Integer.parseInt(getProperty(CLASSLOADER_MISSCACHE_SIZE_PROP));
+    } catch (final NumberFormatException nfe) {
+      fwCtx.debug.printStackTrace("Failed to parse " + CLASSLOADER_MISSCACHE_SIZE_PROP, nfe);
+    }
     isDoubleCheckedLockingSafe = getBooleanProperty(IS_DOUBLECHECKED_LOCKING_SAFE_PROP);
   }
 
@@ -525,15 +586,22 @@ public class FWProps {
     setPropertyDefault(SYSTEM_PACKAGES_VERSION_PROP, pver.toString());
     setPropertyDefault(IS_DOUBLECHECKED_LOCKING_SAFE_PROP, TRUE);
     setPropertyDefault(LDAP_NOCACHE_PROP, FALSE);
+    setPropertyDefault(LISTENER_QUEUE_SIZE_PROP, "0");
+    setPropertyDefault(LISTENER_QUEUE_OVERFLOW_PROP, LISTENER_QUEUE_OVERFLOW_BLOCK);
+    setPropertyDefault(FILTER_CACHE_SIZE_PROP, "512");
     setPropertyDefault(MAIN_CLASS_ACTIVATION_PROP, "");
     setPropertyDefault(STRICTBOOTCLASSLOADING_PROP, FALSE);
+    setPropertyDefault(CLASSLOADER_MISSCACHE_SIZE_PROP, "256");
     setPropertyDefault(VALIDATOR_PROP, getProperty(Constants.FRAMEWORK_TRUST_REPOSITORIES)
         .length() > 0 ? "JKSValidator" : "none");
     setPropertyDefault(SETCONTEXTCLASSLOADER_PROP, FALSE);
     setPropertyDefault(REGISTERSERVICEURLHANDLER_PROP, TRUE);
     setPropertyDefault(STARTLEVEL_COMPAT_PROP, FALSE);
+    setPropertyDefault(STARTLEVEL_THREADS_PROP, "1");
     setPropertyDefault(STARTLEVEL_USE_PROP, TRUE);
     setPropertyDefault(READ_ONLY_PROP, FALSE);
+    setPropertyDefault(REGISTRY_INDEX_PROP, Constants.SERVICE_PID);
+    setPropertyDefault(REGISTRY_LOCKFREE_PROP, FALSE);
     setPropertyDefault(RESOLVER_IMPLICIT_USES, FALSE);
     setPropertyDefault(RESOLVER_PREFER_SB, FALSE);
   }
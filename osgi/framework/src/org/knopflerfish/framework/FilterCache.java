@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.framework;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Framework wide cache of compiled filters. Both the framework
+ * internal {@link LDAPExpr} representation and {@link Filter} objects
+ * handed out to bundles are cached, keyed by the filter string.
+ * Both kinds of objects are immutable once created, so the same
+ * instance can be shared between callers.
+ * <p>
+ * The cache is bounded, when it is full an arbitrary entry is
+ * evicted before a new one is added. Filters that fail to parse
+ * are never cached.
+ */
+public class FilterCache {
+
+  /**
+   * Maximum number of entries in each of the caches.
+   * A value less than or equal to zero disables caching.
+   */
+  private final int maxSize;
+
+  private final ConcurrentHashMap<String, LDAPExpr> ldapExprs;
+
+  private final ConcurrentHashMap<String, Filter> filters;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+
+  FilterCache(FrameworkContext fwCtx) {
+    final String s = fwCtx.props.getProperty(FWProps.FILTER_CACHE_SIZE_PROP);
+    int size = 0;
+    try {
+      size = Integer.parseInt(s);
+    } catch (final NumberFormatException nfe) {
+      fwCtx.frameworkWarning(fwCtx.systemBundle,
+                             new Exception("Failed to parse "
+                                           + FWProps.FILTER_CACHE_SIZE_PROP,
+                                           nfe));
+    }
+    maxSize = size;
+    if (maxSize > 0) {
+      ldapExprs = new ConcurrentHashMap<String, LDAPExpr>();
+      filters = new ConcurrentHashMap<String, Filter>();
+    } else {
+      ldapExprs = null;
+      filters = null;
+    }
+  }
+
+
+  /**
+   * Get a compiled LDAP expression for the given filter string.
+   *
+   * @param filter The filter string to compile.
+   * @return A, possibly shared, {@link LDAPExpr} for <code>filter</code>.
+   * @throws InvalidSyntaxException If <code>filter</code> is malformed.
+   */
+  LDAPExpr getLDAPExpr(String filter) throws InvalidSyntaxException {
+    if (ldapExprs != null) {
+      LDAPExpr res = ldapExprs.get(filter);
+      if (res != null) {
+        hits.incrementAndGet();
+        return res;
+      }
+      misses.incrementAndGet();
+      res = new LDAPExpr(filter);
+      makeRoom(ldapExprs);
+      ldapExprs.put(filter, res);
+      return res;
+    }
+    misses.incrementAndGet();
+    return new LDAPExpr(filter);
+  }
+
+
+  /**
+   * Get a {@link Filter} object for the given filter string.
+   *
+   * @param filter The filter string to compile.
+   * @return A, possibly shared, {@link Filter} for <code>filter</code>.
+   * @throws InvalidSyntaxException If <code>filter</code> is malformed.
+   */
+  Filter getFilter(String filter) throws InvalidSyntaxException {
+    if (filters != null && filter != null) {
+      Filter res = filters.get(filter);
+      if (res != null) {
+        hits.incrementAndGet();
+        return res;
+      }
+      misses.incrementAndGet();
+      res = FrameworkUtil.createFilter(filter);
+      makeRoom(filters);
+      filters.put(filter, res);
+      return res;
+    }
+    misses.incrementAndGet();
+    return FrameworkUtil.createFilter(filter);
+  }
+
+
+  /**
+   * Number of lookups that were answered from the cache.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+
+  /**
+   * Number of lookups that required the filter to be parsed.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+
+  /**
+   * Current number of cached filters.
+   */
+  public int size() {
+    return ldapExprs != null ? ldapExprs.size() + filters.size() : 0;
+  }
+
+
+  /**
+   * Drop all cached filters.
+   */
+  void clear() {
+    if (ldapExprs != null) {
+      ldapExprs.clear();
+      filters.clear();
+    }
+  }
+
+
+  @Override
+  public String toString() {
+    return "FilterCache[size=" + size() + ", max=" + maxSize + ", hits="
+           + hits.get() + ", misses=" + misses.get() + "]";
+  }
+
+
+  /**
+   * Evict entries until there is room for one more entry in the
+   * given map. Concurrent callers may temporarily make the map
+   * exceed its limit by a few entries which is acceptable.
+   */
+  private <V> void makeRoom(ConcurrentHashMap<String, V> map) {
+    if (map.size() >= maxSize) {
+      final Iterator<String> it = map.keySet().iterator();
+      while (map.size() >= maxSize && it.hasNext()) {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+}
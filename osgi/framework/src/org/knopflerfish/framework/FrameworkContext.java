@@ -42,6 +42,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.knopflerfish.framework.Util.HeaderEntry;
 import org.osgi.framework.Bundle;
@@ -111,6 +112,19 @@ public class FrameworkContext  {
    */
   Services services;
 
+  /**
+   * Cache of compiled filters.
+   */
+  FilterCache filterCache;
+
+  /**
+   * Incremented whenever the wiring of a bundle class loader changes
+   * in a way that may turn a failed class or resource lookup into a
+   * successful one, e.g., when a fragment is attached or a dynamic
+   * import is wired. Used to invalidate the class loader miss caches.
+   */
+  final AtomicInteger classLoaderWiringGeneration = new AtomicInteger();
+
   /**
    * PermissionOps handle.
    */
@@ -308,6 +322,7 @@ public class FrameworkContext  {
     }
     perm.init();
 
+    filterCache = new FilterCache(this);
     listeners = new Listeners(this, perm, initListeners);
 
     final String v = props.getProperty(FWProps.VALIDATOR_PROP);
@@ -433,6 +448,7 @@ public class FrameworkContext  {
                       null);
     registerStartLevel();
     bundles.load();
+    resolver.initSavedWiring(bundles.getBundles());
     systemBundle.extensionCallStart(null);
     listeners.initDone();
     isInit = false;
@@ -504,6 +520,12 @@ public class FrameworkContext  {
     resolver.clear();
     resolver = null;
 
+    if (debug.ldap) {
+      debug.println("uninit: " + filterCache);
+    }
+    filterCache.clear();
+    filterCache = null;
+
     synchronized (bundleThreads) {
       while (!bundleThreads.isEmpty()) {
         bundleThreads.remove(0).quit();
@@ -204,6 +204,18 @@ public class LDAPExpr {
   }
 
 
+  /**
+   * Checks if the value of this simple LDAP expression contains
+   * a wildcard.
+   *
+   * @return {@code true} if this is a simple expression with a
+   *         wildcard in its value, {@code false} otherwise.
+   */
+  public boolean isWildcard() {
+    return attrValue != null && attrValue.indexOf(WILDCARD) >= 0;
+  }
+
+
   public static boolean query(String filter, Dictionary<String, Object> pd)
       throws InvalidSyntaxException
   {
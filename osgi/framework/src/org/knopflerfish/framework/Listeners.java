@@ -36,7 +36,6 @@ package org.knopflerfish.framework;
 
 import java.util.Collection;
 import java.util.EventObject;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -85,19 +84,24 @@ class Listeners {
   ServiceListenerState serviceListeners;
 
   /**
-   * Queue of async events to deliver
+   * All threads for delivering async events. Each thread has its own
+   * queue and all events for a listener are delivered by the same
+   * thread, thus events are delivered in order to each listener
+   * while different listeners may be called in parallel.
    */
-  private LinkedList<AsyncEvent> asyncEventQueue = null;
+  private AsyncEventThread [] threads = null;
 
   /**
-   * All threads for delivering async events
+   * Maximum number of events in the queue of an async event thread,
+   * zero or less means unbounded.
    */
-  private AsyncEventThread [] threads = null;
+  private int queueSize = 0;
 
   /**
-   * Map of active listeners to thread.
+   * If true drop events when the queue of an async event thread is
+   * full, otherwise wait for room in the queue.
    */
-  private HashMap<ListenerEntry, Thread> activeListeners = null;
+  private boolean dropOnOverflow = false;
 
   /**
    * Handle to secure call class.
@@ -126,27 +130,47 @@ class Listeners {
         error = nfe;
       }
     }
+    final String qs = framework.props.getProperty(FWProps.LISTENER_QUEUE_SIZE_PROP);
+    Throwable qsError = null;
+    try {
+      queueSize = Integer.parseInt(qs);
+    } catch (final NumberFormatException nfe) {
+      qsError = nfe;
+    }
+    final String overflow = framework.props.getProperty(FWProps.LISTENER_QUEUE_OVERFLOW_PROP);
+    dropOnOverflow = FWProps.LISTENER_QUEUE_OVERFLOW_DROP.equalsIgnoreCase(overflow);
     this.initListeners = initListeners;
     if (n_threads > 0) {
-      asyncEventQueue = new LinkedList<AsyncEvent>();
       threads = new AsyncEventThread[n_threads];
       for (int i = 0; i < n_threads; i++) {
         threads[i] = new AsyncEventThread(i);
         threads[i].start();
       }
-      if (n_threads > 1) {
-        activeListeners = new HashMap<ListenerEntry, Thread>();
-      }
       if (error != null) {
         Throwable t = new Exception("Failed to parse " + FWProps.LISTENER_N_THREADS_PROP, error);
         framework.frameworkWarning(framework.systemBundle, t);
       }
+      if (qsError != null) {
+        Throwable t = new Exception("Failed to parse " + FWProps.LISTENER_QUEUE_SIZE_PROP, qsError);
+        framework.frameworkWarning(framework.systemBundle, t);
+      }
+      if (!dropOnOverflow && !FWProps.LISTENER_QUEUE_OVERFLOW_BLOCK.equalsIgnoreCase(overflow)) {
+        Throwable t = new Exception("Unknown value for " + FWProps.LISTENER_QUEUE_OVERFLOW_PROP
+                                    + ", '" + overflow + "', using '"
+                                    + FWProps.LISTENER_QUEUE_OVERFLOW_BLOCK + "'");
+        framework.frameworkWarning(framework.systemBundle, t);
+      }
     }
   }
 
 
   void clear()
   {
+    if (threads != null && fwCtx.debug.framework) {
+      for (final String stat : getAsyncEventStatistics()) {
+        fwCtx.debug.println(stat);
+      }
+    }
     bundleListeners.clear();
     syncBundleListeners.clear();
     frameworkListeners.clear();
@@ -306,12 +330,9 @@ class Listeners {
       bundleChanged(le, evt);
     }
     if (filteredBundleListeners != null) {
-      if (asyncEventQueue != null) {
-        synchronized (asyncEventQueue) {
-          for(final ListenerEntry le : filteredBundleListeners) {
-            asyncEventQueue.addLast(new AsyncEvent(le, evt));
-          }
-          asyncEventQueue.notify();
+      if (threads != null) {
+        for(final ListenerEntry le : filteredBundleListeners) {
+          queueAsyncEvent(new AsyncEvent(le, evt));
         }
       } else {
         for(final ListenerEntry le : filteredBundleListeners) {
@@ -353,24 +374,25 @@ class Listeners {
       }
     }
 
-    if (asyncEventQueue != null) {
-      synchronized (asyncEventQueue) {
-        if (oneTimeListeners!=null) {
-          for (final FrameworkListener fl : oneTimeListeners) {
-            asyncEventQueue.addLast(new AsyncEvent(new ListenerEntry(null, fl), evt));
-          }
+    if (threads != null) {
+      if (oneTimeListeners!=null) {
+        for (final FrameworkListener fl : oneTimeListeners) {
+          queueAsyncEvent(new AsyncEvent(new ListenerEntry(null, fl), evt));
         }
-        if (initListeners != null) {
-          for (FrameworkListener il : initListeners) {
-            asyncEventQueue.addLast(new AsyncEvent(new ListenerEntry(null, il), evt));
-          }
-        }
-        synchronized (frameworkListeners) {
-          for (final ListenerEntry listenerEntry : frameworkListeners) {
-            asyncEventQueue.addLast(new AsyncEvent(listenerEntry, evt));
-          }
+      }
+      final FrameworkListener [] ils = initListeners;
+      if (ils != null) {
+        for (FrameworkListener il : ils) {
+          queueAsyncEvent(new AsyncEvent(new ListenerEntry(null, il), evt));
         }
-        asyncEventQueue.notify();
+      }
+      ListenerEntry [] fl;
+      synchronized (frameworkListeners) {
+        fl = new ListenerEntry[frameworkListeners.size()];
+        frameworkListeners.toArray(fl);
+      }
+      for (final ListenerEntry listenerEntry : fl) {
+        queueAsyncEvent(new AsyncEvent(listenerEntry, evt));
       }
     } else {
       if (oneTimeListeners != null) {
@@ -453,6 +475,25 @@ class Listeners {
     return serviceListeners.getMatchingListeners((ServiceReferenceImpl<?>)sr);
   }
 
+
+  /**
+   * Get statistics for the asynchronous event delivery threads.
+   *
+   * @return One line of text for each delivery thread with current
+   *         and maximum queue depth, number of delivered and dropped
+   *         events and average and maximum delivery latency.
+   */
+  String [] getAsyncEventStatistics() {
+    if (threads == null) {
+      return new String[0];
+    }
+    final String [] res = new String[threads.length];
+    for (int i = 0; i < threads.length; i++) {
+      res[i] = threads[i].getStatistics();
+    }
+    return res;
+  }
+
   //
   // Private methods
   //
@@ -475,6 +516,16 @@ class Listeners {
   }
 
 
+  /**
+   * Queue an event for asynchronous delivery on the thread
+   * responsible for its listener.
+   */
+  private void queueAsyncEvent(final AsyncEvent ae) {
+    final int i = (ae.le.hashCode() & 0x7fffffff) % threads.length;
+    threads[i].add(ae);
+  }
+
+
   /**
    *
    */
@@ -508,52 +559,98 @@ class Listeners {
   static class AsyncEvent {
     final ListenerEntry le;
     final EventObject evt;
+    final long queued;
 
     AsyncEvent(ListenerEntry le, EventObject evt) {
       this.le = le;
       this.evt = evt;
+      this.queued = System.nanoTime();
     }
   }
 
 
   /**
-   * Thread that deliver asynchronous events.
+   * Thread that deliver asynchronous events from its own queue.
    */
   private class AsyncEventThread extends Thread {
 
+    private final LinkedList<AsyncEvent> queue = new LinkedList<AsyncEvent>();
+
+    private int maxDepth = 0;
+    private long delivered = 0;
+    private long dropped = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
     AsyncEventThread(int i) {
       super(fwCtx.threadGroup, "AsyncEventThread#" + i);
     }
 
 
+    /**
+     * Add an event to the queue of this thread. If the queue is
+     * full, either wait for room or drop the event depending on
+     * the configured overflow policy. Events added by any async
+     * delivery thread, i.e., from a listener, are always accepted
+     * to avoid a dead-lock between delivery threads.
+     */
+    void add(AsyncEvent ae) {
+      synchronized (queue) {
+        if (queueSize > 0 && !(Thread.currentThread() instanceof AsyncEventThread)) {
+          while (!quit && queue.size() >= queueSize) {
+            if (dropOnOverflow) {
+              dropped++;
+              if (fwCtx.debug.framework) {
+                fwCtx.debug.println(getName() + " queue full, dropped " + ae.evt);
+              }
+              return;
+            }
+            try {
+              queue.wait();
+            } catch (final InterruptedException ignored) { }
+          }
+        }
+        queue.addLast(ae);
+        if (queue.size() > maxDepth) {
+          maxDepth = queue.size();
+        }
+        queue.notifyAll();
+      }
+    }
+
+
+    String getStatistics() {
+      synchronized (queue) {
+        return getName() + ": depth=" + queue.size() + ", maxDepth=" + maxDepth
+          + ", delivered=" + delivered + ", dropped=" + dropped
+          + ", avgLatency=" + (delivered > 0 ? totalLatency / delivered / 1000 : 0)
+          + "us, maxLatency=" + (maxLatency / 1000) + "us";
+      }
+    }
+
+
     @Override
     public void run() {
       while (true) {
         AsyncEvent ae;
 
-        synchronized (asyncEventQueue) {
-          while (!quit && asyncEventQueue.isEmpty()) {
+        synchronized (queue) {
+          while (!quit && queue.isEmpty()) {
             try {
-              asyncEventQueue.wait();
+              queue.wait();
             } catch (final InterruptedException ignored) { }
           }
           if (quit) {
             break;
           }
-          ae = asyncEventQueue.removeFirst();
-        }
-
-        if (activeListeners != null) {
-          synchronized (activeListeners) {
-            while (activeListeners.containsKey(ae.le)) {
-              // TODO, implement detection of hanging listeners?
-              try {
-                activeListeners.wait();
-              } catch (final InterruptedException ignore) { }
-            }
-            activeListeners.put(ae.le, Thread.currentThread());
+          ae = queue.removeFirst();
+          if (queueSize > 0) {
+            // Wake up producers waiting for room
+            queue.notifyAll();
           }
         }
+
+        final long latency = System.nanoTime() - ae.queued;
         // Either an unregistered one-time listener or the bundle
         // owning the listener must be valid.
         if (ae.le.bc==null || ae.le.bc.isValid()) {
@@ -563,10 +660,11 @@ class Listeners {
             frameworkEvent(ae.le, (FrameworkEvent)ae.evt);
           }
         }
-        if (activeListeners != null) {
-          synchronized (activeListeners) {
-            activeListeners.remove(ae.le);
-            activeListeners.notifyAll();
+        synchronized (queue) {
+          delivered++;
+          totalLatency += latency;
+          if (latency > maxLatency) {
+            maxLatency = latency;
           }
         }
       }
@@ -90,7 +90,7 @@ class Resolver {
   /**
    * Temporary map of package providers during a resolve operation.
    */
-  private HashMap<String, ExportPkg> tempProvider = null;
+  private ProviderMap tempProvider = null;
 
   /**
    * Temporary map of required bundle connections done during a resolve
@@ -130,6 +130,12 @@ class Resolver {
    */
   private Object resolveThread;
 
+  /**
+   * Key of the set of installed bundles that saved package wiring
+   * must match to be restored, null if saved wiring isn't used.
+   */
+  private volatile String savedWiringKey = null;
+
   /* Statistics to check need for tempBlackList */
   int tempBlackListChecks = 0;
   int tempBlackListHits = 0;
@@ -233,7 +239,7 @@ class Resolver {
       }
       resolveThread = Thread.currentThread();
       tempResolved = new HashSet<BundleGeneration>();
-      tempProvider = new HashMap<String, ExportPkg>();
+      tempProvider = new ProviderMap();
       tempRequired = new HashMap<RequireBundle, BundlePackages>();
       tempAttached = new HashMap<BundlePackages, List<BundlePackages>>();
       tempWires = new ArrayList<BundleWireImpl>();
@@ -425,7 +431,7 @@ class Resolver {
 
     HashSet<ExportPkg> baseTempBlackList = new HashSet<ExportPkg>();
     tempBlackList = new HashSet<ExportPkg>();
-    tempProvider = new HashMap<String, ExportPkg>();
+    tempProvider = new ProviderMap();
     tempRequired = new HashMap<RequireBundle, BundlePackages>();
     tempAttached = new HashMap<BundlePackages, List<BundlePackages>>();
     tempWires = new ArrayList<BundleWireImpl>();
@@ -750,7 +756,10 @@ class Resolver {
       if (framework.debug.resolver) {
         framework.debug.println("resolvePackages: check - " + ip.pkgString());
       }
-      List<ExportPkg> possibleProvider = new LinkedList<ExportPkg>();
+      if (restoreSavedWiring(ip)) {
+        continue;
+      }
+      List<ExportPkg> possibleProvider = new ArrayList<ExportPkg>();
       int n_resolved = 0;
       for (ExportPkg ep : ip.pkg.exporters) {
         int ss = framework.debug.resolver ? pkgFail.length() : 0;
@@ -835,12 +844,12 @@ class Resolver {
             }
             continue;
           }
-          final HashMap<String, ExportPkg> oldTempProvider = tempProviderClone();
+          final int oldTempProvider = tempProvider.mark();
           if (checkUses(ep.uses, ep, ep.bpkgs)) {
             provider = ep;
             break;
           } else {
-            tempProvider = oldTempProvider;
+            tempProvider.rollback(oldTempProvider);
             tempBlackList.add(ep);
             possibleProvider.remove(ep);
             if (pkgFail != null) {
@@ -886,9 +895,142 @@ class Resolver {
   }
 
 
-  @SuppressWarnings("unchecked")
-  private HashMap<String, ExportPkg> tempProviderClone() {
-    return (HashMap<String, ExportPkg>)tempProvider.clone();
+  /**
+   * Wire a package import to the provider that it was wired to when
+   * the framework was shut down, without searching for other
+   * candidates. The saved wiring is only used if the set of installed
+   * bundles is the same as when it was saved and no resolver hooks
+   * participate in the resolve. The provider must pass the same
+   * uses check as during a full resolve, otherwise the import is
+   * resolved as usual.
+   *
+   * @param ip Package import to restore.
+   * @return True if the import was restored from the saved wiring.
+   * @throws BundleException Resolver hook throw an exception.
+   */
+  private boolean restoreSavedWiring(ImportPkg ip) throws BundleException {
+    final String key = savedWiringKey;
+    final BundleArchive ba = ip.bpkgs.bg.archive;
+    if (key == null || ba == null || framework.resolverHooks.hasHooks()) {
+      return false;
+    }
+    final Map<String, Long> wiring = ba.getSavedPackageWiring(key);
+    if (wiring == null) {
+      return false;
+    }
+    final Long id = wiring.get(ip.name);
+    if (id == null) {
+      // An optional import that was not wired is left unwired
+      return !ip.mustBeResolved() && ip.internalOk == null;
+    }
+    final ExportPkg current = tempProvider.get(ip.name);
+    for (final ExportPkg ep : ip.pkg.exporters) {
+      if (ep.bpkgs.bg.bundle.id == id.longValue() && !ep.zombie
+          && !ep.bpkgs.bg.isFragment() && (current == null || current == ep)
+          && ip.checkAttributes(ep)
+          && (ip.bpkgs == ep.bpkgs || ip.checkPermission(ep))) {
+        if (current == ep) {
+          return true;
+        }
+        if (tempBlackList.contains(ep)) {
+          break;
+        }
+        if (ep.bpkgs.bg.bundle.state != Bundle.INSTALLED) {
+          // Same uses check as for any other resolved provider
+          final int oldTempProvider = tempProvider.mark();
+          if (!checkUses(ep.uses, ep, ep.bpkgs)) {
+            tempProvider.rollback(oldTempProvider);
+            if (framework.debug.resolver) {
+              framework.debug.println("resolvePackages: " + ip.name
+                                      + " - saved provider rejected because"
+                                      + " of uses directive - " + ep);
+            }
+            break;
+          }
+        } else if (!checkResolve(ep.bpkgs.bg, ep)) {
+          break;
+        }
+        if (framework.debug.resolver) {
+          framework.debug.println("resolvePackages: " + ip.name
+                                  + " - restored saved provider - " + ep);
+        }
+        tempProvider.put(ip.pkg.pkg, ep);
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /**
+   * Save the package wiring of all resolved bundles in bundle
+   * storage so that it can be restored at next start, if
+   * the set of installed bundles is unchanged.
+   *
+   * @param bundles All installed bundles.
+   */
+  synchronized void savePackageWiring(Collection<BundleImpl> bundles) {
+    final String key = bundleSetKey(bundles);
+    for (final BundleImpl b : bundles) {
+      if (b == framework.systemBundle) {
+        continue;
+      }
+      final BundleGeneration bg = b.current();
+      if (bg.archive == null || bg.isFragment()) {
+        continue;
+      }
+      HashMap<String, Long> wiring = null;
+      if (bg.bpkgs.isActive()) {
+        wiring = new HashMap<String, Long>();
+        for (final Iterator<ImportPkg> i = bg.bpkgs.getImports(); i.hasNext(); ) {
+          final ImportPkg ip = i.next();
+          if (ip.provider != null) {
+            wiring.put(ip.name, Long.valueOf(ip.provider.bpkgs.bg.bundle.id));
+          }
+        }
+      }
+      bg.archive.savePackageWiring(key, wiring);
+    }
+  }
+
+
+  /**
+   * Enable use of saved package wiring. Called when all bundles
+   * have been loaded from bundle storage.
+   *
+   * @param bundles All installed bundles.
+   */
+  void initSavedWiring(Collection<BundleImpl> bundles) {
+    savedWiringKey = bundleSetKey(bundles);
+  }
+
+
+  /**
+   * Stop using saved package wiring, since the set of installed
+   * bundles has changed.
+   */
+  void dropSavedWiring() {
+    savedWiringKey = null;
+  }
+
+
+  /**
+   * Get a key that identifies a set of installed bundles,
+   * based on their ids and last modified time.
+   */
+  private String bundleSetKey(Collection<BundleImpl> bundles) {
+    long h = 0;
+    int n = 0;
+    for (final BundleImpl b : bundles) {
+      if (b == framework.systemBundle) {
+        continue;
+      }
+      final BundleArchive ba = b.current().archive;
+      h = 31 * h + b.id;
+      h = 31 * h + (ba != null ? ba.getLastModified() : 0);
+      n++;
+    }
+    return n + ":" + Long.toHexString(h);
   }
 
 
@@ -927,7 +1069,7 @@ class Resolver {
         ip.internalOk = ep;
       }
       if (ep.bpkgs.bg.bundle.state != Bundle.INSTALLED) {
-        final HashMap<String, ExportPkg> oldTempProvider = tempProviderClone();
+        final int oldTempProvider = tempProvider.mark();
         if (checkUses(ep.uses, ep, ep.bpkgs)) {
           if (framework.debug.resolver) {
             framework.debug.println("pickProvider: " + ip +
@@ -935,7 +1077,7 @@ class Resolver {
           }
           return ep;
         } else {
-          tempProvider = oldTempProvider;
+          tempProvider.rollback(oldTempProvider);
           tempBlackList.add(ep);
           i.remove();
           if (failReason != null) {
@@ -957,7 +1099,7 @@ class Resolver {
           }
           return ep;
         } else if (ep.zombie) {
-          final HashMap<String, ExportPkg> oldTempProvider = tempProviderClone();
+          final int oldTempProvider = tempProvider.mark();
           if (checkUses(ep.uses, ep, ep.bpkgs)) {
             if (framework.debug.resolver) {
               framework.debug.println("pickProvider: " + ip +
@@ -965,7 +1107,7 @@ class Resolver {
             }
             return ep;
           }
-          tempProvider = oldTempProvider;
+          tempProvider.rollback(oldTempProvider);
           tempBlackList.add(ep);
           if (failReason != null) {
             newFailReason(failReason, "Uses directive block", ep);
@@ -1110,7 +1252,7 @@ class Resolver {
                   return true;
               }
               if (tempCollision != null) {
-                if (!savedState2.oldTempProvider.containsValue(tempCollision)) {
+                if (tempProvider.getAt(savedState2.oldTempProvider, tempCollision.name) != tempCollision) {
                   collisions.add(tempCollision);
                   retry = true;
                   tempCollision = null;
@@ -1294,15 +1436,32 @@ class Resolver {
           framework.debug.println("checkBundleRequirements: Check requirement: " + br);
         }
         final boolean reqPerm = framework.perm.hasRequirePermission(br);
-        List<BundleCapabilityImpl> bcs = capabilities.getCapabilities(namespace);
+        final int capGen = capabilities.getGeneration();
+        List<BundleCapabilityImpl> bcs = null;
+        if (br.noMatchGeneration != capGen) {
+          bcs = capabilities.getCapabilities(namespace, br.getNamespaceValue());
+          if (bcs == null) {
+            br.noMatchGeneration = capGen;
+          }
+        } else if (framework.debug.resolver) {
+          framework.debug.println("checkBundleRequirements: No capabilities changed since no match");
+        }
         BundleWireImpl found = null;
         if (bcs != null) {
-          List<BundleCapabilityImpl> mbcs = new LinkedList<BundleCapabilityImpl>();
+          List<BundleCapabilityImpl> mbcs = new ArrayList<BundleCapabilityImpl>();
+          boolean filterMatch = false;
           for (BundleCapabilityImpl bc : bcs) {
-            if (br.matches(bc) && bc.checkPermission() && (reqPerm || framework.perm.hasRequirePermission(br, bc))) {
-              mbcs.add(bc);
+            if (br.matches(bc)) {
+              filterMatch = true;
+              if (bc.checkPermission() && (reqPerm || framework.perm.hasRequirePermission(br, bc))) {
+                mbcs.add(bc);
+              }
             }
           }
+          if (!filterMatch) {
+            // Remember that nothing matched until capabilities change
+            br.noMatchGeneration = capGen;
+          }
           if (framework.resolverHooks.hasHooks()) {
             framework.resolverHooks.filterMatches(br, (Collection<? extends BundleCapability>) mbcs);
           }
@@ -1399,12 +1558,12 @@ class Resolver {
             ok = bg2;
             break;
           } else if (bg2.bpkgs.isActive()) {
-            final HashMap<String, ExportPkg> oldTempProvider = tempProviderClone();
+            final int oldTempProvider = tempProvider.mark();
             ok = bg2;
             for (final Iterator<ExportPkg> epi = bg2.bpkgs.getExports(); epi.hasNext();) {
               final ExportPkg ep = epi.next();
               if (!checkUses(ep.uses, ep, ep.bpkgs)) {
-                tempProvider = oldTempProvider;
+                tempProvider.rollback(oldTempProvider);
                 tempBlackList.add(ep);
                 ok = null;
                 break;
@@ -1571,7 +1730,7 @@ class Resolver {
   class SavedTempState {
 
     final HashSet<BundleGeneration> oldTempResolved;
-    final HashMap<String, ExportPkg> oldTempProvider;
+    final int oldTempProvider;
     final HashMap<RequireBundle, BundlePackages> oldTempRequired;
     final HashMap<BundlePackages, List<BundlePackages>> oldTempAttached;
     final HashSet<ExportPkg> oldTempBlackList;
@@ -1581,7 +1740,7 @@ class Resolver {
     SavedTempState()
     {
       oldTempResolved = (HashSet<BundleGeneration>)tempResolved.clone();
-      oldTempProvider = tempProviderClone();
+      oldTempProvider = tempProvider.mark();
       oldTempRequired = (HashMap<RequireBundle, BundlePackages>)tempRequired.clone();
       oldTempAttached = (HashMap<BundlePackages, List<BundlePackages>>)tempAttached.clone();
       oldTempBlackList = (HashSet<ExportPkg>)tempBlackList.clone();
@@ -1601,7 +1760,7 @@ class Resolver {
         }
       }
       tempResolved = oldTempResolved;
-      tempProvider = oldTempProvider;
+      tempProvider.rollback(oldTempProvider);
       tempRequired = oldTempRequired;
       tempAttached = oldTempAttached;
       tempBlackList = oldTempBlackList;
@@ -1609,4 +1768,74 @@ class Resolver {
     }
   }
 
+
+  /**
+   * Map from package name to temporary provider with an undo log.
+   * Changes done while trying a provider can be rolled back without
+   * copying the whole map at each choice point.
+   */
+  private static class ProviderMap {
+    private final HashMap<String, ExportPkg> map = new HashMap<String, ExportPkg>();
+
+    /**
+     * Package name and previous provider for each put.
+     */
+    private final ArrayList<Object> log = new ArrayList<Object>();
+
+    ExportPkg get(String pkg) {
+      return map.get(pkg);
+    }
+
+    void put(String pkg, ExportPkg ep) {
+      log.add(pkg);
+      log.add(map.put(pkg, ep));
+    }
+
+    Collection<ExportPkg> values() {
+      return map.values();
+    }
+
+    void clear() {
+      map.clear();
+      log.clear();
+    }
+
+    /**
+     * Get a mark for the current state that can be used to roll back to.
+     */
+    int mark() {
+      return log.size();
+    }
+
+    /**
+     * Undo all changes done after the mark was taken.
+     */
+    void rollback(int mark) {
+      for (int i = log.size() - 2; i >= mark; i -= 2) {
+        final String pkg = (String) log.get(i);
+        final ExportPkg old = (ExportPkg) log.get(i + 1);
+        if (old != null) {
+          map.put(pkg, old);
+        } else {
+          map.remove(pkg);
+        }
+      }
+      if (mark < log.size()) {
+        log.subList(mark, log.size()).clear();
+      }
+    }
+
+    /**
+     * Get the provider of a package at the time a mark was taken.
+     */
+    ExportPkg getAt(int mark, String pkg) {
+      for (int i = mark; i < log.size(); i += 2) {
+        if (pkg.equals(log.get(i))) {
+          return (ExportPkg) log.get(i + 1);
+        }
+      }
+      return map.get(pkg);
+    }
+  }
+
 }
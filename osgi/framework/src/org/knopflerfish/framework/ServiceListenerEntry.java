@@ -80,7 +80,7 @@ class ServiceListenerEntry
     throws InvalidSyntaxException {
     super(bc, l);
     if (filter != null) {
-      ldap = new LDAPExpr(filter);
+      ldap = bc.bundle.fwCtx.filterCache.getLDAPExpr(filter);
       noFiltering = l instanceof UnfilteredServiceListener;
     } else {
       ldap = null;
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index of registered services on the values of a
+ * configurable set of service properties. Used to answer service
+ * lookups where the filter requires one of the indexed properties
+ * to be equal to a given value without evaluating the filter
+ * against every registration of the requested class.
+ * <p>
+ * The index is updated by {@link Services} while holding the
+ * registry lock. It may be read without any lock, all arrays
+ * published by the index are immutable.
+ */
+class ServicePropertyIndex {
+
+  private static final ServiceRegistrationImpl<?>[] EMPTY
+    = new ServiceRegistrationImpl<?>[0];
+
+  /**
+   * Map from lower case property key to the index for that key.
+   * Never modified after construction.
+   */
+  private final HashMap<String, KeyIndex> keyIndexes
+    = new HashMap<String, KeyIndex>();
+
+
+  /**
+   * Index for one property key.
+   */
+  private static class KeyIndex {
+    /**
+     * Map from property value to registrations having that value,
+     * sorted in ranking order.
+     */
+    final ConcurrentHashMap<String, ServiceRegistrationImpl<?>[]> values
+      = new ConcurrentHashMap<String, ServiceRegistrationImpl<?>[]>();
+
+    /**
+     * Registrations with a value for the key that is not a string,
+     * or an array or collection of strings. Since we can not tell
+     * how the filter will compare them they are candidates in all
+     * lookups. Sorted in ranking order.
+     */
+    volatile ServiceRegistrationImpl<?>[] unindexed = null;
+  }
+
+
+  /**
+   * Create an index.
+   *
+   * @param keys Comma separated list of property keys to index.
+   */
+  ServicePropertyIndex(String keys) {
+    if (keys != null) {
+      for (final String key : Util.splitwords(keys, ",")) {
+        final String k = key.trim().toLowerCase();
+        if (k.length() > 0) {
+          keyIndexes.put(k, new KeyIndex());
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Add a service registration to the index.
+   *
+   * @param sr The service registration.
+   * @param props The properties to index the service registration by.
+   */
+  void add(ServiceRegistrationImpl<?> sr, PropertiesDictionary props) {
+    add(sr, props, null);
+  }
+
+
+  /**
+   * Add a service registration to the index for the values in
+   * <code>props</code> that it isn't already indexed by.
+   *
+   * @param sr The service registration.
+   * @param props The properties to index the service registration by.
+   * @param except The properties that the service registration already
+   *               is indexed by, or <code>null</code>.
+   */
+  void add(ServiceRegistrationImpl<?> sr, PropertiesDictionary props,
+           PropertiesDictionary except) {
+    for (final String key : keyIndexes.keySet()) {
+      final Object val = props.get(key);
+      if (val != null) {
+        final KeyIndex ki = keyIndexes.get(key);
+        final List<String> vals = getStringValues(val);
+        final Object eval = except != null ? except.get(key) : null;
+        final List<String> evals = eval != null ? getStringValues(eval) : null;
+        if (vals != null) {
+          for (final String v : vals) {
+            if (evals == null || !evals.contains(v)) {
+              ki.values.put(v, Services.insert(ki.values.get(v), sr));
+            }
+          }
+        } else if (eval == null || evals != null) {
+          ki.unindexed = Services.insert(ki.unindexed, sr);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Remove a service registration from the index.
+   *
+   * @param sr The service registration.
+   * @param props The properties that the service registration was
+   *              indexed by.
+   */
+  void remove(ServiceRegistrationImpl<?> sr, PropertiesDictionary props) {
+    remove(sr, props, null);
+  }
+
+
+  /**
+   * Remove a service registration from the index for the values in
+   * <code>props</code> that aren't in <code>except</code>.
+   *
+   * @param sr The service registration.
+   * @param props The properties that the service registration was
+   *              indexed by.
+   * @param except The properties that the service registration shall
+   *               stay indexed by, or <code>null</code>.
+   */
+  void remove(ServiceRegistrationImpl<?> sr, PropertiesDictionary props,
+              PropertiesDictionary except) {
+    for (final String key : keyIndexes.keySet()) {
+      final Object val = props.get(key);
+      if (val != null) {
+        final KeyIndex ki = keyIndexes.get(key);
+        final List<String> vals = getStringValues(val);
+        final Object eval = except != null ? except.get(key) : null;
+        final List<String> evals = eval != null ? getStringValues(eval) : null;
+        if (vals != null) {
+          for (final String v : vals) {
+            if (evals != null && evals.contains(v)) {
+              continue;
+            }
+            final ServiceRegistrationImpl<?>[] srs = ki.values.get(v);
+            if (srs != null) {
+              final ServiceRegistrationImpl<?>[] nsrs = Services.remove(srs, sr);
+              if (nsrs != null) {
+                ki.values.put(v, nsrs);
+              } else {
+                ki.values.remove(v);
+              }
+            }
+          }
+        } else if (ki.unindexed != null && (eval == null || evals != null)) {
+          ki.unindexed = Services.remove(ki.unindexed, sr);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Move a service registration to its new position in the ranking
+   * order, for all values it is indexed by.
+   *
+   * @param sr The service registration.
+   * @param props The properties that the service registration is
+   *              indexed by.
+   */
+  void reorder(ServiceRegistrationImpl<?> sr, PropertiesDictionary props) {
+    for (final String key : keyIndexes.keySet()) {
+      final Object val = props.get(key);
+      if (val != null) {
+        final KeyIndex ki = keyIndexes.get(key);
+        final List<String> vals = getStringValues(val);
+        if (vals != null) {
+          for (final String v : vals) {
+            final ServiceRegistrationImpl<?>[] srs = ki.values.get(v);
+            if (srs != null) {
+              ki.values.put(v, Services.insert(Services.remove(srs, sr), sr));
+            }
+          }
+        } else if (ki.unindexed != null) {
+          ki.unindexed = Services.insert(Services.remove(ki.unindexed, sr), sr);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Get the service registrations that may match the given filter.
+   * The index can be used if the filter is an equality term on an
+   * indexed key, or an AND expression with such a term as one of
+   * its operands. If several terms can be used, the one giving the
+   * fewest candidates is selected.
+   *
+   * @param ldap The filter.
+   * @return A sorted array of candidate service registrations, or
+   *         <code>null</code> if the index can not be used for the filter.
+   */
+  ServiceRegistrationImpl<?>[] getCandidates(LDAPExpr ldap) {
+    if (keyIndexes.isEmpty()) {
+      return null;
+    }
+    if (ldap.operator == LDAPExpr.EQ) {
+      return getCandidates(ldap, null);
+    } else if (ldap.operator == LDAPExpr.AND) {
+      ServiceRegistrationImpl<?>[] res = null;
+      for (final LDAPExpr arg : ldap.args) {
+        if (arg.operator == LDAPExpr.EQ) {
+          res = getCandidates(arg, res);
+          if (res != null && res.length == 0) {
+            break;
+          }
+        }
+      }
+      return res;
+    }
+    return null;
+  }
+
+
+  /**
+   * Clear the index.
+   */
+  void clear() {
+    for (final KeyIndex ki : keyIndexes.values()) {
+      ki.values.clear();
+      ki.unindexed = null;
+    }
+  }
+
+
+  /**
+   * Get candidates for a simple equality term.
+   *
+   * @param term The equality term.
+   * @param best Best candidates found so far, or <code>null</code>.
+   * @return The candidates for <code>term</code> if it can be answered
+   *         by the index and gives fewer candidates than <code>best</code>,
+   *         otherwise <code>best</code>.
+   */
+  private ServiceRegistrationImpl<?>[] getCandidates(LDAPExpr term,
+                                                     ServiceRegistrationImpl<?>[] best)
+  {
+    if (term.isWildcard()) {
+      return best;
+    }
+    final KeyIndex ki = keyIndexes.get(term.attrName.toLowerCase());
+    if (ki == null) {
+      return best;
+    }
+    ServiceRegistrationImpl<?>[] res = ki.values.get(term.attrValue);
+    final ServiceRegistrationImpl<?>[] unindexed = ki.unindexed;
+    if (unindexed != null) {
+      if (best != null && unindexed.length >= best.length) {
+        return best;
+      }
+      for (final ServiceRegistrationImpl<?> sr : unindexed) {
+        res = Services.insert(res, sr);
+      }
+    } else if (res == null) {
+      res = EMPTY;
+    }
+    if (best != null && res.length >= best.length) {
+      return best;
+    }
+    return res;
+  }
+
+
+  /**
+   * Get the string values of a property value.
+   *
+   * @return A list of strings or <code>null</code> if the value isn't
+   *         a string, an array of strings or a collection of strings.
+   */
+  private static List<String> getStringValues(Object val) {
+    final List<String> res = new ArrayList<String>(1);
+    if (val instanceof String) {
+      res.add((String) val);
+    } else if (val instanceof String[]) {
+      for (final String s : (String[]) val) {
+        if (s != null && !res.contains(s)) {
+          res.add(s);
+        }
+      }
+    } else if (val instanceof Collection) {
+      for (final Object o : (Collection<?>) val) {
+        if (o instanceof String) {
+          if (!res.contains(o)) {
+            res.add((String) o);
+          }
+        } else if (o != null) {
+          return null;
+        }
+      }
+    } else {
+      return null;
+    }
+    return res;
+  }
+
+}
@@ -91,7 +91,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
   /**
    * Service properties.
    */
-  private PropertiesDictionary properties;
+  volatile PropertiesDictionary properties;
 
   /**
    * Bundles dependent on this service. An Integer is used as
@@ -195,16 +195,11 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>
         synchronized (fwCtx.services) {
           synchronized (properties) {
             // NYI! Optimize the MODIFIED_ENDMATCH code
-            final Object old_rank = properties.get(Constants.SERVICE_RANKING);
             before = fwCtx.listeners.getMatchingServiceListeners(reference);
             final String[] classes = (String[])properties.get(Constants.OBJECTCLASS);
             final Long sid = (Long)properties.get(Constants.SERVICE_ID);
-            properties = new PropertiesDictionary(props, classes, sid, new Long(bundle.id), scope);
-            final Object new_rank = properties.get(Constants.SERVICE_RANKING);
-            if (old_rank != new_rank && new_rank instanceof Integer &&
-                !((Integer)new_rank).equals(old_rank)) {
-              fwCtx.services.updateServiceRegistrationOrder(this, classes);
-            }
+            fwCtx.services.updateServiceRegistrationProperties
+              (this, new PropertiesDictionary(props, classes, sid, new Long(bundle.id), scope));
           }
         }
         fwCtx.perm
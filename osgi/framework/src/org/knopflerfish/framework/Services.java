@@ -35,13 +35,14 @@
 package org.knopflerfish.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Dictionary;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -67,16 +68,29 @@ class Services {
    * Mapping of registered service to class names under which service
    * is registered.
    */
-  HashMap<ServiceRegistrationImpl<?>, String[]> services
-    = new HashMap<ServiceRegistrationImpl<?>, String[]>();
+  ConcurrentHashMap<ServiceRegistrationImpl<?>, String[]> services
+    = new ConcurrentHashMap<ServiceRegistrationImpl<?>, String[]>();
 
   /**
    * Mapping of class name to registered service.
-   * The List of registered service are order in with highest
-   * ranked service first.
+   * The array of registered service are order in with highest
+   * ranked service first. The arrays are never modified once
+   * published, changes are done by replacing the array with an
+   * updated copy while holding the lock of this object.
    */
-  private final HashMap<String,List<ServiceRegistrationImpl<?>>> classServices
-    = new HashMap<String, List<ServiceRegistrationImpl<?>>>();
+  private final ConcurrentHashMap<String, ServiceRegistrationImpl<?>[]> classServices
+    = new ConcurrentHashMap<String, ServiceRegistrationImpl<?>[]>();
+
+  /**
+   * If true, service lookups work on the currently published
+   * snapshots without taking the lock of this object.
+   */
+  private final boolean lockFreeLookup;
+
+  /**
+   * Index of registered services on selected service properties.
+   */
+  private final ServicePropertyIndex propertyIndex;
 
   /**
    * Handle to secure call class.
@@ -89,12 +103,15 @@ class Services {
   Services(FrameworkContext fwCtx, PermissionOps perm) {
     this.framework = fwCtx;
     secure = perm;
+    lockFreeLookup = fwCtx.props.getBooleanProperty(FWProps.REGISTRY_LOCKFREE_PROP);
+    propertyIndex = new ServicePropertyIndex(fwCtx.props.getProperty(FWProps.REGISTRY_INDEX_PROP));
   }
 
   void clear()
   {
     services.clear();
     classServices.clear();
+    propertyIndex.clear();
     secure = null;
     framework = null;
   }
@@ -165,15 +182,9 @@ class Services {
     synchronized (this) {
       services.put(res, classes);
       for (final String clazz : classes) {
-        List<ServiceRegistrationImpl<?>> s
-          = classServices.get(clazz);
-        if (s == null) {
-          s = new ArrayList<ServiceRegistrationImpl<?>>(1);
-          classServices.put(clazz, s);
-        }
-        final int ip = Math.abs(Util.binarySearch(s, sComp, res) + 1);
-        s.add(ip, res);
+        classServices.put(clazz, insert(classServices.get(clazz), res));
       }
+      propertyIndex.add(res, res.getProperties());
     }
     final ServiceReference<?> r = res.getReference();
     bundle.fwCtx.perm
@@ -196,9 +207,43 @@ class Services {
                                                    String[] classes)
   {
     for (final String clazz : classes) {
-      final List<ServiceRegistrationImpl<?>> s = classServices.get(clazz);
-      s.remove(sr);
-      s.add(Math.abs(Util.binarySearch(s, sComp, sr) + 1), sr);
+      classServices.put(clazz, insert(remove(classServices.get(clazz), sr), sr));
+    }
+  }
+
+
+  /**
+   * Change the properties of a service registration. The properties
+   * are swapped and the ranking order and the service property index
+   * are updated while holding the registry lock. New index entries
+   * are added before the swap and stale entries are removed after it,
+   * so that a lookup that doesn't take the lock never misses the
+   * service.
+   *
+   * @param sr The serviceRegistration object.
+   * @param newProps The new properties.
+   */
+  synchronized void updateServiceRegistrationProperties(ServiceRegistrationImpl<?> sr,
+                                                        PropertiesDictionary newProps)
+  {
+    final PropertiesDictionary oldProps = sr.getProperties();
+    final boolean registered = services.containsKey(sr);
+    if (registered) {
+      propertyIndex.add(sr, newProps, oldProps);
+    }
+    sr.properties = newProps;
+    final Object old_rank = oldProps.get(Constants.SERVICE_RANKING);
+    final Object new_rank = newProps.get(Constants.SERVICE_RANKING);
+    final boolean reorder = old_rank != new_rank && new_rank instanceof Integer &&
+      !((Integer)new_rank).equals(old_rank);
+    if (reorder) {
+      updateServiceRegistrationOrder(sr, (String[])newProps.get(Constants.OBJECTCLASS));
+    }
+    if (registered) {
+      propertyIndex.remove(sr, oldProps, newProps);
+      if (reorder) {
+        propertyIndex.reorder(sr, newProps);
+      }
     }
   }
 
@@ -253,13 +298,17 @@ class Services {
    * @return A sorted list of {@link ServiceRegistrationImpl} objects
    *         or null if no services is available.
    */
-  synchronized List<ServiceRegistrationImpl<?>> get(String clazz) {
-    final List<ServiceRegistrationImpl<?>> v = classServices.get(clazz);
+  List<ServiceRegistrationImpl<?>> get(String clazz) {
+    final ServiceRegistrationImpl<?>[] v;
+    if (lockFreeLookup) {
+      v = classServices.get(clazz);
+    } else {
+      synchronized (this) {
+        v = classServices.get(clazz);
+      }
+    }
     if (v != null) {
-      @SuppressWarnings({ "rawtypes", "unchecked" })
-      final List<ServiceRegistrationImpl<?>> res
-        = (List<ServiceRegistrationImpl<?>>) ((ArrayList) v).clone();
-      return res;
+      return new ArrayList<ServiceRegistrationImpl<?>>(Arrays.asList(v));
     }
     return null;
   }
@@ -275,7 +324,7 @@ class Services {
    * same source for the registration class.
    * @return A {@link ServiceReference} object.
    */
-  synchronized ServiceReference<?> get(BundleImpl bundle, String clazz, boolean doAssignableToTest) {
+  ServiceReference<?> get(BundleImpl bundle, String clazz, boolean doAssignableToTest) {
     try {
       final ServiceReference<?>[] srs = get(clazz, null, bundle, doAssignableToTest);
       if (framework.debug.service_reference) {
@@ -302,36 +351,62 @@ class Services {
    * same source for the registration class.
    * @return An array of {@link ServiceReference} object.
    */
-  synchronized ServiceReference<?>[] get(String clazz, String filter, BundleImpl bundle, boolean doAssignableToTest)
+  ServiceReference<?>[] get(String clazz, String filter, BundleImpl bundle, boolean doAssignableToTest)
+    throws InvalidSyntaxException {
+    if (lockFreeLookup) {
+      return lookup(clazz, filter, bundle, doAssignableToTest);
+    }
+    synchronized (this) {
+      return lookup(clazz, filter, bundle, doAssignableToTest);
+    }
+  }
+
+
+  /**
+   * Implementation of {@link #get(String, String, BundleImpl, boolean)}.
+   * Only reads the published snapshots of the registry, so it may be
+   * called without holding the lock of this object.
+   */
+  private ServiceReference<?>[] lookup(String clazz, String filter, BundleImpl bundle, boolean doAssignableToTest)
     throws InvalidSyntaxException {
     Iterator<ServiceRegistrationImpl<?>> s;
     LDAPExpr ldap = null;
+    // Class that candidates must be registered under, when not
+    // implied by how the candidates were selected.
+    String checkClass = null;
     if (clazz == null) {
       if (filter != null) {
-        ldap = new LDAPExpr(filter);
+        ldap = framework.filterCache.getLDAPExpr(filter);
+        final ServiceRegistrationImpl<?>[] indexed = propertyIndex.getCandidates(ldap);
         final Set<String> matched = ldap.getMatchedObjectClasses();
         if (matched != null) {
           List<ServiceRegistrationImpl<?>> v = null;
           boolean vReadOnly = true;;
           for (final String match : matched) {
-            final List<ServiceRegistrationImpl<?>> cl = classServices.get(match);
+            final ServiceRegistrationImpl<?>[] cl = classServices.get(match);
             if (cl != null) {
               if (v == null) {
-                v = cl;
+                v = Arrays.asList(cl);
               } else {
                 if (vReadOnly) {
                   v = new ArrayList<ServiceRegistrationImpl<?>>(v);
                   vReadOnly = false;
                 }
-                v.addAll(cl);
+                v.addAll(Arrays.asList(cl));
               }
             }
           }
           if (v != null) {
-            s = v.iterator();
+            if (indexed != null && indexed.length < v.size()) {
+              s = Arrays.asList(indexed).iterator();
+            } else {
+              s = v.iterator();
+            }
           } else {
             return null;
           }
+        } else if (indexed != null) {
+          s = Arrays.asList(indexed).iterator();
         } else {
           s = services.keySet().iterator();
         }
@@ -339,20 +414,28 @@ class Services {
         s = services.keySet().iterator();
       }
     } else {
-      final List<ServiceRegistrationImpl<?>> v = classServices.get(clazz);
+      final ServiceRegistrationImpl<?>[] v = classServices.get(clazz);
       if (v != null) {
-        s = v.iterator();
+        s = Arrays.asList(v).iterator();
       } else {
         return null;
       }
       if (filter != null) {
-        ldap = new LDAPExpr(filter);
+        ldap = framework.filterCache.getLDAPExpr(filter);
+        final ServiceRegistrationImpl<?>[] indexed = propertyIndex.getCandidates(ldap);
+        if (indexed != null && indexed.length < v.length) {
+          s = Arrays.asList(indexed).iterator();
+          checkClass = clazz;
+        }
       }
     }
     Collection<ServiceReference<?>> res
       = new ArrayList<ServiceReference<?>>();
     while (s.hasNext()) {
       final ServiceRegistrationImpl<?> sr = s.next();
+      if (checkClass != null && !isRegisteredAs(sr, checkClass)) {
+        continue;
+      }
       ServiceReference<?> sri = sr.getReference();
       if (!secure.okGetServicePerms(sri)) {
         continue; //sr not part of returned set
@@ -360,6 +443,10 @@ class Services {
       if (filter == null || ldap.evaluate(sr.getProperties(), false)) {
         if (doAssignableToTest) {
           final String[] classes = services.get(sr);
+          if (classes == null) {
+            // Unregistered after we took our snapshot
+            continue;
+          }
           for (int i = 0; i < classes.length; i++) {
             if (!sri.isAssignableTo(bundle, classes[i])){
               sri = null;
@@ -397,6 +484,23 @@ class Services {
   }
 
 
+  /**
+   * Check if a service registration is registered under the given
+   * class name.
+   */
+  private boolean isRegisteredAs(ServiceRegistrationImpl<?> sr, String clazz) {
+    final String[] classes = services.get(sr);
+    if (classes != null) {
+      for (final String c : classes) {
+        if (c.equals(clazz)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+
   /**
    * Remove a registered service.
    *
@@ -405,10 +509,11 @@ class Services {
   synchronized void removeServiceRegistration(ServiceRegistrationImpl<?> sr) {
     final String[] classes = (String[]) sr.getProperty(Constants.OBJECTCLASS);
     services.remove(sr);
+    propertyIndex.remove(sr, sr.getProperties());
     for (final String clazz : classes) {
-      final List<ServiceRegistrationImpl<?>> s = classServices.get(clazz);
-      if (s.size() > 1) {
-        s.remove(sr);
+      final ServiceRegistrationImpl<?>[] s = remove(classServices.get(clazz), sr);
+      if (s != null) {
+        classServices.put(clazz, s);
       } else {
         classServices.remove(clazz);
       }
@@ -416,6 +521,56 @@ class Services {
   }
 
 
+  /**
+   * Create a copy of a sorted array of service registrations with
+   * an additional element inserted according to the service ranking
+   * order.
+   *
+   * @param srs Sorted array to insert into, may be <code>null</code>.
+   * @param sr The service registration to insert.
+   * @return A new sorted array.
+   */
+  static ServiceRegistrationImpl<?>[] insert(ServiceRegistrationImpl<?>[] srs,
+                                                     ServiceRegistrationImpl<?> sr)
+  {
+    if (srs == null) {
+      return new ServiceRegistrationImpl<?>[] { sr };
+    }
+    final int ip = Math.abs(Util.binarySearch(Arrays.asList(srs), sComp, sr) + 1);
+    final ServiceRegistrationImpl<?>[] res = new ServiceRegistrationImpl<?>[srs.length + 1];
+    System.arraycopy(srs, 0, res, 0, ip);
+    res[ip] = sr;
+    System.arraycopy(srs, ip, res, ip + 1, srs.length - ip);
+    return res;
+  }
+
+
+  /**
+   * Create a copy of an array of service registrations without the
+   * given element.
+   *
+   * @param srs Array to remove from.
+   * @param sr The service registration to remove.
+   * @return A new array or <code>null</code> if the result is empty.
+   */
+  static ServiceRegistrationImpl<?>[] remove(ServiceRegistrationImpl<?>[] srs,
+                                                     ServiceRegistrationImpl<?> sr)
+  {
+    for (int i = 0; i < srs.length; i++) {
+      if (srs[i] == sr) {
+        if (srs.length == 1) {
+          return null;
+        }
+        final ServiceRegistrationImpl<?>[] res = new ServiceRegistrationImpl<?>[srs.length - 1];
+        System.arraycopy(srs, 0, res, 0, i);
+        System.arraycopy(srs, i + 1, res, i, res.length - i);
+        return res;
+      }
+    }
+    return srs;
+  }
+
+
   /**
    * Get all services that a bundle has registered.
    *
@@ -35,6 +35,10 @@
 package org.knopflerfish.framework;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 
 import org.osgi.framework.Bundle;
@@ -47,6 +51,7 @@ import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.startlevel.dto.BundleStartLevelDTO;
 import org.osgi.framework.startlevel.dto.FrameworkStartLevelDTO;
+import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.service.startlevel.StartLevel;
 
 
@@ -87,6 +92,10 @@ public class StartLevelController
 
   final private boolean readOnly;
 
+  // Max number of threads used to start the bundles of a start level,
+  // one or less means that the bundles are started sequentially.
+  final private int startThreads;
+
 
   StartLevelController(FrameworkContext fwCtx)
   {
@@ -94,6 +103,15 @@ public class StartLevelController
     bCompat = fwCtx.props.getBooleanProperty(FWProps.STARTLEVEL_COMPAT_PROP);
 
     readOnly = fwCtx.props.getBooleanProperty(FWProps.READ_ONLY_PROP);
+    int n = 1;
+    try {
+      n = Integer.parseInt(fwCtx.props.getProperty(FWProps.STARTLEVEL_THREADS_PROP));
+    } catch (final NumberFormatException nfe) {
+      fwCtx.frameworkWarning(fwCtx.systemBundle,
+                             new Exception("Failed to parse "
+                                           + FWProps.STARTLEVEL_THREADS_PROP, nfe));
+    }
+    startThreads = n;
     storage = Util.getFileStorage(fwCtx, "startlevel", !readOnly);
 
     // Create first job to goto beginning start-level
@@ -286,32 +304,191 @@ public class StartLevelController
 
       Util.sort(set, BSComparator, false);
 
-      for (int i = 0; i < set.size(); i++) {
-        final BundleImpl bs = set.elementAt(i);
-        BundleArchive archive = bs.current().archive;
-        if (archive != null) {
+      final long t0 = System.currentTimeMillis();
+      if (startThreads > 1 && set.size() > 1) {
+        startParallel(set);
+        final long t = System.currentTimeMillis() - t0;
+        fwCtx.frameworkInfo(fwCtx.systemBundle,
+                            new Exception("Start level " + currentLevel
+                                          + ": started " + set.size()
+                                          + " bundles in " + t + " ms"));
+      } else {
+        for (int i = 0; i < set.size(); i++) {
+          startBundle(set.elementAt(i));
+        }
+      }
+      if (fwCtx.debug.startlevel) {
+        fwCtx.debug.println("startlevel: level " + currentLevel + " started "
+                            + set.size() + " bundles in "
+                            + (System.currentTimeMillis() - t0) + " ms");
+      }
+    }
+  }
+
+
+  /**
+   * Start a bundle as part of increasing the start level.
+   */
+  private void startBundle(final BundleImpl bs) {
+    BundleArchive archive = bs.current().archive;
+    if (archive != null) {
+      try {
+        if (bs.current().archive.getAutostartSetting()!=-1) {
+          if (fwCtx.debug.startlevel) {
+            fwCtx.debug.println("startlevel: start " + bs);
+          }
+          int startOptions = Bundle.START_TRANSIENT;
+          if (isBundleActivationPolicyUsed(bs.current().archive)) {
+            startOptions |= Bundle.START_ACTIVATION_POLICY;
+          }
+          bs.start(startOptions);
+        }
+      } catch (final IllegalStateException ignore) {
+        // Tried to start an uninstalled bundle, skip
+      } catch (final Exception e) {
+        fwCtx.frameworkError(bs, e);
+      }
+    }
+  }
+
+
+  /**
+   * Start a set of bundles using several threads. The bundles are
+   * first resolved, then divided into groups of bundles that are
+   * wired to each other. Each group is started in order by one
+   * thread while different groups are started in parallel. Returns
+   * when all bundles have been started.
+   *
+   * @param set Bundles to start sorted in start order.
+   */
+  private void startParallel(final Vector<BundleImpl> set) {
+    synchronized (fwCtx.resolver) {
+      for (final BundleImpl bs : set) {
+        if (bs.getState() == Bundle.INSTALLED && !bs.current().isFragment()) {
           try {
-            if (bs.current().archive.getAutostartSetting()!=-1) {
-              if (fwCtx.debug.startlevel) {
-                fwCtx.debug.println("startlevel: start " + bs);
-              }
-              int startOptions = Bundle.START_TRANSIENT;
-              if (isBundleActivationPolicyUsed(bs.current().archive)) {
-                startOptions |= Bundle.START_ACTIVATION_POLICY;
+            bs.getUpdatedState(new BundleImpl [] { bs }, false);
+          } catch (final Exception ignore) {
+            // Reported when we try to start the bundle
+          }
+        }
+      }
+    }
+
+    final List<List<BundleImpl>> groups = groupByWiring(set);
+    final int n = Math.min(startThreads, groups.size());
+    if (fwCtx.debug.startlevel) {
+      fwCtx.debug.println("startlevel: start " + set.size() + " bundles in "
+                          + groups.size() + " groups using " + n + " threads");
+    }
+    final Iterator<List<BundleImpl>> gi = groups.iterator();
+    final Thread [] threads = new Thread[n];
+    for (int i = 0; i < n; i++) {
+      threads[i] = new Thread(fwCtx.threadGroup, "startlevel start#" + i) {
+        @Override
+        public void run() {
+          while (true) {
+            List<BundleImpl> group;
+            synchronized (gi) {
+              if (!gi.hasNext()) {
+                return;
               }
-              bs.start(startOptions);
+              group = gi.next();
+            }
+            for (final BundleImpl bs : group) {
+              startBundle(bs);
             }
-          } catch (final IllegalStateException ignore) {
-            // Tried to start an uninstalled bundle, skip
-          } catch (final Exception e) {
-            fwCtx.frameworkError(bs, e);
           }
         }
+      };
+      threads[i].start();
+    }
+    for (final Thread t : threads) {
+      while (t.isAlive()) {
+        try {
+          t.join();
+        } catch (final InterruptedException _ignore) { }
       }
     }
   }
 
 
+  /**
+   * Divide bundles into groups so that bundles that are wired to each
+   * other, through imported packages, required bundles or other
+   * requirements, end up in the same group.
+   *
+   * @param set Bundles to group sorted in start order.
+   * @return List of groups, each group keeping the order of <code>set</code>.
+   */
+  private List<List<BundleImpl>> groupByWiring(final Vector<BundleImpl> set) {
+    final HashMap<BundleImpl, Integer> index = new HashMap<BundleImpl, Integer>();
+    final int [] parent = new int[set.size()];
+    for (int i = 0; i < parent.length; i++) {
+      index.put(set.elementAt(i), i);
+      parent[i] = i;
+    }
+    for (int i = 0; i < parent.length; i++) {
+      final BundleGeneration gen = set.elementAt(i).current();
+      final List<Bundle> providers = new ArrayList<Bundle>();
+      if (gen.bpkgs != null) {
+        for (final Iterator<ImportPkg> ii = gen.bpkgs.getImports(); ii.hasNext(); ) {
+          final ExportPkg ep = ii.next().provider;
+          if (ep != null) {
+            providers.add(ep.bpkgs.bg.bundle);
+          }
+        }
+        for (final Iterator<RequireBundle> ri = gen.bpkgs.getRequire(); ri.hasNext(); ) {
+          final RequireBundle rb = ri.next();
+          if (rb.bpkgs != null) {
+            providers.add(rb.bpkgs.bg.bundle);
+          }
+        }
+      }
+      for (final BundleWireImpl wire : gen.getRequirementWires()) {
+        final BundleRevision br = wire.getProvider();
+        if (br != null) {
+          providers.add(br.getBundle());
+        }
+      }
+      for (final Bundle b : providers) {
+        final Integer j = index.get(b);
+        if (j != null) {
+          final int ri = findRoot(parent, i);
+          final int rj = findRoot(parent, j.intValue());
+          // Keep the root at the lowest index to preserve start order
+          if (ri < rj) {
+            parent[rj] = ri;
+          } else {
+            parent[ri] = rj;
+          }
+        }
+      }
+    }
+    final List<List<BundleImpl>> res = new ArrayList<List<BundleImpl>>();
+    final HashMap<Integer, List<BundleImpl>> groups = new HashMap<Integer, List<BundleImpl>>();
+    for (int i = 0; i < parent.length; i++) {
+      final Integer root = Integer.valueOf(findRoot(parent, i));
+      List<BundleImpl> group = groups.get(root);
+      if (group == null) {
+        group = new ArrayList<BundleImpl>();
+        groups.put(root, group);
+        res.add(group);
+      }
+      group.add(set.elementAt(i));
+    }
+    return res;
+  }
+
+
+  private static int findRoot(final int [] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+
   void decreaseStartLevel() {
     synchronized (lock) {
       currentLevel--;
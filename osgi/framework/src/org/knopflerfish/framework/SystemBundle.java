@@ -1060,6 +1060,9 @@ public class SystemBundle extends BundleImpl implements Framework {
       }
     }
 
+    // Save wiring to restore at next start
+    fwCtx.resolver.savePackageWiring(fwCtx.bundles.getBundles());
+
     // Set state to INSTALLED and purge any unrefreshed bundles
     for (final BundleImpl bundleImpl : fwCtx.bundles.getBundles()) {
       final BundleImpl b = bundleImpl;
@@ -135,6 +135,18 @@ public class Archive implements FileArchive {
    */
   protected ZipFile jar = null;
 
+  /**
+   * Memory mapped and indexed view of the JAR file, or null if
+   * not used.
+   */
+  private MappedZip mzip = null;
+
+  /**
+   * Prefix of entries in mzip that belongs to this archive. Non-empty
+   * if this is a sub archive that is a directory in the JAR file.
+   */
+  private String mzipPrefix = "";
+
   /**
    * Certificates for this archive.
    */
@@ -316,6 +328,7 @@ public class Archive implements FileArchive {
           processSignedJar(file);
         }
         jar = new ZipFile(file);
+        mzip = openMapped(file);
       }
     }
     if (manifest != null) {
@@ -402,6 +415,7 @@ public class Archive implements FileArchive {
 
     if (!file.isDirectory()) {
       jar = new ZipFile(file);
+      mzip = openMapped(file);
     }
     if (ba.storage.checkSigned) {
       loadCertificates();
@@ -440,12 +454,60 @@ public class Archive implements FileArchive {
         throw new IOException("No such JAR component: " + path);
       }
       res.file = file;
+      if (mzip != null) {
+        if (res.subJar.isDirectory()) {
+          res.mzip = mzip;
+          res.mzipPrefix = mzipPrefix + res.subJar.getName();
+        } else {
+          try {
+            res.mzip = mzip.getNested(res.subJar.getName());
+          } catch (final IOException _ignore) {
+            // Use the slower JarInputStream based access
+          }
+        }
+      }
     } else {
       res.file = findFile(file, path);
       if (!res.file.isDirectory()) {
         res.jar = new ZipFile(res.file);
+        res.mzip = openMapped(res.file);
+      }
+    }
+    return res;
+  }
+
+
+  /**
+   * Memory map and index a JAR file if configured to do so.
+   *
+   * @param f The JAR file.
+   * @return The mapped JAR file or null if not configured or if the
+   *         file could not be mapped, e.g. because it is a ZIP64 file.
+   */
+  private MappedZip openMapped(File f) {
+    if (ba.storage.mmap) {
+      try {
+        return MappedZip.open(f);
+      } catch (final IOException _ignore) {
+        // Not possible to map, use ZipFile
       }
     }
+    return null;
+  }
+
+
+  /**
+   * Get an entry from the mapped JAR file. As for {@link ZipFile#getEntry},
+   * a directory entry is found also when the name lacks the trailing "/".
+   *
+   * @param name Name of entry relative to this archive.
+   * @return The entry or null if not found.
+   */
+  private MappedZip.Entry getMappedEntry(String name) {
+    MappedZip.Entry res = mzip.getEntry(mzipPrefix + name);
+    if (res == null && !name.endsWith("/")) {
+      res = mzip.getEntry(mzipPrefix + name + "/");
+    }
     return res;
   }
 
@@ -509,6 +571,17 @@ public class Archive implements FileArchive {
   }
 
 
+  /**
+   * Get a key that identifies the current content of this archive.
+   * Based on path, last modified time and size of the archive file.
+   *
+   * @return Key string.
+   */
+  String getSnapshotKey() {
+    return file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
+  }
+
+
   /**
    * Get bundle id for this archive.
    */
@@ -553,6 +626,12 @@ public class Archive implements FileArchive {
     if (bClosed) {
       return null;
     }
+    final MappedZip mz = mzip;
+    if (mz != null) {
+      // Copy the class bytes once, straight into an array of the right size
+      final MappedZip.Entry me = getMappedEntry(classFile);
+      return me != null ? mz.getBytes(me) : null;
+    }
     final BundleResourceStream cif = getBundleResourceStream(classFile);
     if (cif != null) {
       byte[] bytes;
@@ -562,20 +641,27 @@ public class Archive implements FileArchive {
         final DataInputStream dis = new DataInputStream(cif);
         dis.readFully(bytes);
       } else {
-        bytes = new byte[0];
-        final byte[] tmp = new byte[8192];
+        bytes = new byte[8192];
+        int pos = 0;
         try {
           int len;
-          while ((len = cif.read(tmp)) > 0) {
-            final byte[] oldbytes = bytes;
-            bytes = new byte[oldbytes.length + len];
-            System.arraycopy(oldbytes, 0, bytes, 0, oldbytes.length);
-            System.arraycopy(tmp, 0, bytes, oldbytes.length, len);
+          while ((len = cif.read(bytes, pos, bytes.length - pos)) > 0) {
+            pos += len;
+            if (pos == bytes.length) {
+              final byte[] oldbytes = bytes;
+              bytes = new byte[2 * oldbytes.length];
+              System.arraycopy(oldbytes, 0, bytes, 0, pos);
+            }
           }
         } catch (final EOFException ignore) {
           // On Pjava we somtimes get a mysterious EOF excpetion,
           // but everything seems okey. (SUN Bug 4040920)
         }
+        if (pos < bytes.length) {
+          final byte[] oldbytes = bytes;
+          bytes = new byte[pos];
+          System.arraycopy(oldbytes, 0, bytes, 0, pos);
+        }
       }
       cif.close();
       return bytes;
@@ -598,7 +684,15 @@ public class Archive implements FileArchive {
     }
     ZipEntry ze;
     try {
-      if (jar != null) {
+      final MappedZip mz = mzip;
+      if (mz != null) {
+        if (component.equals("") && mzipPrefix.length() == 0) {
+          // Return a stream to the entire Jar.
+          return new BundleResourceStream(mz.getInputStream(), mz.size());
+        }
+        final MappedZip.Entry me = getMappedEntry(component);
+        return me != null ? new BundleResourceStream(mz.getInputStream(me), me.size) : null;
+      } else if (jar != null) {
         if (subJar != null) {
           if (subJar.isDirectory()) {
             ze = jar.getEntry(subJar.getName() + component);
@@ -754,7 +848,14 @@ public class Archive implements FileArchive {
       throw new RuntimeException("Assert! Path should never start with / here");
     }
     try {
-      if (jar != null) {
+      final MappedZip mz = mzip;
+      if (mz != null) {
+        if (path.length() > 0 && !path.endsWith("/")) {
+          path = path + "/";
+        }
+        final Set<String> res = mz.listDir(mzipPrefix + path);
+        return res != null ? new HashSet<String>(res) : new HashSet<String>();
+      } else if (jar != null) {
         if (path.length() > 0 && !path.endsWith("/")) {
           path = path + "/";
         }
@@ -799,13 +900,14 @@ public class Archive implements FileArchive {
     ZipEntry ze;
     HashSet<String> res = new HashSet<String>();
     try {
-      for (ze = ji.getNextJarEntry(); ze != null; ) {
+      for (ze = ji.getNextJarEntry(); ze != null; ze = ji.getNextJarEntry()) {
         String e = matchPath(path, ze.getName());
         if (e != null) {
           res.add(e);
         }
       }
-    } catch (IOException ioe) {
+    } catch (IOException _ignore) {
+    } finally {
       try {
         ji.close();
       } catch (IOException _ignore) {
@@ -847,7 +949,12 @@ public class Archive implements FileArchive {
     }
     ZipEntry ze;
     try {
-      if (jar != null) {
+      final MappedZip mz = mzip;
+      if (mz != null) {
+        final String p = mzipPrefix + path;
+        final String dir = p.endsWith("/") ? p : p + "/";
+        return mz.isDirectory(dir) || (!onlyDirs && mz.getEntry(p) != null);
+      } else if (jar != null) {
         if (onlyDirs && !path.endsWith("/")) {
           path = path + "/";
         }
@@ -868,7 +975,7 @@ public class Archive implements FileArchive {
               if (onlyDirs && !path.endsWith("/")) {
                 path = path + "/";
               }
-              for (ze = ji.getNextJarEntry(); ze != null; ) {
+              for (ze = ji.getNextJarEntry(); ze != null; ze = ji.getNextJarEntry()) {
                 n = ze.getName();
                 if (onlyDirs) {
                   if (n.startsWith(path)) {
@@ -1170,6 +1277,7 @@ public class Archive implements FileArchive {
    */
   void close() {
     bClosed = true; // Mark as closed to safely handle referenced files
+    mzip = null;
     if (subJar == null && jar != null) {
       try {
         jar.close();
@@ -34,6 +34,8 @@
 
 package org.knopflerfish.framework.bundlestorage.file;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -46,8 +48,10 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.knopflerfish.framework.BundleArchive;
@@ -79,6 +83,7 @@ public class BundleArchiveImpl implements BundleArchive
   private final static String AUTOSTART_FILE     = "autostart";
   private final static String STARTLEVEL_FILE    = "startlevel";
   private final static String LAST_MODIFIED_FILE = "lastModifed";
+  private final static String WIRING_FILE        = "wiring";
 
 
   final BundleStorageImpl storage;
@@ -109,6 +114,10 @@ public class BundleArchiveImpl implements BundleArchive
   
   private ArrayList<Exception> warnings = null;
 
+  private Map<String, Long> savedWiring = null;
+
+  private String savedWiringKey = null;
+
 
   /**
    * Construct new bundle archive.
@@ -181,6 +190,9 @@ public class BundleArchiveImpl implements BundleArchive
     storage = bundleStorage;
     archive = storage.createArchive(this, bundleDir, rev);
     archive.restoreArchive();
+    if (storage.wiringSnapshot) {
+      savedWiring = loadWiring();
+    }
   }
 
 
@@ -409,6 +421,54 @@ public class BundleArchiveImpl implements BundleArchive
   }
 
 
+  /**
+   * Get package wiring saved at last shutdown, if the archive
+   * and the set of installed bundles haven't changed since it was saved.
+   */
+  public Map<String, Long> getSavedPackageWiring(String bundleSetKey) {
+    if (savedWiring != null && bundleSetKey.equals(savedWiringKey)) {
+      return savedWiring;
+    }
+    return null;
+  }
+
+
+  /**
+   * Save package wiring, if enabled, so that it can be used
+   * at next restart.
+   */
+  public void savePackageWiring(String bundleSetKey, Map<String, Long> wiring) {
+    if (!storage.wiringSnapshot || storage.isReadOnly()) {
+      return;
+    }
+    final File f = new File(bundleDir, WIRING_FILE);
+    if (wiring == null) {
+      f.delete();
+      return;
+    }
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+      out.writeUTF(archive.getSnapshotKey());
+      out.writeUTF(bundleSetKey);
+      out.writeInt(wiring.size());
+      for (final Map.Entry<String, Long> e : wiring.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeLong(e.getValue().longValue());
+      }
+    } catch (final IOException ioe) {
+      f.delete();
+      frameworkWarning(new IOException("Failed to save wiring", ioe));
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (final IOException ignore) { }
+      }
+    }
+  }
+
+
   /**
    */
   public Enumeration<String> findResourcesPath(String path) {
@@ -592,6 +652,37 @@ public class BundleArchiveImpl implements BundleArchive
     return null;
   }
 
+  /**
+   * Read saved package wiring, check that it was saved for the
+   * current content of the archive.
+   *
+   * @return Saved wiring or null if none or if it is not valid.
+   */
+  private Map<String, Long> loadWiring() {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(bundleDir, WIRING_FILE))));
+      if (archive.getSnapshotKey().equals(in.readUTF())) {
+        savedWiringKey = in.readUTF();
+        final int n = in.readInt();
+        final HashMap<String, Long> res = new HashMap<String, Long>(2 * n);
+        for (int i = 0; i < n; i++) {
+          final String pkg = in.readUTF();
+          res.put(pkg, Long.valueOf(in.readLong()));
+        }
+        return res;
+      }
+    } catch (final IOException ignore) {
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (final IOException ignore) { }
+      }
+    }
+    return null;
+  }
+
   /**
    * Write string to named file.
    *
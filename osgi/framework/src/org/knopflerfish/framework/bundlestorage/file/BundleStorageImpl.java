@@ -65,6 +65,10 @@ public class BundleStorageImpl implements BundleStorage {
     "org.knopflerfish.framework.bundlestorage.file.unpack";
   public final static String JAR_VERIFIER_BUG_PROP =
     "org.knopflerfish.framework.bundlestorage.file.jar_verifier_bug";
+  public final static String MMAP_PROP =
+    "org.knopflerfish.framework.bundlestorage.file.mmap";
+  public final static String WIRING_SNAPSHOT_PROP =
+    "org.knopflerfish.framework.bundlestorage.file.wiring_snapshot";
 
   /**
    * Controls if we should try to unpack bundles with sub-jars and
@@ -89,6 +93,18 @@ public class BundleStorageImpl implements BundleStorage {
    */
   protected boolean unpack;
 
+  /**
+   * Controls if we should memory map bundle jars and read
+   * classes and resources from the mapped content.
+   */
+  protected boolean mmap;
+
+  /**
+   * Controls if we should save package wiring at shutdown and
+   * use it when resolving after restart.
+   */
+  protected boolean wiringSnapshot;
+
   /**
    * Optional OS-command to set executable permission on native code.
    */
@@ -357,10 +373,14 @@ public class BundleStorageImpl implements BundleStorage {
     props.setPropertyDefault(TRUSTED_PROP, FWProps.TRUE);
     props.setPropertyDefault(UNPACK_PROP, FWProps.TRUE);
     props.setPropertyDefault(JAR_VERIFIER_BUG_PROP, FWProps.FALSE);
+    props.setPropertyDefault(MMAP_PROP, FWProps.FALSE);
+    props.setPropertyDefault(WIRING_SNAPSHOT_PROP, FWProps.FALSE);
     alwaysUnpack = props.getBooleanProperty(ALWAYS_UNPACK_PROP);
     fileReference = props.getBooleanProperty(REFERENCE_PROP);
     trustedStorage = props.getBooleanProperty(TRUSTED_PROP);
     unpack = props.getBooleanProperty(UNPACK_PROP);
+    mmap = props.getBooleanProperty(MMAP_PROP);
+    wiringSnapshot = props.getBooleanProperty(WIRING_SNAPSHOT_PROP);
     execPermCmd = props.getProperty(Constants.FRAMEWORK_EXECPERMISSION).trim();
     checkSigned = props.getBooleanProperty(FWProps.BUNDLESTORAGE_CHECKSIGNED_PROP);
     isWindows = props.getProperty(Constants.FRAMEWORK_OS_NAME).startsWith("Windows");
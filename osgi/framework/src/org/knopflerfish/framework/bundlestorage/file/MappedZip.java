@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2026, KNOPFLERFISH project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials
+ *   provided with the distribution.
+ *
+ * - Neither the name of the KNOPFLERFISH project nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.knopflerfish.framework.bundlestorage.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read only view of a zip file held in a memory mapped, or in memory,
+ * buffer. The central directory is parsed once when the object is
+ * created and kept as an index from entry name to entry data, and
+ * from directory to directory content. Entries that are stored
+ * without compression are served as slices of the buffer, nested zip
+ * files that are stored can thus be read without copying any data.
+ * <p>
+ * ZIP64 archives are not supported, in that case an
+ * {@link IOException} is thrown and the caller should use
+ * {@link java.util.zip.ZipFile} instead.
+ */
+class MappedZip {
+
+  private static final int LOC_SIG = 0x04034b50;
+  private static final int CEN_SIG = 0x02014b50;
+  private static final int END_SIG = 0x06054b50;
+  private static final int LOC_HDR = 30;
+  private static final int CEN_HDR = 46;
+  private static final int END_HDR = 22;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  /**
+   * A zip entry.
+   */
+  static class Entry {
+    final String name;
+    final int method;
+    final int csize;
+    final int size;
+    final int offset;
+
+    Entry(String name, int method, int csize, int size, int offset) {
+      this.name = name;
+      this.method = method;
+      this.csize = csize;
+      this.size = size;
+      this.offset = offset;
+    }
+
+    boolean isDirectory() {
+      return name.endsWith("/");
+    }
+  }
+
+  /**
+   * The zip file content, little endian. Only accessed with absolute
+   * get methods or through duplicates so that it can be shared
+   * between threads.
+   */
+  private final ByteBuffer buf;
+
+  /**
+   * Map from entry name to entry.
+   */
+  private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * Map from directory name, ending with "/" or "" for the top
+   * directory, to the names of its direct children. Names of sub
+   * directories end with "/". Contains directories that only are
+   * implied by entry names.
+   */
+  private final HashMap<String, Set<String>> dirs = new HashMap<String, Set<String>>();
+
+
+  /**
+   * Map a zip file into memory and index it.
+   *
+   * @param file The zip file.
+   * @throws IOException If the file could not be mapped or is not a
+   *                     supported zip file.
+   */
+  static MappedZip open(File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel fc = raf.getChannel();
+      final long len = fc.size();
+      if (len > Integer.MAX_VALUE) {
+        throw new IOException("Zip file too large to map: " + file);
+      }
+      return new MappedZip(fc.map(FileChannel.MapMode.READ_ONLY, 0, len));
+    } finally {
+      // The mapping stays valid after the channel has been closed.
+      raf.close();
+    }
+  }
+
+
+  /**
+   * Index a zip file held in a buffer.
+   *
+   * @param buffer Buffer with the zip file content.
+   * @throws IOException If the buffer doesn't contain a supported zip file.
+   */
+  MappedZip(ByteBuffer buffer) throws IOException {
+    buf = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    dirs.put("", new HashSet<String>());
+    final int end = findEnd();
+    final int count = u16(end + 10);
+    final long cenSize = u32(end + 12);
+    final long cenOffset = u32(end + 16);
+    if (count == 0xffff || cenSize == 0xffffffffL || cenOffset == 0xffffffffL) {
+      throw new IOException("ZIP64 not supported");
+    }
+    int pos = (int) cenOffset;
+    for (int i = 0; i < count; i++) {
+      if (pos + CEN_HDR > buf.limit() || buf.getInt(pos) != CEN_SIG) {
+        throw new IOException("Bad central directory entry");
+      }
+      final int method = u16(pos + 10);
+      final long csize = u32(pos + 20);
+      final long size = u32(pos + 24);
+      final int nlen = u16(pos + 28);
+      final int elen = u16(pos + 30);
+      final int clen = u16(pos + 32);
+      final long loc = u32(pos + 42);
+      if (csize == 0xffffffffL || size == 0xffffffffL || loc == 0xffffffffL) {
+        throw new IOException("ZIP64 not supported");
+      }
+      final String name = getString(pos + CEN_HDR, nlen);
+      if (loc + LOC_HDR > buf.limit() || buf.getInt((int) loc) != LOC_SIG) {
+        throw new IOException("Bad local header for " + name);
+      }
+      final int offset = (int) loc + LOC_HDR
+        + u16((int) loc + 26) + u16((int) loc + 28);
+      if (offset + csize > buf.limit()) {
+        throw new IOException("Truncated entry " + name);
+      }
+      if (!entries.containsKey(name)) {
+        entries.put(name, new Entry(name, method, (int) csize, (int) size, offset));
+        addToDirs(name);
+      }
+      pos += CEN_HDR + nlen + elen + clen;
+    }
+  }
+
+
+  /**
+   * Get an entry.
+   *
+   * @param name Name of entry.
+   * @return The entry or <code>null</code> if not found.
+   */
+  Entry getEntry(String name) {
+    return entries.get(name);
+  }
+
+
+  /**
+   * Check if a directory exists, either as an entry or implied by
+   * the names of other entries.
+   *
+   * @param name Directory name ending with "/", or "" for the top directory.
+   */
+  boolean isDirectory(String name) {
+    return dirs.containsKey(name);
+  }
+
+
+  /**
+   * Get the names of the direct children of a directory.
+   *
+   * @param name Directory name ending with "/", or "" for the top directory.
+   * @return Unmodifiable set of names, names of directories end
+   *         with "/", or <code>null</code> if no such directory.
+   */
+  Set<String> listDir(String name) {
+    final Set<String> res = dirs.get(name);
+    return res != null ? Collections.unmodifiableSet(res) : null;
+  }
+
+
+  /**
+   * Size of the zip file.
+   */
+  int size() {
+    return buf.limit();
+  }
+
+
+  /**
+   * Get the content of an entry as a new byte array.
+   *
+   * @param e The entry.
+   * @return The uncompressed content.
+   * @throws IOException If the entry can not be uncompressed.
+   */
+  byte[] getBytes(Entry e) throws IOException {
+    final byte[] res = new byte[e.size];
+    if (e.method == STORED) {
+      final ByteBuffer b = buf.duplicate();
+      b.position(e.offset);
+      b.get(res);
+    } else {
+      final InputStream is = getInputStream(e);
+      try {
+        int pos = 0;
+        while (pos < res.length) {
+          final int n = is.read(res, pos, res.length - pos);
+          if (n < 0) {
+            throw new EOFException("Unexpected end of entry " + e.name);
+          }
+          pos += n;
+        }
+      } finally {
+        is.close();
+      }
+    }
+    return res;
+  }
+
+
+  /**
+   * Get an input stream reading the uncompressed content of an entry.
+   *
+   * @param e The entry.
+   * @return Stream of uncompressed data.
+   * @throws IOException If the compression method is not supported.
+   */
+  InputStream getInputStream(Entry e) throws IOException {
+    if (e.method == STORED) {
+      return new BufferInputStream(slice(e.offset, e.size), false);
+    } else if (e.method == DEFLATED) {
+      // Inflater in nowrap mode may need an extra dummy byte
+      return new InflaterInputStream(new BufferInputStream(slice(e.offset, e.csize), true),
+                                     new Inflater(true), 8192) {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          inf.end();
+        }
+      };
+    }
+    throw new IOException("Unsupported compression method " + e.method
+                          + " for " + e.name);
+  }
+
+
+  /**
+   * Get an input stream reading the complete zip file.
+   */
+  InputStream getInputStream() {
+    return new BufferInputStream(slice(0, buf.limit()), false);
+  }
+
+
+  /**
+   * Get a nested zip file. If the entry is stored the nested zip file
+   * is a view of this buffer, otherwise it is uncompressed into memory.
+   *
+   * @param name Name of entry holding the nested zip file.
+   * @return The nested zip file.
+   * @throws IOException If no such entry or not a supported zip file.
+   */
+  MappedZip getNested(String name) throws IOException {
+    final Entry e = entries.get(name);
+    if (e == null) {
+      throw new IOException("No such JAR component: " + name);
+    }
+    if (e.method == STORED) {
+      return new MappedZip(slice(e.offset, e.size));
+    } else {
+      return new MappedZip(ByteBuffer.wrap(getBytes(e)));
+    }
+  }
+
+
+  //
+  // Private methods
+  //
+
+  private ByteBuffer slice(int offset, int len) {
+    final ByteBuffer b = buf.duplicate();
+    b.position(offset);
+    b.limit(offset + len);
+    return b.slice();
+  }
+
+
+  private int u16(int pos) {
+    return buf.getShort(pos) & 0xffff;
+  }
+
+
+  private long u32(int pos) {
+    return buf.getInt(pos) & 0xffffffffL;
+  }
+
+
+  private String getString(int pos, int len) throws IOException {
+    final byte[] b = new byte[len];
+    final ByteBuffer d = buf.duplicate();
+    d.position(pos);
+    d.get(b);
+    // Use UTF-8 also when the flag isn't set, as ZipFile does by default
+    return new String(b, "UTF-8");
+  }
+
+
+  /**
+   * Find the end of central directory record, it may be followed by
+   * a comment of at most 64k.
+   */
+  private int findEnd() throws IOException {
+    final int min = Math.max(0, buf.limit() - END_HDR - 0xffff);
+    for (int pos = buf.limit() - END_HDR; pos >= min; pos--) {
+      if (buf.getInt(pos) == END_SIG
+          && pos + END_HDR + u16(pos + 20) == buf.limit()) {
+        return pos;
+      }
+    }
+    throw new IOException("Not a zip file, no end of central directory found");
+  }
+
+
+  /**
+   * Add an entry name, and all its parent directories, to the
+   * directory index.
+   */
+  private void addToDirs(String name) {
+    int start = 0;
+    int i;
+    String dir = "";
+    while ((i = name.indexOf('/', start)) != -1) {
+      final String child = name.substring(start, i + 1);
+      dirs.get(dir).add(child);
+      dir = name.substring(0, i + 1);
+      if (!dirs.containsKey(dir)) {
+        dirs.put(dir, new HashSet<String>());
+      }
+      start = i + 1;
+    }
+    if (start < name.length()) {
+      dirs.get(dir).add(name.substring(start));
+    }
+  }
+
+
+  /**
+   * Input stream reading from a byte buffer.
+   */
+  private static class BufferInputStream extends InputStream {
+    private final ByteBuffer b;
+    private boolean dummy;
+
+    /**
+     * @param b The buffer to read.
+     * @param dummy If true, add a zero byte at the end.
+     */
+    BufferInputStream(ByteBuffer b, boolean dummy) {
+      this.b = b;
+      this.dummy = dummy;
+    }
+
+    @Override
+    public int read() {
+      if (b.hasRemaining()) {
+        return b.get() & 0xff;
+      } else if (dummy) {
+        dummy = false;
+        return 0;
+      }
+      return -1;
+    }
+
+    @Override
+    public int read(byte[] dest, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!b.hasRemaining()) {
+        if (dummy) {
+          dummy = false;
+          dest[off] = 0;
+          return 1;
+        }
+        return -1;
+      }
+      final int n = Math.min(len, b.remaining());
+      b.get(dest, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      final int s = (int) Math.min(n, b.remaining());
+      b.position(b.position() + s);
+      return s;
+    }
+
+    @Override
+    public int available() {
+      return b.remaining();
+    }
+  }
+
+}
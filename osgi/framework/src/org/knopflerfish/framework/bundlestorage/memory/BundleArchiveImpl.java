@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
@@ -298,6 +299,21 @@ class BundleArchiveImpl implements BundleArchive {
   }
 
 
+  /**
+   * No persistent storage, so no saved wiring.
+   */
+  public Map<String, Long> getSavedPackageWiring(String bundleSetKey) {
+    return null;
+  }
+
+
+  /**
+   * No persistent storage, ignore.
+   */
+  public void savePackageWiring(String bundleSetKey, Map<String, Long> wiring) {
+  }
+
+
   /**
    * Remove bundle archive from persistent storage. If we removed the active
    * revision also remove bundle status files.